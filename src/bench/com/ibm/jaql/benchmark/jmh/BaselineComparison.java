@@ -0,0 +1,146 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+
+/**
+ * Compares JMH results (written with <code>-rf json</code>) against a stored baseline in the same
+ * format. For every benchmark and parameter combination that occurs in both files, the score and,
+ * when the GC profiler was used, the normalized allocation rate are printed together with the 
+ * relative change. The program exits with status 1 if any benchmark got slower, or allocates more,
+ * by more than the threshold.
+ * 
+ * Usage: BaselineComparison &lt;results.json&gt; &lt;baseline.json&gt; [threshold percent, default 10]
+ * 
+ * No baseline is committed, because the numbers are only comparable on the machine and JVM they
+ * were measured on. Record one before the change under test with
+ * <code>ant -f bench_jmh.xml -Djmh.lib=... run baseline</code>, which stores the results of the
+ * run as <code>src/bench/jmh/baseline.json</code>; then run 
+ * <code>ant -f bench_jmh.xml -Djmh.lib=... run compare</code> with the change applied.
+ */
+public class BaselineComparison {
+  private static final JsonString BENCHMARK = new JsonString("benchmark");
+  private static final JsonString MODE = new JsonString("mode");
+  private static final JsonString PARAMS = new JsonString("params");
+  private static final JsonString PRIMARY_METRIC = new JsonString("primaryMetric");
+  private static final JsonString SECONDARY_METRICS = new JsonString("secondaryMetrics");
+  private static final JsonString SCORE = new JsonString("score");
+  private static final JsonString SCORE_UNIT = new JsonString("scoreUnit");
+  private static final JsonString ALLOC = new JsonString("\u00b7gc.alloc.rate.norm");
+  
+  /** Score and allocation of one benchmark run. */
+  static class Result {
+    double score;
+    String unit;
+    boolean higherIsBetter;
+    double alloc = Double.NaN; // bytes per operation
+  }
+  
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: BaselineComparison <results.json> <baseline.json> [threshold%]");
+      System.exit(2);
+    }
+    if (!new File(args[1]).exists()) {
+      System.err.println("no baseline " + args[1] + "; record one with \"ant -f bench_jmh.xml run baseline\"");
+      System.exit(2);
+    }
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+    Map<String, Result> results = read(args[0]);
+    Map<String, Result> baseline = read(args[1]);
+    
+    int regressions = 0;
+    for (Entry<String, Result> e : results.entrySet()) {
+      Result r = e.getValue();
+      Result b = baseline.get(e.getKey());
+      if (b == null) {
+        System.out.println(String.format("%-70s %12.3f %-8s (no baseline)", e.getKey(), r.score, r.unit));
+        continue;
+      }
+      double change = (r.score - b.score) / b.score;
+      boolean slower = r.higherIsBetter ? change < -threshold : change > threshold;
+      String line = String.format("%-70s %12.3f %-8s %+7.1f%%", e.getKey(), r.score, r.unit, 100 * change);
+      boolean moreAlloc = false;
+      if (!Double.isNaN(r.alloc) && !Double.isNaN(b.alloc)) {
+        double allocChange = b.alloc == 0 ? (r.alloc == 0 ? 0 : 1) : (r.alloc - b.alloc) / b.alloc;
+        moreAlloc = allocChange > threshold && r.alloc - b.alloc >= 1;
+        line += String.format("  %10.1f B/op %+7.1f%%", r.alloc, 100 * allocChange);
+      }
+      if (slower || moreAlloc) {
+        line += "  REGRESSION";
+        regressions++;
+      }
+      System.out.println(line);
+    }
+    for (String name : baseline.keySet()) {
+      if (!results.containsKey(name)) {
+        System.out.println(String.format("%-70s (not run)", name));
+      }
+    }
+    System.out.println(regressions + " regression(s) above " + (100 * threshold) + "%");
+    System.exit(regressions > 0 ? 1 : 0);
+  }
+  
+  /** Reads a JMH result file and returns its results keyed by benchmark name and parameters. */
+  static Map<String, Result> read(String fileName) throws Exception {
+    Reader reader = new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+    JsonValue value;
+    try {
+      value = new JsonParser(reader).TopVal();
+    } finally {
+      reader.close();
+    }
+    Map<String, Result> results = new TreeMap<String, Result>();
+    for (JsonValue v : (JsonArray)value) {
+      JsonRecord run = (JsonRecord)v;
+      StringBuilder name = new StringBuilder(run.get(BENCHMARK).toString());
+      JsonRecord params = (JsonRecord)run.get(PARAMS);
+      if (params != null) {
+        String sep = ":";
+        for (Entry<JsonString, JsonValue> p : asMap(params).entrySet()) {
+          name.append(sep).append(p.getKey()).append('=').append(p.getValue());
+          sep = ",";
+        }
+      }
+      JsonRecord primary = (JsonRecord)run.get(PRIMARY_METRIC);
+      Result r = new Result();
+      r.score = number(primary.get(SCORE));
+      r.unit = primary.get(SCORE_UNIT).toString();
+      r.higherIsBetter = "thrpt".equals(run.get(MODE).toString());
+      JsonRecord secondary = (JsonRecord)run.get(SECONDARY_METRICS);
+      if (secondary != null && secondary.get(ALLOC) != null) {
+        r.alloc = number(((JsonRecord)secondary.get(ALLOC)).get(SCORE));
+      }
+      results.put(name.toString(), r);
+    }
+    return results;
+  }
+  
+  private static Map<JsonString, JsonValue> asMap(JsonRecord rec) {
+    Map<JsonString, JsonValue> map = new TreeMap<JsonString, JsonValue>();
+    for (Entry<JsonString, JsonValue> e : rec) {
+      map.put(e.getKey(), e.getValue());
+    }
+    return map;
+  }
+  
+  /** JMH writes NaN and infinite scores as strings. */
+  private static double number(JsonValue v) {
+    if (v instanceof JsonNumber) {
+      return ((JsonNumber)v).doubleValue();
+    }
+    return v == null ? Double.NaN : Double.parseDouble(v.toString());
+  }
+}
@@ -0,0 +1,73 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.ibm.jaql.benchmark.programs.data.Person;
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.schema.Schema;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+
+/**
+ * Deterministic input data shared by the JMH benchmarks. The records have the layout of 
+ * {@link Person}, which is also used by the <code>Project</code> and <code>JoinPersonMap</code>
+ * benchmarks of {@link com.ibm.jaql.benchmark.RunBenchmarks}.
+ */
+public class BenchmarkData {
+  public static final JsonString FORENAME = new JsonString("forename");
+  public static final JsonString LASTNAME = new JsonString("lastname");
+  public static final JsonString ID = new JsonString("id");
+  
+  private static final String[] FORENAMES = { "Hans", "Michael", "Simon", "Adam", "Julia",
+    "Maria", "Peter", "Anna", "Thomas", "Sabine" };
+  private static final String[] LASTNAMES = { "Richter", "McKeever", "Zaiser", "Apfel", "Langer",
+    "Meier", "Schmidt", "Fischer", "Weber", "Wagner" };
+  
+  /** Returns <code>n</code> person records. The same seed always produces the same records. */
+  public static JsonValue[] persons(int n, long seed) {
+    Random random = new Random(seed);
+    JsonValue[] result = new JsonValue[n];
+    for (int i = 0; i < n; i++) {
+      BufferedJsonRecord rec = new BufferedJsonRecord(3);
+      rec.add(FORENAME, new JsonString(FORENAMES[random.nextInt(FORENAMES.length)]));
+      rec.add(LASTNAME, new JsonString(LASTNAMES[random.nextInt(LASTNAMES.length)] 
+                                       + random.nextInt(1000)));
+      rec.add(ID, new JsonLong(i));
+      result[i] = rec;
+    }
+    return result;
+  }
+  
+  /** Returns the schema of the records produced by {@link #persons(int, long)}. */
+  public static Schema personSchema() {
+    return new Person().getSchema();
+  }
+  
+  /** Serializes the given values one after another. */
+  public static byte[] serialize(BinaryFullSerializer serializer, JsonValue[] values) {
+    try {
+      DataOutputBuffer out = new DataOutputBuffer();
+      for (JsonValue v : values) {
+        serializer.write(out, v);
+      }
+      byte[] result = new byte[out.getLength()];
+      System.arraycopy(out.getData(), 0, result, 0, result.length);
+      return result;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  /** Returns the JSON text of each of the given values. */
+  public static String[] toJsonText(JsonValue[] values) {
+    String[] result = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i].toString();
+    }
+    return result;
+  }
+}
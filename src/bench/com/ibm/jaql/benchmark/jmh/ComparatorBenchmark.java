@@ -0,0 +1,78 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.sortable.SortableBinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.DefaultJsonComparator;
+
+/** 
+ * Compares serialized map output keys the way the sort phase does: with the 
+ * {@link DefaultJsonComparator}, which deserializes both keys, or bytewise on the sortable 
+ * encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ComparatorBenchmark {
+  public static final int KEYS = 1024;
+  
+  @Param({ "default", "sortable" })
+  public String encoding;
+  
+  @Param({ "string", "record" })
+  public String key;
+  
+  private DefaultJsonComparator comparator;
+  private byte[] bytes;
+  private int[] offsets; // KEYS + 1 entries
+  
+  @Setup
+  public void setup() throws Exception {
+    BinaryFullSerializer serializer = "sortable".equals(encoding) 
+      ? new SortableBinaryFullSerializer()
+      : BinaryFullSerializer.getDefault();
+    JsonValue[] records = BenchmarkData.persons(KEYS, 42);
+    DataOutputBuffer out = new DataOutputBuffer();
+    offsets = new int[KEYS + 1];
+    for (int i = 0; i < KEYS; i++) {
+      JsonValue v = "string".equals(key) 
+        ? ((JsonRecord)records[i]).get(BenchmarkData.LASTNAME) 
+        : records[i];
+      serializer.write(out, v);
+      offsets[i + 1] = out.getLength();
+    }
+    bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    comparator = new DefaultJsonComparator();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(KEYS - 1)
+  public int compareAdjacent() {
+    boolean bytewise = "sortable".equals(encoding);
+    int sum = 0;
+    for (int i = 0; i < KEYS - 1; i++) {
+      int s1 = offsets[i], l1 = offsets[i + 1] - s1;
+      int s2 = offsets[i + 1], l2 = offsets[i + 2] - s2;
+      sum += bytewise 
+        ? WritableComparator.compareBytes(bytes, s1, l1, bytes, s2, l2)
+        : comparator.compare(bytes, s1, l1, bytes, s2, l2);
+    }
+    return sum;
+  }
+}
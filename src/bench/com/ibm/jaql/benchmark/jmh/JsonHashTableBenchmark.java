@@ -0,0 +1,58 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.util.JsonHashTable;
+
+/** 
+ * Groups person records by last name in a {@link JsonHashTable}, as group by and join do, and 
+ * iterates over the groups. The memory limit is either large enough to hold all records or small
+ * enough to force spilling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonHashTableBenchmark {
+  public static final int RECORDS = 16 * 1024;
+  
+  @Param({ "67108864", "65536" })
+  public long memoryLimit;
+  
+  private JsonValue[] records;
+  
+  @Setup
+  public void setup() {
+    records = BenchmarkData.persons(RECORDS, 42);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void groupBy(Blackhole bh) throws Exception {
+    JsonHashTable table = new JsonHashTable(1, memoryLimit);
+    for (JsonValue v : records) {
+      table.add(0, ((JsonRecord)v).get(BenchmarkData.LASTNAME), v);
+    }
+    JsonHashTable.Iterator iter = table.iter();
+    while (iter.next()) {
+      bh.consume(iter.key());
+      for (JsonValue v : (JsonArray)iter.values(0)) {
+        bh.consume(v);
+      }
+    }
+    table.reset();
+  }
+}
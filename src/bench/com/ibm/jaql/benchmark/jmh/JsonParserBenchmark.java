@@ -0,0 +1,40 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.jaql.json.parser.JsonParser;
+
+/** Parses one line of JSON text per record, as the JSON text input formats do. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonParserBenchmark {
+  public static final int RECORDS = 1024;
+  
+  private String[] lines;
+  private JsonParser parser;
+  
+  @Setup
+  public void setup() {
+    lines = BenchmarkData.toJsonText(BenchmarkData.persons(RECORDS, 42));
+    parser = new JsonParser();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void parse(Blackhole bh) throws Exception {
+    for (String line : lines) {
+      bh.consume(parser.parse(line));
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.VarExpr;
+import com.ibm.jaql.lang.expr.path.PathExpr;
+import com.ibm.jaql.lang.expr.path.PathFieldValue;
+import com.ibm.jaql.lang.expr.path.PathOneField;
+import com.ibm.jaql.lang.expr.path.PathRecord;
+import com.ibm.jaql.lang.expr.path.PathStep;
+
+/** Evaluates the path expressions <code>$.lastname</code> and <code>${.lastname, .id}</code>. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathBenchmark {
+  public static final int RECORDS = 1024;
+  
+  private JsonValue[] records;
+  private Context context;
+  private Var var;
+  private Expr field;
+  private Expr project;
+  
+  @Setup
+  public void setup() {
+    records = BenchmarkData.persons(RECORDS, 42);
+    context = new Context();
+    var = new Var("$");
+    field = PathFieldValue.byName(var, "lastname");
+    ArrayList<PathStep> fields = new ArrayList<PathStep>();
+    fields.add(new PathOneField(new ConstExpr(BenchmarkData.LASTNAME)));
+    fields.add(new PathOneField(new ConstExpr(BenchmarkData.ID)));
+    project = new PathExpr(new VarExpr(var), new PathRecord(fields));
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void fieldValue(Blackhole bh) throws Exception {
+    for (JsonValue v : records) {
+      var.setValue(v);
+      bh.consume(field.eval(context));
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void projection(Blackhole bh) throws Exception {
+    for (JsonValue v : records) {
+      var.setValue(v);
+      bh.consume(project.eval(context));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.jaql.benchmark.JsonBenchmarkProgramSingleInput;
+import com.ibm.jaql.benchmark.programs.JsonJoinPersonMap;
+import com.ibm.jaql.benchmark.programs.JsonProject;
+import com.ibm.jaql.json.type.JsonValue;
+
+/** 
+ * Runs the per-record logic of the hand-written {@link JsonProject} and 
+ * {@link JsonJoinPersonMap} programs, without the input and output drivers of
+ * {@link com.ibm.jaql.benchmark.RunBenchmarks}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgramBenchmark {
+  public static final int RECORDS = 1024;
+  
+  private JsonValue[] records;
+  private JsonBenchmarkProgramSingleInput project;
+  private JsonBenchmarkProgramSingleInput joinPersonMap;
+  
+  @Setup
+  public void setup() {
+    records = BenchmarkData.persons(RECORDS, 42);
+    project = new JsonProject();
+    joinPersonMap = new JsonJoinPersonMap();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void jsonProject(Blackhole bh) {
+    for (JsonValue v : records) {
+      bh.consume(project.nextResult(v));
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void jsonJoinPersonMap(Blackhole bh) {
+    for (JsonValue v : records) {
+      bh.consume(joinPersonMap.nextResult(v));
+    }
+  }
+}
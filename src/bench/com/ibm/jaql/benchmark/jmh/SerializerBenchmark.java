@@ -0,0 +1,69 @@
+package com.ibm.jaql.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonValue;
+
+/** Reads and writes person records with the default and the schema-aware temp serializer. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializerBenchmark {
+  public static final int RECORDS = 1024;
+  
+  @Param({ "default", "temp" })
+  public String serializer;
+  
+  private BinaryFullSerializer fullSerializer;
+  private JsonValue[] records;
+  private byte[] serialized;
+  private DataOutputBuffer out;
+  private DataInputBuffer in;
+  private JsonValue target;
+  
+  @Setup
+  public void setup() {
+    fullSerializer = "temp".equals(serializer) 
+      ? new TempBinaryFullSerializer(BenchmarkData.personSchema())
+      : BinaryFullSerializer.getDefault();
+    records = BenchmarkData.persons(RECORDS, 42);
+    serialized = BenchmarkData.serialize(fullSerializer, records);
+    out = new DataOutputBuffer();
+    in = new DataInputBuffer();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public int write() throws Exception {
+    out.reset();
+    for (JsonValue v : records) {
+      fullSerializer.write(out, v);
+    }
+    return out.getLength();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void read(Blackhole bh) throws Exception {
+    in.reset(serialized, serialized.length);
+    for (int i = 0; i < RECORDS; i++) {
+      target = fullSerializer.read(in, target);
+      bh.consume(target);
+    }
+  }
+}
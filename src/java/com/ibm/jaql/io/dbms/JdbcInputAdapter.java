@@ -18,19 +18,32 @@ package com.ibm.jaql.io.dbms;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.ibm.jaql.io.AbstractInputAdapter;
 import com.ibm.jaql.io.ClosableJsonIterator;
+import com.ibm.jaql.io.hadoop.JdbcInputFormat;
+import com.ibm.jaql.io.hadoop.JdbcInputFormat.JdbcSplit;
 import com.ibm.jaql.json.schema.ArraySchema;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.type.MutableJsonBinary;
 import com.ibm.jaql.json.type.MutableJsonDate;
@@ -42,10 +55,34 @@ import com.ibm.jaql.json.type.MutableJsonString;
  * An input adapter that wraps a JDBC connection. Usage: read({location:
  * '[connection url]' inoptions: {adapter:
  * 'com.ibm.jaql.lang.JDBCInputAdapter', driver: '...', query: '...'}});
+ *
+ * Optional input options:
+ * <ul>
+ * <li><code>fetchSize</code>: the number of rows fetched per round-trip (default 1000).</li>
+ * <li><code>split: {strategy, column, count, points, sample}</code>: partitions the rows on a
+ * column as described in {@link JdbcInputFormat}; the partitions are read concurrently, each
+ * with its own connection, and their rows are interleaved.</li>
+ * <li><code>threads</code>: the number of partitions read at a time (default: all).</li>
+ * </ul>
  */
 public class JdbcInputAdapter extends AbstractInputAdapter
 {
+  public static final JsonString DRIVER_NAME = new JsonString("driver");
+  public static final JsonString QUERY_NAME = new JsonString("query");
+  public static final JsonString FETCH_SIZE_NAME = new JsonString("fetchSize");
+  public static final JsonString SPLIT_NAME = new JsonString("split");
+  public static final JsonString THREADS_NAME = new JsonString("threads");
+  public static final JsonString STRATEGY_NAME = new JsonString("strategy");
+  public static final JsonString COLUMN_NAME = new JsonString("column");
+  public static final JsonString COUNT_NAME = new JsonString("count");
+  public static final JsonString POINTS_NAME = new JsonString("points");
+  public static final JsonString SAMPLE_NAME = new JsonString("sample");
+
+  /** The number of rows buffered per partition when reading partitions concurrently */
+  protected static final int ROWS_PER_PARTITION = 1024;
+
   private Connection conn;
+  private ExecutorService pool;
 
   /*
    * (non-Javadoc)
@@ -56,7 +93,7 @@ public class JdbcInputAdapter extends AbstractInputAdapter
   public void open() throws Exception
   {
 
-    String driver = ((JsonString) options.get(new JsonString("driver"))).toString();
+    String driver = ((JsonString) options.get(DRIVER_NAME)).toString();
     String url = location;
 
     String s = driver.toString();
@@ -86,6 +123,11 @@ public class JdbcInputAdapter extends AbstractInputAdapter
   @Override
   public void close() throws Exception
   {
+    if (pool != null)
+    {
+      pool.shutdownNow();
+      pool = null;
+    }
     conn.close();
   }
 
@@ -96,64 +138,31 @@ public class JdbcInputAdapter extends AbstractInputAdapter
    */
   public ClosableJsonIterator iter() throws Exception
   {
-    Statement stmt = conn.createStatement();
-
-    String query = ((JsonString) options.get(new JsonString("query"))).toString();
-    final ResultSet rs = stmt.executeQuery(query);
-    final ResultSetMetaData meta = rs.getMetaData();
+    String query = ((JsonString) options.get(QUERY_NAME)).toString();
+    int fetchSize = intOption(options, FETCH_SIZE_NAME, JdbcInputFormat.DEFAULT_FETCH_SIZE);
 
-    final int ncols = meta.getColumnCount();
-    final BufferedJsonRecord rec = new BufferedJsonRecord(ncols);
-    final JsonValue[] writables = new JsonValue[ncols];
-    for (int i = 0; i < ncols; i++)
+    JsonRecord split = (JsonRecord) options.get(SPLIT_NAME);
+    if (split != null)
     {
-      switch (meta.getColumnType(i + 1))
-      {
-        case Types.BIGINT :
-        case Types.INTEGER :
-        case Types.TINYINT :
-        case Types.SMALLINT :
-          writables[i] = new MutableJsonLong();
-          break;
-        case Types.DECIMAL :
-        case Types.DOUBLE :
-        case Types.FLOAT :
-          writables[i] = new MutableJsonDecimal();
-          break;
-        case Types.CHAR :
-        case Types.VARCHAR :
-        case Types.OTHER : // TODO: Types.XML, when jdbc gets there...
-          writables[i] = new MutableJsonString();
-          break;
-        case Types.DATE :
-        case Types.TIME :
-        case Types.TIMESTAMP :
-          writables[i] = new MutableJsonDate();
-          break;
-        case Types.BINARY :
-          writables[i] = new MutableJsonBinary();
-          break;
-        default :
-          throw new RuntimeException("Unsupported column type: "
-              + meta.getColumnTypeName(i + 1));
-      }
-      String name = meta.getColumnName(i + 1);
-      boolean convert = true;
-      for (int j = 0; j < name.length(); j++)
-      {
-        if (Character.isLowerCase(name.charAt(j)))
-        {
-          convert = false;
-        }
-      }
-      if (convert)
+      int count = intOption(split, COUNT_NAME, 1);
+      JsonString strategy = (JsonString) split.get(STRATEGY_NAME);
+      JsonString column = (JsonString) split.get(COLUMN_NAME);
+      ArrayList<JdbcSplit> splits = JdbcInputFormat.computeSplits(conn, query,
+          JdbcInputFormat.Strategy.parse(strategy == null ? null : strategy.toString()),
+          column == null ? null : column.toString(), count, (JsonArray) split.get(POINTS_NAME),
+          intOption(split, SAMPLE_NAME, JdbcInputFormat.DEFAULT_SAMPLE_SIZE), fetchSize);
+      if (splits.size() > 1)
       {
-        name = name.toLowerCase();
+        return parallelIter(splits, fetchSize);
       }
-      rec.add(new JsonString(name), writables[i]);
     }
 
-    return new ClosableJsonIterator(rec) {
+    Statement stmt = conn.createStatement();
+    stmt.setFetchSize(fetchSize);
+    final ResultSet rs = stmt.executeQuery(query);
+    final RowConverter row = new RowConverter(rs.getMetaData());
+
+    return new ClosableJsonIterator(row.rec) {
       /*
        * (non-Javadoc)
        * 
@@ -170,51 +179,7 @@ public class JdbcInputAdapter extends AbstractInputAdapter
               rs.close();
               return false;
             }
-
-            for (int i = 0; i < ncols; i++)
-            {
-              switch (meta.getColumnType(i + 1))
-              {
-                case Types.BIGINT :
-                case Types.INTEGER :
-                case Types.TINYINT :
-                case Types.SMALLINT :
-                  ((MutableJsonLong) writables[i]).set(rs.getLong(i + 1));
-                  break;
-                case Types.DECIMAL :
-                case Types.DOUBLE :
-                case Types.FLOAT :
-                  ((MutableJsonDecimal) writables[i]).set(rs.getBigDecimal(i + 1));
-                  break;
-                case Types.CHAR :
-                case Types.VARCHAR :
-                  String s = rs.getString(i + 1);
-                  if (s != null)
-                  {
-                    ((MutableJsonString) writables[i]).setCopy(s);
-                  }
-                  break;
-                case Types.DATE :
-                  // TODO: all these need null handling...
-                  ((MutableJsonDate) writables[i]).set(rs.getDate(i + 1).getTime());
-                  break;
-                case Types.TIME :
-                  ((MutableJsonDate) writables[i]).set(rs.getTime(i + 1).getTime());
-                  break;
-                case Types.TIMESTAMP :
-                  ((MutableJsonDate) writables[i]).set(rs.getTimestamp(i + 1).getTime());
-                  break;
-                case Types.BINARY :
-                  ((MutableJsonBinary) writables[i]).set(rs.getBytes(i + 1));
-                  break;
-                default :
-                  throw new RuntimeException("Unsupported column type: "
-                      + meta.getColumnTypeName(i + 1));
-              } // end switch
-
-              rec.set(i, rs.wasNull() ? null : writables[i]);
-
-            } // end for each column
+            row.convert(rs);
             return true; // currentValue == rec
           }
           catch (SQLException se)
@@ -226,6 +191,236 @@ public class JdbcInputAdapter extends AbstractInputAdapter
     };
   }
 
+  /**
+   * Reads the splits on a thread pool, each with its own connection, and returns their rows as
+   * they arrive.
+   */
+  protected ClosableJsonIterator parallelIter(final ArrayList<JdbcSplit> splits,
+      final int fetchSize) throws Exception
+  {
+    int threads = Math.min(intOption(options, THREADS_NAME, splits.size()), splits.size());
+    final BlockingQueue<Object> queue =
+      new ArrayBlockingQueue<Object>(ROWS_PER_PARTITION * Math.max(threads, 1));
+    final Object endOfSplit = new Object();
+    final String url = location;
+    pool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "jdbc reader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    for (final JdbcSplit split : splits)
+    {
+      pool.execute(new Runnable() {
+        public void run()
+        {
+          Object result = endOfSplit;
+          try
+          {
+            Connection c = DriverManager.getConnection(url);
+            try
+            {
+              PreparedStatement stmt = split.prepare(c, fetchSize);
+              ResultSet rs = stmt.executeQuery();
+              RowConverter row = new RowConverter(rs.getMetaData());
+              while (rs.next())
+              {
+                row.convert(rs);
+                queue.put(JsonUtil.getCopy(row.rec, null));
+              }
+              rs.close();
+              stmt.close();
+            }
+            finally
+            {
+              c.close();
+            }
+          }
+          catch (InterruptedException e)
+          {
+            return; // closed
+          }
+          catch (Throwable e)
+          {
+            result = e;
+          }
+          try
+          {
+            queue.put(result);
+          }
+          catch (InterruptedException e)
+          {
+            // closed
+          }
+        }
+      });
+    }
+
+    return new ClosableJsonIterator() {
+      int running = splits.size();
+
+      @Override
+      public boolean moveNext() throws IOException
+      {
+        try
+        {
+          while (running > 0)
+          {
+            Object x = queue.take();
+            if (x == endOfSplit)
+            {
+              running--;
+            }
+            else if (x instanceof Throwable)
+            {
+              throw new RuntimeException((Throwable) x);
+            }
+            else
+            {
+              currentValue = (JsonValue) x;
+              return true;
+            }
+          }
+          pool.shutdown();
+          return false;
+        }
+        catch (InterruptedException e)
+        {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+        pool.shutdownNow();
+      }
+    };
+  }
+
+  private static int intOption(JsonRecord options, JsonString name, int defaultValue)
+  {
+    JsonValue v = options.get(name);
+    return v == null ? defaultValue : (int) ((JsonLong) v).get();
+  }
+
+  /**
+   * Converts the rows of a result set into a record that is reused.
+   */
+  protected static class RowConverter
+  {
+    final ResultSetMetaData meta;
+    final int ncols;
+    final BufferedJsonRecord rec;
+    final JsonValue[] writables;
+
+    RowConverter(ResultSetMetaData meta) throws SQLException
+    {
+      this.meta = meta;
+      ncols = meta.getColumnCount();
+      rec = new BufferedJsonRecord(ncols);
+      writables = new JsonValue[ncols];
+      for (int i = 0; i < ncols; i++)
+      {
+        switch (meta.getColumnType(i + 1))
+        {
+          case Types.BIGINT :
+          case Types.INTEGER :
+          case Types.TINYINT :
+          case Types.SMALLINT :
+            writables[i] = new MutableJsonLong();
+            break;
+          case Types.DECIMAL :
+          case Types.DOUBLE :
+          case Types.FLOAT :
+            writables[i] = new MutableJsonDecimal();
+            break;
+          case Types.CHAR :
+          case Types.VARCHAR :
+          case Types.OTHER : // TODO: Types.XML, when jdbc gets there...
+            writables[i] = new MutableJsonString();
+            break;
+          case Types.DATE :
+          case Types.TIME :
+          case Types.TIMESTAMP :
+            writables[i] = new MutableJsonDate();
+            break;
+          case Types.BINARY :
+            writables[i] = new MutableJsonBinary();
+            break;
+          default :
+            throw new RuntimeException("Unsupported column type: "
+                + meta.getColumnTypeName(i + 1));
+        }
+        String name = meta.getColumnName(i + 1);
+        boolean convert = true;
+        for (int j = 0; j < name.length(); j++)
+        {
+          if (Character.isLowerCase(name.charAt(j)))
+          {
+            convert = false;
+          }
+        }
+        if (convert)
+        {
+          name = name.toLowerCase();
+        }
+        rec.add(new JsonString(name), writables[i]);
+      }
+    }
+
+    /** Sets the record to the current row of rs. */
+    void convert(ResultSet rs) throws SQLException
+    {
+      for (int i = 0; i < ncols; i++)
+      {
+        switch (meta.getColumnType(i + 1))
+        {
+          case Types.BIGINT :
+          case Types.INTEGER :
+          case Types.TINYINT :
+          case Types.SMALLINT :
+            ((MutableJsonLong) writables[i]).set(rs.getLong(i + 1));
+            break;
+          case Types.DECIMAL :
+          case Types.DOUBLE :
+          case Types.FLOAT :
+            ((MutableJsonDecimal) writables[i]).set(rs.getBigDecimal(i + 1));
+            break;
+          case Types.CHAR :
+          case Types.VARCHAR :
+            String s = rs.getString(i + 1);
+            if (s != null)
+            {
+              ((MutableJsonString) writables[i]).setCopy(s);
+            }
+            break;
+          case Types.DATE :
+            // TODO: all these need null handling...
+            ((MutableJsonDate) writables[i]).set(rs.getDate(i + 1).getTime());
+            break;
+          case Types.TIME :
+            ((MutableJsonDate) writables[i]).set(rs.getTime(i + 1).getTime());
+            break;
+          case Types.TIMESTAMP :
+            ((MutableJsonDate) writables[i]).set(rs.getTimestamp(i + 1).getTime());
+            break;
+          case Types.BINARY :
+            ((MutableJsonBinary) writables[i]).set(rs.getBytes(i + 1));
+            break;
+          default :
+            throw new RuntimeException("Unsupported column type: "
+                + meta.getColumnTypeName(i + 1));
+        } // end switch
+
+        rec.set(i, rs.wasNull() ? null : writables[i]);
+
+      } // end for each column
+    }
+  }
+
   @Override
   public Schema getSchema()
   {
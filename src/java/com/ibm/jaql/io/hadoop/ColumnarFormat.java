@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonDate;
+import com.ibm.jaql.json.type.JsonEncoding;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.MutableJsonDate;
+import com.ibm.jaql.json.type.MutableJsonLong;
+import com.ibm.jaql.util.BaseUtil;
+
+/**
+ * The file layout of the columnar storage format, which is written by
+ * {@link ColumnarOutputFormat} and read by {@link ColumnarInputFormat}.
+ *
+ * A file starts with {@link #MAGIC} and is followed by row groups. A row group holds up to
+ * <code>jaql.columnar.rowgroup.size</code> values, stored column by column: one column for each
+ * top-level field of the records in the group, and one column for the values that are not
+ * records. A row group is laid out as
+ * <pre>
+ *   int     length of the rest of the row group
+ *   vulong  number of rows
+ *   vulong  number of columns
+ *   column headers: name (null for non-records), encoding, mixed types flag, min, max,
+ *                   length of the data
+ *   column data
+ * </pre>
+ * so that a reader can find the row groups of its split, and can skip a whole row group or the
+ * columns that it does not need after reading the headers. The data of a column is a bitmap of
+ * the rows that have a value in the column, followed by these values in one of the encodings
+ * below. The statistics are the smallest and largest non-null value of the column; they are
+ * only kept when all these values have the same type (or are all numbers); otherwise the
+ * column is flagged as having mixed types.
+ */
+public class ColumnarFormat
+{
+  public static final byte[] MAGIC = { 'J', 'C', 'O', 'L', 1 };
+
+  public static final String ROW_GROUP_SIZE_NAME = "jaql.columnar.rowgroup.size";
+  public static final int    DEFAULT_ROW_GROUP_SIZE = 10000;
+
+  /** Input option: the fields to read */
+  public static final JsonString PROJECT_OPTION = new JsonString("project");
+
+  /** Input option: predicates used to skip row groups; see {@link ColumnarPredicate} */
+  public static final JsonString WHERE_OPTION = new JsonString("where");
+
+  /** each value serialized */
+  public static final byte PLAIN = 0;
+  /** dictionary of the distinct values, then the dictionary index of each value */
+  public static final byte DICTIONARY = 1;
+  /** (run length, value) pairs */
+  public static final byte RUN_LENGTH = 2;
+  /** longs: the first value, then the difference to the previous value */
+  public static final byte DELTA_LONG = 3;
+  /** dates: the first value, then the difference to the previous value in milliseconds */
+  public static final byte DELTA_DATE = 4;
+
+  protected static final DefaultBinaryFullSerializer serializer =
+      DefaultBinaryFullSerializer.getInstance();
+
+  /** Two values are the same if they are equal and have the same encoding. */
+  protected static boolean same(JsonValue x, JsonValue y)
+  {
+    if (x == null || y == null)
+    {
+      return x == y;
+    }
+    return x.getEncoding() == y.getEncoding() && JsonUtil.compare(x, y) == 0;
+  }
+
+  /** A dictionary key; see {@link ColumnarFormat#same(JsonValue, JsonValue)}. */
+  protected static final class Key
+  {
+    final JsonValue value;
+
+    Key(JsonValue value)
+    {
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return value == null ? 0 : value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      return o instanceof Key && same(value, ((Key) o).value);
+    }
+  }
+
+  /**
+   * Collects the values of one column of a row group.
+   */
+  public static class ColumnBuilder
+  {
+    protected final JsonString           name;
+    protected final ArrayList<JsonValue> values = new ArrayList<JsonValue>();
+    protected byte[]                     present;
+    protected JsonValue                  min;
+    protected JsonValue                  max;
+    protected boolean                    hasStats = true;
+
+    /**
+     * @param name the field name, or null for the values that are not records
+     * @param maxRows the number of rows of the row group
+     */
+    public ColumnBuilder(JsonString name, int maxRows)
+    {
+      this.name = name;
+      this.present = new byte[(maxRows + 7) / 8];
+    }
+
+    public JsonString name()
+    {
+      return name;
+    }
+
+    /** Adds the value of the column in the given row; the value is copied. */
+    public void add(int row, JsonValue value) throws Exception
+    {
+      present[row >> 3] |= 1 << (row & 7);
+      value = JsonUtil.getCopy(value, null);
+      values.add(value);
+      if (value == null || !hasStats)
+      {
+        return;
+      }
+      if (min == null)
+      {
+        min = max = value;
+      }
+      else if (!comparable(min, value))
+      {
+        hasStats = false;
+        min = max = null;
+      }
+      else if (JsonUtil.compare(value, min) < 0)
+      {
+        min = value;
+      }
+      else if (JsonUtil.compare(value, max) > 0)
+      {
+        max = value;
+      }
+    }
+
+    /** Chooses the encoding of the values. */
+    protected byte chooseEncoding()
+    {
+      int n = values.size();
+      if (n == 0)
+      {
+        return PLAIN;
+      }
+      int runs = 1;
+      boolean longs = true;
+      boolean dates = true;
+      for (int i = 0; i < n; i++)
+      {
+        JsonValue v = values.get(i);
+        JsonEncoding e = v == null ? null : v.getEncoding();
+        longs &= e == JsonEncoding.LONG;
+        dates &= e == JsonEncoding.DATE;
+        if (i > 0 && !same(v, values.get(i - 1)))
+        {
+          runs++;
+        }
+      }
+      if (runs * 2 <= n)
+      {
+        return RUN_LENGTH;
+      }
+      if (longs)
+      {
+        return DELTA_LONG;
+      }
+      if (dates)
+      {
+        return DELTA_DATE;
+      }
+      HashMap<Key, Integer> dict = new HashMap<Key, Integer>();
+      for (JsonValue v : values)
+      {
+        Key k = new Key(v);
+        if (!dict.containsKey(k))
+        {
+          dict.put(k, dict.size());
+          if (dict.size() * 2 > n)
+          {
+            return PLAIN;
+          }
+        }
+      }
+      return DICTIONARY;
+    }
+
+    /** Writes the header of the column, followed by its encoded data. */
+    public void write(DataOutput header, DataOutput data, int rows) throws IOException
+    {
+      DataOutputBuffer buf = new DataOutputBuffer();
+      byte encoding = chooseEncoding();
+      buf.write(present, 0, (rows + 7) / 8);
+      encode(buf, encoding);
+
+      serializer.write(header, name);
+      header.writeByte(encoding);
+      header.writeBoolean(!hasStats);
+      serializer.write(header, min);
+      serializer.write(header, max);
+      BaseUtil.writeVULong(header, buf.getLength());
+      data.write(buf.getData(), 0, buf.getLength());
+    }
+
+    protected void encode(DataOutput out, byte encoding) throws IOException
+    {
+      int n = values.size();
+      switch (encoding)
+      {
+        case PLAIN :
+          for (JsonValue v : values)
+          {
+            serializer.write(out, v);
+          }
+          break;
+        case DICTIONARY : {
+          HashMap<Key, Integer> dict = new HashMap<Key, Integer>();
+          ArrayList<JsonValue> distinct = new ArrayList<JsonValue>();
+          for (JsonValue v : values)
+          {
+            Key k = new Key(v);
+            if (!dict.containsKey(k))
+            {
+              dict.put(k, distinct.size());
+              distinct.add(v);
+            }
+          }
+          BaseUtil.writeVULong(out, distinct.size());
+          for (JsonValue v : distinct)
+          {
+            serializer.write(out, v);
+          }
+          for (JsonValue v : values)
+          {
+            BaseUtil.writeVULong(out, dict.get(new Key(v)));
+          }
+          break;
+        }
+        case RUN_LENGTH :
+          for (int i = 0; i < n;)
+          {
+            JsonValue v = values.get(i);
+            int j = i + 1;
+            while (j < n && same(v, values.get(j)))
+            {
+              j++;
+            }
+            BaseUtil.writeVULong(out, j - i);
+            serializer.write(out, v);
+            i = j;
+          }
+          break;
+        case DELTA_LONG :
+        case DELTA_DATE : {
+          long prev = 0;
+          for (JsonValue v : values)
+          {
+            long x = encoding == DELTA_LONG ? ((JsonLong) v).get() : ((JsonDate) v).get();
+            BaseUtil.writeVSLong(out, x - prev);
+            prev = x;
+          }
+          break;
+        }
+        default :
+          throw new IllegalStateException("unknown encoding " + encoding);
+      }
+    }
+  }
+
+  /** True if min/max statistics can be kept for a column with both values. */
+  protected static boolean comparable(JsonValue x, JsonValue y)
+  {
+    return x.getType() == y.getType() || (x.getType().isNumber() && y.getType().isNumber());
+  }
+
+  /**
+   * The header of a column chunk, as read from a row group.
+   */
+  public static class ColumnHeader
+  {
+    public JsonString name;
+    public byte       encoding;
+    public boolean    mixed;
+    public JsonValue  min;
+    public JsonValue  max;
+    public int        length;
+
+    public void read(DataInput in) throws IOException
+    {
+      name = (JsonString) serializer.read(in, null);
+      encoding = in.readByte();
+      mixed = in.readBoolean();
+      min = serializer.read(in, null);
+      max = serializer.read(in, null);
+      length = (int) BaseUtil.readVULong(in);
+    }
+  }
+
+  /**
+   * Decodes the data of a column chunk into one value per row; rows without a value in the
+   * column are marked as absent.
+   *
+   * @param in the data of the column
+   * @param encoding the encoding of the column
+   * @param rows the number of rows of the row group
+   * @param present receives true for each row with a value
+   * @param values receives the values
+   */
+  public static void decode(DataInput in, byte encoding, int rows, boolean[] present,
+      JsonValue[] values) throws IOException
+  {
+    byte[] bits = new byte[(rows + 7) / 8];
+    in.readFully(bits);
+    for (int r = 0; r < rows; r++)
+    {
+      present[r] = (bits[r >> 3] & (1 << (r & 7))) != 0;
+      values[r] = null;
+    }
+    switch (encoding)
+    {
+      case PLAIN :
+        for (int r = 0; r < rows; r++)
+        {
+          if (present[r])
+          {
+            values[r] = serializer.read(in, null);
+          }
+        }
+        break;
+      case DICTIONARY : {
+        JsonValue[] dict = new JsonValue[(int) BaseUtil.readVULong(in)];
+        for (int i = 0; i < dict.length; i++)
+        {
+          dict[i] = serializer.read(in, null);
+        }
+        for (int r = 0; r < rows; r++)
+        {
+          if (present[r])
+          {
+            values[r] = copy(dict[(int) BaseUtil.readVULong(in)]);
+          }
+        }
+        break;
+      }
+      case RUN_LENGTH : {
+        long run = 0;
+        JsonValue v = null;
+        for (int r = 0; r < rows; r++)
+        {
+          if (present[r])
+          {
+            if (run == 0)
+            {
+              run = BaseUtil.readVULong(in);
+              v = serializer.read(in, null);
+            }
+            values[r] = copy(v);
+            run--;
+          }
+        }
+        break;
+      }
+      case DELTA_LONG :
+      case DELTA_DATE : {
+        long x = 0;
+        for (int r = 0; r < rows; r++)
+        {
+          if (present[r])
+          {
+            x += BaseUtil.readVSLong(in);
+            values[r] = encoding == DELTA_LONG ? new MutableJsonLong(x) : new MutableJsonDate(x);
+          }
+        }
+        break;
+      }
+      default :
+        throw new IOException("unknown column encoding " + encoding);
+    }
+  }
+
+  /** Each row gets its own copy of a shared value. */
+  private static JsonValue copy(JsonValue v) throws IOException
+  {
+    try
+    {
+      return JsonUtil.getCopy(v, null);
+    }
+    catch (Exception e)
+    {
+      IOException ioe = new IOException("couldn't copy value");
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.ibm.jaql.io.AdapterStore;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.BaseUtil;
+
+/**
+ * Reads files in the columnar format described in {@link ColumnarFormat}. A split reads the row
+ * groups that start in it.
+ *
+ * Two input options restrict what is read:
+ * <ul>
+ * <li><code>project: [string]</code> only reads these fields; the records that are returned
+ * only have these fields.</li>
+ * <li><code>where: [{field, op, value}]</code> skips the row groups in which some of these
+ * predicates cannot be satisfied; see {@link ColumnarPredicate}.</li>
+ * </ul>
+ * Both are set by the compiler when the data is read through <code>columnar()</code>.
+ */
+public class ColumnarInputFormat extends FileInputFormat<JsonHolder, JsonHolder>
+    implements JobConfigurable
+{
+  protected Set<JsonString> projection;
+  protected ArrayList<ColumnarPredicate> predicates = new ArrayList<ColumnarPredicate>();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hadoop.mapred.JobConfigurable#configure(org.apache.hadoop.mapred.JobConf)
+   */
+  public void configure(JobConf conf)
+  {
+    projection = null;
+    predicates.clear();
+    try
+    {
+      JsonRecord args = ConfUtil.readConf(conf, ConfSetter.CONFINOPTIONS_NAME);
+      if (args == null)
+      {
+        return;
+      }
+      JsonRecord options = AdapterStore.getStore().input.getOption(args);
+      JsonValue project = options.get(ColumnarFormat.PROJECT_OPTION);
+      if (project != null)
+      {
+        projection = new HashSet<JsonString>();
+        for (JsonValue f : ((JsonArray) project).iter())
+        {
+          projection.add(((JsonString) f).getImmutableCopy());
+        }
+      }
+      JsonValue where = options.get(ColumnarFormat.WHERE_OPTION);
+      if (where != null)
+      {
+        for (JsonValue p : ((JsonArray) where).iter())
+        {
+          predicates.add(ColumnarPredicate.fromRecord((JsonRecord) p));
+        }
+      }
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("Could not read the columnar input options", e);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hadoop.mapred.FileInputFormat#getRecordReader(org.apache.hadoop.mapred.InputSplit,
+   *      org.apache.hadoop.mapred.JobConf, org.apache.hadoop.mapred.Reporter)
+   */
+  @Override
+  public RecordReader<JsonHolder, JsonHolder> getRecordReader(InputSplit split, JobConf job,
+      Reporter reporter) throws IOException
+  {
+    reporter.setStatus(split.toString());
+    return new ColumnarRecordReader((FileSplit) split, job, projection, predicates);
+  }
+
+  /**
+   * Reads the row groups of a split.
+   */
+  public static class ColumnarRecordReader implements RecordReader<JsonHolder, JsonHolder>
+  {
+    protected final FSDataInputStream in;
+    protected final long start;
+    protected final long end;
+    protected final long fileLength;
+    protected final Set<JsonString> projection;
+    protected final ArrayList<ColumnarPredicate> predicates;
+    protected long pos;
+
+    // the current row group
+    protected int rows;
+    protected int row;
+    protected final ArrayList<JsonString> names = new ArrayList<JsonString>();
+    protected final ArrayList<boolean[]> present = new ArrayList<boolean[]>();
+    protected final ArrayList<JsonValue[]> values = new ArrayList<JsonValue[]>();
+    protected boolean[] otherPresent;
+    protected JsonValue[] otherValues;
+    protected final BufferedJsonRecord record = new BufferedJsonRecord();
+
+    public ColumnarRecordReader(FileSplit split, JobConf job, Set<JsonString> projection,
+        ArrayList<ColumnarPredicate> predicates) throws IOException
+    {
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(job);
+      this.fileLength = fs.getFileStatus(file).getLen();
+      this.in = fs.open(file);
+      this.start = split.getStart();
+      this.end = split.getStart() + split.getLength();
+      this.projection = projection;
+      this.predicates = predicates;
+
+      byte[] magic = new byte[ColumnarFormat.MAGIC.length];
+      in.readFully(magic);
+      for (int i = 0; i < magic.length; i++)
+      {
+        if (magic[i] != ColumnarFormat.MAGIC[i])
+        {
+          in.close();
+          throw new IOException(file + " is not a columnar file");
+        }
+      }
+      // find the first row group of the split
+      pos = magic.length;
+      while (pos < start && pos < fileLength)
+      {
+        in.seek(pos);
+        pos += 4 + in.readInt();
+      }
+    }
+
+    /**
+     * Reads the next row group that can have matching values.
+     *
+     * @return false if the split has no more row groups
+     */
+    protected boolean readRowGroup() throws IOException
+    {
+      while (pos < end && pos < fileLength)
+      {
+        in.seek(pos);
+        long next = pos + 4 + in.readInt();
+        pos = next;
+        int n = (int) BaseUtil.readVULong(in);
+        int numColumns = (int) BaseUtil.readVULong(in);
+        ColumnarFormat.ColumnHeader[] headers = new ColumnarFormat.ColumnHeader[numColumns];
+        HashMap<JsonString, ColumnarFormat.ColumnHeader> byName =
+            new HashMap<JsonString, ColumnarFormat.ColumnHeader>();
+        for (int c = 0; c < numColumns; c++)
+        {
+          headers[c] = new ColumnarFormat.ColumnHeader();
+          headers[c].read(in);
+          if (headers[c].name != null)
+          {
+            byName.put(headers[c].name, headers[c]);
+          }
+        }
+        if (!mayMatch(byName))
+        {
+          continue;
+        }
+
+        rows = n;
+        row = 0;
+        names.clear();
+        present.clear();
+        values.clear();
+        otherPresent = null;
+        otherValues = null;
+        long data = in.getPos();
+        for (ColumnarFormat.ColumnHeader h : headers)
+        {
+          boolean isOther = h.name == null;
+          if (isOther || projection == null || projection.contains(h.name))
+          {
+            boolean[] p = new boolean[n];
+            JsonValue[] v = new JsonValue[n];
+            in.seek(data);
+            ColumnarFormat.decode(in, h.encoding, n, p, v);
+            if (isOther)
+            {
+              otherPresent = p;
+              otherValues = v;
+            }
+            else
+            {
+              names.add(h.name);
+              present.add(p);
+              values.add(v);
+            }
+          }
+          data += h.length;
+        }
+        return true;
+      }
+      return false;
+    }
+
+    /** Returns false if a predicate is not satisfied by any value of the row group. */
+    protected boolean mayMatch(HashMap<JsonString, ColumnarFormat.ColumnHeader> columns)
+    {
+      for (ColumnarPredicate p : predicates)
+      {
+        if (!p.mayMatch(columns.get(p.field())))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public boolean next(JsonHolder key, JsonHolder value) throws IOException
+    {
+      while (row >= rows)
+      {
+        if (!readRowGroup())
+        {
+          return false;
+        }
+      }
+      if (otherPresent != null && otherPresent[row])
+      {
+        value.value = otherValues[row];
+      }
+      else
+      {
+        record.clear();
+        for (int c = 0; c < names.size(); c++)
+        {
+          if (present.get(c)[row])
+          {
+            record.add(names.get(c), values.get(c)[row]);
+          }
+        }
+        value.value = record;
+      }
+      row++;
+      return true;
+    }
+
+    public JsonHolder createKey()
+    {
+      return new JsonHolderDefault();
+    }
+
+    public JsonHolder createValue()
+    {
+      return new JsonHolderDefault();
+    }
+
+    public long getPos() throws IOException
+    {
+      return pos;
+    }
+
+    public float getProgress() throws IOException
+    {
+      if (end == start)
+      {
+        return 1.0f;
+      }
+      return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.BaseUtil;
+
+/**
+ * Writes values in the columnar format described in {@link ColumnarFormat}. The values of a row
+ * group are buffered in memory; the size of the row groups is set with
+ * <code>jaql.columnar.rowgroup.size</code>.
+ */
+public class ColumnarOutputFormat extends FileOutputFormat<JsonHolder, JsonHolder>
+{
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hadoop.mapred.FileOutputFormat#getRecordWriter(org.apache.hadoop.fs.FileSystem,
+   *      org.apache.hadoop.mapred.JobConf, java.lang.String,
+   *      org.apache.hadoop.util.Progressable)
+   */
+  @Override
+  public RecordWriter<JsonHolder, JsonHolder> getRecordWriter(FileSystem ignored, JobConf job,
+      String name, Progressable progress) throws IOException
+  {
+    Path file = FileOutputFormat.getTaskOutputPath(job, name);
+    FileSystem fs = file.getFileSystem(job);
+    FSDataOutputStream out = fs.create(file, progress);
+    int rowGroupSize = job.getInt(ColumnarFormat.ROW_GROUP_SIZE_NAME,
+        ColumnarFormat.DEFAULT_ROW_GROUP_SIZE);
+    return new ColumnarRecordWriter(out, rowGroupSize);
+  }
+
+  /**
+   * Buffers the values of a row group by column and writes them when the row group is full.
+   */
+  public static class ColumnarRecordWriter implements RecordWriter<JsonHolder, JsonHolder>
+  {
+    protected final FSDataOutputStream out;
+    protected final int rowGroupSize;
+    protected final ArrayList<ColumnarFormat.ColumnBuilder> columns =
+        new ArrayList<ColumnarFormat.ColumnBuilder>();
+    protected final Map<JsonString, ColumnarFormat.ColumnBuilder> fields =
+        new HashMap<JsonString, ColumnarFormat.ColumnBuilder>();
+    protected ColumnarFormat.ColumnBuilder others;
+    protected int rows;
+
+    public ColumnarRecordWriter(FSDataOutputStream out, int rowGroupSize) throws IOException
+    {
+      this.out = out;
+      this.rowGroupSize = Math.max(rowGroupSize, 1);
+      out.write(ColumnarFormat.MAGIC);
+    }
+
+    public void write(JsonHolder key, JsonHolder value) throws IOException
+    {
+      try
+      {
+        add(value.value);
+      }
+      catch (IOException e)
+      {
+        throw e;
+      }
+      catch (Exception e)
+      {
+        IOException ioe = new IOException("couldn't write value");
+        ioe.initCause(e);
+        throw ioe;
+      }
+      if (rows == rowGroupSize)
+      {
+        flush();
+      }
+    }
+
+    protected void add(JsonValue value) throws Exception
+    {
+      if (value instanceof JsonRecord)
+      {
+        for (Map.Entry<JsonString, JsonValue> e : (JsonRecord) value)
+        {
+          ColumnarFormat.ColumnBuilder column = fields.get(e.getKey());
+          if (column == null)
+          {
+            column = new ColumnarFormat.ColumnBuilder(e.getKey().getImmutableCopy(), rowGroupSize);
+            fields.put(column.name(), column);
+            columns.add(column);
+          }
+          column.add(rows, e.getValue());
+        }
+      }
+      else
+      {
+        if (others == null)
+        {
+          others = new ColumnarFormat.ColumnBuilder(null, rowGroupSize);
+          columns.add(others);
+        }
+        others.add(rows, value);
+      }
+      rows++;
+    }
+
+    /** Writes the buffered row group. */
+    protected void flush() throws IOException
+    {
+      if (rows == 0)
+      {
+        return;
+      }
+      DataOutputBuffer header = new DataOutputBuffer();
+      DataOutputBuffer data = new DataOutputBuffer();
+      BaseUtil.writeVULong(header, rows);
+      BaseUtil.writeVULong(header, columns.size());
+      for (ColumnarFormat.ColumnBuilder column : columns)
+      {
+        column.write(header, data, rows);
+      }
+      out.writeInt(header.getLength() + data.getLength());
+      out.write(header.getData(), 0, header.getLength());
+      out.write(data.getData(), 0, data.getLength());
+      columns.clear();
+      fields.clear();
+      others = null;
+      rows = 0;
+    }
+
+    public void close(Reporter reporter) throws IOException
+    {
+      flush();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.expr.core.CompareExpr;
+
+/**
+ * A predicate <code>$.field op value</code> on the values of a columnar file, where op is one of
+ * <code>==, &lt;, &lt;=, &gt;, &gt;=</code>. It is given to the reader as
+ * <code>{field, op, value}</code> in the <code>where</code> option, and is used to skip the row
+ * groups in which no value can satisfy it, using the min/max statistics of the column. The
+ * predicate has the semantics of jaql's comparisons: it is not satisfied by null, missing, or
+ * incomparable values. Rows of the other row groups are returned even if they do not satisfy it,
+ * so the predicate must still be applied to them.
+ */
+public class ColumnarPredicate
+{
+  public static final JsonString FIELD = new JsonString("field");
+  public static final JsonString OP    = new JsonString("op");
+  public static final JsonString VALUE = new JsonString("value");
+
+  protected final JsonString field;
+  protected final int        op;
+  protected final JsonValue  value;
+
+  /**
+   * @param field the field name
+   * @param op one of the comparisons of {@link CompareExpr}, except NE
+   * @param value the constant, which is not null
+   */
+  public ColumnarPredicate(JsonString field, int op, JsonValue value)
+  {
+    if (op == CompareExpr.NE || op < 0 || op >= CompareExpr.OP.length)
+    {
+      throw new IllegalArgumentException("unsupported comparison: " + op);
+    }
+    this.field = field;
+    this.op = op;
+    this.value = value;
+  }
+
+  /** Reads a predicate from its <code>{field, op, value}</code> record. */
+  public static ColumnarPredicate fromRecord(JsonRecord rec)
+  {
+    String op = rec.get(OP).toString();
+    for (int i = 0; i < CompareExpr.OP.length; i++)
+    {
+      if (CompareExpr.OP[i].equals(op))
+      {
+        return new ColumnarPredicate((JsonString) rec.get(FIELD), i, rec.get(VALUE));
+      }
+    }
+    throw new IllegalArgumentException("unsupported comparison: " + op);
+  }
+
+  public JsonRecord toRecord()
+  {
+    BufferedJsonRecord rec = new BufferedJsonRecord();
+    rec.add(FIELD, field);
+    rec.add(OP, new JsonString(CompareExpr.OP[op]));
+    rec.add(VALUE, value);
+    return rec;
+  }
+
+  public JsonString field()
+  {
+    return field;
+  }
+
+  /**
+   * Returns false if no value of a column can satisfy the predicate.
+   *
+   * @param column the header of the column of the field, or null if no row has the field
+   */
+  public boolean mayMatch(ColumnarFormat.ColumnHeader column)
+  {
+    if (value == null || column == null)
+    {
+      return false; // all comparisons are null
+    }
+    JsonValue min = column.min;
+    JsonValue max = column.max;
+    if (column.mixed)
+    {
+      return true; // no statistics
+    }
+    if (min == null)
+    {
+      return false; // all values are null
+    }
+    if (!ColumnarFormat.comparable(min, value))
+    {
+      return false; // all comparisons are null
+    }
+    switch (op)
+    {
+      case CompareExpr.EQ :
+        return JsonUtil.compare(min, value) <= 0 && JsonUtil.compare(value, max) <= 0;
+      case CompareExpr.LT :
+        return JsonUtil.compare(min, value) < 0;
+      case CompareExpr.LE :
+        return JsonUtil.compare(min, value) <= 0;
+      case CompareExpr.GT :
+        return JsonUtil.compare(max, value) > 0;
+      case CompareExpr.GE :
+        return JsonUtil.compare(max, value) >= 0;
+      default :
+        return true;
+    }
+  }
+}
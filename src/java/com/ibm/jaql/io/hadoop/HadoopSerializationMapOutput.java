@@ -1,8 +1,11 @@
 package com.ibm.jaql.io.hadoop;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.LazyBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.sortable.SortableBinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
@@ -15,6 +18,10 @@ import com.ibm.jaql.lang.util.JaqlUtil;
 /** Wrapper for Jaql's serialization of map outputs (when there is an reducer). */
 public class HadoopSerializationMapOutput extends HadoopSerialization
 {
+  /** Name of the job conf (or system) property that selects the byte-comparable encoding
+   * of {@link SortableBinaryFullSerializer} for map output keys. */
+  public static final String SORTABLE_KEYS_NAME = "jaql.mapred.sortable.keys";
+  
   @Override
   public boolean accept(Class<?> c)
   {
@@ -31,7 +38,10 @@ public class HadoopSerializationMapOutput extends HadoopSerialization
     }
     else
     {
-      return new HadoopDeserializerMapOutputValue(valueSerializer());
+      // values are read lazily; keys are compared and grouped, so they are decoded eagerly
+      boolean lazy = getConf().getBoolean(LazyBinaryFullSerializer.ENABLED_PROPERTY, 
+          LazyBinaryFullSerializer.isEnabled());
+      return new HadoopDeserializerMapOutputValue(new TempBinaryFullSerializer(getSchema(false), lazy));
     }
   }
 
@@ -51,6 +61,10 @@ public class HadoopSerializationMapOutput extends HadoopSerialization
   
   BinaryFullSerializer keySerializer()
   {
+    if (useSortableKeys(getConf()))
+    {
+      return new SortableBinaryFullSerializer();
+    }
     return new TempBinaryFullSerializer(getSchema(true));
   }
   
@@ -64,6 +78,12 @@ public class HadoopSerializationMapOutput extends HadoopSerialization
     register(conf, HadoopSerializationMapOutput.class);
   }
   
+  /** Returns true if map output keys are byte-comparable. */
+  public static boolean useSortableKeys(Configuration conf)
+  {
+    return conf.getBoolean(SORTABLE_KEYS_NAME, false);
+  }
+  
   /** get the schema information from the job conf */
   private Schema getSchema(boolean key)
   {
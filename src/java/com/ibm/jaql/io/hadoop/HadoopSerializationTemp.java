@@ -3,6 +3,7 @@ package com.ibm.jaql.io.hadoop;
 import org.apache.hadoop.mapred.JobConf;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.LazyBinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
@@ -30,7 +31,9 @@ public class HadoopSerializationTemp extends HadoopSerialization
     else
     {
       Schema schema = getSchema(ConfSetter.CONFINOPTIONS_NAME);
-      return new HadoopDeserializerTempValue(new TempBinaryFullSerializer(schema));
+      boolean lazy = getConf().getBoolean(LazyBinaryFullSerializer.ENABLED_PROPERTY, 
+          LazyBinaryFullSerializer.isEnabled());
+      return new HadoopDeserializerTempValue(new TempBinaryFullSerializer(schema, lazy));
     }
   }
 
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonDate;
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+
+/**
+ * Reads the result of a query from any JDBC source. The result is partitioned on a split
+ * column; each split reads one range of the column with its own connection:
+ * <ul>
+ * <li><code>range</code>: equal-width ranges between the minimum and maximum of a numeric
+ * column.</li>
+ * <li><code>quantile</code>: ranges with about the same number of rows, from the quantiles of
+ * a random sample of the column. The sample is taken while scanning the column, since sampling
+ * clauses are not portable.</li>
+ * <li><code>list</code>: ranges between user-supplied split points.</li>
+ * <li><code>none</code> (the default): a single split.</li>
+ * </ul>
+ * Rows with a null split column are read by the first split. The cursors use the given fetch
+ * size, so that rows are streamed in batches instead of one round-trip per row or the whole
+ * result at once.
+ *
+ * The query and the split parameters are set in the job configuration; see the
+ * <code>*_KEY</code> constants.
+ */
+public class JdbcInputFormat implements InputFormat<JsonHolder, JsonHolder>
+{
+  public static final String DRIVER_KEY           = "com.ibm.jdbc.input.driver";
+  public static final String URL_KEY              = "com.ibm.jdbc.input.url";
+  public static final String PROPERTIES_KEY       = "com.ibm.jdbc.input.properties"; // json record key/value into JDBC Properties
+  public static final String QUERY_KEY            = "com.ibm.jdbc.input.query";
+  public static final String FETCH_SIZE_KEY       = "com.ibm.jdbc.input.fetch.size";
+  public static final String SPLIT_STRATEGY_KEY   = "com.ibm.jdbc.input.split.strategy";
+  public static final String SPLIT_COLUMN_KEY     = "com.ibm.jdbc.input.split.column";
+  public static final String SPLIT_POINTS_KEY     = "com.ibm.jdbc.input.split.points"; // json array
+  public static final String SPLIT_SAMPLE_KEY     = "com.ibm.jdbc.input.split.sample";
+
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+  public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+  /** How the rows are partitioned */
+  public static enum Strategy
+  {
+    NONE, RANGE, QUANTILE, LIST;
+
+    public static Strategy parse(String s)
+    {
+      return s == null ? NONE : valueOf(s.toUpperCase());
+    }
+  }
+
+  /**
+   * Opens a connection with the given driver class.
+   *
+   * @param properties the JDBC properties, or null
+   */
+  public static Connection connect(String driverClass, String url, JsonRecord properties)
+    throws SQLException
+  {
+    Driver driver;
+    try
+    {
+      driver = (Driver)Class.forName(driverClass).newInstance();
+    }
+    catch (Exception e)
+    {
+      throw new UndeclaredThrowableException(e, "jdbc driver class not found: " + driverClass);
+    }
+    Properties props = new Properties();
+    if( properties != null )
+    {
+      for (Entry<JsonString, JsonValue> f : properties)
+      {
+        if( f.getValue() != null )
+        {
+          props.setProperty(f.getKey().toString(), f.getValue().toString());
+        }
+      }
+    }
+    Connection conn = driver.connect(url, props);
+    if( conn == null )
+    {
+      throw new SQLException("the jdbc driver " + driverClass + " does not accept " + url);
+    }
+    return conn;
+  }
+
+  /** Opens a connection as configured in conf. */
+  public static Connection connect(Configuration conf) throws IOException, SQLException
+  {
+    return connect(conf.get(DRIVER_KEY), conf.get(URL_KEY),
+        (JsonRecord)parse(conf.get(PROPERTIES_KEY)));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hadoop.mapred.InputFormat#getSplits(org.apache.hadoop.mapred.JobConf, int)
+   */
+  public InputSplit[] getSplits(JobConf conf, int numSplits) throws IOException
+  {
+    try
+    {
+      Connection conn = connect(conf);
+      try
+      {
+        ArrayList<JdbcSplit> splits = computeSplits(conn, conf.get(QUERY_KEY),
+            Strategy.parse(conf.get(SPLIT_STRATEGY_KEY)), conf.get(SPLIT_COLUMN_KEY), numSplits,
+            (JsonArray)parse(conf.get(SPLIT_POINTS_KEY)),
+            conf.getInt(SPLIT_SAMPLE_KEY, DEFAULT_SAMPLE_SIZE),
+            conf.getInt(FETCH_SIZE_KEY, DEFAULT_FETCH_SIZE));
+        return splits.toArray(new InputSplit[splits.size()]);
+      }
+      finally
+      {
+        conn.close();
+      }
+    }
+    catch( SQLException e )
+    {
+      throw new UndeclaredThrowableException(e); // IOException(e);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hadoop.mapred.InputFormat#getRecordReader(org.apache.hadoop.mapred.InputSplit,
+   *      org.apache.hadoop.mapred.JobConf, org.apache.hadoop.mapred.Reporter)
+   */
+  public RecordReader<JsonHolder, JsonHolder> getRecordReader(InputSplit split, JobConf conf,
+      Reporter reporter) throws IOException
+  {
+    try
+    {
+      Connection conn = connect(conf);
+      PreparedStatement stmt = ((JdbcSplit)split).prepare(conn,
+          conf.getInt(FETCH_SIZE_KEY, DEFAULT_FETCH_SIZE));
+      return new JdbcRecordReader(conn, stmt);
+    }
+    catch( SQLException e )
+    {
+      throw new UndeclaredThrowableException(e); // IOException(e);
+    }
+  }
+
+  // -- splits -----------------------------------------------------------------------------------
+
+  /**
+   * Partitions the result of query into at most numSplits ranges of column.
+   *
+   * @param points the split points of the list strategy
+   * @param sampleSize the number of values sampled by the quantile strategy
+   */
+  public static ArrayList<JdbcSplit> computeSplits(Connection conn, String query,
+      Strategy strategy, String column, int numSplits, JsonArray points, int sampleSize,
+      int fetchSize) throws SQLException, IOException
+  {
+    if( strategy != Strategy.NONE && column == null )
+    {
+      throw new IllegalArgumentException(strategy.toString().toLowerCase() + " splits need a split column");
+    }
+    ArrayList<JsonValue> bounds = new ArrayList<JsonValue>();
+    if( numSplits > 1 )
+    {
+      switch( strategy )
+      {
+        case RANGE:
+          rangeBounds(conn, query, column, numSplits, bounds);
+          break;
+        case QUANTILE:
+          quantileBounds(conn, query, column, numSplits, sampleSize, fetchSize, bounds);
+          break;
+        case LIST:
+          if( points == null )
+          {
+            throw new IllegalArgumentException("list splits need split points");
+          }
+          try
+          {
+            for (JsonValue p : points.iter())
+            {
+              bounds.add(JsonUtil.getCopy(p, null));
+            }
+          }
+          catch (Exception e)
+          {
+            throw new UndeclaredThrowableException(e);
+          }
+          break;
+      }
+    }
+
+    // sort, remove duplicates
+    Collections.sort(bounds, new Comparator<JsonValue>() {
+      public int compare(JsonValue x, JsonValue y)
+      {
+        return JsonUtil.compare(x, y);
+      }
+    });
+    ArrayList<JdbcSplit> splits = new ArrayList<JdbcSplit>();
+    JsonValue low = null;
+    for (JsonValue b : bounds)
+    {
+      if( b != null && (low == null || JsonUtil.compare(low, b) < 0) )
+      {
+        splits.add(new JdbcSplit(query, column, low, b));
+        low = b;
+      }
+    }
+    splits.add(new JdbcSplit(query, column, low, null));
+    return splits;
+  }
+
+  /** Adds the bounds of numSplits equal-width ranges of a numeric column. */
+  protected static void rangeBounds(Connection conn, String query, String column, int numSplits,
+      ArrayList<JsonValue> bounds) throws SQLException
+  {
+    Statement stmt = conn.createStatement();
+    try
+    {
+      ResultSet rs = stmt.executeQuery(
+          "select min(" + column + "), max(" + column + ") from (" + query + ") jaql_t");
+      if( !rs.next() || rs.getObject(1) == null )
+      {
+        return; // empty
+      }
+      boolean integral;
+      switch( rs.getMetaData().getColumnType(1) )
+      {
+        case Types.BIGINT:
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+          integral = true;
+          break;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.REAL:
+          integral = false;
+          break;
+        default:
+          throw new IllegalArgumentException("range splits need a numeric column: " + column);
+      }
+      BigDecimal min = rs.getBigDecimal(1);
+      BigDecimal max = rs.getBigDecimal(2);
+      BigDecimal width = max.subtract(min);
+      for (int i = 1; i < numSplits; i++)
+      {
+        BigDecimal b = min.add(width.multiply(BigDecimal.valueOf(i))
+            .divide(BigDecimal.valueOf(numSplits), BigDecimal.ROUND_FLOOR));
+        bounds.add(integral ? new JsonLong(b.longValue()) : new JsonDecimal(b));
+      }
+      rs.close();
+    }
+    finally
+    {
+      stmt.close();
+    }
+  }
+
+  /** Adds the numSplits-quantiles of a uniform sample of a column. */
+  protected static void quantileBounds(Connection conn, String query, String column,
+      int numSplits, int sampleSize, int fetchSize, ArrayList<JsonValue> bounds)
+    throws SQLException
+  {
+    Statement stmt = conn.createStatement();
+    try
+    {
+      stmt.setFetchSize(fetchSize);
+      ResultSet rs = stmt.executeQuery("select " + column + " from (" + query + ") jaql_t"
+          + " where " + column + " is not null");
+      // reservoir sampling
+      ArrayList<JsonValue> sample = new ArrayList<JsonValue>();
+      Random random = new Random(sampleSize);
+      long n = 0;
+      while( rs.next() )
+      {
+        n++;
+        if( sample.size() < sampleSize )
+        {
+          sample.add(toJson(rs.getObject(1)));
+        }
+        else
+        {
+          long r = (long)(random.nextDouble() * n);
+          if( r < sampleSize )
+          {
+            sample.set((int)r, toJson(rs.getObject(1)));
+          }
+        }
+      }
+      rs.close();
+      if( sample.isEmpty() )
+      {
+        return;
+      }
+      Collections.sort(sample, new Comparator<JsonValue>() {
+        public int compare(JsonValue x, JsonValue y)
+        {
+          return JsonUtil.compare(x, y);
+        }
+      });
+      for (int i = 1; i < numSplits; i++)
+      {
+        bounds.add(sample.get((int)((long)i * sample.size() / numSplits)));
+      }
+    }
+    finally
+    {
+      stmt.close();
+    }
+  }
+
+  /** Converts a value returned by JDBC to a split point. */
+  protected static JsonValue toJson(Object x)
+  {
+    if( x instanceof Long || x instanceof Integer || x instanceof Short || x instanceof Byte )
+    {
+      return new JsonLong(((Number)x).longValue());
+    }
+    else if( x instanceof Double || x instanceof Float )
+    {
+      return new JsonDouble(((Number)x).doubleValue());
+    }
+    else if( x instanceof BigDecimal )
+    {
+      return new JsonDecimal((BigDecimal)x);
+    }
+    else if( x instanceof java.util.Date )
+    {
+      return new JsonDate(((java.util.Date)x).getTime());
+    }
+    else if( x instanceof Boolean )
+    {
+      return JsonBool.make((Boolean)x);
+    }
+    return new JsonString(x.toString());
+  }
+
+  /** Binds a split point to a parameter. */
+  protected static void bind(PreparedStatement stmt, int i, JsonValue v) throws SQLException
+  {
+    if( v instanceof JsonLong )
+    {
+      stmt.setLong(i, ((JsonLong)v).get());
+    }
+    else if( v instanceof JsonDouble )
+    {
+      stmt.setDouble(i, ((JsonDouble)v).get());
+    }
+    else if( v instanceof JsonDecimal )
+    {
+      stmt.setBigDecimal(i, ((JsonDecimal)v).get());
+    }
+    else if( v instanceof JsonDate )
+    {
+      stmt.setTimestamp(i, new Timestamp(((JsonDate)v).get()));
+    }
+    else if( v instanceof JsonBool )
+    {
+      stmt.setBoolean(i, ((JsonBool)v).get());
+    }
+    else
+    {
+      stmt.setString(i, v.toString());
+    }
+  }
+
+  protected static JsonValue parse(String json) throws IOException
+  {
+    if( json == null || "".equals(json) )
+    {
+      return null;
+    }
+    try
+    {
+      return new JsonParser(new StringReader(json)).JsonVal();
+    }
+    catch (Exception e)
+    {
+      IOException ioe = new IOException("couldn't parse " + json);
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
+
+  /**
+   * The rows of the query with low <= column < high. A null bound is unbounded; the split
+   * without a low bound also reads the rows with a null column.
+   */
+  public static class JdbcSplit implements InputSplit
+  {
+    protected String query;
+    protected String column;
+    protected JsonValue low;
+    protected JsonValue high;
+
+    /** Call readFields to initialize */
+    public JdbcSplit()
+    {
+    }
+
+    public JdbcSplit(String query, String column, JsonValue low, JsonValue high)
+    {
+      this.query = query;
+      this.column = column;
+      this.low = low;
+      this.high = high;
+    }
+
+    /** Returns the query for the rows of this split. */
+    public String getQuery()
+    {
+      if( low == null && high == null )
+      {
+        return query;
+      }
+      String q = "select * from (" + query + ") jaql_t where ";
+      if( low == null )
+      {
+        return q + column + " < ? or " + column + " is null";
+      }
+      else if( high == null )
+      {
+        return q + column + " >= ?";
+      }
+      return q + column + " >= ? and " + column + " < ?";
+    }
+
+    /** Prepares the query of this split on conn. */
+    public PreparedStatement prepare(Connection conn, int fetchSize) throws SQLException
+    {
+      PreparedStatement stmt = conn.prepareStatement(getQuery());
+      int i = 1;
+      if( low != null )
+      {
+        bind(stmt, i++, low);
+      }
+      if( high != null )
+      {
+        bind(stmt, i++, high);
+      }
+      stmt.setFetchSize(fetchSize);
+      return stmt;
+    }
+
+    public long getLength() throws IOException
+    {
+      return 1000000; // no clue...
+    }
+
+    public String[] getLocations() throws IOException
+    {
+      return new String[0];
+    }
+
+    public void readFields(DataInput in) throws IOException
+    {
+      query = in.readUTF();
+      column = in.readBoolean() ? in.readUTF() : null;
+      // bounds are serialized in binary, which keeps their type (e.g., dates)
+      low = BinaryFullSerializer.getDefault().read(in, null);
+      high = BinaryFullSerializer.getDefault().read(in, null);
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+      out.writeUTF(query);
+      out.writeBoolean(column != null);
+      if( column != null )
+      {
+        out.writeUTF(column);
+      }
+      BinaryFullSerializer.getDefault().write(out, low);
+      BinaryFullSerializer.getDefault().write(out, high);
+    }
+  }
+
+  @Deprecated
+  public void validateInput(JobConf conf) throws IOException
+  {
+  }
+}
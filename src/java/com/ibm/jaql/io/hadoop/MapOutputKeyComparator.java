@@ -3,12 +3,16 @@ package com.ibm.jaql.io.hadoop;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 
+import com.ibm.jaql.io.serialization.binary.sortable.SortableBinaryFullSerializer;
 import com.ibm.jaql.json.util.DefaultJsonComparator;
 
 public class MapOutputKeyComparator extends DefaultJsonComparator implements Configurable
 {
   private Configuration conf;
   
+  // true if the keys can be compared byte by byte (without their trailers)
+  private boolean sortableKeys;
+  
   public MapOutputKeyComparator()
   {
     super();
@@ -28,5 +32,16 @@ public class MapOutputKeyComparator extends DefaultJsonComparator implements Con
     HadoopSerializationMapOutput hs = new HadoopSerializationMapOutput();
     hs.setConf(conf);
     serializer = hs.keySerializer();
+    sortableKeys = HadoopSerializationMapOutput.useSortableKeys(conf);
   }  
+  
+  @Override
+  public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+  {
+    if (sortableKeys)
+    {
+      return SortableBinaryFullSerializer.compareBodies(b1, s1, l1, b2, s2, l2);
+    }
+    return super.compare(b1, s1, l1, b2, s2, l2);
+  }
 }
@@ -15,7 +15,7 @@
  */
 package com.ibm.jaql.io.hadoop.converter;
 
-import java.io.StringReader;
+import java.io.IOException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
@@ -23,6 +23,7 @@ import org.apache.hadoop.io.WritableComparable;
 import com.ibm.jaql.io.converter.ToJson;
 import com.ibm.jaql.json.parser.JsonParser;
 import com.ibm.jaql.json.parser.ParseException;
+import com.ibm.jaql.json.parser.Utf8JsonParser;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.type.JsonValue;
@@ -53,7 +54,7 @@ public class FromJsonTextConverter extends HadoopRecordToJson<WritableComparable
   protected ToJson<Text> createValueConverter()
   {
     return new ToJson<Text>() {
-      JsonParser parser = new JsonParser();
+      Utf8JsonParser parser = new Utf8JsonParser();
       
       public JsonValue convert(Text src, JsonValue tgt)
       {
@@ -64,14 +65,23 @@ public class FromJsonTextConverter extends HadoopRecordToJson<WritableComparable
         
         try
         {
-          parser.ReInit(new StringReader(src.toString()));
-          JsonValue value = parser.JsonVal();
+          // parse the UTF-8 bytes directly, reusing the previous value where possible
+          parser.setInput(src.getBytes(), 0, src.getLength());
+          JsonValue value = parser.jsonVal(tgt);
+          if (value == JsonParser.NIL)
+          {
+            throw new ParseException("Expected a value but found end of input");
+          }
           return value;
         }
         catch (ParseException pe)
         {
           throw new RuntimeException(pe);
         }
+        catch (IOException e)
+        {
+          throw new RuntimeException(e);
+        }
       }
 
       public JsonValue createTarget()
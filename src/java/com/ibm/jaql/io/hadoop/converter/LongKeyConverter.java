@@ -26,13 +26,12 @@ import com.ibm.jaql.json.type.BufferedJsonArray;
 import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
-import com.ibm.jaql.lang.expr.array.SlidingWindowFn.JsonQueue.Item;
 import com.ibm.jaql.lang.util.JaqlUtil;
 
 /**
  * Concrete class for converters that convert a Hadoop record---i.e., a (key,
  * value)-pair where the key is of type {@link WritableComparable} and the value
- * is of type {@link Writable}---into an {@link Item}.
+ * is of type {@link Writable}---into a {@link JsonValue}.
  */
 public class LongKeyConverter<V> implements KeyValueImport<LongWritable, V>
 {
@@ -20,9 +20,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 
 import com.ibm.jaql.io.converter.FromJson;
-import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.io.serialization.text.JsonTextWriter;
 import com.ibm.jaql.json.type.JsonValue;
-import com.ibm.jaql.util.FastPrintBuffer;
 
 /**
  * 
@@ -50,23 +49,21 @@ public class ToJsonTextConverter extends JsonToHadoopRecord<WritableComparable<?
   {
     return new FromJson<Text>()
     {
+      // writes each value on one line, straight into the target's bytes
+      private final JsonTextWriter writer = new JsonTextWriter(true);
+
       public Text convert(JsonValue src, Text tgt)
       {
-        FastPrintBuffer out = new FastPrintBuffer();
+        writer.reset();
         try
         {
-          //JsonUtil.printQuoted(out, src.toJSON());
-          JsonUtil.print(out, src);
-          out.close();
+          writer.write(src);
         }
         catch (Exception e)
         {
           throw new RuntimeException(e);
         }
-        String s = out.toString();
-        s = s.replace("\r", "");
-        s = s.replace("\n", "");
-        tgt.set(s);
+        writer.copyTo(tgt);
         return tgt;
       }
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.index;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of decompressed JIndex blocks. A single instance is shared by all 
+ * {@link JIndexReader}s of the JVM, so that repeated probes of the same index do not
+ * decompress the same blocks again. The cache holds at most <code>jaql.jindex.cache.size</code>
+ * bytes of block data.
+ */
+final class JIndexBlockCache
+{
+  public static final String SIZE_PROPERTY = "jaql.jindex.cache.size";
+  public static final long DEFAULT_SIZE = 64L * 1024 * 1024;
+  
+  private static final JIndexBlockCache instance = 
+    new JIndexBlockCache(Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE));
+  
+  /** Identifies a block by file, file version, and block number. */
+  static final class Key
+  {
+    final String file;
+    final long fileVersion;
+    final int block;
+    
+    Key(String file, long fileVersion, int block)
+    {
+      this.file = file;
+      this.fileVersion = fileVersion;
+      this.block = block;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if( !(o instanceof Key) )
+      {
+        return false;
+      }
+      Key k = (Key)o;
+      return block == k.block && fileVersion == k.fileVersion && file.equals(k.file);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (file.hashCode() * 31 + (int)(fileVersion ^ (fileVersion >>> 32))) * 31 + block;
+    }
+  }
+  
+  private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+  private final long capacity;
+  private long size = 0;
+  private long hits = 0;
+  private long misses = 0;
+  
+  JIndexBlockCache(long capacity)
+  {
+    this.capacity = capacity;
+  }
+  
+  static JIndexBlockCache getInstance()
+  {
+    return instance;
+  }
+  
+  /** Returns the cached block, or null if it is not cached. */
+  synchronized byte[] get(Key key)
+  {
+    byte[] block = blocks.get(key);
+    if( block == null )
+    {
+      misses++;
+    }
+    else
+    {
+      hits++;
+    }
+    return block;
+  }
+  
+  /** Adds a block to the cache, evicting the least recently used blocks if needed. */
+  synchronized void put(Key key, byte[] block)
+  {
+    if( block.length > capacity )
+    {
+      return;
+    }
+    byte[] old = blocks.put(key, block);
+    if( old != null )
+    {
+      size -= old.length;
+    }
+    size += block.length;
+    Iterator<Map.Entry<Key, byte[]>> it = blocks.entrySet().iterator();
+    while( size > capacity )
+    {
+      size -= it.next().getValue().length;
+      it.remove();
+    }
+  }
+  
+  synchronized long hits()
+  {
+    return hits;
+  }
+  
+  synchronized long misses()
+  {
+    return misses;
+  }
+  
+  synchronized long size()
+  {
+    return size;
+  }
+}
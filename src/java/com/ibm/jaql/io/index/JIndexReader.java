@@ -15,39 +15,60 @@
  */
 package com.ibm.jaql.io.index;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
-import java.io.DataInput;
-import java.io.EOFException;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
 import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.util.BaseUtil;
-import com.ibm.jaql.util.BufferedRandomAccessFile;
-import com.ibm.jaql.util.LongArray;
+import com.ibm.jaql.util.BloomFilter;
 
+/**
+ * Reads a JIndex written by {@link JIndexWriter}. The block index is loaded when the reader is
+ * opened; the blocks are memory-mapped and decompressed on demand into the 
+ * {@link JIndexBlockCache} shared by all readers. Indexes in the old format are read by 
+ * a {@link LegacyJIndexReader}.
+ * 
+ * Multiple range scans can be open at the same time.
+ */
 public class JIndexReader implements Closeable
 {
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+  
   private String filename;
+  private LegacyJIndexReader legacy;
+  private RandomAccessFile file;
   private long fileVersion;
-  private BufferedRandomAccessFile base;
-  private ArrayList<Index> indexes = new ArrayList<Index>();
-  private ArrayList<JsonValue> root;
-  private LongArray rootp;
-  private JsonValue key;
-  private JsonValue value;
-  private BufferedJsonArray tuple = new BufferedJsonArray(2);
-//  private Item result = new Item(tuple);
+  
+  // block index
+  private int numBlocks;
+  private JsonValue[] firstKeys;
+  private int[] storedLengths;
+  private int[] lengths;
+  private MappedByteBuffer[] segments;
+  private int[] blockSegments;
+  private int[] blockPositions;
+  
   private JsonValue minKey;
   private JsonValue maxKey;
-  private long numIndexes;
-  private long minOffset;
-
+  private long totalItems;
+  private BloomFilter bloom; // null if the index has none
+  
+  private JIndexBlockCache cache = JIndexBlockCache.getInstance();
   private BinaryFullSerializer serializer = DefaultBinaryFullSerializer.getInstance();
   
   /**
@@ -57,11 +78,23 @@ public class JIndexReader implements Closeable
    */
   public JIndexReader(String filename) throws IOException
   {
-    this.filename = filename;
-    readSummary();    
-    base = new BufferedRandomAccessFile(filename+".base", "r", 4096); // TODO: how to set buffer?
-    readHeader(base, JIndexWriter.BASE_FILE);
-    minOffset = base.getFilePointer();
+    File f = new File(filename + JIndexWriter.FILE_SUFFIX);
+    if( !f.exists() && new File(filename + ".summary").exists() )
+    {
+      legacy = new LegacyJIndexReader(filename);
+      return;
+    }
+    this.filename = f.getCanonicalPath();
+    file = new RandomAccessFile(f, "r");
+    try
+    {
+      open();
+    }
+    catch( IOException e )
+    {
+      file.close();
+      throw e;
+    }
   }
   
   /**
@@ -70,208 +103,262 @@ public class JIndexReader implements Closeable
    */
   public void close() throws IOException
   {
-    base.close();
-    for(Index index: indexes)
+    if( legacy != null )
     {
-      index.in.close();
+      legacy.close();
+    }
+    else
+    {
+      segments = null;
+      file.close();
     }
   }
   
+  /** Returns the number of (key,value)-pairs in the index, or -1 if unknown. */
+  public long size()
+  {
+    return legacy != null ? -1 : totalItems;
+  }
+  
   /**
    * Find all (key,value)-pairs between low and high.
    * 
-   * This code is NOT safe to produce multiple simultaneous scans! // TODO: improve this?
-   * You must open multiple JIndexReaders to do that at this time.
-   * 
    * @param low minimum value to include in scan, or null for no min
    * @param high maximum value to include in scan, or null for no max
    * @return
    */
   public JsonIterator rangeScan(final JsonValue low, final JsonValue high) throws IOException
   {
-    if( low == null )
+    if( legacy != null )
     {
-      base.seek(minOffset);
+      return legacy.rangeScan(low, high);
     }
-    else
+    if( numBlocks == 0 
+        || (low != null && JsonUtil.compare(low, maxKey) > 0) 
+        || (high != null && JsonUtil.compare(high, minKey) < 0) )
     {
-      if( root == null )
-      {
-        loadIndexes();
-      }
-      int p = Collections.binarySearch(root, low);
-      if( p < 0 ) // key not found in index
+      return JsonIterator.EMPTY;
+    }
+    if( bloom != null && low != null && high != null && JsonUtil.compare(low, high) == 0
+        && !bloom.mightContain(JsonUtil.longHashCode(low)) )
+    {
+      return JsonIterator.EMPTY; // point lookup of an absent key
+    }
+    
+    // find the last block whose first key is smaller than low; all keys >= low follow it
+    int first = 0;
+    if( low != null )
+    {
+      int hi = numBlocks - 1;
+      while( first < hi )
       {
-        p = -p - 1; 
-        // root[p-1] < low < root[p] (if p-1 >= 0 && p < root.size())
-        if( p == root.size() ) // p-1 = last, root[last] < low 
+        int mid = (first + hi + 1) >>> 1;
+        if( JsonUtil.compare(firstKeys[mid], low) < 0 )
         {
-          if( low.compareTo(maxKey) > 0 ) // root[last] < max < low
-          {
-            return JsonIterator.EMPTY;            // no results
-          }
-          // root[p-1] < low <= max
+          first = mid;
         }
-        // else p == 0, low < root[0], so use first index entry
-        // because root[0] is minKey in file
-      }
-      else // key is in index
-      {
-        p++;
-      }
-      // p is the index of the first key such that root[p] <= low, or 0 if low < root[0]
-      long offset = rootp.get(p);
-      offset = indexLookup(indexes.size() - 2, offset, low);
-      base.seek(offset);
-      try
-      {
-        key = serializer.read(base, key);
-        while( key.compareTo(low) < 0 )
+        else
         {
-          value = serializer.read(base, value);
-          offset = base.getFilePointer();
-          key = serializer.read(base, key);
+          hi = mid - 1;
         }
-        base.seek(offset);
-      }
-      catch(EOFException ex)
-      {
-        return JsonIterator.EMPTY;
       }
     }
-
-    return new JsonIterator(tuple)
-    {
-      @Override
-      public boolean moveNext() throws Exception
-      {
-        try
-        {
-          key = serializer.read(base, key);
-          value = serializer.read(base, value);
-          if( high == null || key.compareTo(high) <= 0 )
-          {
-            tuple.set(0, key);
-            tuple.set(1, value);
-            return true; // currentValue == tuple
-          }
-        }
-        catch(EOFException e) {}
-        base.seek(base.length()); // just to be safe in case moveNext() is called again
-        return false; 
-      }
-    };
+    return new RangeIterator(first, low, high);
   }
-    
-  private void loadIndexes() throws IOException
+  
+  /** Reads the header, the block index, and the trailer, and maps the blocks into memory. */
+  private void open() throws IOException
   {
-    root = new ArrayList<JsonValue>();
-    rootp = new LongArray();
-
-    for(int i = 0 ; i < numIndexes ; i++)
+    FileChannel channel = file.getChannel();
+    long size = channel.size();
+    if( size < JIndexWriter.TRAILER_SIZE )
     {
-      Index index = new Index(filename, i);
-      indexes.add(index);
+      throw new IOException("invalid index file: "+filename);
     }
-    Index index = indexes.get(indexes.size()-1);
-    try
+    
+    DataInputStream trailer = read(channel, size - JIndexWriter.TRAILER_SIZE, JIndexWriter.TRAILER_SIZE);
+    long indexOffset = trailer.readLong();
+    long x = trailer.readLong();
+    if( x != JIndexWriter.SUCCESS )
     {
-      rootp.add(index.prevMinOffset);
-      while( true )
+      throw new IOException("invalid index file indicator: "+x+" expected: "+JIndexWriter.SUCCESS);
+    }
+    
+    DataInputStream in = read(channel, 0, (int)Math.min(indexOffset, 20));
+    x = BaseUtil.readVULong(in);
+    if( x != JIndexWriter.ENCODING_VERSION )
+    {
+      throw new IOException("Invalid index encoding version: "+x+" expected: "+JIndexWriter.ENCODING_VERSION);
+    }
+    fileVersion = BaseUtil.readVULong(in);
+    
+    in = read(channel, indexOffset, (int)(size - JIndexWriter.TRAILER_SIZE - indexOffset));
+    numBlocks = (int)BaseUtil.readVULong(in);
+    firstKeys = new JsonValue[numBlocks];
+    long[] offsets = new long[numBlocks];
+    storedLengths = new int[numBlocks];
+    lengths = new int[numBlocks];
+    for(int i = 0 ; i < numBlocks ; i++)
+    {
+      firstKeys[i] = serializer.read(in, null);
+      offsets[i] = BaseUtil.readVULong(in);
+      storedLengths[i] = BaseUtil.readVUInt(in);
+      lengths[i] = BaseUtil.readVUInt(in);
+    }
+    minKey = serializer.read(in, null);
+    maxKey = serializer.read(in, null);
+    totalItems = BaseUtil.readVULong(in);
+    if( BaseUtil.readVUInt(in) != 0 )
+    {
+      bloom = BloomFilter.read(in);
+    }
+    
+    // map the blocks in segments of whole blocks; a single mapping is limited to 2GB
+    ArrayList<MappedByteBuffer> maps = new ArrayList<MappedByteBuffer>();
+    blockSegments = new int[numBlocks];
+    blockPositions = new int[numBlocks];
+    long start = 0;
+    long end = 0;
+    for(int i = 0 ; i < numBlocks ; i++)
+    {
+      if( i == 0 || offsets[i] + storedLengths[i] - start > MAX_SEGMENT_SIZE )
       {
-        JsonValue k = serializer.read(index.in, null);
-        root.add(k);
-        long offset = BaseUtil.readVULong(index.in);
-        rootp.add(offset);
+        if( i > 0 )
+        {
+          maps.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        }
+        start = offsets[i];
       }
+      end = offsets[i] + storedLengths[i];
+      blockSegments[i] = maps.size();
+      blockPositions[i] = (int)(offsets[i] - start);
     }
-    catch( EOFException ex ) {}
+    if( numBlocks > 0 )
+    {
+      maps.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+    segments = maps.toArray(new MappedByteBuffer[maps.size()]);
   }
   
-  private long indexLookup(int i, long offset, final JsonValue low) throws IOException
+  private static DataInputStream read(FileChannel channel, long offset, int length) throws IOException
   {
-    for( ; i >= 0 ; i--)
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while( buffer.hasRemaining() )
     {
-      try
+      if( channel.read(buffer, offset + buffer.position()) < 0 )
       {
-        Index index = indexes.get(i);
-        index.in.seek(offset);
-        offset = index.prevMinOffset;
-        key = serializer.read(index.in, key);
-        int c;
-        while( (c = low.compareTo(key)) > 0 )
-        {
-          offset = BaseUtil.readVULong(index.in);
-          key = serializer.read(index.in, key);
-        }
-        if( c == 0 )
-        {
-          offset = BaseUtil.readVULong(index.in);
-        }
+        throw new IOException("unexpected end of index file");
       }
-      catch( EOFException ex ) {}
     }
-    return offset;
+    return new DataInputStream(new ByteArrayInputStream(buffer.array()));
   }
-
-  private void readHeader(DataInput in, long fileType) throws IOException
+  
+  /** Returns the decompressed block i, from the block cache if possible. */
+  private byte[] getBlock(int i) throws IOException
   {
-    long x;
-    x = BaseUtil.readVULong(in);
-    if( x != JIndexWriter.ENCODING_VERSION )
+    JIndexBlockCache.Key key = new JIndexBlockCache.Key(filename, fileVersion, i);
+    byte[] block = cache.get(key);
+    if( block != null )
     {
-      throw new IOException("Invalid index encoding version: "+x+" expected: "+JIndexWriter.ENCODING_VERSION);
-    }
-    x = BaseUtil.readVULong(in);
-    if( fileVersion == 0 )
-    {
-      fileVersion = x;
+      return block;
     }
-    else if( x != fileVersion )
+    
+    ByteBuffer segment = segments[blockSegments[i]].duplicate();
+    segment.position(blockPositions[i]);
+    byte[] stored = new byte[storedLengths[i]];
+    segment.get(stored);
+    if( storedLengths[i] == lengths[i] ) // stored uncompressed
     {
-      throw new IOException("Invalid index version: "+x+" expected: "+fileVersion);
+      block = stored;
     }
-    x = BaseUtil.readVULong(in);
-    if( x != fileType )
+    else
     {
-      throw new IOException("Invalid index file type: "+x+" expected: "+fileType);
+      block = new byte[lengths[i]];
+      Inflater inflater = new Inflater();
+      try
+      {
+        inflater.setInput(stored);
+        int n = 0;
+        while( n < block.length )
+        {
+          int k = inflater.inflate(block, n, block.length - n);
+          if( k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) )
+          {
+            throw new IOException("truncated block "+i+" in index file: "+filename);
+          }
+          n += k;
+        }
+      }
+      catch( DataFormatException e )
+      {
+        IOException ioe = new IOException("corrupt block "+i+" in index file: "+filename);
+        ioe.initCause(e);
+        throw ioe;
+      }
+      finally
+      {
+        inflater.end();
+      }
     }
+    cache.put(key, block);
+    return block;
   }
   
-  private void readSummary() throws IOException
+  /** Iterates over the (key,value)-pairs between low and high, starting at a given block. */
+  private final class RangeIterator extends JsonIterator
   {
-    BufferedRandomAccessFile summary =  new BufferedRandomAccessFile(filename+".summary", "r", 4096);
-    readHeader(summary, JIndexWriter.SUMMARY_FILE);
+    private int nextBlock;
+    private JsonValue low;
+    private final JsonValue high;
+    private DataInputStream in;
+    private JsonValue key;
+    private JsonValue value;
+    private final BufferedJsonArray tuple;
     
-    minKey = serializer.read(summary, minKey);
-    maxKey = serializer.read(summary, maxKey);
-    /*totalItems =*/ BaseUtil.readVULong(summary);
-    numIndexes = BaseUtil.readVULong(summary);
-
-    long x = BaseUtil.readVULong(summary);
-    if( x != JIndexWriter.SUCCESS )
+    RangeIterator(int firstBlock, JsonValue low, JsonValue high)
     {
-      throw new IOException("invalid index summary file indicator: "+x+" expected: "+JIndexWriter.SUCCESS);
+      super(new BufferedJsonArray(2));
+      this.tuple = (BufferedJsonArray)currentValue;
+      this.nextBlock = firstBlock;
+      this.low = low;
+      this.high = high;
     }
-
-    summary.close();
-  }
-
-  class Index
-  {
-    BufferedRandomAccessFile in;
-    long prevMinOffset;
     
-    public Index(String loc, int level) throws IOException
+    @Override
+    public boolean moveNext() throws Exception
     {
-      in = new BufferedRandomAccessFile(loc+".idx"+level, "r", 1024); // TODO: how to set buffer?
-      readHeader(in, JIndexWriter.INDEX_FILE);
-      long x = BaseUtil.readVULong(in);
-      if( x != level )
+      while( true )
       {
-        throw new IOException("invalid index file level: "+x+" expected: "+level);
+        if( in == null || in.available() == 0 )
+        {
+          if( nextBlock >= numBlocks )
+          {
+            in = null;
+            return false;
+          }
+          in = new DataInputStream(new ByteArrayInputStream(getBlock(nextBlock++)));
+          continue;
+        }
+        key = serializer.read(in, key);
+        value = serializer.read(in, value);
+        if( low != null )
+        {
+          if( JsonUtil.compare(key, low) < 0 )
+          {
+            continue;
+          }
+          low = null; // all following keys are >= low
+        }
+        if( high != null && JsonUtil.compare(key, high) > 0 )
+        {
+          nextBlock = numBlocks;
+          in = null;
+          return false;
+        }
+        tuple.set(0, key);
+        tuple.set(1, value);
+        return true; // currentValue == tuple
       }
-      prevMinOffset = level == 0 ? minOffset : in.getFilePointer(); 
     }
   }
 }
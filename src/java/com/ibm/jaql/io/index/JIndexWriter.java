@@ -22,62 +22,104 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
 import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.util.BaseUtil;
+import com.ibm.jaql.util.BloomFilter;
+import com.ibm.jaql.util.IntArray;
+import com.ibm.jaql.util.LongArray;
+import com.ibm.jaql.util.UnsynchronizedByteArrayOutputStream;
 
+/**
+ * Writes a JIndex file. The (key,value)-pairs are serialized into blocks of about
+ * <code>jaql.jindex.block.size</code> bytes; each block is compressed and written to the
+ * <code>.jindex</code> file. The first key of each block is kept in a block index that is 
+ * written to the end of the file together with the key range, the item count, and an optional
+ * Bloom filter over all keys (<code>jaql.jindex.bloom.bits</code> bits per key, 0 disables it).
+ * A fixed-size trailer stores the offset of the block index.
+ * 
+ * <pre>
+ * file    := header block* index trailer
+ * header  := VULong(ENCODING_VERSION) VULong(fileVersion)
+ * block   := deflate((key value)*) | (key value)*
+ * index   := VULong(numBlocks) (firstKey VULong(offset) VUInt(storedLength) VUInt(length))* 
+ *            minKey maxKey VULong(totalItems) VUInt(hasBloom) bloom?
+ * trailer := long(indexOffset) long(SUCCESS)
+ * </pre>
+ * 
+ * A block is stored uncompressed if compression does not make it smaller.
+ */
 public final class JIndexWriter implements Closeable
 {
-  public static final long ENCODING_VERSION = 1;
-  public static final long SUMMARY_FILE = 1;
-  public static final long BASE_FILE = 2;
-  public static final long INDEX_FILE = 3;
-  public static final long SUCCESS = 17;
+  public static final long ENCODING_VERSION = 2;
+  public static final long SUCCESS = 0x4a496e6465783217L;
+  public static final String FILE_SUFFIX = ".jindex";
+  public static final int TRAILER_SIZE = 16;
   
-  private static final int indexSkip = 100;
-  private static final int baseSkip = 1;
-  private String filename;
-  private DataOutputStream base;
-  private DataOutputStream summary;
-  private ArrayList<Index> indexes = new ArrayList<Index>();
-  private long totalItems = 0;
-  private long baseItems = 0;
+  public static final String BLOCK_SIZE_PROPERTY = "jaql.jindex.block.size";
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  public static final String BLOOM_BITS_PROPERTY = "jaql.jindex.bloom.bits";
+  public static final int DEFAULT_BLOOM_BITS = 10;
+  
+  private File file;
+  private BufferedOutputStream out;
+  private long offset = 0;
   private long fileVersion;
+  private int blockSize;
+  private int bloomBits;
+  
+  private UnsynchronizedByteArrayOutputStream blockBuffer = new UnsynchronizedByteArrayOutputStream();
+  private DataOutputStream block = new DataOutputStream(blockBuffer);
+  private byte[] compressed = new byte[0];
+  private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  
+  // block index
+  private ArrayList<JsonValue> firstKeys = new ArrayList<JsonValue>();
+  private LongArray blockOffsets = new LongArray();
+  private IntArray storedLengths = new IntArray();
+  private IntArray lengths = new IntArray();
+  private LongArray keyHashes; // null if no bloom filter is built
+  
+  private long totalItems = 0;
+  private JsonValue minKey = null;
   private JsonValue prevKey = null;
   
   private BinaryFullSerializer serializer = DefaultBinaryFullSerializer.getInstance();
   
   public JIndexWriter(String filename) throws IOException
   {
-    this.filename = filename;
+    this(filename, 
+        Integer.getInteger(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE),
+        Integer.getInteger(BLOOM_BITS_PROPERTY, DEFAULT_BLOOM_BITS));
+  }
+  
+  /**
+   * @param filename location of the index; the file <code>filename.jindex</code> is written
+   * @param blockSize uncompressed size of a block in bytes
+   * @param bloomBits bits per key in the Bloom filter, or 0 for no Bloom filter
+   * @throws IOException
+   */
+  public JIndexWriter(String filename, int blockSize, int bloomBits) throws IOException
+  {
+    this.file = new File(filename + FILE_SUFFIX);
     this.fileVersion = System.currentTimeMillis();
-    FileOutputStream fos  = new FileOutputStream(filename+".base");
-    base = new DataOutputStream(new BufferedOutputStream(fos));
-    writeHeader(base, BASE_FILE);
-    
-    fos  = new FileOutputStream(filename+".summary");
-    summary = new DataOutputStream(new BufferedOutputStream(fos));
-    writeHeader(summary, SUMMARY_FILE);
-    
-    // Delete old index files (assumes all 0..n are present)
-    // TODO: this would be better using a filename.idx*
-    int i = 0;
-    File file = new File(filename+".idx"+i);
-    while( file.exists() )
+    this.blockSize = Math.max(1, blockSize);
+    this.bloomBits = Math.max(0, bloomBits);
+    if( bloomBits > 0 )
     {
-      if( !file.delete() )
-      {
-        throw new IOException("couldn't delete index file: "+file);
-      }
-      i++;
-      file = new File(filename+".idx"+i);
+      keyHashes = new LongArray();
     }
+    deleteLegacyFiles(filename);
     
-    indexes.add(new Index(filename, 0));
-    indexes.add(new Index(filename, 1));
+    out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+    BaseUtil.writeVULong(block, ENCODING_VERSION);
+    BaseUtil.writeVULong(block, fileVersion);
+    writeBuffer(blockBuffer.getBuffer(), blockBuffer.size());
+    blockBuffer.reset();
   }
   
   /**
@@ -89,28 +131,25 @@ public final class JIndexWriter implements Closeable
    */
   public void add(JsonValue key, JsonValue value) throws Exception
   {
+    if( blockBuffer.size() >= blockSize )
+    {
+      flushBlock();
+    }
+    if( blockBuffer.size() == 0 )
+    {
+      firstKeys.add(JsonUtil.getImmutableCopy(key));
+    }
     if( totalItems == 0 )
     {
-      serializer.write(summary, key);
-      baseItems++;
-      if( baseItems >= baseSkip )
-      {
-        writeIndex(0,key,base.size());
-        baseItems = 0;
-      }
+      minKey = JsonUtil.getImmutableCopy(key);
     }
-    else
+    if( keyHashes != null && (totalItems == 0 || JsonUtil.compare(key, prevKey) != 0) )
     {
-      baseItems++;
-      if( baseItems >= baseSkip && key.compareTo(prevKey) != 0 )
-      {
-        writeIndex(0,key,base.size());
-        baseItems = 0;
-      }
+      keyHashes.add(JsonUtil.longHashCode(key));
     }
     prevKey = JsonUtil.getCopy(key, prevKey);
-    serializer.write(base, key);
-    serializer.write(base, value);
+    serializer.write(block, key);
+    serializer.write(block, value);
     totalItems++;
   }
   
@@ -121,84 +160,102 @@ public final class JIndexWriter implements Closeable
    */
   public void close() throws IOException
   {
-    // prune tiny indexes away
-    while( true )
+    flushBlock();
+    deflater.end();
+    
+    long indexOffset = offset;
+    int n = firstKeys.size();
+    BaseUtil.writeVULong(block, n);
+    for(int i = 0 ; i < n ; i++)
     {
-      int n = indexes.size();
-      Index index = indexes.get(n-1);
-      if( n == 1 || index.numKeys >= indexSkip / 2 )
-      {
-        break;
-      }
-      index.out.close();
-      if( ! index.file.delete() )
-      {
-        throw new IOException("index couldn't be deleted: "+index.file);
-      }
-      indexes.remove(n-1);
+      serializer.write(block, firstKeys.get(i));
+      BaseUtil.writeVULong(block, blockOffsets.get(i));
+      BaseUtil.writeVUInt(block, storedLengths.get(i));
+      BaseUtil.writeVUInt(block, lengths.get(i));
     }
-
-    if( totalItems == 0 ) // if empty file, write null for min key
+    serializer.write(block, minKey);
+    serializer.write(block, prevKey); // max key
+    BaseUtil.writeVULong(block, totalItems);
+    if( keyHashes != null )
     {
-      serializer.write(summary, prevKey);
+      BloomFilter bloom = new BloomFilter(keyHashes.size(), bloomBits);
+      for(int i = 0 ; i < keyHashes.size() ; i++)
+      {
+        bloom.add(keyHashes.get(i));
+      }
+      BaseUtil.writeVUInt(block, 1);
+      bloom.write(block);
     }
-    serializer.write(summary, prevKey); // write max key
-    BaseUtil.writeVULong(summary, totalItems);
-    BaseUtil.writeVULong(summary, indexes.size());
-
-    for(Index index: indexes)
+    else
     {
-      index.out.close();
+      BaseUtil.writeVUInt(block, 0);
     }
-
-    base.close();
-
-    BaseUtil.writeVULong(summary, SUCCESS);
-    summary.close();
+    block.writeLong(indexOffset);
+    block.writeLong(SUCCESS);
+    writeBuffer(blockBuffer.getBuffer(), blockBuffer.size());
+    out.close();
   }
   
-  private void writeIndex(int level, JsonValue key, long offset) throws IOException
+  /** Compresses the current block and appends it to the file. */
+  private void flushBlock() throws IOException
   {
-    Index index0 = indexes.get(level);
-    Index index1 = indexes.get(level+1);
-    index1.counter++;
-    if( index1.counter == indexSkip )
+    int length = blockBuffer.size();
+    if( length == 0 )
     {
-      if( indexes.size() == level + 2 )
-      {
-        indexes.add(new Index(filename,level+2));
-      }
-      writeIndex(level+1, key, index0.out.size());
+      return;
     }
-    serializer.write(index0.out, key);
-    BaseUtil.writeVULong(index0.out, offset);
-    index0.numKeys++;
-    index0.counter = 0;
+    byte[] bytes = blockBuffer.getBuffer();
+    if( compressed.length < length )
+    {
+      compressed = new byte[length];
+    }
+    deflater.reset();
+    deflater.setInput(bytes, 0, length);
+    deflater.finish();
+    int storedLength = 0;
+    while( !deflater.finished() && storedLength < length )
+    {
+      storedLength += deflater.deflate(compressed, storedLength, length - storedLength);
+    }
+    
+    blockOffsets.add(offset);
+    lengths.add(length);
+    if( deflater.finished() && storedLength < length )
+    {
+      storedLengths.add(storedLength);
+      writeBuffer(compressed, storedLength);
+    }
+    else // incompressible
+    {
+      storedLengths.add(length);
+      writeBuffer(bytes, length);
+    }
+    blockBuffer.reset();
   }
   
-  private void writeHeader(DataOutputStream out, long fileType) throws IOException
+  private void writeBuffer(byte[] bytes, int length) throws IOException
   {
-    BaseUtil.writeVULong(out, ENCODING_VERSION);
-    BaseUtil.writeVULong(out, fileVersion);
-    BaseUtil.writeVULong(out, fileType);
+    out.write(bytes, 0, length);
+    offset += length;
   }
-
-  class Index
+  
+  /** Delete the files of an index in the old (version 1) format at the same location. */
+  private static void deleteLegacyFiles(String filename) throws IOException
   {
-    int counter;
-    long numKeys;
-    File file;
-    FileOutputStream fos;
-    DataOutputStream out;
-    
-    public Index(String loc, int level) throws IOException
+    ArrayList<File> files = new ArrayList<File>();
+    files.add(new File(filename+".base"));
+    files.add(new File(filename+".summary"));
+    // assumes all index levels 0..n are present
+    for(int i = 0 ; new File(filename+".idx"+i).exists() ; i++)
     {
-      file = new File(loc+".idx"+level);
-      fos = new FileOutputStream(file);
-      out = new DataOutputStream(new BufferedOutputStream(fos));
-      writeHeader(out, INDEX_FILE);
-      BaseUtil.writeVULong(out, level);
+      files.add(new File(filename+".idx"+i));
+    }
+    for(File f: files)
+    {
+      if( f.exists() && !f.delete() )
+      {
+        throw new IOException("couldn't delete index file: "+f);
+      }
     }
   }
-
 }
@@ -23,10 +23,12 @@ import com.ibm.jaql.io.serialization.FullSerializer;
 import com.ibm.jaql.io.serialization.binary.BinaryBasicSerializer;
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonArray;
 import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.LazyJsonArray;
 import com.ibm.jaql.util.BaseUtil;
 
-class BufferedJsonArraySerializer extends BinaryBasicSerializer<BufferedJsonArray>
+class BufferedJsonArraySerializer extends BinaryBasicSerializer<JsonArray>
 {
   BinaryFullSerializer fullSerializer;
   
@@ -57,15 +59,22 @@ class BufferedJsonArraySerializer extends BinaryBasicSerializer<BufferedJsonArra
   }
 
   @Override
-  public void write(DataOutput out, BufferedJsonArray value) throws IOException
+  public void write(DataOutput out, JsonArray value) throws IOException
   {
+    if (value instanceof LazyJsonArray)
+    {
+      // still in this format
+      ((LazyJsonArray)value).writeEncoded(out);
+      return;
+    }
+    
     // update AscDescItemComparator when changing this
-
-    int n = value.size();
+    BufferedJsonArray array = (BufferedJsonArray)value;
+    int n = array.size();
     BaseUtil.writeVUInt(out, n);
     for (int i = 0; i < n; i++)
     {
-      fullSerializer.write(out, value.getUnchecked(i));
+      fullSerializer.write(out, array.getUnchecked(i));
     }
   }
   
@@ -75,6 +84,16 @@ class BufferedJsonArraySerializer extends BinaryBasicSerializer<BufferedJsonArra
     return FullSerializer.compareArrays(in1, n1, in2, n2, fullSerializer);
   }
   
-  //TODO: efficient implementation of skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    int n = BaseUtil.readVUInt(in);
+    for (int i = 0; i < n; i++)
+    {
+      fullSerializer.skip(in);
+    }
+  }
+
+  //TODO: efficient implementation of copy
 
 }
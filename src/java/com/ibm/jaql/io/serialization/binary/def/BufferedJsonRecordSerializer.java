@@ -23,15 +23,28 @@ import java.util.Map.Entry;
 
 import com.ibm.jaql.io.serialization.binary.BinaryBasicSerializer;
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.LazyJsonRecord;
+import com.ibm.jaql.json.type.MutableJsonString;
+import com.ibm.jaql.json.util.FieldNameCache;
 import com.ibm.jaql.util.BaseUtil;
 
-class BufferedJsonRecordSerializer extends BinaryBasicSerializer<BufferedJsonRecord>
+class BufferedJsonRecordSerializer extends BinaryBasicSerializer<JsonRecord>
 {
   BinaryBasicSerializer<JsonString> nameSerializer;
   BinaryFullSerializer valueSerializer;
+  
+  // buffer for reading field names; instances of this class are shared across threads
+  private static final ThreadLocal<MutableJsonString> nameBuffer = new ThreadLocal<MutableJsonString>() {
+    @Override
+    protected MutableJsonString initialValue()
+    {
+      return new MutableJsonString();
+    }
+  };
 
   public BufferedJsonRecordSerializer(BinaryBasicSerializer<JsonString> nameSerializer, BinaryFullSerializer valueSerializer)
   {
@@ -54,9 +67,10 @@ class BufferedJsonRecordSerializer extends BinaryBasicSerializer<BufferedJsonRec
 
     JsonString[] names = t.getInternalNamesArray();
     JsonValue[] values = t.getInternalValuesArray();
+    MutableJsonString name = nameBuffer.get();
     for (int i = 0; i < arity; i++)
     {
-      names[i] = nameSerializer.read(in, names[i]);
+      names[i] = FieldNameCache.get(nameSerializer.read(in, name));
       values[i] = valueSerializer.read(in, values[i]);
     }
     
@@ -66,8 +80,14 @@ class BufferedJsonRecordSerializer extends BinaryBasicSerializer<BufferedJsonRec
 
 
   @Override
-  public void write(DataOutput out, BufferedJsonRecord value) throws IOException
+  public void write(DataOutput out, JsonRecord value) throws IOException
   {
+    if (value instanceof LazyJsonRecord)
+    {
+      // still in this format
+      ((LazyJsonRecord)value).writeEncoded(out);
+      return;
+    }
     int arity = value.size();
     BaseUtil.writeVUInt(out, arity);
     Iterator<Entry<JsonString, JsonValue>> it = value.iteratorSorted(); // write in sorted order for comparison!
@@ -95,6 +115,17 @@ class BufferedJsonRecordSerializer extends BinaryBasicSerializer<BufferedJsonRec
     return arity1-arity2;
   }
 
-  //TODO: efficient implementation of skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    int arity = BaseUtil.readVUInt(in);
+    for (int i = 0; i < arity; i++)
+    {
+      nameSerializer.skip(in);
+      valueSerializer.skip(in);
+    }
+  }
+
+  //TODO: efficient implementation of copy
 }
 
@@ -39,5 +39,11 @@ class JsonBoolSerializer extends BinaryBasicSerializer<JsonBool>
   }
   
   
-  //TODO: efficient implementation of compare, skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    in.skipBytes(1);
+  }
+
+  //TODO: efficient implementation of compare, and copy
 }
@@ -48,5 +48,11 @@ class JsonDateSerializer extends BinaryBasicSerializer<JsonDate>
   }
   
   
-  //TODO: efficient implementation of compare, skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    in.skipBytes(8);
+  }
+
+  //TODO: efficient implementation of compare, and copy
 }
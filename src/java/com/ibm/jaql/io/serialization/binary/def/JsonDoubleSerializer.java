@@ -47,5 +47,11 @@ class JsonDoubleSerializer extends BinaryBasicSerializer<JsonDouble>
   }
   
   
-  //TODO: efficient implementation of compare, skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    in.skipBytes(8);
+  }
+
+  //TODO: efficient implementation of compare, and copy
 }
@@ -48,5 +48,11 @@ class JsonLongSerializer extends BinaryBasicSerializer<JsonLong>
   }
   
   
-  //TODO: efficient implementation of compare, skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    BaseUtil.readVSLong(in);
+  }
+
+  //TODO: efficient implementation of compare, and copy
 }
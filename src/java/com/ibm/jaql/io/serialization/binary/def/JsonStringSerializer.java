@@ -53,5 +53,12 @@ class JsonStringSerializer extends BinaryBasicSerializer<JsonString>
     value.writeBytes(out);
   }
 
-  //TODO: efficient implementation of compare, skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    int length = BaseUtil.readVUInt(in);
+    in.skipBytes(length);
+  }
+
+  //TODO: efficient implementation of compare, and copy
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.serialization.binary.def;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonEncoding;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.LazyJsonArray;
+import com.ibm.jaql.json.type.LazyJsonRecord;
+import com.ibm.jaql.util.BaseUtil;
+
+/** Reads the format of {@link DefaultBinaryFullSerializer} into lazy values. Records and buffered
+ * arrays are not decoded when read; their serialized form is kept in a {@link LazyJsonRecord} or
+ * {@link LazyJsonArray}, which decodes individual fields and elements on access. All other
+ * values, as well as writing, skipping, comparing, and copying, are handled by the default
+ * serializer. */
+public class LazyBinaryFullSerializer extends BinaryFullSerializer
+{
+  /** Name of the job conf (or system) property that enables lazy reads of temporary data */
+  public static final String ENABLED_PROPERTY = "jaql.lazy.values";
+
+  private static final boolean enabled
+    = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+  // buffer for capturing serialized values; instances of this class are shared across threads
+  private static final ThreadLocal<RecordingDataInput> recorder = new ThreadLocal<RecordingDataInput>() {
+    @Override
+    protected RecordingDataInput initialValue()
+    {
+      return new RecordingDataInput();
+    }
+  };
+
+  private final DefaultBinaryFullSerializer defaultSerializer = DefaultBinaryFullSerializer.getInstance();
+
+
+  // -- default instance --------------------------------------------------------------------------
+
+  private static final LazyBinaryFullSerializer defaultInstance = new LazyBinaryFullSerializer();
+  public static LazyBinaryFullSerializer getInstance() {
+    return defaultInstance;
+  }
+
+  /** Returns true unless lazy reads have been disabled via {@link #ENABLED_PROPERTY} */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+
+  // -- construction ------------------------------------------------------------------------------
+
+  private LazyBinaryFullSerializer() {
+  }
+
+
+  // -- FullSerializer methods --------------------------------------------------------------------
+
+  @Override
+  public JsonValue read(DataInput in, JsonValue target) throws IOException
+  {
+    int encodingId = BaseUtil.readVUInt(in);
+    return read(in, JsonEncoding.getEncoding(encodingId), target);
+  }
+
+  /** Reads a value of the specified encoding; its encoding id has already been read from
+   * <code>in</code>. */
+  public JsonValue read(DataInput in, JsonEncoding encoding, JsonValue target) throws IOException
+  {
+    switch (encoding)
+    {
+    case RECORD: {
+      RecordingDataInput r = record(in, encoding);
+      LazyJsonRecord t = target instanceof LazyJsonRecord ? (LazyJsonRecord)target : new LazyJsonRecord();
+      t.setCopy(r.getData(), 0, r.getLength());
+      return t;
+    }
+    case ARRAY_BUFFERED: {
+      RecordingDataInput r = record(in, encoding);
+      LazyJsonArray t = target instanceof LazyJsonArray ? (LazyJsonArray)target : new LazyJsonArray();
+      t.setCopy(r.getData(), 0, r.getLength());
+      return t;
+    }
+    default:
+      return defaultSerializer.getSerializer(encoding).read(in, target);
+    }
+  }
+
+  /** Skips over a value of the specified encoding and returns the recorded bytes. */
+  private RecordingDataInput record(DataInput in, JsonEncoding encoding) throws IOException
+  {
+    RecordingDataInput r = recorder.get();
+    r.reset(in);
+    defaultSerializer.getSerializer(encoding).skip(r);
+    return r;
+  }
+
+  @Override
+  public void write(DataOutput out, JsonValue value) throws IOException
+  {
+    defaultSerializer.write(out, value);
+  }
+
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    defaultSerializer.skip(in);
+  }
+
+  @Override
+  public int compare(DataInput in1, DataInput in2) throws IOException
+  {
+    return defaultSerializer.compare(in1, in2);
+  }
+
+  @Override
+  public void copy(DataInput in, DataOutput out) throws IOException
+  {
+    defaultSerializer.copy(in, out);
+  }
+}
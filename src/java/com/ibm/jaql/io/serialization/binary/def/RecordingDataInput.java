@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.serialization.binary.def;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/** A {@link DataInput} that reads from another input and records every byte read or skipped.
+ * Used to capture the serialized form of a value while skipping over it. */
+class RecordingDataInput implements DataInput
+{
+  private DataInput in;
+  private byte[] buf = new byte[256];
+  private int length;
+
+  /** Starts recording the bytes read from <code>in</code>. */
+  void reset(DataInput in)
+  {
+    this.in = in;
+    length = 0;
+  }
+
+  /** Returns the buffer holding the recorded bytes. */
+  byte[] getData()
+  {
+    return buf;
+  }
+
+  /** Returns the number of bytes recorded. */
+  int getLength()
+  {
+    return length;
+  }
+
+  /** Reads n bytes into the buffer and returns their offset. */
+  private int fill(int n) throws IOException
+  {
+    if (length + n > buf.length)
+    {
+      byte[] newBuf = new byte[Math.max(length + n, 2*buf.length)];
+      System.arraycopy(buf, 0, newBuf, 0, length);
+      buf = newBuf;
+    }
+    in.readFully(buf, length, n);
+    int pos = length;
+    length += n;
+    return pos;
+  }
+
+
+  // -- DataInput ---------------------------------------------------------------------------------
+
+  @Override
+  public void readFully(byte[] b) throws IOException
+  {
+    readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) throws IOException
+  {
+    int pos = fill(len);
+    System.arraycopy(buf, pos, b, off, len);
+  }
+
+  @Override
+  public int skipBytes(int n) throws IOException
+  {
+    fill(n);
+    return n;
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException
+  {
+    return readByte() != 0;
+  }
+
+  @Override
+  public byte readByte() throws IOException
+  {
+    return buf[fill(1)];
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException
+  {
+    return buf[fill(1)] & 0xff;
+  }
+
+  @Override
+  public short readShort() throws IOException
+  {
+    int pos = fill(2);
+    return (short)(((buf[pos] & 0xff) << 8) | (buf[pos+1] & 0xff));
+  }
+
+  @Override
+  public int readUnsignedShort() throws IOException
+  {
+    return readShort() & 0xffff;
+  }
+
+  @Override
+  public char readChar() throws IOException
+  {
+    return (char)readShort();
+  }
+
+  @Override
+  public int readInt() throws IOException
+  {
+    int pos = fill(4);
+    return ((buf[pos] & 0xff) << 24) | ((buf[pos+1] & 0xff) << 16)
+      | ((buf[pos+2] & 0xff) << 8) | (buf[pos+3] & 0xff);
+  }
+
+  @Override
+  public long readLong() throws IOException
+  {
+    long hi = readInt();
+    long lo = readInt();
+    return (hi << 32) | (lo & 0xffffffffL);
+  }
+
+  @Override
+  public float readFloat() throws IOException
+  {
+    return Float.intBitsToFloat(readInt());
+  }
+
+  @Override
+  public double readDouble() throws IOException
+  {
+    return Double.longBitsToDouble(readLong());
+  }
+
+  @Override
+  public String readLine() throws IOException
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String readUTF() throws IOException
+  {
+    return DataInputStream.readUTF(this);
+  }
+}
@@ -85,5 +85,15 @@ class SpilledJsonArraySerializer extends BinaryBasicSerializer<SpilledJsonArray>
     return FullSerializer.compareArrays(in1, n1, in2, n2, fullSerializer);
   }
 
-  // TODO: efficient implementation of skip, and copy
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    long count = BaseUtil.readVULong(in);
+    for (long i = 0; i < count; i++)
+    {
+      fullSerializer.skip(in);
+    }
+  }
+
+  // TODO: efficient implementation of copy
 }
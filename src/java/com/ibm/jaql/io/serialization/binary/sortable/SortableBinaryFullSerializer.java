@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.serialization.binary.sortable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonBinary;
+import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonDate;
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonType;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.BaseUtil;
+
+/**
+ * Serializer with a byte-comparable encoding: comparing two encoded values byte by byte
+ * (unsigned) gives the order of {@link com.ibm.jaql.json.type.JsonUtil#compare(JsonValue, JsonValue)}.
+ * Used for map output keys so that the shuffle sort never decodes a key. The format is not
+ * stable.
+ *
+ * An encoded value consists of a body followed by a trailer. The body determines the order.
+ * Every value starts with a type byte (the ordinal of its {@link JsonType}); arrays and records
+ * are terminated by <code>END</code>, which is smaller than any type byte, and strings and
+ * binaries are escaped and terminated so that a prefix sorts first. Record fields are written in
+ * sorted order.
+ *
+ * All numbers share one type byte and are encoded by their decimal value (sign, exponent,
+ * digits), so that numbers of different types compare by value. The trailer holds the original
+ * type of each number in the body (and the scale of decimals), so that values are decoded
+ * without loss. Equal numbers of different types, or decimals of different scale, differ only in
+ * the trailer; comparisons ignore the trailer (see {@link #compareBodies}), so that such values
+ * compare equal and are grouped together. Doubles are compared at the precision of
+ * {@link MathContext#DECIMAL128}, as in {@link JsonDouble#decimalValue()}.
+ *
+ * Schemata, functions, java objects, regexes, and spans are ordered by their default
+ * serialization.
+ */
+public class SortableBinaryFullSerializer extends BinaryFullSerializer
+{
+  // -- encoding ----------------------------------------------------------------------------------
+
+  /** Terminates arrays and records; smaller than any type byte */
+  static final int END = 0x00;
+
+  /** Precedes each field of a record */
+  static final int FIELD = 0x01;
+
+  /** Escapes a zero byte in strings and binaries */
+  static final int ESCAPE = 0xFF;
+
+  /** Terminates strings and binaries (after a zero byte) */
+  static final int TERMINATOR = 0x01;
+
+  /** Type byte shared by all numbers */
+  static final int NUMBER = JsonType.LONG.ordinal();
+
+  // classes of numbers, in sort order
+  static final int NEG_INFINITY = 0x01;
+  static final int NEGATIVE     = 0x02;
+  static final int ZERO         = 0x03;
+  static final int POSITIVE     = 0x04;
+  static final int POS_INFINITY = 0x05;
+  static final int NAN          = 0x06;
+
+  // number types in the trailer
+  static final int LONG         = 'L';
+  static final int DOUBLE       = 'D';
+  static final int NEG_ZERO     = 'Z';
+  static final int DECFLOAT     = 'M';
+
+  private static final JsonType[] TYPES = JsonType.values();
+
+  private final DefaultBinaryFullSerializer defaultSerializer = DefaultBinaryFullSerializer.getInstance();
+
+  // buffers
+  private final DataOutputBuffer trailer = new DataOutputBuffer();
+  private final DataOutputBuffer body = new DataOutputBuffer();
+  private final DataInputBuffer bodyIn = new DataInputBuffer();
+  private final DataOutputBuffer other = new DataOutputBuffer();
+  private final DataInputBuffer otherIn = new DataInputBuffer();
+  private final DataOutputBuffer buffer1 = new DataOutputBuffer();
+  private final DataOutputBuffer buffer2 = new DataOutputBuffer();
+  private final StringBuilder digits = new StringBuilder();
+
+
+  // -- full serialization ------------------------------------------------------------------------
+
+  @Override
+  public JsonValue read(DataInput in, JsonValue target) throws IOException
+  {
+    // the trailer follows the body, so the body is buffered first
+    body.reset();
+    copyBody(in, body, in.readUnsignedByte());
+    bodyIn.reset(body.getData(), body.getLength());
+    return readBody(bodyIn, in, bodyIn.readUnsignedByte());
+  }
+
+  @Override
+  public void write(DataOutput out, JsonValue value) throws IOException
+  {
+    trailer.reset();
+    writeBody(out, value);
+    out.write(trailer.getData(), 0, trailer.getLength());
+  }
+
+  @Override
+  public void skip(DataInput in) throws IOException
+  {
+    body.reset();
+    int n = copyBody(in, body, in.readUnsignedByte());
+    copyTrailer(in, body, n);
+  }
+
+  @Override
+  public void copy(DataInput in, DataOutput out) throws IOException
+  {
+    body.reset();
+    int n = copyBody(in, body, in.readUnsignedByte());
+    copyTrailer(in, body, n);
+    out.write(body.getData(), 0, body.getLength());
+  }
+
+  @Override
+  public int compare(DataInput in1, DataInput in2) throws IOException
+  {
+    buffer1.reset();
+    skipTrailer(in1, copyBody(in1, buffer1, in1.readUnsignedByte()));
+    buffer2.reset();
+    skipTrailer(in2, copyBody(in2, buffer2, in2.readUnsignedByte()));
+    return WritableComparator.compareBytes(buffer1.getData(), 0, buffer1.getLength(),
+                                           buffer2.getData(), 0, buffer2.getLength());
+  }
+
+  /**
+   * Writes the body of <code>value</code> only. Values that compare equal have equal bodies, so
+   * the body is a canonical form of a value that can be hashed and compared byte by byte, but not
+   * be read back.
+   */
+  public void writeCanonical(DataOutput out, JsonValue value) throws IOException
+  {
+    trailer.reset();
+    writeBody(out, value);
+  }
+
+  /**
+   * Compares two encoded values byte by byte, ignoring their trailers. The result is consistent
+   * with {@link #compare(DataInput, DataInput)}.
+   */
+  public static int compareBodies(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2)
+  {
+    return WritableComparator.compareBytes(b1, s1, skipBody(b1, s1) - s1, 
+                                           b2, s2, skipBody(b2, s2) - s2);
+  }
+
+
+  // -- writing -----------------------------------------------------------------------------------
+
+  private void writeBody(DataOutput out, JsonValue value) throws IOException
+  {
+    if (value == null)
+    {
+      out.write(JsonType.NULL.ordinal());
+      return;
+    }
+
+    JsonType type = value.getType();
+    switch (type)
+    {
+    case ARRAY:
+      out.write(type.ordinal());
+      for (JsonValue v : (JsonArray)value)
+      {
+        writeBody(out, v);
+      }
+      out.write(END);
+      break;
+    case RECORD:
+      out.write(type.ordinal());
+      Iterator<Entry<JsonString, JsonValue>> it = ((JsonRecord)value).iteratorSorted();
+      while (it.hasNext())
+      {
+        Entry<JsonString, JsonValue> e = it.next();
+        out.write(FIELD);
+        JsonString name = e.getKey();
+        writeEscaped(out, name.getInternalBytes(), name.bytesOffset(), name.bytesLength());
+        writeBody(out, e.getValue());
+      }
+      out.write(END);
+      break;
+    case BOOLEAN:
+      out.write(type.ordinal());
+      out.write(((JsonBool)value).get() ? 1 : 0);
+      break;
+    case STRING:
+      out.write(type.ordinal());
+      JsonString s = (JsonString)value;
+      writeEscaped(out, s.getInternalBytes(), s.bytesOffset(), s.bytesLength());
+      break;
+    case LONG:
+      out.write(NUMBER);
+      writeLong(out, ((JsonLong)value).get());
+      trailer.write(LONG);
+      break;
+    case DOUBLE:
+      out.write(NUMBER);
+      writeDouble(out, ((JsonDouble)value).get());
+      break;
+    case DECFLOAT:
+      out.write(NUMBER);
+      BigDecimal d = ((JsonDecimal)value).get();
+      writeDecimal(out, d);
+      trailer.write(DECFLOAT);
+      BaseUtil.writeVSInt(trailer, d.scale());
+      break;
+    case BINARY:
+      out.write(type.ordinal());
+      JsonBinary b = (JsonBinary)value;
+      writeEscaped(out, b.getInternalBytes(), b.bytesOffset(), b.bytesLength());
+      break;
+    case DATE:
+      out.write(type.ordinal());
+      out.writeLong(((JsonDate)value).get() ^ Long.MIN_VALUE);
+      break;
+    default:
+      out.write(type.ordinal());
+      other.reset();
+      defaultSerializer.write(other, value);
+      writeEscaped(out, other.getData(), 0, other.getLength());
+    }
+  }
+
+  /** Writes the bytes with zeros escaped, followed by a terminator. */
+  private static void writeEscaped(DataOutput out, byte[] bytes, int offset, int length)
+    throws IOException
+  {
+    int start = offset;
+    int end = offset + length;
+    for (int i = offset; i < end; i++)
+    {
+      if (bytes[i] == 0)
+      {
+        out.write(bytes, start, i + 1 - start);
+        out.write(ESCAPE);
+        start = i + 1;
+      }
+    }
+    out.write(bytes, start, end - start);
+    out.write(0);
+    out.write(TERMINATOR);
+  }
+
+  private void writeLong(DataOutput out, long value) throws IOException
+  {
+    if (value == 0)
+    {
+      out.write(ZERO);
+    }
+    else if (value == Long.MIN_VALUE)
+    {
+      writeDecimal(out, BigDecimal.valueOf(value));
+    }
+    else
+    {
+      String s = Long.toString(Math.abs(value));
+      int n = s.length();
+      while (s.charAt(n - 1) == '0')
+      {
+        n--;
+      }
+      writeDigits(out, value < 0, s.length(), s, n);
+    }
+  }
+
+  private void writeDouble(DataOutput out, double value) throws IOException
+  {
+    if (Double.isNaN(value))
+    {
+      out.write(NAN);
+      trailer.write(DOUBLE);
+    }
+    else if (Double.isInfinite(value))
+    {
+      out.write(value < 0 ? NEG_INFINITY : POS_INFINITY);
+      trailer.write(DOUBLE);
+    }
+    else if (value == 0)
+    {
+      out.write(ZERO);
+      trailer.write(1 / value < 0 ? NEG_ZERO : DOUBLE);
+    }
+    else
+    {
+      writeDecimal(out, new BigDecimal(value, MathContext.DECIMAL128));
+      trailer.write(DOUBLE);
+    }
+  }
+
+  private void writeDecimal(DataOutput out, BigDecimal value) throws IOException
+  {
+    if (value.signum() == 0)
+    {
+      out.write(ZERO);
+      return;
+    }
+    value = value.stripTrailingZeros();
+    String s = value.unscaledValue().abs().toString();
+    writeDigits(out, value.signum() < 0, s.length() - value.scale(), s, s.length());
+  }
+
+  /**
+   * Writes the number 0.d_1...d_n * 10^exponent. d_1 is nonzero and so is d_n. Two digits are
+   * packed into each byte. Negative numbers are complemented so that their order is reversed.
+   */
+  private static void writeDigits(DataOutput out, boolean negative, int exponent,
+      CharSequence digits, int n) throws IOException
+  {
+    int mask = negative ? 0xFF : 0x00;
+    out.write(negative ? NEGATIVE : POSITIVE);
+    out.writeInt((exponent ^ Integer.MIN_VALUE) ^ (negative ? -1 : 0));
+    for (int i = 0; i < n; i += 2)
+    {
+      int d1 = digits.charAt(i) - '0';
+      int d2 = i + 1 < n ? digits.charAt(i + 1) - '0' : 0;
+      out.write((d1 * 10 + d2 + 1) ^ mask);
+    }
+    out.write(END ^ mask);
+  }
+
+
+  // -- reading -----------------------------------------------------------------------------------
+
+  /** Reads a value from the body; the types of its numbers are read from the trailer. */
+  private JsonValue readBody(DataInput in, DataInput trailerIn, int type) throws IOException
+  {
+    if (type == NUMBER)
+    {
+      return readNumber(in, trailerIn);
+    }
+
+    switch (TYPES[type])
+    {
+    case NULL:
+      return null;
+    case ARRAY:
+      BufferedJsonArray a = new BufferedJsonArray();
+      for (int b = in.readUnsignedByte(); b != END; b = in.readUnsignedByte())
+      {
+        a.add(readBody(in, trailerIn, b));
+      }
+      return a;
+    case RECORD:
+      BufferedJsonRecord r = new BufferedJsonRecord();
+      while (in.readUnsignedByte() != END)
+      {
+        JsonString name = new JsonString(readEscaped(in));
+        r.add(name, readBody(in, trailerIn, in.readUnsignedByte()));
+      }
+      return r;
+    case BOOLEAN:
+      return in.readUnsignedByte() == 0 ? JsonBool.FALSE : JsonBool.TRUE;
+    case STRING:
+      return new JsonString(readEscaped(in));
+    case BINARY:
+      return new JsonBinary(readEscaped(in));
+    case DATE:
+      return new JsonDate(in.readLong() ^ Long.MIN_VALUE);
+    default:
+      byte[] bytes = readEscaped(in);
+      otherIn.reset(bytes, bytes.length);
+      return defaultSerializer.read(otherIn, null);
+    }
+  }
+
+  private static byte[] readEscaped(DataInput in) throws IOException
+  {
+    DataOutputBuffer out = new DataOutputBuffer();
+    while (true)
+    {
+      int b = in.readUnsignedByte();
+      if (b == 0)
+      {
+        if (in.readUnsignedByte() == TERMINATOR)
+        {
+          break;
+        }
+      }
+      out.write(b);
+    }
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private JsonValue readNumber(DataInput in, DataInput trailerIn) throws IOException
+  {
+    int c = in.readUnsignedByte();
+    BigDecimal value = null;
+    if (c == NEGATIVE || c == POSITIVE)
+    {
+      value = readDigits(in, c == NEGATIVE);
+    }
+
+    int type = trailerIn.readUnsignedByte();
+    switch (type)
+    {
+    case LONG:
+      return new JsonLong(c == ZERO ? 0 : value.longValueExact());
+    case NEG_ZERO:
+      return new JsonDouble(-0.0);
+    case DOUBLE:
+      switch (c)
+      {
+      case NEG_INFINITY: return new JsonDouble(Double.NEGATIVE_INFINITY);
+      case POS_INFINITY: return new JsonDouble(Double.POSITIVE_INFINITY);
+      case NAN:          return new JsonDouble(Double.NaN);
+      case ZERO:         return new JsonDouble(0.0);
+      default:           return new JsonDouble(value.doubleValue());
+      }
+    case DECFLOAT:
+      int scale = BaseUtil.readVSInt(trailerIn);
+      if (c == ZERO)
+      {
+        value = BigDecimal.ZERO;
+      }
+      return new JsonDecimal(value.setScale(scale));
+    default:
+      throw new IOException("invalid number type " + type);
+    }
+  }
+
+  private BigDecimal readDigits(DataInput in, boolean negative) throws IOException
+  {
+    int mask = negative ? 0xFF : 0x00;
+    int exponent = (in.readInt() ^ (negative ? -1 : 0)) ^ Integer.MIN_VALUE;
+    digits.setLength(0);
+    for (int b = in.readUnsignedByte() ^ mask; b != END; b = in.readUnsignedByte() ^ mask)
+    {
+      digits.append((char)('0' + (b - 1) / 10));
+      digits.append((char)('0' + (b - 1) % 10));
+    }
+    if (digits.charAt(digits.length() - 1) == '0')
+    {
+      digits.setLength(digits.length() - 1); // padding
+    }
+    BigDecimal value = new BigDecimal(new BigInteger(digits.toString()),
+                                      digits.length() - exponent);
+    return negative ? value.negate() : value;
+  }
+
+
+  // -- copying -----------------------------------------------------------------------------------
+
+  /** Copies the body of a value and returns the number of numbers in it. */
+  private int copyBody(DataInput in, DataOutput out, int type) throws IOException
+  {
+    out.write(type);
+    if (type == NUMBER)
+    {
+      int c = in.readUnsignedByte();
+      out.write(c);
+      if (c == NEGATIVE || c == POSITIVE)
+      {
+        int end = c == NEGATIVE ? END ^ 0xFF : END;
+        out.writeInt(in.readInt());
+        int b;
+        do
+        {
+          b = in.readUnsignedByte();
+          out.write(b);
+        } while (b != end);
+      }
+      return 1;
+    }
+
+    int n = 0;
+    switch (TYPES[type])
+    {
+    case NULL:
+      break;
+    case ARRAY:
+      for (int b = in.readUnsignedByte(); b != END; b = in.readUnsignedByte())
+      {
+        n += copyBody(in, out, b);
+      }
+      out.write(END);
+      break;
+    case RECORD:
+      for (int b = in.readUnsignedByte(); b != END; b = in.readUnsignedByte())
+      {
+        out.write(FIELD);
+        copyEscaped(in, out);
+        n += copyBody(in, out, in.readUnsignedByte());
+      }
+      out.write(END);
+      break;
+    case BOOLEAN:
+      out.write(in.readUnsignedByte());
+      break;
+    case DATE:
+      out.writeLong(in.readLong());
+      break;
+    default:
+      copyEscaped(in, out);
+    }
+    return n;
+  }
+
+  private static void copyEscaped(DataInput in, DataOutput out) throws IOException
+  {
+    while (true)
+    {
+      int b = in.readUnsignedByte();
+      out.write(b);
+      if (b == 0)
+      {
+        b = in.readUnsignedByte();
+        out.write(b);
+        if (b == TERMINATOR)
+        {
+          return;
+        }
+      }
+    }
+  }
+
+  /** Skips the trailer entries of <code>n</code> numbers. */
+  private static void skipTrailer(DataInput in, int n) throws IOException
+  {
+    for (int i = 0; i < n; i++)
+    {
+      if (in.readUnsignedByte() == DECFLOAT)
+      {
+        BaseUtil.readVSInt(in);
+      }
+    }
+  }
+
+  /** Returns the position after the body that starts at <code>bytes[i]</code>. */
+  private static int skipBody(byte[] bytes, int i)
+  {
+    int type = bytes[i++] & 0xFF;
+    if (type == NUMBER)
+    {
+      int c = bytes[i++] & 0xFF;
+      if (c == NEGATIVE || c == POSITIVE)
+      {
+        int end = c == NEGATIVE ? END ^ 0xFF : END;
+        i += 4;
+        while ((bytes[i++] & 0xFF) != end)
+        {
+        }
+      }
+      return i;
+    }
+
+    switch (TYPES[type])
+    {
+    case NULL:
+      return i;
+    case ARRAY:
+      while ((bytes[i] & 0xFF) != END)
+      {
+        i = skipBody(bytes, i);
+      }
+      return i + 1;
+    case RECORD:
+      while ((bytes[i] & 0xFF) != END)
+      {
+        i = skipEscaped(bytes, i + 1); // FIELD, name
+        i = skipBody(bytes, i);
+      }
+      return i + 1;
+    case BOOLEAN:
+      return i + 1;
+    case DATE:
+      return i + 8;
+    default:
+      return skipEscaped(bytes, i);
+    }
+  }
+
+  /** Returns the position after the escaped bytes that start at <code>bytes[i]</code>. */
+  private static int skipEscaped(byte[] bytes, int i)
+  {
+    while (true)
+    {
+      if (bytes[i++] == 0 && (bytes[i++] & 0xFF) == TERMINATOR)
+      {
+        return i;
+      }
+    }
+  }
+
+  /** Copies the trailer entries of <code>n</code> numbers. */
+  private static void copyTrailer(DataInput in, DataOutput out, int n) throws IOException
+  {
+    for (int i = 0; i < n; i++)
+    {
+      int type = in.readUnsignedByte();
+      out.write(type);
+      if (type == DECFLOAT)
+      {
+        BaseUtil.writeVSInt(out, BaseUtil.readVSInt(in));
+      }
+    }
+  }
+}
@@ -17,6 +17,8 @@ import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.MutableJsonString;
+import com.ibm.jaql.json.util.FieldNameCache;
 import com.ibm.jaql.util.BaseUtil;
 
 // not threadsafe
@@ -51,6 +53,9 @@ final class RecordSerializer extends BinaryBasicSerializer<JsonRecord>
   private MyBitSet optionalBits1;
   private MyBitSet optionalBits2;
   
+  // worker variable for reading field names before they are canonicalized
+  private MutableJsonString nameBuffer = new MutableJsonString();
+  
   /** Stores information about a required or optional field. */
   private static class FieldInfo
   {
@@ -63,7 +68,7 @@ final class RecordSerializer extends BinaryBasicSerializer<JsonRecord>
     {
       this.field = field;
       this.serializer = serializer;
-      this.name = (JsonString)field.getName().getCopy(null);
+      this.name = FieldNameCache.get(field.getName());
     }
   }
   
@@ -356,7 +361,7 @@ final class RecordSerializer extends BinaryBasicSerializer<JsonRecord>
       for (int i=0; i<length; i++)
       {
         int j = offset+i;
-        names[j] = (JsonString)nameSerializer.read(in, names[j]);
+        names[j] = FieldNameCache.get((JsonString)nameSerializer.read(in, nameBuffer));
         values[j] = additionalSerializer.read(in, values[j]);
       }
     }
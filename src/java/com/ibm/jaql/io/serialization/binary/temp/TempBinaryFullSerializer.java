@@ -23,6 +23,7 @@ import com.ibm.jaql.io.serialization.SerializerMap;
 import com.ibm.jaql.io.serialization.binary.BinaryBasicSerializer;
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.LazyBinaryFullSerializer;
 import com.ibm.jaql.json.schema.ArraySchema;
 import com.ibm.jaql.json.schema.BinarySchema;
 import com.ibm.jaql.json.schema.BooleanSchema;
@@ -80,6 +81,9 @@ public final class TempBinaryFullSerializer extends BinaryFullSerializer // for
   /** serializer used for "nonnull" and "null" schemata */  
   private DefaultBinaryFullSerializer defaultSerializer = DefaultBinaryFullSerializer.getInstance();
   
+  /** serializer used to read values of the default format; null if those are read eagerly */
+  private LazyBinaryFullSerializer lazySerializer;
+  
   /** all values below INDEX_OFFSET are assumed to be reserved for the encodings of the default 
    * serializer that is used when no schema information is given. */
   private final int INDEX_OFFSET = 64;
@@ -94,10 +98,21 @@ public final class TempBinaryFullSerializer extends BinaryFullSerializer // for
   // -- construction ------------------------------------------------------------------------------
   
   public TempBinaryFullSerializer(Schema schema) {
+    this(schema, false);
+  }
+  
+  /** Creates a serializer for the specified schema. If <code>lazy</code> is set, records and 
+   * arrays written with the default serializer are read as {@link LazyBinaryFullSerializer lazy} 
+   * values. */
+  public TempBinaryFullSerializer(Schema schema, boolean lazy) {
     assert JsonEncoding.LIMIT < INDEX_OFFSET; // these values are used for null/nonnull
     // remove duplicates and make sure each type occurs at most once
     this.schema = SchemaTransformation.compact(schema);
     serializers = new MySerializerMap(this.schema);
+    if (lazy)
+    {
+      lazySerializer = LazyBinaryFullSerializer.getInstance();
+    }
   }
   
 
@@ -118,6 +133,10 @@ public final class TempBinaryFullSerializer extends BinaryFullSerializer // for
       else if (serializers.matchesNonNull())
       {
         // matches nonnull only
+        if (lazySerializer != null)
+        {
+          return lazySerializer.read(in, target);
+        }
         return defaultSerializer.read(in, target);
       }
       else
@@ -130,6 +149,10 @@ public final class TempBinaryFullSerializer extends BinaryFullSerializer // for
     {
       // there are multiple serializers --> get the encoding
       int encoding = BaseUtil.readVUInt(in);
+      if (lazySerializer != null && encoding < INDEX_OFFSET)
+      {
+        return lazySerializer.read(in, JsonEncoding.getEncoding(encoding), target);
+      }
       BinaryBasicSerializer<?> serializer = getSerializer(encoding);
       return serializer.read(in, target); 
     }   
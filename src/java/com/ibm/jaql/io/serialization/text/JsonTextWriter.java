@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.serialization.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.io.Text;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonEncoding;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.FastPrintBuffer;
+
+/**
+ * Writes JSON text as UTF-8 bytes into a reusable byte buffer. The text is the same as the one
+ * printed by the {@link TextFullSerializer#getDefault() default text serializer}, but nulls,
+ * booleans, numbers, strings, arrays and records are encoded directly from the values, without
+ * intermediate strings or character buffers; strings are escaped on their UTF-8 bytes. The
+ * remaining types are rare in bulk output and go through the default serializer.
+ *
+ * In one-line mode, the line breaks of the default format are left out, so that each value is
+ * written on a single line (the indentation is kept). This is the format of JSON text files
+ * written by {@link com.ibm.jaql.io.hadoop.converter.ToJsonTextConverter}.
+ *
+ * The writer is not thread-safe. Reuse it: after {@link #reset()}, the buffer is kept.
+ */
+public class JsonTextWriter
+{
+  protected final static byte[] lineSeparator =
+    System.getProperty("line.separator", "\n").getBytes();
+  protected final static byte[] NULL = { 'n', 'u', 'l', 'l' };
+  protected final static byte[] TRUE = { 't', 'r', 'u', 'e' };
+  protected final static byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+  protected final static byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+  protected final static byte[] hex = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+                                        'a', 'b', 'c', 'd', 'e', 'f' };
+
+  protected final boolean oneLine;
+  protected byte[] buffer = new byte[1024];
+  protected int length;
+
+  /** for the values that are printed by the default serializer */
+  protected FastPrintBuffer chars;
+
+  /**
+   * @param oneLine true to leave out line breaks
+   */
+  public JsonTextWriter(boolean oneLine)
+  {
+    this.oneLine = oneLine;
+  }
+
+  /** Clears the buffer. */
+  public void reset()
+  {
+    length = 0;
+  }
+
+  /** Returns the buffer; the first {@link #getLength()} bytes are valid. */
+  public byte[] getBytes()
+  {
+    return buffer;
+  }
+
+  /** Returns the number of bytes written since the last reset. */
+  public int getLength()
+  {
+    return length;
+  }
+
+  /** Copies the bytes written since the last reset into <code>text</code>. */
+  public void copyTo(Text text)
+  {
+    text.set(buffer, 0, length);
+  }
+
+  /** Writes the bytes written since the last reset to <code>out</code> and resets. */
+  public void writeTo(OutputStream out) throws IOException
+  {
+    out.write(buffer, 0, length);
+    length = 0;
+  }
+
+  // -- writing ----------------------------------------------------------------------------------
+
+  /** Writes a value at indentation 0. */
+  public void write(JsonValue value) throws IOException
+  {
+    write(value, 0);
+  }
+
+  /** Writes a value whose first line is at the given indentation. */
+  public void write(JsonValue value, int indent) throws IOException
+  {
+    JsonEncoding encoding = value == null ? JsonEncoding.NULL : value.getEncoding();
+    switch (encoding)
+    {
+      case NULL:
+        writeBytes(NULL, 0, NULL.length);
+        break;
+      case BOOLEAN:
+        boolean b = ((JsonBool)value).get();
+        writeBytes(b ? TRUE : FALSE, 0, b ? TRUE.length : FALSE.length);
+        break;
+      case LONG:
+        writeLong(((JsonLong)value).get());
+        break;
+      case DOUBLE:
+        // Double.toString is the only exact way to get the shortest representation
+        writeChars(Double.toString(((JsonDouble)value).get()));
+        break;
+      case STRING:
+        writeQuoted((JsonString)value);
+        break;
+      case ARRAY_BUFFERED:
+      case ARRAY_SPILLED:
+        writeArray((JsonArray)value, indent);
+        break;
+      case RECORD:
+        writeRecord((JsonRecord)value, indent);
+        break;
+      default:
+        if (chars == null)
+        {
+          chars = new FastPrintBuffer();
+        }
+        chars.reset();
+        TextFullSerializer.getDefault().write(chars, value, indent);
+        writeChars(chars.getBuffer(), 0, chars.size());
+    }
+  }
+
+  protected void writeArray(JsonArray array, int indent) throws IOException
+  {
+    write('[');
+    boolean empty = true;
+    for (JsonValue v : array)
+    {
+      if (!empty)
+      {
+        write(',');
+      }
+      newLine(indent + 2);
+      write(v, indent + 2);
+      empty = false;
+    }
+    if (!empty)
+    {
+      newLine(indent);
+    }
+    write(']');
+  }
+
+  protected void writeRecord(JsonRecord record, int indent) throws IOException
+  {
+    write('{');
+    boolean empty = true;
+    Iterator<Entry<JsonString, JsonValue>> it = record.iteratorSorted();
+    while (it.hasNext())
+    {
+      Entry<JsonString, JsonValue> e = it.next();
+      if (!empty)
+      {
+        write(',');
+      }
+      newLine(indent + 2);
+      writeQuoted(e.getKey());
+      write(':');
+      write(' ');
+      write(e.getValue(), indent + 2);
+      empty = false;
+    }
+    if (!empty)
+    {
+      newLine(indent);
+    }
+    write('}');
+  }
+
+  /** Writes a line break, unless in one-line mode, and the indentation. */
+  protected void newLine(int indent)
+  {
+    if (!oneLine)
+    {
+      writeBytes(lineSeparator, 0, lineSeparator.length);
+    }
+    ensureCapacity(indent);
+    for (int i = 0; i < indent; i++)
+    {
+      buffer[length++] = ' ';
+    }
+  }
+
+  /** Writes a long without creating a string. */
+  public void writeLong(long x)
+  {
+    if (x == Long.MIN_VALUE)
+    {
+      writeBytes(MIN_LONG, 0, MIN_LONG.length);
+      return;
+    }
+    ensureCapacity(20);
+    if (x < 0)
+    {
+      buffer[length++] = '-';
+      x = -x;
+    }
+    int start = length;
+    do
+    {
+      buffer[length++] = (byte)('0' + x % 10);
+      x /= 10;
+    } while (x != 0);
+    // the digits were written backwards
+    for (int i = start, j = length - 1; i < j; i++, j--)
+    {
+      byte t = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = t;
+    }
+  }
+
+  /**
+   * Writes a quoted and escaped string. The escapes are those of
+   * {@link com.ibm.jaql.json.util.JsonUtil#printQuoted(com.ibm.jaql.util.FastPrinter, String)}.
+   */
+  public void writeQuoted(JsonString s)
+  {
+    byte[] bytes = s.getInternalBytes();
+    int i = s.bytesOffset();
+    int n = i + s.bytesLength();
+    // most strings need no escapes
+    ensureCapacity(s.bytesLength() + 2);
+    buffer[length++] = '"';
+    for (; i < n; i++)
+    {
+      int b = bytes[i] & 0xff;
+      if (b >= 0x80)
+      {
+        if (b == 0xc2 && i + 1 < n && (bytes[i + 1] & 0xff) < 0xa0)
+        {
+          // U+0080 - U+009F are control characters
+          writeUnicodeEscape(bytes[++i] & 0xff);
+        }
+        else
+        {
+          write(b);
+        }
+        continue;
+      }
+      switch (b)
+      {
+        case '\'': writeEscape('\''); break;
+        case '\"': writeEscape('\"'); break;
+        case '\\': writeEscape('\\'); break;
+        case '\b': writeEscape('b'); break;
+        case '\f': writeEscape('f'); break;
+        case '\n': writeEscape('n'); break;
+        case '\r': writeEscape('r'); break;
+        case '\t': writeEscape('t'); break;
+        default:
+          if (b < 0x20 || b == 0x7f)
+          {
+            writeUnicodeEscape(b);
+          }
+          else
+          {
+            write(b);
+          }
+      }
+    }
+    write('"');
+  }
+
+  /** Writes the UTF-8 bytes of a string, without quotes or escapes. */
+  public void writeUnquoted(JsonString s)
+  {
+    writeBytes(s.getInternalBytes(), s.bytesOffset(), s.bytesLength());
+  }
+
+  /** Writes the UTF-8 encoding of a string, without quotes or escapes. */
+  public void writeChars(String s)
+  {
+    int n = s.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++)
+    {
+      char c = s.charAt(i);
+      if (c < 0x80)
+      {
+        buffer[length++] = (byte)c;
+      }
+      else
+      {
+        i = writeChar(c, i + 1 < n ? s.charAt(i + 1) : 0, i);
+      }
+    }
+  }
+
+  /** Writes the UTF-8 encoding of characters, without quotes or escapes. */
+  public void writeChars(char[] chars, int off, int len)
+  {
+    int n = off + len;
+    ensureCapacity(len);
+    for (int i = off; i < n; i++)
+    {
+      char c = chars[i];
+      if (c < 0x80)
+      {
+        if (!oneLine || (c != '\n' && c != '\r'))
+        {
+          buffer[length++] = (byte)c;
+        }
+      }
+      else
+      {
+        i = writeChar(c, i + 1 < n ? chars[i + 1] : 0, i);
+      }
+    }
+  }
+
+  /**
+   * Encodes a non-ASCII character.
+   *
+   * @return the position of the last character used
+   */
+  protected int writeChar(char c, char next, int i)
+  {
+    ensureCapacity(4);
+    if (c < 0x800)
+    {
+      buffer[length++] = (byte)(0xc0 | (c >> 6));
+      buffer[length++] = (byte)(0x80 | (c & 0x3f));
+    }
+    else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next))
+    {
+      int cp = Character.toCodePoint(c, next);
+      buffer[length++] = (byte)(0xf0 | (cp >> 18));
+      buffer[length++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+      buffer[length++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+      buffer[length++] = (byte)(0x80 | (cp & 0x3f));
+      return i + 1;
+    }
+    else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+    {
+      // unpaired surrogate: replaced, as String.getBytes does
+      buffer[length++] = '?';
+    }
+    else
+    {
+      buffer[length++] = (byte)(0xe0 | (c >> 12));
+      buffer[length++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+      buffer[length++] = (byte)(0x80 | (c & 0x3f));
+    }
+    return i;
+  }
+
+  protected void writeEscape(int c)
+  {
+    ensureCapacity(2);
+    buffer[length++] = '\\';
+    buffer[length++] = (byte)c;
+  }
+
+  protected void writeUnicodeEscape(int c)
+  {
+    ensureCapacity(6);
+    buffer[length++] = '\\';
+    buffer[length++] = 'u';
+    buffer[length++] = hex[(c & 0xf000) >>> 12];
+    buffer[length++] = hex[(c & 0x0f00) >>> 8];
+    buffer[length++] = hex[(c & 0x00f0) >>> 4];
+    buffer[length++] = hex[c & 0x000f];
+  }
+
+  /** Writes a single byte. */
+  public void write(int b)
+  {
+    if (length == buffer.length)
+    {
+      ensureCapacity(1);
+    }
+    buffer[length++] = (byte)b;
+  }
+
+  /** Writes bytes as they are. */
+  public void writeBytes(byte[] bytes, int off, int len)
+  {
+    ensureCapacity(len);
+    System.arraycopy(bytes, off, buffer, length, len);
+    length += len;
+  }
+
+  /** Makes room for n more bytes. */
+  protected void ensureCapacity(int n)
+  {
+    if (length + n > buffer.length)
+    {
+      byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + n)];
+      System.arraycopy(buffer, 0, newBuffer, 0, length);
+      buffer = newBuffer;
+    }
+  }
+}
@@ -28,10 +28,9 @@ import com.ibm.jaql.io.converter.JsonToStream;
 import com.ibm.jaql.json.type.JsonBool;
 import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonValue;
-import com.ibm.jaql.lang.expr.array.SlidingWindowFn.JsonQueue.Item;
 
 /**
- * Output adapter that writes {@link Item}s to a URL, using a
+ * Output adapter that writes {@link JsonValue}s to a URL, using a
  * {@link ItemToStream} converter in the process.
  */
 public class StreamOutputAdapter extends AbstractOutputAdapter {
@@ -19,23 +19,31 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.ibm.jaql.io.converter.JsonToStream;
+import com.ibm.jaql.io.serialization.text.JsonTextWriter;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.util.FastPrintStream;
-import com.ibm.jaql.util.FastPrinter;
 
 /**
- * A converter to write serialized {@link JsonValue}s to a text output stream.
+ * A converter to write serialized {@link JsonValue}s to a text output stream. The text is
+ * encoded to UTF-8 by a {@link JsonTextWriter}, whose buffer is written to the stream when it
+ * is full, on flush, and on close.
  */
 public abstract class AbstractJsonTextOutputStream implements
     JsonToStream<JsonValue> {
 
-  protected FastPrintStream output;
+  /** The size at which the buffered text is written to the stream */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+  protected static final byte[] LINE_SEPARATOR =
+    System.getProperty("line.separator", "\n").getBytes(FastPrintStream.UTF8);
+
+  protected OutputStream output;
+  protected final JsonTextWriter writer = new JsonTextWriter(false);
   protected boolean arrAcc = true;
   protected boolean seenFirst = false;
   protected boolean close = true;
-  protected String start;
-  protected String end;
-  protected String sep;
+  protected byte[] start;
+  protected byte[] end;
+  protected byte[] sep;
 
   /**
    * Constructs a JSON text output stream.
@@ -48,15 +56,16 @@ public abstract class AbstractJsonTextOutputStream implements
    *          up this output stream in array access mode.
    */
   public AbstractJsonTextOutputStream(String start, String sep, String end) {
-    this.start = start;
-    this.sep = sep;
-    this.end = end;
+    this.start = start.getBytes(FastPrintStream.UTF8);
+    this.sep = sep.getBytes(FastPrintStream.UTF8);
+    this.end = end.getBytes(FastPrintStream.UTF8);
   }
 
   @Override
   public void setOutputStream(OutputStream out)
   {
-    output = new FastPrintStream(out);
+    output = out;
+    writer.reset();
   }
 
   @Override
@@ -74,13 +83,16 @@ public abstract class AbstractJsonTextOutputStream implements
     if (seenFirst && !arrAcc)
       throw new RuntimeException("Expected only one value when not in array mode");
     if (!seenFirst && arrAcc) {
-      output.print(start);
+      writer.writeBytes(start, 0, start.length);
     }
     if (seenFirst)
-      output.print(sep);
+      writer.writeBytes(sep, 0, sep.length);
     else
       seenFirst = true;
-    printValue(output, i);
+    printValue(writer, i);
+    if (writer.getLength() >= BUFFER_SIZE) {
+      writer.writeTo(output);
+    }
   }
 
   @Override
@@ -88,6 +100,7 @@ public abstract class AbstractJsonTextOutputStream implements
   {
     if (output != null)
     {
+      writer.writeTo(output);
       output.flush();
     }
   }
@@ -96,21 +109,22 @@ public abstract class AbstractJsonTextOutputStream implements
   public void close() throws IOException {
     if (output != null) {
       if (seenFirst && arrAcc)
-        output.print(end);
+        writer.writeBytes(end, 0, end.length);
       if (!close)
-        output.println();
-      output.flush();
-      if (close)
+        writer.writeBytes(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+      flush();
+      // like FastPrintStream.close(), through which the stream used to be closed
+      if (close && output != System.out && output != System.err)
         output.close();
     }
   }
 
   /**
-   * Prints the JSON value to the print stream.
+   * Prints the JSON value to the text writer.
    * 
-   * @param print A print stream
+   * @param writer A text writer
    * @param i A JSON value
    * @throws IOException
    */
-  protected abstract void printValue(FastPrinter print, JsonValue i) throws IOException;
+  protected abstract void printValue(JsonTextWriter writer, JsonValue i) throws IOException;
 }
@@ -21,18 +21,19 @@ import java.io.InputStream;
 import com.ibm.jaql.io.converter.StreamToJson;
 import com.ibm.jaql.json.parser.JsonParser;
 import com.ibm.jaql.json.parser.ParseException;
+import com.ibm.jaql.json.parser.Utf8JsonParser;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.type.JsonValue;
 
-/** Parses a JSON file and returns its representation as {@link Item}s. 
- * 
+/** Parses a JSON file and returns its representation as {@link Item}s. The file is expected to
+ * be UTF-8 encoded. Values passed to {@link #read(JsonValue)} are reused.
  */
 public class JsonTextInputStream implements StreamToJson<JsonValue>
 {
   private boolean    arrAcc = true;
   private boolean    firstPass = true;
-  private JsonParser parser;
+  private Utf8JsonParser parser = new Utf8JsonParser();
 
   /*
    * (non-Javadoc)
@@ -41,7 +42,8 @@ public class JsonTextInputStream implements StreamToJson<JsonValue>
    */
   public void setInput(InputStream in)
   {
-    parser = new JsonParser(in);
+    parser.setInput(in);
+    firstPass = true;
   }
   
   /* (non-Javadoc)
@@ -72,13 +74,13 @@ public class JsonTextInputStream implements StreamToJson<JsonValue>
       JsonValue i = null;
       if(arrAcc) {
         if(firstPass) {
-          i = parser.ArrayFirst();
+          i = parser.arrayFirst(v);
           firstPass = false;
         } else {
-          i = parser.ArrayNext();
+          i = parser.arrayNext(v);
         }
       } else {
-        i = parser.JsonVal();
+        i = parser.jsonVal(v);
       }
       if(i == JsonParser.NIL) 
         return null;
@@ -17,16 +17,15 @@ package com.ibm.jaql.io.stream.converter;
 
 import java.io.IOException;
 
+import com.ibm.jaql.io.serialization.text.JsonTextWriter;
 import com.ibm.jaql.io.serialization.text.def.DefaultTextFullSerializer;
-import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
-import com.ibm.jaql.util.FastPrinter;
 
 /**
  * A converter to print JSON value. In array access mode, items of an JSON array
  * are wrapped in a beginning <i>[</i> and an ending <i>]</i>. Items are
- * separated with <i>,</i>. {@link DefaultTextFullSerializer} is for the
- * serialization of JSON values.
+ * separated with <i>,</i>. JSON values are written in the format of
+ * {@link DefaultTextFullSerializer} by a {@link JsonTextWriter}.
  */
 public class JsonTextOutputStream extends AbstractJsonTextOutputStream {
 
@@ -42,7 +41,7 @@ public class JsonTextOutputStream extends AbstractJsonTextOutputStream {
 	public void init(JsonValue options) throws Exception {}
 
 	@Override
-	protected void printValue(FastPrinter print, JsonValue i) throws IOException {
-		JsonUtil.print(print, i);
+	protected void printValue(JsonTextWriter writer, JsonValue i) throws IOException {
+		writer.write(i);
 	}
 }
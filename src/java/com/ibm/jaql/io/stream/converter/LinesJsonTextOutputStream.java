@@ -17,31 +17,25 @@ package com.ibm.jaql.io.stream.converter;
 
 import java.io.IOException;
 
-import com.ibm.jaql.io.serialization.text.basic.JsonStringUnquotedSerializer;
-import com.ibm.jaql.io.serialization.text.def.DefaultTextFullSerializer;
+import com.ibm.jaql.io.serialization.text.JsonTextWriter;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
-import com.ibm.jaql.util.FastPrinter;
 import com.ibm.jaql.util.SystemUtil;
 
 /**
- * Writes every JSON value in a new line in array access mode.
- * {@link JsonStringUnquotedSerializer} is used for the serialization of JSON
- * string. {@link DefaultTextFullSerializer} is for the serialization of other
- * kinds of JSON values.
+ * Writes every JSON value in a new line in array access mode. Each value is
+ * converted into a JSON string, whose UTF-8 bytes are written unquoted.
  */
 public abstract class LinesJsonTextOutputStream extends
                                                AbstractJsonTextOutputStream {
-  protected JsonStringUnquotedSerializer strSer = new JsonStringUnquotedSerializer();
-
   public LinesJsonTextOutputStream() {
     super("", SystemUtil.LINE_SEPARATOR, "");
   }
 
   @Override
-  protected void printValue(FastPrinter print, JsonValue i) throws IOException {
+  protected void printValue(JsonTextWriter writer, JsonValue i) throws IOException {
     JsonString line = convert(i);
-    strSer.write(print, line);
+    writer.writeUnquoted(line);
   }
 
   /**
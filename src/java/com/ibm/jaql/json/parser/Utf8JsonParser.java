@@ -0,0 +1,893 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+
+import com.ibm.jaql.json.constructor.JsonConstructor;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.MutableJsonDecimal;
+import com.ibm.jaql.json.type.MutableJsonDouble;
+import com.ibm.jaql.json.type.MutableJsonLong;
+import com.ibm.jaql.json.type.MutableJsonString;
+import com.ibm.jaql.json.util.FieldNameCache;
+import com.ibm.jaql.util.BaseUtil;
+
+/**
+ * A hand-written parser for JSON text that works directly on UTF-8 encoded bytes. It accepts the
+ * same language as {@link JsonParser} (single-quoted strings, unquoted field names, comments,
+ * string concatenation, <code>m</code>/<code>d</code> number suffixes, and constructors such as
+ * <code>date('...')</code>), but does not decode its input into characters: string contents
+ * are copied into the result as UTF-8 bytes, and only numbers are converted.
+ *
+ * All parse methods take a target value that is reused when it has the right type, so that
+ * parsing a sequence of similar values (e.g., one record per line) allocates little. Records are
+ * reused in place as long as their fields appear in the same order as in the target. Field names
+ * are canonicalized using the {@link FieldNameCache}. Targets given to the parser, and values
+ * nested in them, must not be used afterwards.
+ *
+ * The input is either a byte array or an {@link InputStream}, which is read in blocks.
+ */
+public class Utf8JsonParser
+{
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int EOF = -1;
+
+  // input
+  private InputStream in;
+  private byte[]      buf;
+  private int         pos;
+  private int         end;
+  private long        consumed;    // number of bytes before buf[0], for error messages
+
+  // scratch space for strings and numbers
+  private byte[]      bytes = new byte[256];
+  private int         length;
+  private char[]      chars = new char[64];
+  private MutableJsonString name = new MutableJsonString();
+
+  /** Parses the given bytes. The array is not copied. */
+  public void setInput(byte[] input, int offset, int length)
+  {
+    this.in = null;
+    this.buf = input;
+    this.pos = offset;
+    this.end = offset + length;
+    this.consumed = -offset;
+  }
+
+  /** Parses the given stream. */
+  public void setInput(InputStream in)
+  {
+    this.in = in;
+    if (buf == null || buf.length < BUFFER_SIZE || in == null)
+    {
+      buf = new byte[BUFFER_SIZE];
+    }
+    pos = end = 0;
+    consumed = 0;
+  }
+
+  // -- parsing -----------------------------------------------------------------------------------
+
+  /** Parses the next JSON value, reusing <code>target</code> if possible. Returns
+   * {@link JsonParser#NIL} if the end of input has been reached. Any input after the value is
+   * left unread. */
+  public JsonValue jsonVal(JsonValue target) throws IOException, ParseException
+  {
+    int c = skipWhitespace();
+    if (c == EOF)
+    {
+      return JsonParser.NIL;
+    }
+    return value(c, target);
+  }
+
+  /** Parses the next JSON value and checks that there is no more input. */
+  public JsonValue topVal(JsonValue target) throws IOException, ParseException
+  {
+    int c = skipWhitespace();
+    if (c == EOF)
+    {
+      throw error("a value");
+    }
+    JsonValue value = value(c, target);
+    eof();
+    return value;
+  }
+
+  /** Checks that there is no more input. */
+  public void eof() throws IOException, ParseException
+  {
+    if (skipWhitespace() != EOF)
+    {
+      throw error("end of input");
+    }
+  }
+
+  /** Reads the opening bracket of a top-level array and returns its first element, or
+   * {@link JsonParser#NIL} if the array is empty. */
+  public JsonValue arrayFirst(JsonValue target) throws IOException, ParseException
+  {
+    expect('[');
+    int c = skipWhitespace();
+    if (c == ']')
+    {
+      pos++;
+      return JsonParser.NIL;
+    }
+    return value(c, target);
+  }
+
+  /** Returns the next element of a top-level array, or {@link JsonParser#NIL} after its last
+   * element. */
+  public JsonValue arrayNext(JsonValue target) throws IOException, ParseException
+  {
+    int c = skipWhitespace();
+    if (c == ']')
+    {
+      pos++;
+      return JsonParser.NIL;
+    }
+    expect(',');
+    return value(skipWhitespace(), target);
+  }
+
+  /** Parses a value starting with character <code>c</code>, which has not been consumed. */
+  private JsonValue value(int c, JsonValue target) throws IOException, ParseException
+  {
+    switch (c)
+    {
+    case '{':
+      pos++;
+      return record(target);
+    case '[':
+      pos++;
+      return array(target);
+    case '"':
+    case '\'':
+      return string(target);
+    case '-':
+    case '+':
+    case '0': case '1': case '2': case '3': case '4':
+    case '5': case '6': case '7': case '8': case '9':
+      return number(target);
+    default:
+      if (isIdStart(c))
+      {
+        return identifier();
+      }
+      throw error("a value");
+    }
+  }
+
+  /** Parses a record after its opening brace. */
+  private JsonValue record(JsonValue target) throws IOException, ParseException
+  {
+    BufferedJsonRecord rec = target instanceof BufferedJsonRecord
+                             ? (BufferedJsonRecord)target
+                             : new BufferedJsonRecord();
+    int oldSize = rec.size();
+    boolean sameLayout = true; // fields 0..n-1 are at the same position as in target
+    int n = 0;
+    int c = skipWhitespace();
+    if (c == '}')
+    {
+      pos++;
+    }
+    else
+    {
+      while (true)
+      {
+        fieldName(c);
+        expect(':');
+        c = skipWhitespace();
+        JsonString[] names = rec.getInternalNamesArray();
+        if (sameLayout && n < oldSize && nameEquals(names[n]))
+        {
+          JsonValue[] values = rec.getInternalValuesArray();
+          values[n] = value(c, values[n]);
+        }
+        else
+        {
+          if (sameLayout)
+          {
+            // rebuild the index for the fields that have been parsed so far
+            sameLayout = false;
+            JsonValue[] values = rec.getInternalValuesArray();
+            rec.clear();
+            for (int i = 0; i < n; i++)
+            {
+              rec.add(names[i], values[i]);
+            }
+          }
+          JsonString fieldName = FieldNameCache.get(name);
+          JsonValue old = n < oldSize ? rec.getInternalValuesArray()[n] : null;
+          rec.add(fieldName, value(c, old));
+        }
+        n++;
+
+        c = skipWhitespace();
+        if (c == '}')
+        {
+          pos++;
+          break;
+        }
+        expect(',');
+        c = skipWhitespace();
+      }
+    }
+    if (sameLayout)
+    {
+      for (int i = oldSize - 1; i >= n; i--)
+      {
+        rec.remove(i);
+      }
+    }
+    return rec;
+  }
+
+  /** Parses a field name starting with character <code>c</code> into <code>name</code>. */
+  private void fieldName(int c) throws IOException, ParseException
+  {
+    if (c == '"' || c == '\'')
+    {
+      stringBytes(false);
+    }
+    else if (isIdStart(c))
+    {
+      identifierBytes();
+    }
+    else
+    {
+      throw error("a field name");
+    }
+    name.set(bytes, length);
+  }
+
+  /** Returns true if <code>s</code> equals the field name that has been read last. */
+  private boolean nameEquals(JsonString s)
+  {
+    if (s.bytesLength() != length)
+    {
+      return false;
+    }
+    byte[] b = s.getInternalBytes();
+    int o = s.bytesOffset();
+    for (int i = 0; i < length; i++)
+    {
+      if (b[o + i] != bytes[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Parses an array after its opening bracket. */
+  private JsonValue array(JsonValue target) throws IOException, ParseException
+  {
+    BufferedJsonArray arr = target instanceof BufferedJsonArray
+                            ? (BufferedJsonArray)target
+                            : new BufferedJsonArray();
+    int oldSize = arr.size();
+    int n = 0;
+    int c = skipWhitespace();
+    if (c == ']')
+    {
+      pos++;
+    }
+    else
+    {
+      while (true)
+      {
+        if (n < oldSize)
+        {
+          arr.set(n, value(c, arr.getUnchecked(n)));
+        }
+        else
+        {
+          arr.add(value(c, null));
+        }
+        n++;
+        c = skipWhitespace();
+        if (c == ']')
+        {
+          pos++;
+          break;
+        }
+        expect(',');
+        c = skipWhitespace();
+      }
+    }
+    if (n < oldSize)
+    {
+      arr.resize(n);
+    }
+    return arr;
+  }
+
+  /** Parses a string, including any strings concatenated to it. */
+  private JsonValue string(JsonValue target) throws IOException, ParseException
+  {
+    stringBytes(false);
+    while (true)
+    {
+      int c = skipWhitespace();
+      if (c == '+')
+      {
+        pos++;
+        c = skipWhitespace();
+        if (c != '"' && c != '\'')
+        {
+          throw error("a string");
+        }
+      }
+      else if (c != '"' && c != '\'')
+      {
+        break;
+      }
+      stringBytes(true);
+    }
+    MutableJsonString s = target instanceof MutableJsonString
+                          ? (MutableJsonString)target
+                          : new MutableJsonString();
+    s.setCopy(bytes, length);
+    return s;
+  }
+
+  /** Reads a quoted string into <code>bytes</code>, decoding escape sequences. */
+  private void stringBytes(boolean append) throws IOException, ParseException
+  {
+    int quote = read();
+    if (!append)
+    {
+      length = 0;
+    }
+    while (true)
+    {
+      int c = read();
+      switch (c)
+      {
+      case EOF:
+        throw error("closing quote");
+      case '"':
+      case '\'':
+        if (c == quote)
+        {
+          return;
+        }
+        append(c);
+        break;
+      case '\r':
+        if (peek() == '\n')
+        {
+          pos++;
+        }
+        append('\n');
+        break;
+      case '\\':
+        escape();
+        break;
+      default:
+        append(c);
+      }
+    }
+  }
+
+  /** Decodes an escape sequence after the backslash. */
+  private void escape() throws IOException, ParseException
+  {
+    int c = read();
+    switch (c)
+    {
+    case '\r':
+      if (peek() == '\n')
+      {
+        pos++;
+      }
+      break; // line continuation
+    case '\n':
+      break; // line continuation
+    case '\'':
+    case '"':
+    case '\\':
+    case '/':
+      append(c);
+      break;
+    case 'b': append('\b'); break;
+    case 'f': append('\f'); break;
+    case 'n': append('\n'); break;
+    case 'r': append('\r'); break;
+    case 't': append('\t'); break;
+    case 'x':
+    case 'X':
+    {
+      int h1 = read(), h2 = read();
+      checkHex(h1);
+      checkHex(h2);
+      appendCodePoint(BaseUtil.parseHexByte((char)h1, (char)h2) & 0xff);
+      break;
+    }
+    case 'u':
+    case 'U':
+    {
+      char ch = unicodeEscape();
+      if (Character.isHighSurrogate(ch) && peek() == '\\')
+      {
+        // a surrogate pair is encoded as two escapes
+        pos++;
+        int u = read();
+        if (u != 'u' && u != 'U')
+        {
+          throw error("a low surrogate");
+        }
+        char low = unicodeEscape();
+        if (Character.isLowSurrogate(low))
+        {
+          appendCodePoint(Character.toCodePoint(ch, low));
+        }
+        else
+        {
+          appendCodePoint('?');
+          appendCodePoint(Character.isSurrogate(low) ? '?' : low);
+        }
+      }
+      else
+      {
+        appendCodePoint(Character.isSurrogate(ch) ? '?' : ch);
+      }
+      break;
+    }
+    default:
+      throw error("an escape sequence");
+    }
+  }
+
+  /** Reads the four hex digits of a unicode escape. */
+  private char unicodeEscape() throws IOException, ParseException
+  {
+    int h1 = read(), h2 = read(), h3 = read(), h4 = read();
+    checkHex(h1);
+    checkHex(h2);
+    checkHex(h3);
+    checkHex(h4);
+    return BaseUtil.parseUnicode((char)h1, (char)h2, (char)h3, (char)h4);
+  }
+
+  private void checkHex(int c) throws ParseException
+  {
+    if (Character.digit(c, 16) < 0)
+    {
+      throw error("a hex digit");
+    }
+  }
+
+  /** Parses a number, including an optional <code>m</code> (decimal) or <code>d</code> (double)
+   * suffix. */
+  private JsonValue number(JsonValue target) throws IOException, ParseException
+  {
+    int n = 0;
+    int c = peek();
+    if (c == '+' || c == '-')
+    {
+      pos++;
+      n = appendChar(n, c);
+      c = peek();
+    }
+    if (!isDigit(c))
+    {
+      throw error("a digit");
+    }
+    boolean isReal = false;
+    n = digits(n);
+    if (peek() == '.' && isDigit(peekAhead()))
+    {
+      pos++;
+      n = appendChar(n, '.');
+      n = digits(n);
+      isReal = true;
+    }
+    c = peek();
+    if (c == 'e' || c == 'E')
+    {
+      pos++;
+      n = appendChar(n, c);
+      c = peek();
+      if (c == '+' || c == '-')
+      {
+        pos++;
+        n = appendChar(n, c);
+        c = peek();
+      }
+      if (!isDigit(c))
+      {
+        throw error("a digit");
+      }
+      n = digits(n);
+      isReal = true;
+    }
+
+    c = peek();
+    if (c == 'm')
+    {
+      pos++;
+      BigDecimal d = new BigDecimal(chars, 0, n, MathContext.DECIMAL128);
+      if (target instanceof MutableJsonDecimal)
+      {
+        ((MutableJsonDecimal)target).set(d);
+        return target;
+      }
+      return new MutableJsonDecimal(d);
+    }
+    if (c == 'd')
+    {
+      pos++;
+      isReal = true;
+    }
+    if (isReal)
+    {
+      double d = Double.parseDouble(new String(chars, 0, n));
+      if (target instanceof MutableJsonDouble)
+      {
+        ((MutableJsonDouble)target).set(d);
+        return target;
+      }
+      return new MutableJsonDouble(d);
+    }
+    long l = parseLong(n);
+    if (target instanceof MutableJsonLong)
+    {
+      ((MutableJsonLong)target).set(l);
+      return target;
+    }
+    return new MutableJsonLong(l);
+  }
+
+  /** Parses the first <code>n</code> characters of <code>chars</code> as a long. */
+  private long parseLong(int n) throws ParseException
+  {
+    int i = 0;
+    boolean negative = false;
+    if (chars[0] == '-' || chars[0] == '+')
+    {
+      negative = chars[0] == '-';
+      i++;
+    }
+    if (n - i > 18)
+    {
+      // might overflow
+      try
+      {
+        return Long.parseLong(new String(chars, 0, n));
+      }
+      catch (NumberFormatException e)
+      {
+        throw error("a number in the range of long");
+      }
+    }
+    long l = 0;
+    for ( ; i < n; i++)
+    {
+      l = l * 10 + (chars[i] - '0');
+    }
+    return negative ? -l : l;
+  }
+
+  /** Appends the digits at the current position to <code>chars</code>. */
+  private int digits(int n) throws IOException
+  {
+    int c = peek();
+    while (isDigit(c))
+    {
+      pos++;
+      n = appendChar(n, c);
+      c = peek();
+    }
+    return n;
+  }
+
+  /** Parses <code>true</code>, <code>false</code>, <code>null</code> (case-insensitive) or a
+   * constructor call. */
+  private JsonValue identifier() throws IOException, ParseException
+  {
+    identifierBytes();
+    if (length == 4 && matchesIgnoreCase("true"))
+    {
+      return JsonBool.TRUE;
+    }
+    if (length == 5 && matchesIgnoreCase("false"))
+    {
+      return JsonBool.FALSE;
+    }
+    if (length == 4 && matchesIgnoreCase("null"))
+    {
+      return null;
+    }
+
+    String fn = new String(bytes, 0, length, "US-ASCII");
+    expect('(');
+    ArrayList<JsonValue> args = new ArrayList<JsonValue>();
+    int c = skipWhitespace();
+    if (c == ')')
+    {
+      pos++;
+    }
+    else
+    {
+      while (true)
+      {
+        args.add(value(c, null));
+        c = skipWhitespace();
+        if (c == ')')
+        {
+          pos++;
+          break;
+        }
+        expect(',');
+        c = skipWhitespace();
+      }
+    }
+    return JsonConstructor.eval(fn, args.toArray(new JsonValue[args.size()]));
+  }
+
+  /** Reads an identifier into <code>bytes</code>. */
+  private void identifierBytes() throws IOException
+  {
+    length = 0;
+    int c = peek();
+    while (isIdStart(c) || isDigit(c) || c == '#')
+    {
+      pos++;
+      append(c);
+      c = peek();
+    }
+  }
+
+  private boolean matchesIgnoreCase(String s)
+  {
+    for (int i = 0; i < length; i++)
+    {
+      if (Character.toLowerCase((char)bytes[i]) != s.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isIdStart(int c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '@';
+  }
+
+  private static boolean isDigit(int c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  // -- input -------------------------------------------------------------------------------------
+
+  /** Skips whitespace and comments and returns the next character without consuming it. */
+  private int skipWhitespace() throws IOException, ParseException
+  {
+    while (true)
+    {
+      int c = peek();
+      switch (c)
+      {
+      case ' ':
+      case '\t':
+      case '\r':
+      case '\n':
+        pos++;
+        break;
+      case '/':
+        int c2 = peekAhead();
+        if (c2 == '/')
+        {
+          do
+          {
+            pos++;
+            c = peek();
+          } while (c != '\n' && c != '\r' && c != EOF);
+        }
+        else if (c2 == '*')
+        {
+          pos += 2;
+          int prev = 0;
+          while (true)
+          {
+            c = read();
+            if (c == EOF)
+            {
+              throw error("end of comment");
+            }
+            if (prev == '*' && c == '/')
+            {
+              break;
+            }
+            prev = c;
+          }
+        }
+        else
+        {
+          return c;
+        }
+        break;
+      default:
+        return c;
+      }
+    }
+  }
+
+  /** Skips whitespace and consumes character <code>expected</code>. */
+  private void expect(int expected) throws IOException, ParseException
+  {
+    if (skipWhitespace() != expected)
+    {
+      throw error("'" + (char)expected + "'");
+    }
+    pos++;
+  }
+
+  /** Returns the next byte without consuming it. */
+  private int peek() throws IOException
+  {
+    if (pos >= end && !fill(1))
+    {
+      return EOF;
+    }
+    return buf[pos] & 0xff;
+  }
+
+  /** Returns the byte after the next one without consuming anything. */
+  private int peekAhead() throws IOException
+  {
+    if (pos + 1 >= end && !fill(2))
+    {
+      return EOF;
+    }
+    return buf[pos + 1] & 0xff;
+  }
+
+  /** Consumes and returns the next byte. */
+  private int read() throws IOException
+  {
+    if (pos >= end && !fill(1))
+    {
+      return EOF;
+    }
+    return buf[pos++] & 0xff;
+  }
+
+  /** Makes at least <code>n</code> unconsumed bytes available, if possible. */
+  private boolean fill(int n) throws IOException
+  {
+    if (in == null)
+    {
+      return false;
+    }
+    int remaining = end - pos;
+    System.arraycopy(buf, pos, buf, 0, remaining);
+    consumed += pos;
+    pos = 0;
+    end = remaining;
+    while (end < n)
+    {
+      int read = in.read(buf, end, buf.length - end);
+      if (read < 0)
+      {
+        return false;
+      }
+      end += read;
+    }
+    return true;
+  }
+
+  // -- scratch space -----------------------------------------------------------------------------
+
+  private void append(int b)
+  {
+    if (length == bytes.length)
+    {
+      byte[] newBytes = new byte[2 * bytes.length];
+      System.arraycopy(bytes, 0, newBytes, 0, length);
+      bytes = newBytes;
+    }
+    bytes[length++] = (byte)b;
+  }
+
+  /** Appends the UTF-8 encoding of the given code point. */
+  private void appendCodePoint(int cp)
+  {
+    if (cp < 0x80)
+    {
+      append(cp);
+    }
+    else if (cp < 0x800)
+    {
+      append(0xc0 | (cp >> 6));
+      append(0x80 | (cp & 0x3f));
+    }
+    else if (cp < 0x10000)
+    {
+      append(0xe0 | (cp >> 12));
+      append(0x80 | ((cp >> 6) & 0x3f));
+      append(0x80 | (cp & 0x3f));
+    }
+    else
+    {
+      append(0xf0 | (cp >> 18));
+      append(0x80 | ((cp >> 12) & 0x3f));
+      append(0x80 | ((cp >> 6) & 0x3f));
+      append(0x80 | (cp & 0x3f));
+    }
+  }
+
+  private int appendChar(int n, int c)
+  {
+    if (n == chars.length)
+    {
+      char[] newChars = new char[2 * chars.length];
+      System.arraycopy(chars, 0, newChars, 0, n);
+      chars = newChars;
+    }
+    chars[n] = (char)c;
+    return n + 1;
+  }
+
+  /** Returns the exception to throw when <code>expected</code> was not found. Like the
+   * {@link JsonParserTokenManager}, throws a {@link TokenMgrError} if the input contains a
+   * character that cannot start any token. */
+  private ParseException error(String expected) throws ParseException
+  {
+    String found;
+    boolean lexical = false;
+    try
+    {
+      int c = peek();
+      found = c == EOF ? "end of input" : "'" + (char)c + "'";
+      lexical = c != EOF && !isTokenStart(c);
+    }
+    catch (IOException e)
+    {
+      found = "unreadable input";
+    }
+    String message = "Expected " + expected + " but found " + found 
+                     + " at byte " + (consumed + pos);
+    if (lexical)
+    {
+      throw new TokenMgrError(message, TokenMgrError.LEXICAL_ERROR);
+    }
+    return new ParseException(message);
+  }
+
+  /** Returns true if character <code>c</code> can start a token outside of a string. */
+  private static boolean isTokenStart(int c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || "{}[](),:\"'+-._@/".indexOf(c) >= 0;
+  }
+}
@@ -32,7 +32,8 @@ public class JsonRegex extends JsonAtom
 
   protected JsonString          regex;
   protected byte             flags;
-  protected Matcher          matcher;             // FIXME: make sure java and javascript agree 
+  protected volatile Pattern pattern;          // FIXME: make sure java and javascript agree 
+  protected Matcher          matcher;             // only used by getMatcher()
 
   //  // This function expects a well-formed regex as returned from the jaql lexer.
   //  public static RegexItem parse(String regex)
@@ -148,9 +149,25 @@ public class JsonRegex extends JsonAtom
   }
 
   /**
+   * Returns the compiled regex. Patterns are shared through the {@link PatternCache}.
+   * 
    * @return
    */
-  protected Matcher compileRegex()
+  public Pattern getPattern()
+  {
+    Pattern p = pattern;
+    if (p == null)
+    {
+      p = PatternCache.getPattern(regex.toString(), getPatternFlags());
+      pattern = p;
+    }
+    return p;
+  }
+
+  /**
+   * @return the {@link Pattern} flags of this regex
+   */
+  protected int getPatternFlags()
   {
     int flags = 0;
     if (isCaseInsensitive())
@@ -161,8 +178,7 @@ public class JsonRegex extends JsonAtom
     {
       flags |= Pattern.MULTILINE;
     }
-    Pattern pattern = Pattern.compile(regex.toString(), flags);
-    return pattern.matcher("");
+    return flags;
   }
 
   /**
@@ -175,26 +191,20 @@ public class JsonRegex extends JsonAtom
   {
     if (matcher == null)
     {
-      matcher = compileRegex();
+      matcher = getPattern().matcher("");
     }
     return matcher;
   }
 
   /**
+   * Returns a matcher that is not used by anyone else; this method is thread-safe. Give the
+   * matcher back with returnMatcher() on the same thread when done.
+   * 
    * @return
    */
   public Matcher takeMatcher()
   {
-    Matcher m = this.matcher;
-    if (m != null)
-    {
-      this.matcher = null;
-    }
-    else
-    {
-      m = compileRegex();
-    }
-    return m;
+    return PatternCache.takeMatcher(getPattern());
   }
 
   /**
@@ -202,7 +212,7 @@ public class JsonRegex extends JsonAtom
    */
   public void returnMatcher(Matcher matcher)
   {
-    this.matcher = matcher;
+    PatternCache.returnMatcher(matcher);
   }
 
   /*
@@ -256,7 +266,8 @@ public class JsonRegex extends JsonAtom
     }
     t.regex = JsonUtil.getCopy(this.regex, t.regex);
     t.flags = this.flags;
-    t.matcher = this.matcher; // can be shared
+    t.pattern = this.pattern; // can be shared
+    t.matcher = null;
     return t;
   }
   
@@ -279,6 +290,7 @@ public class JsonRegex extends JsonAtom
   public void set(JsonString regex, byte flags) {
     this.regex = regex;
     this.flags = flags;
+    pattern = null;
     matcher = null;
   }
 }
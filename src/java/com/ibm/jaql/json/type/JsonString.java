@@ -24,6 +24,13 @@ import com.ibm.jaql.util.BaseUtil;
  * 
  * Instances of this class are immutable, but subclasses might add mutation functionality
  * (in which case they have to override the {@link #getCopy(JsonValue)} method). 
+ * 
+ * The {@link CharSequence} methods only avoid the conversion to a Java string for strings that
+ * are entirely ASCII. Any other string is decoded to a Java string (once, it is cached) on the 
+ * first call, so matching a regex against non-ASCII text costs the same as before.
+ * 
+ * The Java string, the bytes and the ASCII state are all computed lazily and cached without 
+ * synchronization, so an instance must not be shared by threads without a copy.
  */
 public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
 {
@@ -41,6 +48,9 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
   /** When not null, the hash code of this string */
   protected Long                cachedLongHashCode;
 
+  /** 1 if all bytes are ASCII, 0 if not, -1 if not yet known */
+  protected byte                asciiState = -1;
+
   
   // -- construction ------------------------------------------------------------------------------
   
@@ -215,6 +225,7 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
     }    
     this.cachedString = string.cachedString;
     this.cachedLongHashCode = string.cachedLongHashCode;
+    this.asciiState = string.asciiState;
   }
 
   // clear cache when setting value
@@ -242,6 +253,7 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
   public int compareTo(Object x)
   {
     JsonString s = (JsonString) x;
+    if (this == s) return 0; // canonical field names
     ensureBytes();
     s.ensureBytes();
     int len = Math.min(this.bytesLength(), s.bytesLength());
@@ -279,6 +291,7 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
   {
     this.cachedString = null;
     this.cachedLongHashCode = null;
+    this.asciiState = -1;
   }  
 
   // -- misc --------------------------------------------------------------------------------------
@@ -292,7 +305,21 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
 
   // -- CharSequence ------------------------------------------------------------------------------
   
-
+  /** Returns true if the characters of this string can be read off its bytes without decoding,
+   * i.e., if there is no Java string yet and all bytes are ASCII. Then character positions and 
+   * byte positions are the same. */
+  protected boolean isAsciiView()
+  {
+    if (cachedString != null) return false;
+    if (asciiState < 0)
+    {
+      int i = bytesOffset();
+      int n = i + bytesLength;
+      while (i < n && bytes[i] >= 0) i++;
+      asciiState = (byte)(i == n ? 1 : 0);
+    }
+    return asciiState == 1;
+  }
   
   /** Converts this string to a Java string. This method internally uses caching; the conversion
    * cost is thus paid only once. */
@@ -307,18 +334,41 @@ public class JsonString extends AbstractBinaryJsonAtom implements CharSequence
   @Override
   public int length()
   {
+    if (isAsciiView()) return bytesLength;
     return toString().length();
   }
   
+  /** Returns the character at the specified position. ASCII strings are served from the UTF-8
+   * bytes, so that scanning them (e.g., by a regex matcher) does not require a conversion to a 
+   * Java string. */
   @Override
   public char charAt(int index)
   {
+    if (isAsciiView())
+    {
+      if (index < 0 || index >= bytesLength) throw new StringIndexOutOfBoundsException(index);
+      return (char)bytes[bytesOffset() + index];
+    }
     return toString().charAt(index);
   }
 
   @Override
   public CharSequence subSequence(int start, int end)
   {
+    if (isAsciiView())
+    {
+      if (start < 0 || end > bytesLength || start > end) 
+      {
+        throw new StringIndexOutOfBoundsException(end - start);
+      }
+      char[] chars = new char[end - start];
+      int offset = bytesOffset() + start;
+      for (int i = 0; i < chars.length; i++)
+      {
+        chars[i] = (char)bytes[offset + i];
+      }
+      return new String(chars);
+    }
     return toString().subSequence(start, end);
   }
 
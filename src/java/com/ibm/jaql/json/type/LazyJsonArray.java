@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.type;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+
+import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.util.BaseUtil;
+
+/** A read-only {@link JsonArray} that is backed by its serialized form in the format of
+ * {@link DefaultBinaryFullSerializer}. Elements are decoded only when they are accessed; see
+ * {@link LazyJsonRecord} for details. {@link #getCopy(JsonValue)} decodes the array into a
+ * mutable {@link BufferedJsonArray}.
+ */
+public class LazyJsonArray extends JsonArray
+{
+  private static final JsonValue[] NO_VALUES = new JsonValue[0];
+
+  // serialized array (without encoding id) in bytes[start..end)
+  protected byte[] bytes = LazyJsonRecord.NO_BYTES;
+  protected int start = 0;
+  protected int end = 0;
+
+  /** true when bytes may be overwritten by the next call to setCopy */
+  protected boolean reusable = false;
+
+  // index structures; built on first access
+  protected boolean indexed = false;
+  protected int count;
+  protected int[] offsets = new int[1]; // offsets[i] is start of element i, offsets[count]==end
+
+  // decoded values
+  protected JsonValue[] values = NO_VALUES;
+  protected boolean[] isDecoded = new boolean[0];
+
+
+  // -- construction ------------------------------------------------------------------------------
+
+  /** Constructs an empty lazy array */
+  public LazyJsonArray()
+  {
+    setCopy(LazyJsonRecord.NO_BYTES, 0, 0);
+  }
+
+  /** Constructs a lazy array that is backed by <code>bytes[offset..offset+length)</code>, which
+   * has to hold an array serialized by {@link DefaultBinaryFullSerializer} without its encoding
+   * id. The bytes are not copied and must not be modified while this array is in use. */
+  public LazyJsonArray(byte[] bytes, int offset, int length)
+  {
+    this.bytes = bytes;
+    this.start = offset;
+    this.end = offset + length;
+    this.reusable = false;
+  }
+
+  /** Makes this array represent a copy of the serialized array in
+   * <code>bytes[offset..offset+length)</code>. The internal buffer of this array is reused
+   * if possible. */
+  public void setCopy(byte[] bytes, int offset, int length)
+  {
+    if (!reusable || this.bytes.length < length)
+    {
+      this.bytes = new byte[length];
+      reusable = true;
+    }
+    System.arraycopy(bytes, offset, this.bytes, 0, length);
+    start = 0;
+    end = length;
+    indexed = false;
+  }
+
+  /** Writes the serialized form of this array without its encoding id, i.e., in the format
+   * produced by the array serializer of {@link DefaultBinaryFullSerializer}. */
+  public void writeEncoded(DataOutput out) throws IOException
+  {
+    out.write(bytes, start, end-start);
+  }
+
+
+  // -- reading -----------------------------------------------------------------------------------
+
+  /* @see com.ibm.jaql.json.type.JsonArray#count() */
+  @Override
+  public long count()
+  {
+    ensureIndex();
+    return count;
+  }
+
+  /* @see com.ibm.jaql.json.type.JsonArray#iter() */
+  @Override
+  public JsonIterator iter() throws Exception
+  {
+    ensureIndex();
+    return new JsonIterator() {
+      int i = 0;
+
+      @Override
+      public boolean moveNext() throws Exception
+      {
+        if (i < count)
+        {
+          currentValue = get(i++);
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /* @see com.ibm.jaql.json.type.JsonArray#get(long) */
+  @Override
+  public JsonValue get(long n) throws Exception
+  {
+    ensureIndex();
+    if (n < 0 || n >= count)
+    {
+      return null;
+    }
+    return get((int)n);
+  }
+
+  /** Returns the i-th element, decoding it if necessary. */
+  protected JsonValue get(int i)
+  {
+    if (!isDecoded[i])
+    {
+      values[i] = LazyJsonRecord.decode(bytes, offsets[i], offsets[i+1], values[i]);
+      isDecoded[i] = true;
+      if (LazyJsonRecord.isShared(values[i])) reusable = false;
+    }
+    return values[i];
+  }
+
+  /* @see com.ibm.jaql.json.type.JsonArray#getAll(com.ibm.jaql.json.type.JsonValue[]) */
+  @Override
+  public void getAll(JsonValue[] target) throws Exception
+  {
+    ensureIndex();
+    assert target.length == count;
+    for (int i=0; i<count; i++)
+    {
+      target[i] = get(i);
+    }
+  }
+
+  /** Returns a mutable, fully decoded copy of this array. */
+  @Override
+  public BufferedJsonArray getCopy(JsonValue target) throws Exception
+  {
+    DataInputBuffer in = LazyJsonRecord.input(bytes, start, end);
+    return (BufferedJsonArray)DefaultBinaryFullSerializer.getInstance()
+        .getSerializer(JsonEncoding.ARRAY_BUFFERED).read(in, target);
+  }
+
+  /** Returns a lazy copy of this array that does not share any data with this array. */
+  @Override
+  public LazyJsonArray getImmutableCopy() throws Exception
+  {
+    LazyJsonArray t = new LazyJsonArray();
+    t.setCopy(bytes, start, end-start);
+    return t;
+  }
+
+
+  // -- index -------------------------------------------------------------------------------------
+
+  /** Determines the offsets of the elements, without decoding them. */
+  protected void ensureIndex()
+  {
+    if (indexed) return;
+    try
+    {
+      DataInputBuffer in = LazyJsonRecord.input(bytes, start, end);
+      int n = BaseUtil.readVUInt(in);
+      if (values.length < n)
+      {
+        values = new JsonValue[n];
+        offsets = new int[n+1];
+        isDecoded = new boolean[n];
+      }
+      DefaultBinaryFullSerializer valueSerializer = DefaultBinaryFullSerializer.getInstance();
+      for (int i=0; i<n; i++)
+      {
+        offsets[i] = in.getPosition();
+        valueSerializer.skip(in);
+        isDecoded[i] = false;
+      }
+      offsets[n] = in.getPosition();
+      count = n;
+      indexed = true;
+    }
+    catch (IOException e)
+    {
+      throw new UndeclaredThrowableException(e);
+    }
+  }
+
+
+  // -- misc --------------------------------------------------------------------------------------
+
+  /* @see com.ibm.jaql.json.type.JsonValue#getEncoding() */
+  @Override
+  public JsonEncoding getEncoding()
+  {
+    return JsonEncoding.ARRAY_BUFFERED;
+  }
+}
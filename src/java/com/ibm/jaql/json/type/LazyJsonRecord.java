@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.type;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.io.DataInputBuffer;
+
+import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.json.util.FieldNameCache;
+import com.ibm.jaql.util.BaseUtil;
+
+/** A read-only {@link JsonRecord} that is backed by its serialized form in the format of
+ * {@link DefaultBinaryFullSerializer}. The field names are indexed on first access; a field value
+ * is decoded only when it is accessed. Nested records and arrays are again lazy and share the
+ * bytes of this record.
+ *
+ * Lazy records cannot be modified. {@link #getCopy(JsonValue)} decodes the record into a mutable
+ * {@link BufferedJsonRecord}. When a lazy record is written with the default serializer, its bytes
+ * are copied without being decoded.
+ */
+public class LazyJsonRecord extends JsonRecord
+{
+  static final byte[] NO_BYTES = new byte[0];
+
+  // buffers used for decoding; shared by all lazy values of a thread
+  private static final ThreadLocal<DataInputBuffer> inputBuffer = new ThreadLocal<DataInputBuffer>() {
+    @Override
+    protected DataInputBuffer initialValue()
+    {
+      return new DataInputBuffer();
+    }
+  };
+  private static final ThreadLocal<MutableJsonString> nameBuffer = new ThreadLocal<MutableJsonString>() {
+    @Override
+    protected MutableJsonString initialValue()
+    {
+      return new MutableJsonString();
+    }
+  };
+
+  // serialized record (without encoding id) in bytes[start..end)
+  protected byte[] bytes = NO_BYTES;
+  protected int start = 0;
+  protected int end = 0;
+
+  /** true when bytes may be overwritten by the next call to setCopy, i.e., when bytes are owned
+   * by this record and no nested value points into them */
+  protected boolean reusable = false;
+
+  // index structures; built on first access
+  protected boolean indexed = false;
+  protected int size;
+  protected JsonString[] names = NOTHING;
+  protected int[] offsets = new int[0]; // value i is serialized in bytes[offsets[i]..ends[i])
+  protected int[] ends = new int[0];
+  protected boolean isSorted;
+
+  // decoded values
+  protected JsonValue[] values = NO_VALUES;
+  protected boolean[] isDecoded = new boolean[0];
+
+  private static final JsonString[] NOTHING = new JsonString[0];
+  private static final JsonValue[] NO_VALUES = new JsonValue[0];
+
+
+  // -- construction ------------------------------------------------------------------------------
+
+  /** Constructs an empty lazy record */
+  public LazyJsonRecord()
+  {
+    setCopy(NO_BYTES, 0, 0);
+  }
+
+  /** Constructs a lazy record that is backed by <code>bytes[offset..offset+length)</code>, which
+   * has to hold a record serialized by {@link DefaultBinaryFullSerializer} without its encoding
+   * id. The bytes are not copied and must not be modified while this record is in use. */
+  public LazyJsonRecord(byte[] bytes, int offset, int length)
+  {
+    this.bytes = bytes;
+    this.start = offset;
+    this.end = offset + length;
+    this.reusable = false;
+  }
+
+  /** Makes this record represent a copy of the serialized record in
+   * <code>bytes[offset..offset+length)</code>. The internal buffer of this record is reused
+   * if possible. */
+  public void setCopy(byte[] bytes, int offset, int length)
+  {
+    if (!reusable || this.bytes.length < length)
+    {
+      this.bytes = new byte[length];
+      reusable = true;
+    }
+    System.arraycopy(bytes, offset, this.bytes, 0, length);
+    start = 0;
+    end = length;
+    indexed = false;
+  }
+
+  /** Writes the serialized form of this record without its encoding id, i.e., in the format
+   * produced by the record serializer of {@link DefaultBinaryFullSerializer}. */
+  public void writeEncoded(DataOutput out) throws IOException
+  {
+    out.write(bytes, start, end-start);
+  }
+
+
+  // -- reading -----------------------------------------------------------------------------------
+
+  /* @see com.ibm.jaql.json.type.JsonRecord#size() */
+  @Override
+  public int size()
+  {
+    ensureIndex();
+    return size;
+  }
+
+  /* @see com.ibm.jaql.json.type.JsonRecord#containsKey(com.ibm.jaql.json.type.JsonString) */
+  @Override
+  public boolean containsKey(JsonString key)
+  {
+    return indexOf(key) >= 0;
+  }
+
+  /* @see com.ibm.jaql.json.type.JsonRecord#get(com.ibm.jaql.json.type.JsonString,
+   *      com.ibm.jaql.json.type.JsonValue) */
+  @Override
+  public JsonValue get(JsonString key, JsonValue defaultValue)
+  {
+    int index = indexOf(key);
+    return index >= 0 ? get(index) : defaultValue;
+  }
+
+  /** Returns the index of the field with the specified name or -1 if there is no such field.
+   * Fields are indexed in name order. */
+  public int indexOf(JsonString name)
+  {
+    ensureIndex();
+    if (isSorted)
+    {
+      int i = Arrays.binarySearch(names, 0, size, name);
+      return i >= 0 ? i : -1;
+    }
+    for (int i=0; i<size; i++)
+    {
+      if (names[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  /** Returns the name of the i-th field. */
+  public JsonString getName(int i)
+  {
+    ensureIndex();
+    return names[i];
+  }
+
+  /** Returns the value of the i-th field, decoding it if necessary. */
+  public JsonValue get(int i)
+  {
+    ensureIndex();
+    if (!isDecoded[i])
+    {
+      values[i] = decode(bytes, offsets[i], ends[i], values[i]);
+      isDecoded[i] = true;
+      if (isShared(values[i])) reusable = false;
+    }
+    return values[i];
+  }
+
+  /** Returns a mutable, fully decoded copy of this record. */
+  @Override
+  public BufferedJsonRecord getCopy(JsonValue target) throws Exception
+  {
+    DataInputBuffer in = input(bytes, start, end);
+    return (BufferedJsonRecord)DefaultBinaryFullSerializer.getInstance()
+        .getSerializer(JsonEncoding.RECORD).read(in, target);
+  }
+
+  /** Returns a lazy copy of this record that does not share any data with this record. */
+  @Override
+  public LazyJsonRecord getImmutableCopy() throws Exception
+  {
+    LazyJsonRecord t = new LazyJsonRecord();
+    t.setCopy(bytes, start, end-start);
+    return t;
+  }
+
+
+  // -- index -------------------------------------------------------------------------------------
+
+  /** Reads the field names and determines the offsets of the values, without decoding them. */
+  protected void ensureIndex()
+  {
+    if (indexed) return;
+    try
+    {
+      DataInputBuffer in = input(bytes, start, end);
+      int n = BaseUtil.readVUInt(in);
+      if (names.length < n)
+      {
+        names = new JsonString[n];
+        values = new JsonValue[n];
+        offsets = new int[n];
+        ends = new int[n];
+        isDecoded = new boolean[n];
+      }
+      MutableJsonString name = nameBuffer.get();
+      DefaultBinaryFullSerializer valueSerializer = DefaultBinaryFullSerializer.getInstance();
+      isSorted = true;
+      for (int i=0; i<n; i++)
+      {
+        int length = BaseUtil.readVUInt(in);
+        int pos = in.getPosition();
+        name.setCopy(bytes, pos, length);
+        names[i] = FieldNameCache.get(name);
+        if (i > 0 && names[i-1].compareTo(names[i]) >= 0)
+        {
+          isSorted = false;
+        }
+        in.skipBytes(length);
+        offsets[i] = in.getPosition();
+        valueSerializer.skip(in);
+        ends[i] = in.getPosition();
+        isDecoded[i] = false;
+      }
+      size = n;
+      indexed = true;
+    }
+    catch (IOException e)
+    {
+      throw new UndeclaredThrowableException(e);
+    }
+  }
+
+  /** Decodes the value serialized in bytes[from..to). Records and arrays are not decoded but
+   * returned as lazy values that share bytes. */
+  static JsonValue decode(byte[] bytes, int from, int to, JsonValue target)
+  {
+    try
+    {
+      DataInputBuffer in = input(bytes, from, to);
+      JsonEncoding encoding = JsonEncoding.getEncoding(BaseUtil.readVUInt(in));
+      switch (encoding)
+      {
+      case RECORD:
+        return new LazyJsonRecord(bytes, in.getPosition(), to-in.getPosition());
+      case ARRAY_BUFFERED:
+        return new LazyJsonArray(bytes, in.getPosition(), to-in.getPosition());
+      default:
+        return DefaultBinaryFullSerializer.getInstance().getSerializer(encoding).read(in, target);
+      }
+    }
+    catch (IOException e)
+    {
+      throw new UndeclaredThrowableException(e);
+    }
+  }
+
+  /** Returns true if <code>value</code> shares bytes with the value it was decoded from */
+  static boolean isShared(JsonValue value)
+  {
+    return value instanceof LazyJsonRecord || value instanceof LazyJsonArray;
+  }
+
+  /** Returns the input buffer of the current thread, reset to bytes[from..to) */
+  static DataInputBuffer input(byte[] bytes, int from, int to)
+  {
+    DataInputBuffer in = inputBuffer.get();
+    in.reset(bytes, from, to-from);
+    return in;
+  }
+
+
+  // -- Iterable interface ------------------------------------------------------------------------
+
+  /** Returns an iterator over the fields in this record (in index order). */
+  @Override
+  public Iterator<Entry<JsonString, JsonValue>> iterator()
+  {
+    ensureIndex();
+    return new Iterator<Entry<JsonString, JsonValue>>()
+    {
+      int i = 0;
+      RecordEntry entry = new RecordEntry(); // reused
+
+      @Override
+      public boolean hasNext()
+      {
+        return i < size;
+      }
+
+      @Override
+      public Entry<JsonString, JsonValue> next()
+      {
+        entry.name = names[i];
+        entry.value = get(i);
+        i++;
+        return entry;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** Returns an iterator over the fields in this record (in field-name order). */
+  @Override
+  public Iterator<Entry<JsonString, JsonValue>> iteratorSorted()
+  {
+    ensureIndex();
+    if (isSorted) return iterator();
+
+    // records written by jaql are always sorted; this handles foreign data
+    final Integer[] sortedIndex = new Integer[size];
+    for (int i=0; i<size; i++)
+    {
+      sortedIndex[i] = i;
+    }
+    Arrays.sort(sortedIndex, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2)
+      {
+        return names[o1].compareTo(names[o2]);
+      }
+    });
+    return new Iterator<Entry<JsonString, JsonValue>>()
+    {
+      int i = 0;
+      RecordEntry entry = new RecordEntry(); // reused
+
+      @Override
+      public boolean hasNext()
+      {
+        return i < size;
+      }
+
+      @Override
+      public Entry<JsonString, JsonValue> next()
+      {
+        entry.name = names[sortedIndex[i]];
+        entry.value = get(sortedIndex[i]);
+        i++;
+        return entry;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+
+  // -- misc --------------------------------------------------------------------------------------
+
+  /* @see com.ibm.jaql.json.type.JsonValue#getEncoding() */
+  @Override
+  public JsonEncoding getEncoding()
+  {
+    return JsonEncoding.RECORD;
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.type;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A process-wide cache of compiled regular expressions, shared by all {@link JsonRegex}
+ * instances and safe for concurrent use. Patterns are keyed by their source and flags, so a
+ * regex that is re-created for every record (e.g., read from the data or built by a
+ * function) is compiled only once.
+ *
+ * Matchers are reused per thread: {@link #takeMatcher(Pattern)} hands out an idle matcher of
+ * the calling thread, and {@link #returnMatcher(Matcher)} gives it back.
+ *
+ * The number of cached patterns is set by the <code>jaql.regex.cache.size</code> property;
+ * 0 disables the cache. When the cache is full, arbitrary entries are dropped.
+ */
+public final class PatternCache
+{
+  public static final String SIZE_PROPERTY = "jaql.regex.cache.size";
+  public static final int DEFAULT_SIZE = 1024;
+
+  /** The maximum number of idle matchers kept per thread */
+  public static final int MATCHERS_PER_THREAD = 16;
+
+  private static final int maxSize =
+    Integer.parseInt(System.getProperty(SIZE_PROPERTY, Integer.toString(DEFAULT_SIZE)));
+
+  private static final ConcurrentHashMap<Key, Pattern> patterns =
+    new ConcurrentHashMap<Key, Pattern>();
+
+  private static final ThreadLocal<HashMap<Pattern, Matcher>> idleMatchers =
+    new ThreadLocal<HashMap<Pattern, Matcher>>() {
+      @Override
+      protected HashMap<Pattern, Matcher> initialValue()
+      {
+        return new HashMap<Pattern, Matcher>();
+      }
+    };
+
+  /** The source and flags of a pattern */
+  private static final class Key
+  {
+    final String regex;
+    final int flags;
+
+    Key(String regex, int flags)
+    {
+      this.regex = regex;
+      this.flags = flags;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return flags == k.flags && regex.equals(k.regex);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return regex.hashCode() * 31 + flags;
+    }
+  }
+
+  private PatternCache()
+  {
+  }
+
+  /** Returns the compiled pattern for the given source and {@link Pattern} flags. */
+  public static Pattern getPattern(String regex, int flags)
+  {
+    if (maxSize <= 0)
+    {
+      return Pattern.compile(regex, flags);
+    }
+    Key key = new Key(regex, flags);
+    Pattern pattern = patterns.get(key);
+    if (pattern == null)
+    {
+      pattern = Pattern.compile(regex, flags);
+      if (patterns.size() >= maxSize)
+      {
+        evict();
+      }
+      Pattern old = patterns.putIfAbsent(key, pattern);
+      if (old != null)
+      {
+        pattern = old; // another thread was first
+      }
+    }
+    return pattern;
+  }
+
+  /** Drops about a quarter of the cached patterns */
+  private static void evict()
+  {
+    int n = Math.max(1, maxSize / 4);
+    Iterator<Key> iter = patterns.keySet().iterator();
+    while (n-- > 0 && iter.hasNext())
+    {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /** Returns a matcher for the pattern that is not used by anyone else. It should be given
+   * back using {@link #returnMatcher(Matcher)} on the same thread. */
+  public static Matcher takeMatcher(Pattern pattern)
+  {
+    Matcher m = idleMatchers.get().remove(pattern);
+    return m != null ? m : pattern.matcher("");
+  }
+
+  /** Makes a matcher obtained from {@link #takeMatcher(Pattern)} available for reuse by the
+   * current thread. */
+  public static void returnMatcher(Matcher matcher)
+  {
+    matcher.reset(""); // do not hold on to the input
+    HashMap<Pattern, Matcher> idle = idleMatchers.get();
+    if (idle.size() >= MATCHERS_PER_THREAD)
+    {
+      idle.clear();
+    }
+    idle.put(matcher.pattern(), matcher);
+  }
+
+  /** Returns the number of cached patterns. */
+  public static int size()
+  {
+    return patterns.size();
+  }
+
+  /** Drops all cached patterns. */
+  public static void clear()
+  {
+    patterns.clear();
+  }
+}
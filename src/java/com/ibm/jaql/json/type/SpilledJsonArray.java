@@ -25,6 +25,7 @@ import org.apache.hadoop.io.DataInputBuffer;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.LazyBinaryFullSerializer;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.json.util.JsonUtil;
 import com.ibm.jaql.lang.util.JaqlUtil;
@@ -60,6 +61,11 @@ public class SpilledJsonArray extends JsonArray
   protected final static BinaryFullSerializer spillSerializer 
     = DefaultBinaryFullSerializer.getInstance(); // TODO: make dynamic
   
+  /** Serializer used for reading from the spill file. Records and arrays are read lazily unless
+   * disabled via {@link LazyBinaryFullSerializer#ENABLED_PROPERTY}. */
+  protected final static BinaryFullSerializer readSerializer 
+    = LazyBinaryFullSerializer.isEnabled() ? LazyBinaryFullSerializer.getInstance() : spillSerializer;
+  
   /** number of elements to cache */
   protected int cacheSize;
   
@@ -209,7 +215,7 @@ public class SpilledJsonArray extends JsonArray
           }
        
           // read from input 
-          currentValue = spillSerializer.read(input, currentValue);
+          currentValue = readSerializer.read(input, currentValue);
           i++;
           eof = i>=count();
           return true;
@@ -497,7 +503,8 @@ public class SpilledJsonArray extends JsonArray
   public void clear() throws IOException
   {
     if (!cacheIsMine) {
-      Arrays.fill(cache, null);
+      // entries beyond count have not been set since the last clear
+      Arrays.fill(cache, 0, (int)Math.min(count, cacheSize), null);
       cacheIsMine = true;
     }
     if (hasSpillFile()) {
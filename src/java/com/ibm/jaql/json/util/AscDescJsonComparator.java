@@ -22,6 +22,7 @@ import com.ibm.jaql.io.hadoop.JsonHolder;
 import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
 import com.ibm.jaql.json.type.BufferedJsonArray;
 import com.ibm.jaql.json.type.JsonEncoding;
+import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.util.BaseUtil;
 
 /**
@@ -148,7 +149,7 @@ public class AscDescJsonComparator extends DefaultJsonComparator
     }
     for(int i = 0 ; i < asc.length ; i++)
     {
-      int c = x.getUnchecked(i).compareTo(y.getUnchecked(i));
+      int c = JsonUtil.compare(x.getUnchecked(i), y.getUnchecked(i));
       if( c != 0 )
       {
         return asc[i] ? c : -c;
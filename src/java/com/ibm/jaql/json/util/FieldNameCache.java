@@ -1,24 +1,86 @@
 package com.ibm.jaql.json.util;
 
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.ibm.jaql.json.type.JsonString;
 
+/**
+ * Cache of canonical field names. Equal names obtained from the cache are usually identical, 
+ * so that field name comparisons can be decided by reference in the common case. 
+ * 
+ * The cache is a direct-mapped table of fixed capacity (a power of two, set by the 
+ * <code>jaql.fieldname.cache.size</code> system property). A name whose slot is taken by a 
+ * different name replaces it, so that the cache stays bounded when field names are data 
+ * dependent. Lookups are lock-free and may be performed by multiple threads concurrently.
+ * 
+ * Hits and misses are only counted when enabled by the <code>jaql.fieldname.cache.stats</code> 
+ * system property or {@link #setCounting(boolean)}, because shared counters would be updated
+ * by every lookup of every thread.
+ */
 public class FieldNameCache {
-	private static final HashMap<JsonString, JsonString> cache = new HashMap<JsonString, JsonString>();
+	public static final String SIZE_PROPERTY = "jaql.fieldname.cache.size";
+	public static final int DEFAULT_SIZE = 8192;
+	public static final String STATS_PROPERTY = "jaql.fieldname.cache.stats";
+	
+	private static final AtomicReferenceArray<JsonString> cache;
+	private static final int mask;
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static boolean counting = Boolean.getBoolean(STATS_PROPERTY);
+	
+	static {
+	  int size = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+	  if (size < 1 || size > (1 << 30)) {
+	    size = DEFAULT_SIZE;
+	  }
+	  size = Integer.highestOneBit(size); // round down to power of two
+	  cache = new AtomicReferenceArray<JsonString>(size);
+	  mask = size - 1;
+	}
 	
 	/*
 	 * Returns the cached field name. If the name is not already cached
 	 * a immutable copy of the value is stored in the cache and returned.
 	 */
 	public static JsonString get(JsonString s) {
-	  JsonString c = cache.get(s);
-	  if( c != null )
+	  int h = s.hashCode();
+	  int i = (h ^ (h >>> 16)) & mask;
+	  JsonString c = cache.get(i);
+	  if( c != null && (c == s || c.equals(s)) )
 	  {
+	    if (counting) {
+	      hits.incrementAndGet();
+	    }
 	    return c;
 	  }
+	  if (counting) {
+	    misses.incrementAndGet();
+	  }
 	  c = s.getImmutableCopy();
-	  cache.put(c, c);
+	  cache.set(i, c);
 	  return c;
 	}
+	
+	/** Enables or disables counting of hits and misses. */
+	public static void setCounting(boolean enabled) {
+	  counting = enabled;
+	}
+	
+	/** Returns the number of lookups that found the name in the cache, while counting was 
+	 * enabled. */
+	public static long hits() {
+	  return hits.get();
+	}
+	
+	/** Returns the number of lookups that had to insert the name into the cache, while counting 
+	 * was enabled. */
+	public static long misses() {
+	  return misses.get();
+	}
+	
+	/** Returns the maximum number of names held by the cache. */
+	public static int capacity() {
+	  return mask + 1;
+	}
 }
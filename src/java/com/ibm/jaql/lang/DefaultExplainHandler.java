@@ -39,6 +39,7 @@ public class DefaultExplainHandler extends ExplainHandler
   public Expr explain(Expr expr) throws Exception
   {
     String stmt = decompile(expr);
+    out.print(ExplainExpr.describeJobs(expr));
     out.println(stmt);
     if( expr instanceof QueryExpr && expr.child(0) instanceof RegisterAdapterExpr ) // HACK: if we don't register, explain will change or bomb. This will go away with the registry.
     {
@@ -27,6 +27,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -58,9 +59,11 @@ import com.ibm.jaql.lang.expr.top.QueryExpr;
 import com.ibm.jaql.lang.parser.JaqlLexer;
 import com.ibm.jaql.lang.parser.JaqlParser;
 import com.ibm.jaql.lang.rewrite.RewriteEngine;
+import com.ibm.jaql.lang.rewrite.RewriteStats;
 import com.ibm.jaql.lang.rewrite.VarTagger;
 import com.ibm.jaql.util.ClassLoaderMgr;
 import com.ibm.jaql.util.FastPrintStream;
+import com.ibm.jaql.util.SpillStats;
 
 public class Jaql implements CoreJaql
 {
@@ -120,6 +123,7 @@ public class Jaql implements CoreJaql
   public void setModulePath(String[] searchPath)
   {
     env.globals.getPackage().setModulePath(searchPath);
+    planCache.clear();
   }
 
   public static void addExtensionJars(String[] jars) throws Exception
@@ -129,6 +133,7 @@ public class Jaql implements CoreJaql
   
   public void addJar(String path) throws Exception {
       ClassLoaderMgr.addExtensionJars(new String[]{path});
+      planCache.clear();
   }
 
   //-----------------------------------------------------------------
@@ -138,6 +143,9 @@ public class Jaql implements CoreJaql
   protected final Context context = new Context();
   protected final Env env = new Env(context);
   protected RewriteEngine rewriter = new RewriteEngine();
+  protected final PlanCache planCache = new PlanCache();
+  protected String script;      // text of the current input, if it was set from a string
+  protected boolean sideEffects; // true if a statement of the current input was not a query
   protected boolean doRewrite = true;
   protected boolean stopOnException = false;
   protected String explainMode = System.getProperty("jaql.explain.mode"); // eventually more modes: jaql, graphical, json, logJaql?
@@ -191,6 +199,8 @@ public class Jaql implements CoreJaql
     parser = new JaqlParser(lexer);
     parser.env = env;
     lexer.setFilename(filename);
+    script = null;
+    sideEffects = false;
   }
   
   public void setInput(String filename, Reader in)
@@ -199,11 +209,14 @@ public class Jaql implements CoreJaql
     parser = new JaqlParser(lexer);
     parser.env = env;
     lexer.setFilename(filename);
+    script = null;
+    sideEffects = false;
   }
   
   public void setInput(String jaql)
   {
     setInput("<string>", new StringReader(jaql));
+    script = jaql;
   }
   
 //  public void setError(ClosableJsonWriter writer)
@@ -219,6 +232,25 @@ public class Jaql implements CoreJaql
   public void enableRewrite(boolean doRewrite)
   {
     this.doRewrite = doRewrite;
+    planCache.clear();
+  }
+  
+  /**
+   * Returns the statistics collected by the query rewrite engine, or null if they are not
+   * collected (see {@link RewriteEngine#collectStats(boolean)}).
+   */
+  public RewriteStats getRewriteStats()
+  {
+    return rewriter.getStats();
+  }
+  
+  /**
+   * Returns the cache of compiled scripts used by {@link #evaluate()}, {@link #iterate()} and
+   * {@link #parseScript()} when the input is set from a string.
+   */
+  public PlanCache getPlanCache()
+  {
+    return planCache;
   }
   
   public void setJaqlPrinter(JaqlPrinter printer) {
@@ -258,6 +290,7 @@ public class Jaql implements CoreJaql
   public void setProperty(String name, String value) {
       if(name.equalsIgnoreCase("enableRewrite")){
           doRewrite = BooleanUtils.toBoolean(value);
+          planCache.clear();
       }else if(name.equalsIgnoreCase("stopOnException")){
           stopOnException = BooleanUtils.toBoolean(value);
       }else if(name.equalsIgnoreCase("JaqlPrinter")){
@@ -290,6 +323,11 @@ public class Jaql implements CoreJaql
   public void setVar(String varName, JsonValue value) 
   {
     parser.env.globals.setOrScopeMutable(varName, value);    
+    if( value instanceof Function )
+    {
+      // (re-)registered functions invalidate the compiled scripts
+      planCache.clear();
+    }
   }
   
   public void setVar(String varName, JsonIterator iter) {
@@ -419,6 +457,7 @@ public class Jaql implements CoreJaql
   public Expr prepareNext() throws Exception
   {
     Expr expr;
+    SpillStats.setCurrent(context.getSpillStats()); // count the spills of the query here
     nextStmt: while( true )
     {
       parser.env.reset();
@@ -434,11 +473,13 @@ public class Jaql implements CoreJaql
         }
         if( expr == null )
         {
+          sideEffects = true;
           continue nextStmt;
         }
       }
       catch (Throwable error)
       {
+        sideEffects = true;
         BitSet bs = new BitSet();
         bs.add(JaqlParser.EOF);
         bs.add(JaqlParser.SEMI);
@@ -477,12 +518,14 @@ public class Jaql implements CoreJaql
 
         if( explainOnly || expr instanceof ExplainExpr )
         {
+          sideEffects = true;
           expr = explainHandler.explain(expr);
         }
 
         if( expr instanceof AssignExpr ||
             expr instanceof QueryExpr && expr.child(0) instanceof RegisterAdapterExpr ) // HACK: if we don't register, explain will change or bomb. This will go away with the registry.
         {
+          sideEffects = true;
           expr.eval(context);
         }
         else if( expr != null )
@@ -515,10 +558,58 @@ public class Jaql implements CoreJaql
       }
       catch( Throwable error )
       {
+        sideEffects = true;
         handleError(error);
       }
     }
   }
+
+  /**
+   * Prepares the only statement of the input, or returns <tt>null</tt> if there is none.
+   * If the input was set from a string, the compiled statement is taken from and put into
+   * the plan cache.
+   * 
+   * @throws IllegalArgumentException if the input has more than one statement
+   */
+  protected Expr prepareSingle() throws Exception
+  {
+    String key = explainOnly ? null : script;
+    if( key != null )
+    {
+      Expr[] plan = planCache.get(key, env.globals);
+      if( plan != null && plan.length == 1 )
+      {
+        skipInput();
+        context.reset(); // close the last query, if still open
+        SpillStats.setCurrent(context.getSpillStats());
+        currentSchema = plan[0].getSchema();
+        return plan[0];
+      }
+    }
+
+    Expr expr = prepareNext();
+    if( expr == null )
+    {
+      return null;
+    }
+    Expr next = parser.parse();
+    if( !parser.done && next != null )
+    {
+      throw new IllegalArgumentException(
+          "Illegal statements, multiple statements not allowed.");
+    }
+    if( key != null && parser.done && !sideEffects )
+    {
+      planCache.put(key, env.globals, Collections.singletonList(expr));
+    }
+    return expr;
+  }
+
+  /** Discard the rest of the input */
+  protected void skipInput()
+  {
+    setInput("<string>", new StringReader(""));
+  }
   
   /**
    * Return the schema of the last expression prepared.
@@ -801,19 +892,12 @@ public class Jaql implements CoreJaql
     @Override
     public JsonValue evaluate() throws Exception 
     {
-        Expr expr = prepareNext();
+        Expr expr = prepareSingle();
         if (expr == null) {
             return null;
         }
         context.reset();
-        JsonValue value = expr.eval(context);
-        expr = parser.parse();
-        if (parser.done || expr == null) {
-            return value;
-        } else {
-            throw new IllegalArgumentException(
-                    "Illegal statements, multiple statements not allowed.");
-        }
+        return expr.eval(context);
     }
 
     /**
@@ -823,7 +907,7 @@ public class Jaql implements CoreJaql
     @Override
     public JsonIterator iterate() throws Exception 
     {
-        Expr expr = prepareNext();
+        Expr expr = prepareSingle();
         if (expr == null) {
             return null;
         }
@@ -835,19 +919,32 @@ public class Jaql implements CoreJaql
             JsonValue value = expr.eval(context);
             iter = new SingleJsonValueIterator(value);
         }
-        expr = parser.parse();
-        if (parser.done || expr == null) {
-            return iter;
-        } else {
-            throw new IllegalArgumentException(
-                    "Illegal statements, multiple statements not allowed.");
-        }
+        return iter;
     }
     
-    /** Parses the entire input script and prepares it for execution. */
+    /** 
+     * Parses the entire input script and prepares it for execution.
+     * If the input was set from a string, the compiled statements are taken from and put into
+     * the plan cache.
+     */
     public ParsedJaql parseScript() throws Exception // TODO: this is just prototyped. It is intended for the java API, JDBC, eg.
     {
-      return new ParsedJaql(this, env, context);
+      String key = explainOnly ? null : script;
+      if( key != null )
+      {
+        Expr[] plan = planCache.get(key, env.globals);
+        if( plan != null )
+        {
+          skipInput();
+          return new ParsedJaql(this, env, context, plan);
+        }
+      }
+      ParsedJaql parsed = new ParsedJaql(this, env, context);
+      if( key != null && !sideEffects )
+      {
+        planCache.put(key, env.globals, parsed.exprs);
+      }
+      return parsed;
     }
 
     /**
@@ -57,6 +57,28 @@ public class ParsedJaql
     while( (expr = jaql.prepareNext()) != null )
     {
       exprs.add(expr);
+    }
+    init();
+  }
+
+  /** Use statements that have already been prepared, e.g., by the {@link PlanCache} */
+  public ParsedJaql(Jaql jaql, Env env, Context context, Expr[] prepared) throws Exception
+  {
+    this.jaql = jaql;
+    this.env = env;
+    this.context = context;
+    for( Expr expr: prepared )
+    {
+      exprs.add(expr);
+    }
+    init();
+  }
+
+  /** Count the results and remember the defaults of the external variables */
+  protected void init() throws Exception
+  {
+    for( Expr expr: exprs )
+    {
       if( expr instanceof QueryExpr )
       {
         numResults++;
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.jaql.json.schema.Schema;
+import com.ibm.jaql.lang.core.Module;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.core.VarMap;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.VarExpr;
+import com.ibm.jaql.lang.rewrite.VarTagger;
+
+/**
+ * A cache of compiled scripts. A script is cached when it consists of queries only; its
+ * rewritten statements are kept as templates, and each execution runs a fresh clone of them.
+ *
+ * Entries are keyed by the normalized script text. An entry is only used if the global
+ * variables of the script environment have not been scoped, unscoped, or imported since the
+ * script was compiled, and if the extern variables used by the script still have the same
+ * schemas. The values of extern variables are not part of the plan, so a script can be
+ * re-run with new parameter values without being compiled again.
+ *
+ * The number of cached scripts is set by the <code>jaql.plan.cache.size</code> property;
+ * 0 disables the cache. The least recently used script is dropped first.
+ */
+public class PlanCache
+{
+  public static final String SIZE_PROPERTY = "jaql.plan.cache.size";
+  public static final int DEFAULT_SIZE = 64;
+
+  /** The compiled statements of one script */
+  protected static class Plan
+  {
+    protected final Expr[] templates;
+    protected final int version;
+    protected final Var[] params;
+    protected final Schema[] paramSchemas;
+
+    protected Plan(Expr[] templates, int version, Var[] params)
+    {
+      this.templates = templates;
+      this.version = version;
+      this.params = params;
+      this.paramSchemas = new Schema[params.length];
+      for( int i = 0 ; i < params.length ; i++ )
+      {
+        paramSchemas[i] = params[i].getSchema();
+      }
+    }
+
+    /** Can the plan be used in the current state of the globals? */
+    protected boolean isValid(Module globals)
+    {
+      if( globals.getVersion() != version )
+      {
+        return false;
+      }
+      for( int i = 0 ; i < params.length ; i++ )
+      {
+        if( ! paramSchemas[i].equals(params[i].getSchema()) )
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  protected final int maxSize;
+  protected final LinkedHashMap<String, Plan> plans;
+  protected long numHits;
+  protected long numMisses;
+
+  public PlanCache()
+  {
+    this(Integer.parseInt(System.getProperty(SIZE_PROPERTY, Integer.toString(DEFAULT_SIZE))));
+  }
+
+  public PlanCache(final int maxSize)
+  {
+    this.maxSize = maxSize;
+    this.plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest)
+      {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /** Returns true if scripts are cached */
+  public boolean isEnabled()
+  {
+    return maxSize > 0;
+  }
+
+  /**
+   * Returns fresh copies of the compiled statements of the script, or null if the script is
+   * not cached or its plan is no longer valid for the given globals.
+   */
+  public Expr[] get(String script, Module globals)
+  {
+    if( ! isEnabled() )
+    {
+      return null;
+    }
+    String key = normalize(script);
+    Plan plan = plans.get(key);
+    if( plan == null || ! plan.isValid(globals) )
+    {
+      if( plan != null )
+      {
+        plans.remove(key);
+      }
+      numMisses++;
+      return null;
+    }
+    numHits++;
+    Expr[] exprs = new Expr[plan.templates.length];
+    for( int i = 0 ; i < exprs.length ; i++ )
+    {
+      exprs[i] = instantiate(plan.templates[i]);
+    }
+    return exprs;
+  }
+
+  /**
+   * Caches the compiled statements of a script. The statements must not have been evaluated
+   * yet; they are copied, so the caller may go on to use them.
+   */
+  public void put(String script, Module globals, List<Expr> exprs)
+  {
+    if( ! isEnabled() )
+    {
+      return;
+    }
+    Expr[] templates = new Expr[exprs.size()];
+    ArrayList<Var> params = new ArrayList<Var>();
+    for( int i = 0 ; i < templates.length ; i++ )
+    {
+      templates[i] = exprs.get(i).clone(new VarMap());
+      findParams(templates[i], params);
+    }
+    plans.put(normalize(script),
+        new Plan(templates, globals.getVersion(), params.toArray(new Var[params.size()])));
+  }
+
+  /** Drops all cached scripts */
+  public void clear()
+  {
+    plans.clear();
+  }
+
+  /** Returns the number of cached scripts */
+  public int size()
+  {
+    return plans.size();
+  }
+
+  /** Returns the number of lookups that found a valid plan */
+  public long numHits()
+  {
+    return numHits;
+  }
+
+  /** Returns the number of lookups that did not find a valid plan */
+  public long numMisses()
+  {
+    return numMisses;
+  }
+
+  /** Make an executable copy of a template */
+  protected static Expr instantiate(Expr template)
+  {
+    // Local variables are remapped to new ones; globals are shared with the template.
+    Expr expr = template.clone(new VarMap());
+    VarTagger.tag(expr);
+    return expr;
+  }
+
+  /** Add the extern (mutable global) variables used in expr to params */
+  protected static void findParams(Expr expr, List<Var> params)
+  {
+    if( expr instanceof VarExpr )
+    {
+      Var var = ((VarExpr)expr).var();
+      if( var.isGlobal() && var.isMutable() && ! params.contains(var) )
+      {
+        params.add(var);
+      }
+    }
+    for( int i = 0 ; i < expr.numChildren() ; i++ )
+    {
+      findParams(expr.child(i), params);
+    }
+  }
+
+  /**
+   * Returns the script with comments removed and each run of whitespace between tokens
+   * replaced by a single space. String literals are preserved. Scripts with here-strings
+   * are returned unchanged.
+   */
+  public static String normalize(String script)
+  {
+    int n = script.length();
+    StringBuilder sb = new StringBuilder(n);
+    boolean space = false;
+    int i = 0;
+    while( i < n )
+    {
+      char c = script.charAt(i);
+      char c2 = (i + 1 < n) ? script.charAt(i + 1) : 0;
+      if( Character.isWhitespace(c) )
+      {
+        space = true;
+        i++;
+      }
+      else if( c == '/' && c2 == '/' )
+      {
+        space = true;
+        while( i < n && script.charAt(i) != '\n' && script.charAt(i) != '\r' )
+        {
+          i++;
+        }
+      }
+      else if( c == '/' && c2 == '*' )
+      {
+        space = true;
+        int end = script.indexOf("*/", i + 2);
+        i = (end < 0) ? n : end + 2;
+      }
+      else
+      {
+        if( c == '<' && c2 == '<' )
+        {
+          return script;
+        }
+        if( space && sb.length() > 0 )
+        {
+          sb.append(' ');
+        }
+        space = false;
+        if( c == '\'' || c == '"' )
+        {
+          // copy the literal up to the closing quote
+          sb.append(c);
+          i++;
+          while( i < n )
+          {
+            char d = script.charAt(i++);
+            sb.append(d);
+            if( d == '\\' && i < n )
+            {
+              sb.append(script.charAt(i++));
+            }
+            else if( d == c )
+            {
+              break;
+            }
+          }
+        }
+        else
+        {
+          sb.append(c);
+          i++;
+        }
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -22,25 +22,34 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.ibm.jaql.json.type.BufferedJsonRecord;
 import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.lang.expr.core.Expr;
 import com.ibm.jaql.lang.expr.function.Function;
 import com.ibm.jaql.util.Pair;
+import com.ibm.jaql.util.SpillStats;
 
 /** 
  * The run-time context is passed to every expression and holds the run-time state.
  *   The fnMap acts like the stack for function reentry (via recursion or lazy evaluation).
  *   The resetTasks are things to do when this context is reset (like close files).
+ *   The spillStats count the pages spilled by the current query; they are logged and
+ *   cleared when this context is reset.
  * 
  */
 public class Context
 {
+  private static final Log LOG = LogFactory.getLog(Context.class.getName());
+  
   protected HashMap<Pair<Expr,String>,Function> fnMap = new HashMap<Pair<Expr,String>,Function>(); // TODO: this will be a compiled expr soon 
   protected Pair<Expr,String> exprFnPair = new Pair<Expr, String>();
   protected ArrayList<Runnable> resetTasks = new ArrayList<Runnable>();
   protected BufferedJsonRecord options = new BufferedJsonRecord();
+  protected final SpillStats spillStats = new SpillStats();
 
   // PyModule pyModule;
   
@@ -87,6 +96,17 @@ public class Context
       }
     }
     resetTasks.clear();
+    if( spillStats.getPages() > 0 )
+    {
+      LOG.info("query " + spillStats);
+      spillStats.clear();
+    }
+  }
+  
+  /** Returns the spill statistics of the current query. */
+  public SpillStats getSpillStats()
+  {
+    return spillStats;
   }
 
 
@@ -90,6 +90,7 @@ public class Module extends Namespace
   public void importModule(String moduleAlias, Module module) 
   {    
     Module old = this.modules.put(moduleAlias, module);
+    version++;
     if( old != null )
     {
       // error? warning?
@@ -196,6 +197,7 @@ public class Module extends Namespace
       pack.modules.put(moduleAlias, module);
     }
     this.modules.put(moduleAlias, module);
+    version++;
     return module; 
   }
   
@@ -23,6 +23,7 @@ public class Namespace
   protected final String name;
   protected final HashMap<String, Var> variables = new HashMap<String, Var>();
   protected boolean isFinal = false; // true once a module is loaded
+  protected int version = 0;         // changed whenever a variable is scoped or unscoped
 
   public Namespace(String name)
   {
@@ -58,6 +59,15 @@ public class Namespace
   }
 
 
+  /**
+   * Returns a number that changes whenever the set of variables in this namespace changes.
+   * Setting the value of a variable does not change the version.
+   */
+  public final int getVersion()
+  {
+    return version;
+  }
+
   /** Return the named variable or null if not not found */ 
   public Var findVar(String taggedName)
   {
@@ -104,11 +114,13 @@ public class Namespace
       throw new RuntimeException("cannot shadow mutable variable "+oldVar.taggedName() + " in namespace " + name);
     }
     var.varStack = oldVar;
+    version++;
   }
   
   public void unscope(Var var)
   {
     ensureNotFinal();
+    version++;
 
     Var oldVar = variables.get(var.name());
     if (oldVar == var) // removing head of the list
@@ -144,6 +156,7 @@ public class Namespace
   {
     ensureNotFinal();
     variables.clear();
+    version++;
   }
   
 
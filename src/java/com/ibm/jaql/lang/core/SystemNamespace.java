@@ -28,7 +28,9 @@ import com.ibm.jaql.lang.expr.agg.CombineExpr;
 import com.ibm.jaql.lang.expr.agg.CountAgg;
 import com.ibm.jaql.lang.expr.agg.CovStatsAgg;
 import com.ibm.jaql.lang.expr.agg.ExpSmoothAgg;
+import com.ibm.jaql.lang.expr.agg.IcebergCubeFn;
 import com.ibm.jaql.lang.expr.agg.IcebergCubeInMemory;
+import com.ibm.jaql.lang.expr.agg.IcebergCubeMRFn;
 import com.ibm.jaql.lang.expr.agg.InferElementSchemaAgg;
 import com.ibm.jaql.lang.expr.agg.JavaUdaCallFn;
 import com.ibm.jaql.lang.expr.agg.JavaUdaFn;
@@ -133,6 +135,7 @@ import com.ibm.jaql.lang.expr.internal.ExprTreeExpr;
 import com.ibm.jaql.lang.expr.internal.HashExpr;
 import com.ibm.jaql.lang.expr.internal.LongHashExpr;
 import com.ibm.jaql.lang.expr.io.ArrayReadExpr;
+import com.ibm.jaql.lang.expr.io.ColumnarFn;
 import com.ibm.jaql.lang.expr.io.DelFn;
 import com.ibm.jaql.lang.expr.io.ExpandFDExpr;
 import com.ibm.jaql.lang.expr.io.FileFn;
@@ -359,6 +362,10 @@ public final class SystemNamespace extends Module {
     register(new ExpSmoothAgg.Descriptor());
     register(new GroupCombineFn.Descriptor()); // experimental
     register(new IcebergCubeInMemory.Descriptor()); // experimental
+    register(new IcebergCubeFn.Descriptor());
+    register(new IcebergCubeMRFn.Descriptor());
+    register(new IcebergCubeMRFn.Split.Descriptor()); // internal use
+    register(new IcebergCubeMRFn.Partition.Descriptor()); // internal use
     register(new JumpFn.Descriptor());
     register(new StreamSwitchFn.Descriptor()); // experimental / internal use
     register(new UntilFn.Descriptor()); // experimental
@@ -498,6 +505,7 @@ public final class SystemNamespace extends Module {
     register(new FileSplitToRecordFn.Descriptor()); // TODO: experimental
     register(new HdfsFn.Descriptor());
     register(new DelFn.Descriptor());
+    register(new ColumnarFn.Descriptor());
     register(new LinesFn.Descriptor());
     register(new FileFn.Descriptor());
     register(new HttpFn.Descriptor());
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.agg;
+
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.SpilledJsonArray;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.expr.agg.IcebergCubeInMemory.BitSet64;
+import com.ibm.jaql.lang.expr.function.Function;
+import com.ibm.jaql.lang.util.JsonSorter;
+
+/**
+ * Computes an iceberg cube bottom-up: for every subset of the cube columns, the input is grouped
+ * on the columns of the subset (a cuboid), and the per-group function is called with each group
+ * that has at least <code>minSupport</code> values and a record holding the group key.
+ *
+ * The cuboids are computed as a tree: the groups of a cuboid are refined into the groups of the
+ * cuboids with more columns. A group with less than <code>minSupport</code> values is not refined,
+ * because none of its subgroups can have enough values either.
+ *
+ * To find the subgroups on column c, a group is sorted on c and all the columns after c. Each
+ * subgroup then comes out sorted on its own remaining columns, so its first refinement needs no
+ * sort; the sort order is shared down the tree. Groups are kept in {@link SpilledJsonArray}s and
+ * sorted with the {@link JsonSorter}, so both spill to disk when they do not fit into memory.
+ * The memory limit of the sorter is shared by the nested sorts.
+ *
+ * The cube can also be computed one partition at a time (see {@link #apex(JsonArray)} and
+ * {@link #partition(int, JsonValue, JsonArray)}), which is how {@link IcebergCubeMRFn}
+ * distributes it over the reducers of a map/reduce job.
+ */
+public class IcebergCube
+{
+  protected final JsonString[]        columns;
+  protected final Function            perGroupFn;
+  protected final long                minSupport;
+  protected final Context             context;
+  protected final SpilledJsonArray    result;
+  protected final long                sortMemory;
+  protected final BufferedJsonRecord  key = new BufferedJsonRecord();
+  protected final SpilledJsonArray[]  groups;
+  protected final BufferedJsonArray   sortKey = new BufferedJsonArray();
+
+  /**
+   * @param columns the cube columns
+   * @param perGroupFn called as <code>perGroupFn(group, key)</code>; its results are added
+   *                   to the result
+   * @param minSupport the minimum number of values of a group
+   * @param context
+   * @param result receives the results of the per-group function
+   */
+  public IcebergCube(
+      JsonString[] columns,
+      Function perGroupFn,
+      long minSupport,
+      Context context,
+      SpilledJsonArray result)
+  {
+    if( columns.length >= 64 )
+    {
+      throw new IllegalArgumentException("too many cube columns: " + columns.length);
+    }
+    this.columns = columns;
+    this.perGroupFn = perGroupFn;
+    this.minSupport = Math.max(minSupport, 1);
+    this.context = context;
+    this.result = result;
+    this.sortMemory = JsonSorter.DEFAULT_MEMORY_LIMIT / (columns.length + 1);
+    this.groups = new SpilledJsonArray[columns.length + 1];
+    for( int i = 0 ; i < groups.length ; i++ )
+    {
+      groups[i] = new SpilledJsonArray();
+    }
+  }
+
+  /**
+   * Computes the whole cube of the input.
+   */
+  public void cube(JsonIterator input) throws Exception
+  {
+    SpilledJsonArray all = groups[0];
+    all.setCopy(input);
+    if( all.count() >= minSupport )
+    {
+      aggregate(all);
+      refine(all, BitSet64.range(0, columns.length), false, 1);
+    }
+    all.clear();
+  }
+
+  /**
+   * Computes the apex of the cube, i.e., the group of all values.
+   */
+  public void apex(JsonArray all) throws Exception
+  {
+    if( all.count() >= minSupport )
+    {
+      aggregate(all);
+    }
+  }
+
+  /**
+   * Computes the groups of the cuboids whose first column is <code>col</code> and that have
+   * <code>value</code> in this column. <code>values</code> holds the input values with this value.
+   * The apex and the partitions for all columns and values make up the whole cube.
+   */
+  public void partition(int col, JsonValue value, JsonArray values) throws Exception
+  {
+    if( values.count() < minSupport )
+    {
+      return;
+    }
+    int keyIndex = key.add(columns[col], value);
+    aggregate(values);
+    long rest = BitSet64.clear(BitSet64.range(0, columns.length), 0, col + 1);
+    refine(values, rest, false, 1);
+    key.remove(keyIndex);
+  }
+
+  /**
+   * Computes the subgroups of a group for each cuboid that adds one or more of the columns in
+   * <code>cols</code> to the key of the group.
+   *
+   * @param group the values of the group
+   * @param cols the columns that can be added
+   * @param sorted true if the group is sorted on the columns in <code>cols</code>
+   * @param level the nesting level
+   */
+  protected void refine(JsonArray group, long cols, boolean sorted, int level) throws Exception
+  {
+    int first = BitSet64.nextSetBit(cols, 0);
+    for( int c = first ; c >= 0 ; c = BitSet64.nextSetBit(cols, c + 1) )
+    {
+      long rest = BitSet64.clear(cols, 0, c + 1);
+      JsonIterator iter = (sorted && c == first) ? group.iter() : sort(group, c, rest);
+      int keyIndex = key.add(columns[c], null);
+      SpilledJsonArray sub = groups[level];
+      sub.clear();
+      JsonValue value = null;
+      for( JsonValue v : iter )
+      {
+        JsonValue x = getValue(v, c);
+        if( sub.count() > 0 && JsonUtil.compare(x, value) != 0 )
+        {
+          subgroup(sub, keyIndex, value, rest, level);
+          sub.clear();
+        }
+        if( sub.count() == 0 )
+        {
+          value = JsonUtil.getCopy(x, null);
+        }
+        sub.addCopy(v);
+      }
+      if( sub.count() > 0 )
+      {
+        subgroup(sub, keyIndex, value, rest, level);
+        sub.clear();
+      }
+      key.remove(keyIndex);
+    }
+  }
+
+  /**
+   * Processes one subgroup found by {@link #refine(JsonArray, long, boolean, int)}. The
+   * subgroup is sorted on the columns in <code>rest</code>.
+   */
+  protected void subgroup(
+      SpilledJsonArray sub,
+      int keyIndex,
+      JsonValue value,
+      long rest,
+      int level) throws Exception
+  {
+    if( sub.count() < minSupport )
+    {
+      return; // prune: no subgroup of it has enough values either
+    }
+    sub.freeze();
+    key.set(keyIndex, value);
+    aggregate(sub);
+    if( rest != 0 )
+    {
+      refine(sub, rest, true, level + 1);
+    }
+  }
+
+  /**
+   * Returns the values of the group sorted on column c, then on the columns in rest.
+   */
+  protected JsonIterator sort(JsonArray group, int c, long rest) throws Exception
+  {
+    JsonSorter sorter = new JsonSorter(null, sortMemory);
+    for( JsonValue v : group.iter() )
+    {
+      sortKey.clear();
+      sortKey.add(getValue(v, c));
+      for( int r = BitSet64.nextSetBit(rest, 0) ; r >= 0 ; r = BitSet64.nextSetBit(rest, r + 1) )
+      {
+        sortKey.add(getValue(v, r));
+      }
+      sorter.add(sortKey, v);
+    }
+    sorter.sort();
+    sorter.clearRunsAtReset(context);
+    return sorter.iter();
+  }
+
+  /** Returns the value of column c of v */
+  protected JsonValue getValue(JsonValue v, int c)
+  {
+    return v instanceof JsonRecord ? ((JsonRecord)v).get(columns[c]) : null;
+  }
+
+  /** Calls the per-group function */
+  protected void aggregate(JsonArray group) throws Exception
+  {
+    perGroupFn.setArguments(group, key);
+    result.addCopyAll(perGroupFn.iter(context));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.agg;
+
+import com.ibm.jaql.json.schema.ArraySchema;
+import com.ibm.jaql.json.schema.Schema;
+import com.ibm.jaql.json.schema.SchemaFactory;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.SpilledJsonArray;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.function.DefaultBuiltInFunctionDescriptor;
+import com.ibm.jaql.lang.expr.function.Function;
+import com.ibm.jaql.lang.expr.function.JsonValueParameter;
+import com.ibm.jaql.lang.expr.function.JsonValueParameters;
+
+/**
+ * @jaqlDescription Compute an iceberg cube
+ * Usage:
+ * [T] icebergCube( [{*}] input, [string] columns, fn([{*}] group, {*} key) returns [T] perGroupFn,
+ *                  long minSupport = 1 )
+ *
+ * Groups the input on every subset of the columns and calls perGroupFn for each group with at
+ * least minSupport values. The key record of a group holds the values of the grouping columns.
+ * Groups are refined bottom-up and pruned when they are too small; groups and sorts spill to
+ * disk when they do not fit into memory. Use icebergCubeMR to compute the cube with map/reduce.
+ *
+ * @jaqlExample [ {a:1, b:1}, {a:1, b:2}, {a:2, b:1} ]
+ *   -> icebergCube(['a', 'b'], fn(g, k) [{ k, n: count(g) }], 2);
+ * [ { "k": {}, "n": 3 }, { "k": { "a": 1 }, "n": 2 }, { "k": { "b": 1 }, "n": 2 } ]
+ */
+public class IcebergCubeFn extends Expr
+{
+  protected final static int ARG_INPUT = 0;
+  protected final static int ARG_COLUMNS = 1;
+  protected final static int ARG_PER_GROUP_FN = 2;
+  protected final static int ARG_MIN_SUPPORT = 3;
+
+  /** The parameters of icebergCube and icebergCubeMR */
+  static JsonValueParameters makeParameters()
+  {
+    return new JsonValueParameters(new JsonValueParameter[] {
+        new JsonValueParameter("input", SchemaFactory.arrayOrNullSchema()),
+        new JsonValueParameter("columns", new ArraySchema(null, SchemaFactory.stringSchema())),
+        new JsonValueParameter("perGroupFn", SchemaFactory.functionSchema()),
+        new JsonValueParameter("minSupport", SchemaFactory.numericSchema(), JsonLong.ONE)
+    });
+  }
+
+  public static class Descriptor extends DefaultBuiltInFunctionDescriptor
+  {
+    public Descriptor()
+    {
+      super("icebergCube", IcebergCubeFn.class, makeParameters(), SchemaFactory.arraySchema());
+    }
+  }
+
+  public IcebergCubeFn(Expr... exprs)
+  {
+    super(exprs);
+  }
+
+  @Override
+  public Schema getSchema()
+  {
+    return SchemaFactory.arraySchema(); // TODO: refine
+  }
+
+  /** Makes a cube from the columns, perGroupFn, and minSupport arguments */
+  static IcebergCube makeCube(
+      Context context,
+      Expr columns,
+      Expr perGroupFn,
+      Expr minSupport,
+      SpilledJsonArray result) throws Exception
+  {
+    JsonArray colNamesArray = (JsonArray)columns.eval(context);
+    JsonString[] colNames = new JsonString[(int)colNamesArray.count()];
+    colNamesArray.getAll(colNames);
+    Function fn = (Function)perGroupFn.eval(context);
+    JsonNumber support = (JsonNumber)minSupport.eval(context);
+    return new IcebergCube(colNames, fn, support == null ? 1 : support.longValue(), context, result);
+  }
+
+  @Override
+  public JsonValue eval(Context context) throws Exception
+  {
+    SpilledJsonArray result = new SpilledJsonArray();
+    IcebergCube cube = makeCube(context, exprs[ARG_COLUMNS], exprs[ARG_PER_GROUP_FN],
+        exprs[ARG_MIN_SUPPORT], result);
+    cube.cube(exprs[ARG_INPUT].iter(context));
+    result.freeze();
+    return result;
+  }
+}
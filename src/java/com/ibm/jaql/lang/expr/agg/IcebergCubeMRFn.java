@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.agg;
+
+import com.ibm.jaql.json.schema.Schema;
+import com.ibm.jaql.json.schema.SchemaFactory;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.SpilledJsonArray;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.core.Env;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.core.VarMap;
+import com.ibm.jaql.lang.expr.core.BindingExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.GroupByExpr;
+import com.ibm.jaql.lang.expr.core.IndexExpr;
+import com.ibm.jaql.lang.expr.core.IterExpr;
+import com.ibm.jaql.lang.expr.core.MacroExpr;
+import com.ibm.jaql.lang.expr.core.VarExpr;
+import com.ibm.jaql.lang.expr.function.DefaultBuiltInFunctionDescriptor;
+import com.ibm.jaql.util.Bool3;
+
+/**
+ * @jaqlDescription Compute an iceberg cube using map/reduce
+ * Usage:
+ * [T] icebergCubeMR( [{*}] input, [string] columns, fn([{*}] group, {*} key) returns [T] perGroupFn,
+ *                    long minSupport = 1 )
+ *
+ * Computes the same cube as icebergCube, but partitions the work so that it runs in the reducers
+ * of a map/reduce job when the input can be read by map/reduce. The cuboids whose first column is
+ * c are computed from the values with the same value of c, so each value is sent to one reducer
+ * per column, plus one reducer that computes the group of all values. The order of the results
+ * is not defined.
+ *
+ * @jaqlExample [ {a:1, b:1}, {a:1, b:2}, {a:2, b:1} ]
+ *   -> icebergCubeMR(['a', 'b'], fn(g, k) [{ k, n: count(g) }], 2);
+ */
+public class IcebergCubeMRFn extends MacroExpr
+{
+  public static class Descriptor extends DefaultBuiltInFunctionDescriptor
+  {
+    public Descriptor()
+    {
+      super("icebergCubeMR", IcebergCubeMRFn.class, IcebergCubeFn.makeParameters(),
+          SchemaFactory.arraySchema());
+    }
+  }
+
+  public IcebergCubeMRFn(Expr[] exprs)
+  {
+    super(exprs);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see com.ibm.jaql.lang.expr.core.MacroExpr#expand(com.ibm.jaql.lang.core.Env)
+   */
+  @Override
+  public Expr expand(Env env) throws Exception
+  {
+    // group each $ in icebergCubeSplit(<input>, <columns>) by $key = $[0] as $as
+    //   into icebergCubePartition($as, $key, <columns>, <perGroupFn>, <minSupport>)
+    Var v = env.makeVar("$");
+    Var by = env.makeVar("$key");
+    Var as = env.makeVar("$as");
+    Expr split = new Split(exprs[IcebergCubeFn.ARG_INPUT], exprs[IcebergCubeFn.ARG_COLUMNS]);
+    Expr partition = new Partition(
+        new VarExpr(as),
+        new VarExpr(by),
+        exprs[IcebergCubeFn.ARG_COLUMNS].clone(new VarMap()),
+        exprs[IcebergCubeFn.ARG_PER_GROUP_FN],
+        exprs[IcebergCubeFn.ARG_MIN_SUPPORT]);
+    return new GroupByExpr(
+        new BindingExpr(BindingExpr.Type.IN, v, null, split),
+        new BindingExpr(BindingExpr.Type.EQ, by, null, new IndexExpr(new VarExpr(v), 0)),
+        as,
+        null, // no comparator
+        null, // no options
+        partition);
+  }
+
+  /**
+   * icebergCubeSplit( [{*}] input, [string] columns ) returns [[[long, any], {*}]]
+   *
+   * Returns [[c, value of column c], value] for each input value and column index c, and
+   * [[-1, null], value] for the group of all values. Internal use by icebergCubeMR.
+   */
+  public static class Split extends IterExpr
+  {
+    public static class Descriptor extends DefaultBuiltInFunctionDescriptor.Par22
+    {
+      public Descriptor()
+      {
+        super("icebergCubeSplit", Split.class);
+      }
+    }
+
+    public Split(Expr... exprs)
+    {
+      super(exprs);
+    }
+
+    @Override
+    public Bool3 evaluatesChildOnce(int i)
+    {
+      return Bool3.TRUE;
+    }
+
+    @Override
+    public boolean isMappable(int i)
+    {
+      return i == 0;
+    }
+
+    @Override
+    public Schema getSchema()
+    {
+      return SchemaFactory.arraySchema();
+    }
+
+    @Override
+    public JsonIterator iter(final Context context) throws Exception
+    {
+      JsonArray colNamesArray = (JsonArray)exprs[1].eval(context);
+      final JsonString[] colNames = new JsonString[(int)colNamesArray.count()];
+      colNamesArray.getAll(colNames);
+      final JsonIterator input = exprs[0].iter(context);
+      final JsonLong[] indexes = new JsonLong[colNames.length + 1];
+      for( int i = 0 ; i < indexes.length ; i++ )
+      {
+        indexes[i] = new JsonLong(i - 1);
+      }
+      final BufferedJsonArray key = new BufferedJsonArray(2);
+      final BufferedJsonArray pair = new BufferedJsonArray(2);
+      pair.set(0, key);
+
+      return new JsonIterator(pair)
+      {
+        int c = indexes.length;
+
+        @Override
+        public boolean moveNext() throws Exception
+        {
+          if( c == indexes.length )
+          {
+            if( !input.moveNext() )
+            {
+              return false;
+            }
+            pair.set(1, input.current());
+            c = 0;
+          }
+          JsonValue value = pair.get(1);
+          key.set(0, indexes[c]);
+          key.set(1, c > 0 && value instanceof JsonRecord
+              ? ((JsonRecord)value).get(colNames[c - 1])
+              : null);
+          c++;
+          return true;
+        }
+      };
+    }
+  }
+
+  /**
+   * icebergCubePartition( [[[long, any], {*}]] items, [long, any] key, [string] columns,
+   *                       perGroupFn, minSupport ) returns [T]
+   *
+   * Computes one partition of the cube from items produced by icebergCubeSplit that have the
+   * given key. Internal use by icebergCubeMR.
+   */
+  public static class Partition extends Expr
+  {
+    public static class Descriptor extends DefaultBuiltInFunctionDescriptor.Par55
+    {
+      public Descriptor()
+      {
+        super("icebergCubePartition", Partition.class);
+      }
+    }
+
+    public Partition(Expr... exprs)
+    {
+      super(exprs);
+    }
+
+    @Override
+    public Schema getSchema()
+    {
+      return SchemaFactory.arraySchema();
+    }
+
+    @Override
+    public JsonValue eval(Context context) throws Exception
+    {
+      SpilledJsonArray result = new SpilledJsonArray();
+      IcebergCube cube = IcebergCubeFn.makeCube(context, exprs[2], exprs[3], exprs[4], result);
+
+      SpilledJsonArray values = new SpilledJsonArray();
+      for( JsonValue item : exprs[0].iter(context) )
+      {
+        values.addCopy(((JsonArray)item).get(1));
+      }
+      values.freeze();
+
+      JsonArray key = (JsonArray)exprs[1].eval(context);
+      int col = (int)((JsonNumber)key.get(0)).longValue();
+      if( col < 0 )
+      {
+        cube.apex(values);
+      }
+      else
+      {
+        cube.partition(col, key.get(1), values);
+      }
+      values.clear();
+      result.freeze();
+      return result;
+    }
+  }
+}
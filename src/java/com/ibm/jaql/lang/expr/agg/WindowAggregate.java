@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.agg;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.expr.core.MathExpr;
+
+/**
+ * An aggregate over a sliding window that is maintained incrementally: values are added when
+ * they enter the window and removed when they leave it. Values have to be removed in the order in
+ * which they have been added, and the very same instances have to be passed to
+ * {@link #remove(JsonValue)}.
+ *
+ * Count, sum and average keep running totals; min and max keep a monotonic deque of the values
+ * that can still become the result, so that all operations take amortized constant time.
+ */
+public abstract class WindowAggregate
+{
+  /** Adds a value that enters the window. */
+  public abstract void add(JsonValue value);
+
+  /** Removes the oldest value in the window, which has to be <code>value</code>. */
+  public abstract void remove(JsonValue value);
+
+  /** Returns the value of the aggregate over the values in the window. */
+  public abstract JsonValue get();
+
+  /** Returns an incremental version of the given aggregate, or <code>null</code> if there is
+   * none. */
+  public static WindowAggregate make(Aggregate agg)
+  {
+    if (agg instanceof CountAgg)
+    {
+      return new Count();
+    }
+    if (agg instanceof SumAgg)
+    {
+      return new Sum();
+    }
+    if (agg instanceof AvgAgg)
+    {
+      return new Avg();
+    }
+    if (agg instanceof MinAgg)
+    {
+      return new Extremum(1);
+    }
+    if (agg instanceof MaxAgg)
+    {
+      return new Extremum(-1);
+    }
+    return null;
+  }
+
+
+  // -- implementations ---------------------------------------------------------------------------
+
+  /** Counts all values, including nulls. */
+  static final class Count extends WindowAggregate
+  {
+    private long count;
+
+    @Override
+    public void add(JsonValue value)
+    {
+      count++;
+    }
+
+    @Override
+    public void remove(JsonValue value)
+    {
+      count--;
+    }
+
+    @Override
+    public JsonValue get()
+    {
+      return new JsonLong(count);
+    }
+  }
+
+  /** Sums up numbers, ignoring nulls. Longs, doubles and decimals are summed up separately so
+   * that the result has the same type as the one of {@link SumAgg}. */
+  static class Sum extends WindowAggregate
+  {
+    private long lsum;
+    private double dblSum;
+    private BigDecimal decSum = BigDecimal.ZERO;
+    private long numLong, numDouble, numDecimal;
+
+    @Override
+    public void add(JsonValue value)
+    {
+      update(value, 1);
+    }
+
+    @Override
+    public void remove(JsonValue value)
+    {
+      update(value, -1);
+    }
+
+    private void update(JsonValue value, int sign)
+    {
+      if (value == null)
+      {
+        return;
+      }
+      if (!(value instanceof JsonNumber))
+      {
+        throw new RuntimeException("Invalid input for sum aggregate: " + value);
+      }
+      JsonNumber n = (JsonNumber)value;
+      switch (n.getType())
+      {
+      case LONG:
+        lsum += sign * n.longValue();
+        numLong += sign;
+        break;
+      case DOUBLE:
+        dblSum += sign * n.doubleValue();
+        numDouble += sign;
+        break;
+      case DECFLOAT:
+        decSum = sign > 0
+                 ? decSum.add(n.decimalValue(), MathContext.DECIMAL128)
+                 : decSum.subtract(n.decimalValue(), MathContext.DECIMAL128);
+        numDecimal += sign;
+        break;
+      default:
+        throw new RuntimeException("Invalid input for sum aggregate: " + value);
+      }
+    }
+
+    /** Returns the number of non-null values in the window. */
+    long numValues()
+    {
+      return numLong + numDouble + numDecimal;
+    }
+
+    @Override
+    public JsonValue get()
+    {
+      if (numDecimal > 0)
+      {
+        BigDecimal sum = new BigDecimal(lsum, MathContext.DECIMAL128);
+        if (numDouble > 0)
+        {
+          sum = sum.add(new BigDecimal(dblSum, MathContext.DECIMAL128), MathContext.DECIMAL128);
+        }
+        return new JsonDecimal(sum.add(decSum, MathContext.DECIMAL128));
+      }
+      if (numDouble > 0)
+      {
+        return new JsonDouble(lsum + dblSum);
+      }
+      if (numLong > 0)
+      {
+        return new JsonLong(lsum);
+      }
+      return null;
+    }
+  }
+
+  /** Averages numbers, ignoring nulls. */
+  static final class Avg extends Sum
+  {
+    @Override
+    public JsonValue get()
+    {
+      return MathExpr.eval(super.get(), new JsonLong(numValues()), MathExpr.DIVIDE);
+    }
+  }
+
+  /** Computes the minimum (<code>sign=1</code>) or maximum (<code>sign=-1</code>), ignoring nulls.
+   * The deque holds the values that are not dominated by a later value, in window order, so that
+   * its head is the result. */
+  static final class Extremum extends WindowAggregate
+  {
+    private final int sign;
+    private final ArrayDeque<JsonValue> deque = new ArrayDeque<JsonValue>();
+
+    Extremum(int sign)
+    {
+      this.sign = sign;
+    }
+
+    @Override
+    public void add(JsonValue value)
+    {
+      if (value == null)
+      {
+        return;
+      }
+      while (!deque.isEmpty() && sign * deque.peekLast().compareTo(value) > 0)
+      {
+        deque.removeLast();
+      }
+      deque.addLast(value);
+    }
+
+    @Override
+    public void remove(JsonValue value)
+    {
+      if (value != null && deque.peekFirst() == value)
+      {
+        deque.removeFirst();
+      }
+    }
+
+    @Override
+    public JsonValue get()
+    {
+      return deque.peekFirst();
+    }
+  }
+}
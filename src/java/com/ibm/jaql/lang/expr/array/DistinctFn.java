@@ -29,14 +29,22 @@ import com.ibm.jaql.lang.expr.function.DefaultBuiltInFunctionDescriptor;
  * @jaqlDescription List distinct values from an array, remove duplicates.
  * 
  * Usage:
- * [any] distinct( [any] )
+ * [any] distinct( [any] , { approximate: boolean | double }? )
+ * 
+ * Each value is returned as soon as it is seen for the first time. When the values do not fit
+ * into memory, the values that cannot be decided while reading the input are returned at the
+ * end. With the approximate option, duplicates are removed with a Bloom filter instead; a value
+ * is then dropped by mistake with a probability of at most the given rate (default 0.01).
  * 
  * @jaqlExample distinct( [1, 1d, 1m, 1.5d, 1.5m, 1.50d, 1.50m ] ) -> sort by [$];
  * [ 1,1.5 ]
+ * 
+ * @jaqlExample distinct( [1, 2, 1, 3, 2], { approximate: 0.001 } );
+ * [ 1,2,3 ]
  */
 public class DistinctFn extends MacroExpr
 {
-  public static class Descriptor extends DefaultBuiltInFunctionDescriptor.Par11
+  public static class Descriptor extends DefaultBuiltInFunctionDescriptor.Par12
   {
     public Descriptor()
     {
@@ -69,7 +77,7 @@ public class DistinctFn extends MacroExpr
         new BindingExpr(BindingExpr.Type.EQ, by, null, new VarExpr(v)),
         as,
         null, // no comparator
-        null, // TODO: how does distinct specify options? 
+        exprs.length > 1 ? exprs[1] : null,
         new ArrayExpr(new VarExpr(by)));
     return r;
   }
@@ -219,7 +219,7 @@ public class SlidingWindowBySizeFn extends IterExpr
     queue.removeTo( Math.min(cur.loc(), start.loc()) );
 
     // Create the output record
-    final SpilledJsonArray window = new SpilledJsonArray();
+    final SpilledJsonArray window = queue.newArray();
     final BufferedJsonRecord result = new BufferedJsonRecord(2);
     JsonValue[] values = new JsonValue[] { null, window };
     result.set(names, values, names.length, true);
@@ -242,8 +242,7 @@ public class SlidingWindowBySizeFn extends IterExpr
 
         // Set the result
         result.set(0, cur.current());
-        // Copy the window from start to next - 1
-        // TODO: make a JsonQueue subset to avoid the copy
+        // Reference the window from start to next - 1
         start.toArray(window,next);
 
         // Advance the current pointer
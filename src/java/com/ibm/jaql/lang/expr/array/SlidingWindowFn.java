@@ -15,41 +15,66 @@
  */
 package com.ibm.jaql.lang.expr.array;
 
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 import com.ibm.jaql.json.schema.ArraySchema;
 import com.ibm.jaql.json.schema.RecordSchema;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.schema.RecordSchema.Field;
+import com.ibm.jaql.json.type.BufferedJsonArray;
 import com.ibm.jaql.json.type.BufferedJsonRecord;
 import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonType;
 import com.ibm.jaql.json.type.JsonUtil;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.type.SpilledJsonArray;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.expr.agg.Aggregate;
+import com.ibm.jaql.lang.expr.agg.WindowAggregate;
 import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.ExprProperty;
+import com.ibm.jaql.lang.expr.core.FilterExpr;
 import com.ibm.jaql.lang.expr.core.IterExpr;
+import com.ibm.jaql.lang.expr.core.TransformExpr;
+import com.ibm.jaql.lang.expr.core.VarExpr;
 import com.ibm.jaql.lang.expr.function.BuiltInFunctionDescriptor;
 import com.ibm.jaql.lang.expr.function.Function;
+import com.ibm.jaql.lang.expr.function.JaqlFunction;
 import com.ibm.jaql.lang.expr.function.JsonValueParameter;
 import com.ibm.jaql.lang.expr.function.JsonValueParameters;
 import com.ibm.jaql.lang.util.JaqlUtil;
 
 /**
- *  
- *
+ * slidingWindow(input, start, end, aggregate=null) returns a record {cur, window} for each 
+ * element cur of the input, where window is the array of elements from the first one that 
+ * satisfies start(first,cur) up to the last one that satisfies end(cur,last).
+ * 
+ * If an aggregate function fn(window) is given, the records are {cur, agg} with agg the value 
+ * of the function on the window. Calls of count, sum, avg, min and max in its body whose 
+ * argument only depends on the elements of the window (e.g., sum(window[*].x)) are maintained
+ * incrementally as elements enter and leave the window; the window itself is only formed when
+ * the body uses it otherwise.
+ * 
+ * The elements between the window and the current element are buffered in a {@link JsonQueue},
+ * which spills to disk when it holds more than {@link JsonQueue#CACHE_SIZE_PROPERTY} elements.
  */
 public class SlidingWindowFn extends IterExpr
 {
   public static final JsonString TAG_CUR = new JsonString("cur");
   public static final JsonString TAG_WINDOW = new JsonString("window");
+  public static final JsonString TAG_AGG = new JsonString("agg");
   protected static final JsonString[] names = new JsonString[] { TAG_CUR, TAG_WINDOW };
+  protected static final JsonString[] aggNames = new JsonString[] { TAG_AGG, TAG_CUR };
   
   protected static final int ARG_INPUT = 0;
   protected static final int ARG_START = 1;
   protected static final int ARG_END   = 2;
+  protected static final int ARG_AGGREGATE = 3;
   
   public static class Descriptor implements BuiltInFunctionDescriptor 
   {
@@ -60,7 +85,8 @@ public class SlidingWindowFn extends IterExpr
       parameters = new JsonValueParameters(new JsonValueParameter[] {
           new JsonValueParameter("input", SchemaFactory.arrayOrNullSchema()),
           new JsonValueParameter("start", SchemaFactory.functionSchema()),
-          new JsonValueParameter("end", SchemaFactory.functionSchema())
+          new JsonValueParameter("end", SchemaFactory.functionSchema()),
+          new JsonValueParameter("aggregate", SchemaFactory.functionOrNullSchema(), null)
       });
     }
 
@@ -101,9 +127,20 @@ public class SlidingWindowFn extends IterExpr
     super(inputs);
   }
 
+  /** Returns true if an aggregate function might be given. */
+  protected boolean hasAggregate()
+  {
+    return exprs.length > ARG_AGGREGATE 
+           && !exprs[ARG_AGGREGATE].getSchema().is(JsonType.NULL).always();
+  }
+
   @Override
   public Schema getSchema()
   {
+    if( hasAggregate() )
+    {
+      return new ArraySchema(null, SchemaFactory.recordSchema());
+    }
     Schema T = exprs[ARG_INPUT].getSchema().elements();
     if( T == null )
     {
@@ -129,6 +166,8 @@ public class SlidingWindowFn extends IterExpr
     final JsonIterator iter = exprs[ARG_INPUT].iter(context);
     final Function startPred = (Function)exprs[ARG_START].eval(context);
     final Function endPred = (Function)exprs[ARG_END].eval(context);
+    final Function aggFn = exprs.length > ARG_AGGREGATE 
+                           ? (Function)exprs[ARG_AGGREGATE].eval(context) : null;
 
     if( ! startPred.canBeCalledWith(2) )
     {
@@ -140,6 +179,11 @@ public class SlidingWindowFn extends IterExpr
       throw new RuntimeException("end predicate must be fn(cur,last)");
     }
 
+    if( aggFn != null && ! aggFn.canBeCalledWith(1) )
+    {
+      throw new RuntimeException("aggregate must be fn(window)");
+    }
+
     if( ! iter.moveNext() )
     {
       return JsonIterator.EMPTY;
@@ -154,10 +198,22 @@ public class SlidingWindowFn extends IterExpr
     start.moveNext();
 
     // Create the output record
-    final SpilledJsonArray window = new SpilledJsonArray();
+    final SpilledJsonArray window = queue.newArray();
+    final WindowFunction windowFn = aggFn == null ? null : new WindowFunction(aggFn, context);
     final BufferedJsonRecord result = new BufferedJsonRecord(2);
-    JsonValue[] values = new JsonValue[] { null, window };
-    result.set(names, values, names.length, true);
+    final int curIndex;
+    if( windowFn == null )
+    {
+      JsonValue[] values = new JsonValue[] { null, window };
+      result.set(names, values, names.length, true);
+      curIndex = 0;
+    }
+    else
+    {
+      JsonValue[] values = new JsonValue[] { null, null };
+      result.set(aggNames, values, aggNames.length, true);
+      curIndex = 1;
+    }
 
     return new JsonIterator(result) 
     {
@@ -170,7 +226,7 @@ public class SlidingWindowFn extends IterExpr
         {
           return false;
         }
-        result.set(0, cur.current());
+        result.set(curIndex, cur.current());
         
         // Advance the start pointer to the first value at or after
         // the previous start pointer that satisfies the startPred.
@@ -200,146 +256,514 @@ public class SlidingWindowFn extends IterExpr
                  next.moveNext() );
 
         
-        // Copy the window from start to next - 1
-        // TODO: make a JsonQueue subset to avoid the copy
-        // TODO: be sure to change add() to addCopy if the Queue starts spilling.
-        start.toArray(window,next);
+        if( windowFn == null )
+        {
+          // Reference the window from start to next - 1
+          start.toArray(window,next);
+        }
+        else
+        {
+          result.set(0, windowFn.eval(start, next));
+        }
         
         return true;
       }
     };
   }
   
-  public static final class JsonQueue  // TODO: move out, make spilling
+  /**
+   * Evaluates the aggregate function of slidingWindow. The function is copied, and each call of
+   * an aggregate that can be maintained incrementally is replaced by a variable that holds its 
+   * current value.
+   */
+  static final class WindowFunction
   {
-    public static class Item
+    /** The contributions of one element of the window to the incremental aggregates. */
+    static final class Entry
     {
       long id;
-      Item next;
-      JsonValue value;
+      JsonValue[][] values;
+    }
+    
+    protected final Context context;
+    protected Function fn;
+    protected Var windowVar;            // the parameter of fn, if fn is a JaqlFunction
+    protected Expr[] args;              // the arguments of the incremental aggregates
+    protected WindowAggregate[] aggs;
+    protected Var[] results;            // hold the values of the incremental aggregates
+    protected boolean needsWindow = true;
+    protected SpilledJsonArray window;
+    protected final BufferedJsonArray element = new BufferedJsonArray(1);
+    protected final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    protected JsonQueue.Cursor cursor;  // reads the elements that enter the window
+    protected long lastId = -1;         // the id of the last element that entered the window
+    protected final ArrayList<JsonValue> temp = new ArrayList<JsonValue>();
+    
+    public WindowFunction(Function fn, Context context)
+    {
+      this.context = context;
+      this.fn = fn;
+      this.aggs = new WindowAggregate[0];
+      if( fn instanceof JaqlFunction && ((JaqlFunction)fn).getParameters().numParameters() > 0 )
+      {
+        prepare(((JaqlFunction)fn).getCopy(null));
+      }
+    }
+    
+    /** Replaces the incremental aggregates in the body of f. */
+    private void prepare(JaqlFunction f)
+    {
+      windowVar = f.getParameters().get(0).getVar();
+      ArrayList<Aggregate> found = new ArrayList<Aggregate>();
+      findAggregates(f.body(), found);
+      int n = found.size();
+      if( n == 0 )
+      {
+        return;
+      }
+      
+      args = new Expr[n];
+      aggs = new WindowAggregate[n];
+      results = new Var[n];
+      Expr body = f.body();
+      for( int i = 0 ; i < n ; i++ )
+      {
+        Aggregate agg = found.get(i);
+        args[i] = agg.child(0);
+        aggs[i] = WindowAggregate.make(agg);
+        results[i] = new Var("$agg" + i);
+        VarExpr result = new VarExpr(results[i]);
+        if( agg == body )
+        {
+          body = result;
+        }
+        else
+        {
+          agg.replaceInParent(result);
+        }
+      }
+      if( body != f.body() )
+      {
+        f = new JaqlFunction(f.getLocalBindings(), f.getParameters(), body);
+      }
+      ArrayList<Expr> uses = new ArrayList<Expr>();
+      body.getVarUses(windowVar, uses);
+      needsWindow = ! uses.isEmpty();
+      fn = f;
+    }
+
+    /** Collects the aggregates in e that can be maintained incrementally. */
+    private void findAggregates(Expr e, ArrayList<Aggregate> found)
+    {
+      if( e instanceof Aggregate && isIncremental((Aggregate)e) )
+      {
+        found.add((Aggregate)e);
+        return;
+      }
+      for( int i = 0 ; i < e.numChildren() ; i++ )
+      {
+        findAggregates(e.child(i), found);
+      }
+    }
+    
+    /** Checks whether the argument of the aggregate only depends on the individual elements of
+     * the window, i.e., whether it is the window, possibly transformed or filtered. */
+    private boolean isIncremental(Aggregate agg)
+    {
+      if( agg.numChildren() != 1 || WindowAggregate.make(agg) == null )
+      {
+        return false;
+      }
+      Expr arg = agg.child(0);
+      ArrayList<Expr> uses = new ArrayList<Expr>();
+      arg.getVarUses(windowVar, uses);
+      if( uses.size() != 1 || ! isElementwise(arg) )
+      {
+        return false;
+      }
+      HashSet<Var> captures = arg.getCapturedVars();
+      captures.remove(windowVar);
+      return captures.isEmpty()
+             && arg.getProperty(ExprProperty.HAS_SIDE_EFFECTS, true).never()
+             && arg.getProperty(ExprProperty.IS_NONDETERMINISTIC, true).never();
+    }
+    
+    private boolean isElementwise(Expr e)
+    {
+      if( e instanceof VarExpr )
+      {
+        return ((VarExpr)e).var() == windowVar;
+      }
+      if( e instanceof TransformExpr )
+      {
+        return isElementwise(((TransformExpr)e).binding().inExpr());
+      }
+      if( e instanceof FilterExpr )
+      {
+        return isElementwise(((FilterExpr)e).binding().inExpr());
+      }
+      return false;
+    }
+    
+    /** Returns the value of the function on the window from start to next - 1. The start and 
+     * next pointers only move forward. */
+    public JsonValue eval(BufferedJsonIterator start, BufferedJsonIterator next) throws Exception
+    {
+      if( aggs.length > 0 )
+      {
+        // Remove the elements that left the window
+        long from = start.loc();
+        while( ! entries.isEmpty() && entries.peekFirst().id < from )
+        {
+          Entry entry = entries.removeFirst();
+          for( int i = 0 ; i < aggs.length ; i++ )
+          {
+            for( JsonValue v : entry.values[i] )
+            {
+              aggs[i].remove(v);
+            }
+          }
+        }
+        
+        // Add the elements that entered the window
+        if( cursor == null )
+        {
+          cursor = start.queue.cursor(false);
+        }
+        long to = Math.min(next.loc(), start.queue.end());
+        for( long id = Math.max(from, lastId + 1) ; id < to ; id++ )
+        {
+          add(id, cursor.get(id));
+          lastId = id;
+        }
+        
+        for( int i = 0 ; i < aggs.length ; i++ )
+        {
+          results[i].setValue(aggs[i].get());
+        }
+      }
+      
+      if( needsWindow )
+      {
+        if( window == null )
+        {
+          window = start.queue.newArray();
+        }
+        start.toArray(window, next);
+        fn.setArguments(window);
+      }
+      else
+      {
+        fn.setArguments((JsonValue)null);
+      }
+      return fn.eval(context);
+    }
+    
+    /** Adds the contributions of an element that entered the window. */
+    private void add(long id, JsonValue value) throws Exception
+    {
+      Entry entry = new Entry();
+      entry.id = id;
+      entry.values = new JsonValue[aggs.length][];
+      element.set(0, value);
+      windowVar.setValue(element);
+      for( int i = 0 ; i < aggs.length ; i++ )
+      {
+        temp.clear();
+        for( JsonValue v : args[i].iter(context) )
+        {
+          v = JsonUtil.getCopy(v, null);
+          aggs[i].add(v);
+          temp.add(v);
+        }
+        entry.values[i] = temp.toArray(new JsonValue[temp.size()]);
+      }
+      entries.addLast(entry);
+    }
+  }
+  
+  /**
+   * A queue of copied values with increasing ids, starting at 1. The values are kept in segments
+   * of consecutive values; only the newest few segments are kept in memory (about
+   * {@link #CACHE_SIZE_PROPERTY} values in total), older ones are spilled to a 
+   * {@link SpilledJsonArray}. Segments are dropped once all their values have been removed.
+   */
+  public static final class JsonQueue
+  {
+    /** Name of the system property that sets the number of values kept in memory */
+    public static final String CACHE_SIZE_PROPERTY = "jaql.slidingwindow.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 16 * 1024;
+    
+    /** Number of resident segments; each spilled segment holds a page buffer, so segments are 
+     * large. */
+    protected static final int RESIDENT_SEGMENTS = 4;
+    
+    /** A run of consecutive values, either in memory or spilled. */
+    static final class Segment
+    {
+      final long first;          // the id of the first value
+      int count;
+      JsonValue[] values;        // null when spilled
+      SpilledJsonArray spilled;
+      
+      Segment(long first, JsonValue[] values)
+      {
+        this.first = first;
+        this.values = values;
+      }
+    }
+    
+    /** Reads values of spilled segments. Unless the cursor is stable, values read from disk
+     * remain valid only until it reads again. */
+    public final class Cursor
+    {
+      protected final boolean stable;
+      protected Segment segment;
+      protected JsonIterator iter;
+      protected int pos;
+      
+      Cursor(boolean stable)
+      {
+        this.stable = stable;
+      }
+      
+      /** Returns the value with the given id. */
+      public JsonValue get(long id) throws Exception
+      {
+        Segment s = segment(id);
+        int i = (int)(id - s.first);
+        return s.values != null ? s.values[i] : read(s, i);
+      }
+      
+      protected JsonValue read(Segment s, int i) throws Exception
+      {
+        if( segment != s || iter == null || i < pos )
+        {
+          segment = s;
+          iter = s.spilled.iter();
+          pos = -1;
+        }
+        while( pos < i )
+        {
+          iter.moveNext();
+          pos++;
+        }
+        return stable ? JsonUtil.getImmutableCopy(iter.current()) : iter.current();
+      }
     }
     
-    protected Item head = new Item();
-    protected Item tail = head;
-    protected Item free;
+    protected final int cacheSize;
+    protected final int segmentSize;
+    protected final ArrayList<Segment> segments = new ArrayList<Segment>();
+    protected int firstResident = 0;    // segments before are spilled
+    protected JsonValue[] spare;        // values of a dropped resident segment 
+    protected long head = 0;
     protected long nextId = 1;
+    protected final Cursor cursor = new Cursor(false);
 
+    public JsonQueue()
+    {
+      this(Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    }
+    
+    /** Creates a queue that keeps about <code>cacheSize</code> values in memory. */
+    public JsonQueue(int cacheSize)
+    {
+      this.cacheSize = Math.max(RESIDENT_SEGMENTS, cacheSize);
+      this.segmentSize = this.cacheSize / RESIDENT_SEGMENTS;
+    }
     
     public boolean isEmpty()
     {
-      return head == null;
+      return head >= nextId;
     }
     
-    public Item addCopy(JsonValue value) throws Exception
+    /** Returns a new cursor for reading values. Values of a stable cursor remain valid until
+     * they are removed from the queue. */
+    public Cursor cursor(boolean stable)
     {
-      Item item;
-      if( free == null )
+      return new Cursor(stable);
+    }
+    
+    /** Returns an array suitable for holding windows, see {@link #toArray}. */
+    public SpilledJsonArray newArray()
+    {
+      return new SpilledJsonArray(cacheSize);
+    }
+    
+    /** Appends a copy of value and returns its id. */
+    public long addCopy(JsonValue value) throws Exception
+    {
+      int n = segments.size();
+      Segment tail = n == 0 ? null : segments.get(n - 1);
+      if( tail == null || tail.count == segmentSize )
       {
-        item = new Item();
+        JsonValue[] values = spare != null ? spare : new JsonValue[segmentSize];
+        spare = null;
+        tail = new Segment(nextId, values);
+        segments.add(tail);
+        if( segments.size() - firstResident > RESIDENT_SEGMENTS )
+        {
+          spill(segments.get(firstResident++));
+        }
       }
-      else
+      tail.values[tail.count] = JsonUtil.getCopy(value, tail.values[tail.count]);
+      tail.count++;
+      return nextId++;
+    }
+    
+    /** Writes the values of a segment to disk. The values themselves are not reused, so they
+     * stay valid where they are still referenced. */
+    protected void spill(Segment s) throws Exception
+    {
+      s.spilled = new SpilledJsonArray(0);
+      for( int i = 0 ; i < s.count ; i++ )
       {
-        item = free;
-        free = item.next;
-        item.next = null;
+        s.spilled.add(s.values[i]);
       }
-      item.id = nextId++;
-      item.value = JsonUtil.getCopy(value, item.value);
-      tail = tail.next = item;
-      return item;
+      s.spilled.freeze();
+      s.values = null;
     }
 
-    public Item head()
+    /** Returns the smallest id that has not been removed. */
+    public long head()
     {
       return head;
-    } 
+    }
+    
+    /** Returns the id of the next value to be added. */
+    public long end()
+    {
+      return nextId;
+    }
+    
+    protected Segment segment(long id)
+    {
+      assert id >= head && id < nextId;
+      return segments.get((int)((id - segments.get(0).first) / segmentSize));
+    }
 
-    public void removeTo(long id)
+    /** Removes all values with an id less than <code>id</code>. */
+    public void removeTo(long id) throws Exception
     {
-      while( head != null && head.id < id )
+      if( id > head )
+      {
+        head = id;
+      }
+      int n = 0;
+      while( n < segments.size() && segments.get(n).first + segments.get(n).count <= head )
       {
-        Item next = head.next;
-        head.next = free;
-        free = head;
-        head = next;
+        Segment s = segments.get(n++);
+        if( s.spilled != null )
+        {
+          s.spilled.clear();
+        }
+        else
+        {
+          spare = s.values;
+        }
       }
+      if( n > 0 )
+      {
+        segments.subList(0, n).clear();
+        firstResident = Math.max(0, firstResident - n);
+      }
+    }
+    
+    /** Sets <code>window</code> to the values with ids from <code>from</code> up to (excluding)
+     * <code>to</code>. Values in memory are referenced, not copied; they remain valid until
+     * they are removed from the queue. */
+    public void toArray(SpilledJsonArray window, long from, long to) throws Exception
+    {
+      window.clear();
+      to = Math.min(to, nextId);
+      for( long id = from ; id < to ; id++ )
+      {
+        Segment s = segment(id);
+        int i = (int)(id - s.first);
+        if( s.values != null )
+        {
+          window.add(s.values[i]);
+        }
+        else
+        {
+          window.addCopy(cursor.read(s, i));
+        }
+      }
+      window.freeze();
     }
   }
   
   static final class BufferedJsonIterator extends JsonIterator
   {
+    protected static final long EOF = Long.MAX_VALUE;
+    
     protected JsonIterator iter;
     protected JsonQueue queue;
-    protected JsonQueue.Item item;
+    protected JsonQueue.Cursor cursor;
+    protected long id;
     
-    public BufferedJsonIterator(JsonIterator iter, JsonQueue queue, JsonQueue.Item start)
+    public BufferedJsonIterator(JsonIterator iter, JsonQueue queue)
     {
       this.iter = iter;
       this.queue = queue;
-      this.item = start;
-    }
-
-    public BufferedJsonIterator(JsonIterator iter, JsonQueue queue)
-    {
-      this(iter, queue, queue.head());
+      this.cursor = queue.cursor(true);
+      this.id = queue.head();
     }
 
+    /** Returns the id of the current value, or Long.MAX_VALUE at the end. */
     public long loc()
     {
-      return item == null ? Long.MAX_VALUE : item.id;
+      return id;
     }
 
-    public void toArray(SpilledJsonArray window, BufferedJsonIterator next) throws IOException
+    /** Sets <code>window</code> to the values from the current one up to (excluding) the current
+     * value of <code>next</code>, see {@link JsonQueue#toArray}. */
+    public void toArray(SpilledJsonArray window, BufferedJsonIterator next) throws Exception
     {
-      // TODO: be sure to change add() to addCopy if the Queue starts spilling.
-      window.clear();
-      JsonQueue.Item end = next.item;
-      for(JsonQueue.Item i = item ; i != end ; i = i.next )
-      {
-        window.add(i.value);
-      }
+      queue.toArray(window, id, next.id);
     }
     
     /** Return true if the last moveNext() returned false */
     public boolean atEof()
     {
-      return item == null;
+      return id == EOF;
     }
 
     @Override
     public boolean moveNext() throws Exception
     {
-      if( item == null )
+      if( id == EOF )
       {
         return false;
       }
-      if( item.next == null )
+      if( id + 1 == queue.end() )
       {
         if( !iter.moveNext() )
         {
-          item = null;
+          id = EOF;
           return false;
         }
         queue.addCopy( iter.current() );
       }
-      item = item.next;
-      currentValue = item.value;
+      id++;
+      currentValue = cursor.get(id);
       return true;
     }
 
-    public void skipTo(BufferedJsonIterator min)
+    public void skipTo(BufferedJsonIterator min) throws Exception
     {
-      if( item != null  )
+      if( id != EOF  )
       {
-        if( min.item == null )
+        if( min.id == EOF )
         {
-          item = null;
+          id = EOF;
           currentValue = null;
         }
-        else if( item.id < min.item.id )
+        else if( id < min.id )
         {
-          item = min.item;
-          currentValue = item.value;
+          id = min.id;
+          currentValue = cursor.get(id);
         }
       }
     }
@@ -64,6 +64,14 @@ public class CompareExpr extends Expr
     this(op, new Expr[]{expr1, expr2});
   }
 
+  /**
+   * @return the comparison: EQ, NE, LT, LE, GT, or GE
+   */
+  public int op()
+  {
+    return op;
+  }
+
   @Override
   public Map<ExprProperty, Boolean> getProperties() 
   {
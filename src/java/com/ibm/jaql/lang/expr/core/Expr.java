@@ -68,6 +68,9 @@ public abstract class Expr
    * They represent operation-specific options / hints. 
    */
   protected BufferedJsonRecord annotations;
+
+  /** Stamp of the last rewrite pass that found no rule to fire in this subtree; 0 if modified. */
+  private int rewriteStamp;
   
   public final static MappingTable  EMPTY_MAPPING = new MappingTable();
 
@@ -329,12 +332,18 @@ public abstract class Expr
     return array.iter();
   }
 
-  // TODO: kill this?
   /**
    * Notify this node and all parents that this subtree was modified.
    */
   protected void subtreeModified()
   {
+    // The rewrite engine has to revisit the modified subtree. The walk stops at an ancestor
+    // that is already marked; rewrites may leave stale parent pointers that form a cycle.
+    rewriteStamp = 0;
+    for (Expr e = parent; e != null && e.rewriteStamp != 0; e = e.parent)
+    {
+      e.rewriteStamp = 0;
+    }
     //    // Walk up the tree and update any FunctionExpr's
     //    // TODO: clean this up.  See FunctionExpr.
     //    Expr p,c;
@@ -348,6 +357,23 @@ public abstract class Expr
     //    }
   }
 
+  /**
+   * Returns the stamp of the last rewrite pass that has tried all of its rules on this subtree
+   * without firing any, or 0 if the subtree has been modified since.
+   */
+  public final int getRewriteStamp()
+  {
+    return rewriteStamp;
+  }
+
+  /**
+   * Marks this subtree as visited by the rewrite pass with the given stamp.
+   */
+  public final void setRewriteStamp(int stamp)
+  {
+    this.rewriteStamp = stamp;
+  }
+
   /** Checks whether this expression satisfies the given property. If the property has not been
    * defined for this expression, returns <code>Bool3.UNKNOWN</code>. 
    * 
@@ -29,12 +29,16 @@ import com.ibm.jaql.lang.core.Var;
 import com.ibm.jaql.lang.core.VarMap;
 import com.ibm.jaql.lang.expr.metadata.MappingTable;
 import com.ibm.jaql.lang.util.JaqlUtil;
+import com.ibm.jaql.lang.util.MorselExecutor;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
 
 
 public final class FilterExpr extends IterExpr
 {
+  /** Plan for parallel evaluation, created on first use; guarded by this */
+  private MorselExecutor parallel;
+  
   /**
    * BindingExpr inExpr, Expr predicate
    * 
@@ -304,6 +308,25 @@ public final class FilterExpr extends IterExpr
   { 
     final BindingExpr inBinding = binding(); 
     final FilterExpr  filter = this; 
+    
+    if( MorselExecutor.isEnabled() && conjunctivePred_count() > 0 )
+    {
+      Expr[] preds = new Expr[conjunctivePred_count()];
+      for (int i = 0; i < preds.length; i++)
+      {
+        preds[i] = conjunctivePred(i);
+      }
+      MorselExecutor plan;
+      synchronized( this )
+      {
+        plan = parallel = MorselExecutor.plan(parallel, MorselExecutor.Mode.FILTER, inBinding.var, preds);
+      }
+      if( plan.isApplicable() )
+      {
+        return plan.iter(context, inBinding.inExpr().iter(context));
+      }
+    }
+    
     final JsonIterator inIter = inBinding.iter(context); 
  
     return new JsonIterator() { 
@@ -24,6 +24,7 @@ import com.ibm.jaql.json.schema.SchemaTransformation;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.lang.core.Context;
 import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.util.MorselExecutor;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
 
@@ -65,6 +66,9 @@ import static com.ibm.jaql.json.type.JsonType.*;
  */
 public final class ForExpr extends IterExpr // TODO: rename
 {
+  /** Plan for parallel evaluation, created on first use; guarded by this */
+  private MorselExecutor parallel;
+  
   /**
    * BindingExpr inExpr, Expr collectExpr
    * 
@@ -220,6 +224,19 @@ public final class ForExpr extends IterExpr // TODO: rename
     final BindingExpr inBinding = binding();
     final Expr collectExpr = collectExpr();
 
+    if( MorselExecutor.isEnabled() )
+    {
+      MorselExecutor plan;
+      synchronized( this )
+      {
+        plan = parallel = MorselExecutor.plan(parallel, MorselExecutor.Mode.EXPAND, inBinding.var, collectExpr);
+      }
+      if( plan.isApplicable() )
+      {
+        return plan.iter(context, inBinding.inExpr().iter(context));
+      }
+    }
+    
     final JsonIterator inIter = inBinding.iter(context);
 
     return new JsonIterator() 
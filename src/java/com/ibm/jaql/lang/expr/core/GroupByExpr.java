@@ -23,11 +23,17 @@ import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.schema.SchemaTransformation;
 import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.lang.core.Context;
 import com.ibm.jaql.lang.core.Var;
 import com.ibm.jaql.lang.expr.metadata.MappingTable;
+import com.ibm.jaql.lang.util.ApproximateDistinctSet;
+import com.ibm.jaql.lang.util.JsonDistinctSet;
 import com.ibm.jaql.lang.util.JsonHashTable;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
@@ -46,6 +52,10 @@ import static com.ibm.jaql.json.type.JsonType.*;
  */
 public class GroupByExpr extends IterExpr
 {
+  /** Option to remove duplicate keys using a Bloom filter when the groups are not used: either
+   * <code>true</code> or the false positive rate. */
+  public static final JsonString APPROXIMATE_OPTION = new JsonString("approximate");
+
   /**
    * 
    * @param exprs
@@ -523,7 +533,12 @@ public class GroupByExpr extends IterExpr
    */
   public JsonIterator iter(final Context context) throws Exception
   {
-    // TODO: the ItemHashtable is a real quick and dirty prototype.  We need to spill to disk, etc...
+    if( isKeyOnly() )
+    {
+      return keyOnlyIter(context);
+    }
+
+    // The hash table spills partitions to disk when it exceeds its memory limit.
     final int n = numInputs();
     final BindingExpr in = inBinding();
     final BindingExpr by = byBinding();
@@ -582,6 +597,105 @@ public class GroupByExpr extends IterExpr
     };
   }
 
+  /**
+   * Returns true if this is a grouping of a single input whose groups are not used, e.g.,
+   * <code>distinct</code>. Such a grouping only needs to remove the duplicate keys.
+   */
+  public boolean isKeyOnly()
+  {
+    if( numInputs() != 1 )
+    {
+      return false;
+    }
+    ArrayList<Expr> uses = new ArrayList<Expr>();
+    collectExpr().getVarUses(getAsVar(0), uses);
+    return uses.isEmpty();
+  }
+
+  /**
+   * Evaluates a key-only grouping without materializing the input. The collect expression is
+   * evaluated as soon as a key is seen for the first time; keys of partitions that had to be
+   * spilled follow at the end.
+   */
+  protected JsonIterator keyOnlyIter(final Context context) throws Exception
+  {
+    final BindingExpr in = inBinding();
+    final BindingExpr by = byBinding();
+
+    JsonValue approximate = null;
+    JsonRecord options = (JsonRecord)optionsExpr().eval(context);
+    if( options != null )
+    {
+      approximate = options.get(APPROXIMATE_OPTION);
+    }
+    final JsonDistinctSet exact;
+    final ApproximateDistinctSet approx;
+    if( approximate instanceof JsonNumber )
+    {
+      exact = null;
+      approx = new ApproximateDistinctSet(((JsonNumber)approximate).doubleValue());
+    }
+    else if( JsonBool.TRUE.equals(approximate) )
+    {
+      exact = null;
+      approx = new ApproximateDistinctSet();
+    }
+    else
+    {
+      exact = new JsonDistinctSet();
+      approx = null;
+    }
+
+    final JsonIterator inIter = in.child(0).iter(context);
+
+    return new JsonIterator() {
+      JsonIterator collectIter = JsonIterator.EMPTY;
+      JsonIterator deferredIter = null;
+
+      public boolean moveNext() throws Exception
+      {
+        while (true)
+        {
+          if (collectIter.moveNext())
+          {
+            currentValue = collectIter.current();
+            return true;
+          }
+
+          JsonValue key;
+          if (deferredIter == null)
+          {
+            if (!inIter.moveNext())
+            {
+              deferredIter = (exact == null) ? JsonIterator.EMPTY : exact.deferred();
+              continue;
+            }
+            in.var.setValue(inIter.current());
+            key = by.child(0).eval(context);
+            if (!(exact == null ? approx.add(key) : exact.add(key)))
+            {
+              continue;
+            }
+          }
+          else if (deferredIter.moveNext())
+          {
+            key = deferredIter.current();
+          }
+          else
+          {
+            if (exact != null)
+            {
+              exact.reset();
+            }
+            return false;
+          }
+
+          by.var.setValue(key);
+          collectIter = collectExpr().iter(context);
+        }
+      }
+    };
+  }
   
 //  /**
 //   * group (pipe1->$v1) by $k=e1<$v1>, (pipe2->$v2) by e2<$v2>, ... into einto<$k,$v1,$v2,...>
@@ -117,8 +117,9 @@ public class GroupCombineFn extends IterExpr
     finalFn   = getFunction(context, finalExpr());
     
     boolean madePartials = false;
-    initialHT = new JsonHashTable(1); // TODO: add comparator support to JsonHashtable
-    partialHT = new JsonHashTable(1); // TODO: add comparator support to JsonHashtable
+    // these tables are spilled by this function, so they must not spill by themselves
+    initialHT = new JsonHashTable(1, Long.MAX_VALUE); // TODO: add comparator support to JsonHashtable
+    partialHT = new JsonHashTable(1, Long.MAX_VALUE); // TODO: add comparator support to JsonHashtable
     JsonIterator iter = input().iter(context);
     for (JsonValue value : iter)
     {
@@ -263,7 +263,7 @@ public class JoinExpr extends IterExpr // TODO: rename to equijoin
    */
   public JsonIterator iter(final Context context) throws Exception
   {
-    // TODO: the ItemHashtable is a real quick and dirty prototype.  We need to spill to disk, etc...
+    // The hash table spills partitions to disk when it exceeds its memory limit.
     final int n = numBindings();
     final int lastPreserved = putPreservedFirst() - 1; // TODO: this should be compile time.
     
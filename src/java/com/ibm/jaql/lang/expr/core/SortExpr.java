@@ -21,6 +21,7 @@ import com.ibm.jaql.json.schema.ArraySchema;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.schema.SchemaTransformation;
+import com.ibm.jaql.json.type.JsonNumber;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.util.JsonIterator;
 import com.ibm.jaql.lang.core.Context;
@@ -29,6 +30,7 @@ import com.ibm.jaql.lang.core.Var;
 import com.ibm.jaql.lang.expr.function.JaqlFunction;
 import com.ibm.jaql.lang.expr.metadata.MappingTable;
 import com.ibm.jaql.lang.util.JsonSorter;
+import com.ibm.jaql.lang.util.JsonTopK;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
 
@@ -40,7 +42,7 @@ import static com.ibm.jaql.json.type.JsonType.*;
 public class SortExpr extends IterExpr
 {
   /**
-   * @param exprs: Expr input, Expr cmp
+   * @param exprs: Expr input, Expr cmp [, Expr limit]
    */
   public SortExpr(Expr[] exprs)
   {
@@ -53,6 +55,14 @@ public class SortExpr extends IterExpr
     super(input, cmp);
   }
   
+  /**
+   * Only the first <code>limit</code> values in sort order are produced.
+   */
+  public SortExpr(Expr input, Expr cmp, Expr limit)
+  {
+    super(input, cmp, limit);
+  }
+  
   public Expr cmpExpr()
   {
     return exprs[1];
@@ -66,6 +76,14 @@ public class SortExpr extends IterExpr
     return exprs[0];
   }
 
+  /** 
+   * Returns the maximum number of values to produce, or null if all values are produced.
+   */
+  public Expr limitExpr()
+  {
+    return exprs.length > 2 ? exprs[2] : null;
+  }
+
   //  public SortExpr(Env env, String varName, Expr inputExpr)
   //  {
   //    this.input = new Binding(Binding.IN_BINDING, env.scope(varName), inputExpr);
@@ -91,7 +109,7 @@ public class SortExpr extends IterExpr
   @Override
   public Bool3 evaluatesChildOnce(int i)
   {
-    if( i == 0 )
+    if( i == 0 || i == 2 )
     {
       return Bool3.TRUE;
     }
@@ -108,7 +126,16 @@ public class SortExpr extends IterExpr
       throws Exception
   {
     exprs[0].decompile(exprText, capturedVars);
-    exprText.print("\n  -> " + kw("sort") + " " + kw("using") + " (");
+    if( exprs.length > 2 )
+    {
+      exprText.print("\n  -> " + kw("top") + " (");
+      exprs[2].decompile(exprText, capturedVars);
+      exprText.print(") " + kw("using") + " (");
+    }
+    else
+    {
+      exprText.print("\n  -> " + kw("sort") + " " + kw("using") + " (");
+    }
     exprs[1].decompile(exprText, capturedVars);
     exprText.print(")");
   }
@@ -129,13 +156,51 @@ public class SortExpr extends IterExpr
     CmpExpr cmp = (CmpExpr)cmpFn.body();
     JsonComparator comparator = cmp.getComparator(context);
 
-    final JsonSorter temp = new JsonSorter(comparator);
-
     JsonIterator iter = exprs[0].iter(context);
     if (iter.isNull())
     {
       return JsonIterator.NULL;
     }
+    
+    long limit = Long.MAX_VALUE;
+    Expr limitExpr = limitExpr();
+    if( limitExpr != null )
+    {
+      JsonNumber jlimit = (JsonNumber)limitExpr.eval(context);
+      if( jlimit == null )
+      {
+        return JsonIterator.EMPTY;
+      }
+      try
+      {
+        limit = jlimit.longValueExact();
+      }
+      catch( ArithmeticException e )
+      {
+        ArithmeticException ae = new ArithmeticException("top expects an integer limit, but got " + jlimit);
+        ae.initCause(e);
+        throw ae;
+      }
+      if( limit <= 0 )
+      {
+        return JsonIterator.EMPTY;
+      }
+    }
+    
+    if( limit <= JsonTopK.DEFAULT_MAX_HEAP )
+    {
+      // only a few values are kept: select them with a heap instead of sorting all values
+      JsonTopK top = new JsonTopK(comparator, (int)limit);
+      for (JsonValue value : iter)
+      {
+        cmpVar.setValue(value);
+        top.add(cmp.eval(context), value);
+      }
+      return top.iter();
+    }
+
+    final JsonSorter temp = new JsonSorter(comparator);
+    temp.setLimit(limit);
     for (JsonValue value : iter)
     {
       cmpVar.setValue(value);
@@ -144,6 +209,7 @@ public class SortExpr extends IterExpr
     }
     
     temp.sort();
+    temp.clearRunsAtReset(context); // the result may not be read to the end
 
     return temp.iter();
   }
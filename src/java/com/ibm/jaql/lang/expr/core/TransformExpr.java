@@ -27,6 +27,7 @@ import com.ibm.jaql.lang.core.Var;
 import com.ibm.jaql.lang.expr.metadata.MappingTable;
 import com.ibm.jaql.lang.expr.path.PathExpr;
 import com.ibm.jaql.lang.util.JaqlUtil;
+import com.ibm.jaql.lang.util.MorselExecutor;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
 
@@ -34,6 +35,9 @@ import static com.ibm.jaql.json.type.JsonType.*;
 
 public final class TransformExpr extends IterExpr
 {
+  /** Plan for parallel evaluation, created on first use; guarded by this */
+  private MorselExecutor parallel;
+  
   /**
    * BindingExpr inExpr, Expr projection
    * 
@@ -186,6 +190,20 @@ public final class TransformExpr extends IterExpr
   {
     final BindingExpr inBinding = binding();
     final Expr proj = projection();
+    
+    if( MorselExecutor.isEnabled() )
+    {
+      MorselExecutor plan;
+      synchronized( this )
+      {
+        plan = parallel = MorselExecutor.plan(parallel, MorselExecutor.Mode.TRANSFORM, inBinding.var, proj);
+      }
+      if( plan.isApplicable() )
+      {
+        return plan.iter(context, inBinding.inExpr().iter(context));
+      }
+    }
+    
     final JsonIterator inIter = inBinding.iter(context);
 
     return new JsonIterator() {
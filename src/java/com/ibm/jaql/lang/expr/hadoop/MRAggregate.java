@@ -17,8 +17,11 @@ package com.ibm.jaql.lang.expr.hadoop;
 
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapRunnable;
@@ -29,6 +32,7 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.util.ReflectionUtils;
 
 import com.ibm.jaql.io.hadoop.JsonHolder;
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
 import com.ibm.jaql.json.type.BufferedJsonArray;
@@ -159,15 +163,47 @@ public class MRAggregate extends MapReduceBaseExpr
   }
   
   /**
-   * Used for both map and init functions
+   * Runs the map function and computes the partial aggregates of its output. The partial
+   * aggregates are combined per key in an in-memory hash table before they are written to the map
+   * output, so that only one record per distinct key is sorted and shuffled. When the approximate
+   * size of the table exceeds its memory limit, all entries are written out and the table is
+   * cleared; the combiner merges the partials of the same key that were flushed at different
+   * times.
+   * 
+   * The memory limit can be set using the <code>jaql.mapred.aggregate.memory</code> job or system
+   * property (in bytes). A limit of zero disables the pre-aggregation.
    */
   public static class MapEval extends RemoteEval
       implements MapRunnable<JsonHolder, JsonHolder, JsonHolder, JsonHolder>
   {
+    public static final String MEMORY_LIMIT_PROPERTY = "jaql.mapred.aggregate.memory";
+    public static final long DEFAULT_MEMORY_LIMIT 
+      = Long.getLong(MEMORY_LIMIT_PROPERTY, 16 * 1024 * 1024);
+    
+    /** Approximate per-key overhead of the hash table, in addition to the serialized sizes. */
+    protected static final int ENTRY_OVERHEAD = 96;
+    
     protected Function mapFn;
     protected JaqlFunction aggFn;
+    protected long memoryLimit;
     JsonHolder aggArrayHolder;
     JsonHolder keyHolder;
+    
+    /** Combined partial aggregates of one key, and the approximate memory they take. The size 
+     * of the partials is estimated when the entry is created and again after 1, 2, 4, ... updates,
+     * so that the estimate follows partials that grow without serializing them for every record. */
+    protected static class Partials
+    {
+      JsonValue[] values;
+      long memory;
+      int updates;
+      
+      Partials(int n)
+      {
+        values = new JsonValue[n];
+      }
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -182,6 +218,7 @@ public class MRAggregate extends MapReduceBaseExpr
       aggFn = aggFn.inlineLocalBindings();
       keyHolder = (JsonHolder)ReflectionUtils.newInstance(job.getMapOutputKeyClass(), job);
       aggArrayHolder = (JsonHolder)ReflectionUtils.newInstance(job.getMapOutputValueClass(), job);
+      memoryLimit = job.getLong(MEMORY_LIMIT_PROPERTY, DEFAULT_MEMORY_LIMIT);
     }
 
     /**
@@ -193,10 +230,6 @@ public class MRAggregate extends MapReduceBaseExpr
                      Reporter reporter) 
       throws IOException
     {
-      // TODO: If there was a way for combiners to:
-      //   1. be guaranteed to run at least once
-      //   2. know if it is the first invocation
-      // then we could avoid initializing aggregates for just one value.
       try
       {
         AlgebraicAggregate[] aggs = makeAggs(aggFn);
@@ -208,27 +241,82 @@ public class MRAggregate extends MapReduceBaseExpr
         mapFn.setArguments(new RecordReaderValueIter(input));
         JsonIterator iter = mapFn.iter(context);
         BufferedJsonArray tmpArray = new BufferedJsonArray(1);
+        HashMap<JsonValue, Partials> table = new HashMap<JsonValue, Partials>();
+        DataOutputBuffer sizeBuffer = new DataOutputBuffer();
+        long memory = 0;
         for (JsonValue value : iter)
         {
           JsonArray pair = (JsonArray) value;
           if (pair != null)
           {
             pair.getAll(mappedKeyValue);
-            keyVar.setValue(mappedKeyValue[0]);
+            JsonValue key = mappedKeyValue[0];
+            keyVar.setValue(key);
             tmpArray.set(0, mappedKeyValue[1]);
             valVar.setValue(tmpArray);
+            if( memoryLimit <= 0 )
+            {
+              // no pre-aggregation: one partial per mapped value
+              for( int i = 0 ; i < aggs.length ; i++ )
+              {
+                AlgebraicAggregate agg = aggs[i];
+                agg.init(context);
+                agg.evalInitialized(context);
+                aggArray.set(i, agg.getPartial());
+              }
+              keyHolder.value = key; 
+              output.collect(keyHolder, aggArrayHolder);
+              continue;
+            }
+            
+            Partials partials = table.get(key);
             for( int i = 0 ; i < aggs.length ; i++ )
             {
               AlgebraicAggregate agg = aggs[i];
               agg.init(context);
-              aggs[i].evalInitialized(context);
-              JsonValue part = agg.getPartial();
-              aggArray.set(i, part);
+              if( partials != null )
+              {
+                agg.combine(partials.values[i]);
+              }
+              agg.evalInitialized(context);
+            }
+            if( partials == null )
+            {
+              partials = new Partials(aggs.length);
+              key = key == null ? null : key.getImmutableCopy();
+              table.put(key, partials);
+              memory += serializedSize(sizeBuffer, key) + ENTRY_OVERHEAD;
+            }
+            boolean estimate = (partials.updates & (partials.updates - 1)) == 0;
+            partials.updates++;
+            if( estimate )
+            {
+              memory -= partials.memory;
+              partials.memory = 0;
+            }
+            for( int i = 0 ; i < aggs.length ; i++ )
+            {
+              JsonValue part = aggs[i].getPartial();
+              part = part == null ? null : part.getImmutableCopy();
+              partials.values[i] = part;
+              if( estimate )
+              {
+                partials.memory += serializedSize(sizeBuffer, part);
+              }
+            }
+            if( estimate )
+            {
+              memory += partials.memory;
+            }
+            if( memory > memoryLimit )
+            {
+              flush(table, aggArray, output);
+              reporter.progress();
+              memory = 0;
             }
-            keyHolder.value = mappedKeyValue[0]; 
-            output.collect(keyHolder, aggArrayHolder);
           }
         }
+        flush(table, aggArray, output);
       }
       catch (IOException ex)
       {
@@ -243,6 +331,35 @@ public class MRAggregate extends MapReduceBaseExpr
         this.close();
       }
     }
+    
+    /** Write all the partial aggregates in the table to the output and clear the table. */
+    protected void flush(
+        HashMap<JsonValue, Partials> table,
+        BufferedJsonArray aggArray,
+        OutputCollector<JsonHolder, JsonHolder> output)
+      throws IOException
+    {
+      for( Map.Entry<JsonValue, Partials> e: table.entrySet() )
+      {
+        JsonValue[] values = e.getValue().values;
+        for( int i = 0 ; i < values.length ; i++ )
+        {
+          aggArray.set(i, values[i]);
+        }
+        keyHolder.value = e.getKey();
+        output.collect(keyHolder, aggArrayHolder);
+      }
+      table.clear();
+    }
+    
+    /** Returns the number of bytes needed to serialize the given value. */
+    private static long serializedSize(DataOutputBuffer buffer, JsonValue value) 
+      throws IOException
+    {
+      buffer.reset();
+      BinaryFullSerializer.getDefault().write(buffer, value);
+      return buffer.getLength();
+    }
   }
 
   /**
@@ -248,6 +248,11 @@ public abstract class MapReduceBaseExpr extends Expr
       conf.setMapOutputKeyClass(JsonHolderMapOutputKey.class);
       conf.setMapOutputValueClass(JsonHolderMapOutputValue.class);
       conf.setOutputKeyComparatorClass(MapOutputKeyComparator.class);
+      if (Boolean.getBoolean(HadoopSerializationMapOutput.SORTABLE_KEYS_NAME) 
+          && conf.get(HadoopSerializationMapOutput.SORTABLE_KEYS_NAME) == null)
+      {
+        conf.setBoolean(HadoopSerializationMapOutput.SORTABLE_KEYS_NAME, true);
+      }
     }
   }
   
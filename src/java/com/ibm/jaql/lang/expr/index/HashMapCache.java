@@ -17,6 +17,9 @@ package com.ibm.jaql.lang.expr.index;
 
 import java.util.HashMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
 import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
 import com.ibm.jaql.json.schema.ArraySchema;
@@ -27,15 +30,42 @@ import com.ibm.jaql.json.type.JsonValue;
 
 //TODO: Make the server json-free?
 //table id => string
-//key => just hash code (so dups are ok)
+//key => binary string
 //value => binary string
-//TODO: Should the values live in large byte buffers?
 
+/**
+ * The tables of a hashtable server. The tables are stored off-heap; their total size is limited 
+ * to <code>jaql.sharedhashtable.memory</code> bytes, by default a quarter of the maximum heap 
+ * size. When a table needs more memory, the least recently released tables that are not in use 
+ * are evicted.
+ */
 class HashMapCache
 {
-  protected static final HashMapCache instance = new HashMapCache();
+  private static final Log LOG = LogFactory.getLog(HashMapCache.class.getName());
+  
+  public static final String MEMORY_PROPERTY = "jaql.sharedhashtable.memory";
+  
+  /** Returns the memory limit of the tables: the value of {@link #MEMORY_PROPERTY} or, if it is
+   * not set, a quarter of the maximum heap size. Unless set explicitly, the JVM limits direct
+   * memory to the maximum heap size. */
+  public static long memoryLimit()
+  {
+    return Long.getLong(MEMORY_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+  }
+  
+  /** Returns the direct memory needed by a process whose tables use <code>tableMemory</code> 
+   * bytes. Memory of evicted tables is released only when their buffers are collected, so one 
+   * slab is added to let a table grow while that happens. */
+  public static long directMemory(long tableMemory)
+  {
+    return tableMemory + OffHeapHashTable.MAX_SLAB_SIZE;
+  }
+  
+  protected static final HashMapCache instance = new HashMapCache(memoryLimit());
 
   public long buildTimeout = 30 * 60 * 1000; // max time to wait for a table to be built
+  protected final long memoryLimit;
+  protected long memoryUsed = 0;
 
   public static class Table
   {
@@ -44,8 +74,8 @@ class HashMapCache
     protected long buildTime = 0;
     protected long lastUsed = System.currentTimeMillis();
     protected long lastReleased = lastUsed;
-    protected HashMap<JsonValue,byte[]> table = new HashMap<JsonValue, byte[]>();
-    protected BinaryFullSerializer keySerializer;
+    protected OffHeapHashTable table = new OffHeapHashTable(this);
+    protected Schema keySchema;
     protected BinaryFullSerializer valueSerializer;
     protected JsonValue schema;
 
@@ -65,12 +95,60 @@ class HashMapCache
       Schema keySchema = aschema.element(JsonLong.ZERO);
       Schema valueSchema = aschema.element(JsonLong.ONE);
       this.schema = jschema;
-      this.keySerializer = new TempBinaryFullSerializer(keySchema);
+      this.keySchema = keySchema;
       this.valueSerializer = new TempBinaryFullSerializer(valueSchema);
     }
   }
 
   protected HashMap<String, Table> cache = new HashMap<String, Table>();
+  
+  public HashMapCache(long memoryLimit)
+  {
+    this.memoryLimit = memoryLimit;
+  }
+  
+  /**
+   * Reserve memory for the given table, evicting unused tables if needed.
+   * 
+   * @throws RuntimeException if the memory limit would be exceeded even if all unused tables 
+   *         were evicted
+   */
+  public void reserve(Table requester, long bytes)
+  {
+    synchronized(cache)
+    {
+      while( memoryUsed + bytes > memoryLimit )
+      {
+        Table victim = null;
+        for( Table t: cache.values() )
+        {
+          if( t != requester && t.pinCount == 0 && t.isBuilt() 
+              && (victim == null || t.lastReleased < victim.lastReleased) )
+          {
+            victim = t;
+          }
+        }
+        if( victim == null )
+        {
+          throw new RuntimeException("hashtable "+requester.tableId+" exceeds the memory limit of "
+              +memoryLimit+" bytes ("+MEMORY_PROPERTY+")");
+        }
+        LOG.info("evicting hashtable "+victim.tableId);
+        cache.remove(victim.tableId);
+        victim.table.clear();
+      }
+      memoryUsed += bytes;
+    }
+  }
+  
+  /** Return memory that was reserved with {@link #reserve(Table, long)}. */
+  public void free(long bytes)
+  {
+    synchronized(cache)
+    {
+      memoryUsed -= bytes;
+    }
+  }
 
   // TODO: support age and lease arguments
   public Table get(String tableId, long ageMS, long leaseMS)
@@ -87,11 +87,15 @@ public class HashtableClient implements HashtableConstants, Closeable
   public void startServerProcess(int port, int timeout, String memory)
   {
     Properties props = System.getProperties();
+    // the tables live in direct memory, which is limited separately from the heap
+    long tableMemory = HashMapCache.memoryLimit();
     ProcessBuilder pb = new ProcessBuilder(
         "java", // TODO: how do I find the currently running java process? props:sun.boot.library.path=C:\dev\Java\jdk1.6.0_12\jre\bin,  
         "-classpath",
         props.getProperty("java.class.path"),
         "-Xmx"+memory,
+        "-XX:MaxDirectMemorySize="+HashMapCache.directMemory(tableMemory),
+        "-D"+HashMapCache.MEMORY_PROPERTY+"="+tableMemory,
         "-Dlog4j.info",
         HashtableListener.class.getCanonicalName(),
         Integer.toString(port),
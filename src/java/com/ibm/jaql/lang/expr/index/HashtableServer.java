@@ -27,10 +27,13 @@ import java.net.Socket;
 import org.apache.hadoop.io.DataOutputBuffer;
 
 import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.sortable.SortableBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
 import com.ibm.jaql.json.type.JsonSchema;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.util.BaseUtil;
+import com.ibm.jaql.util.IntArray;
 
 
 public class HashtableServer implements HashtableConstants, Runnable
@@ -40,6 +43,11 @@ public class HashtableServer implements HashtableConstants, Runnable
   protected DataOutputStream out;
   protected HashMapCache.Table table = null;
   protected static final BinaryFullSerializer defaultSerializer = BinaryFullSerializer.getDefault();
+  
+  // keys are stored in canonical form; serializers are not thread-safe, so each server has its own
+  protected BinaryFullSerializer keySerializer;
+  protected final SortableBinaryFullSerializer canonicalSerializer = new SortableBinaryFullSerializer();
+  protected JsonValue key;
 
   public HashtableServer(Socket socket) throws IOException
   {
@@ -51,8 +59,9 @@ public class HashtableServer implements HashtableConstants, Runnable
   @Override
   public void run()
   {
-    JsonValue readKey = null;
-    JsonValue[] keys = new JsonValue[0];
+    DataOutputBuffer keyBuf = new DataOutputBuffer();
+    DataOutputBuffer valueBuf = new DataOutputBuffer();
+    IntArray keyOffsets = new IntArray();
     
     try
     {
@@ -64,45 +73,48 @@ public class HashtableServer implements HashtableConstants, Runnable
           // GET Key -> FOUND Value | NOT_FOUND
           case GET_CMD:
           {
-            readKey = table.keySerializer.read(in, readKey);
-            byte[] value = table.table.get(readKey);
-            if( value == null )
+            keyBuf.reset();
+            readKey(keyBuf);
+            valueBuf.reset();
+            if( table.table.get(keyBuf.getData(), 0, keyBuf.getLength(), valueBuf) )
             {
-              out.write( NOT_FOUND_CMD );
+              out.write( FOUND_CMD );
+              out.write(valueBuf.getData(), 0, valueBuf.getLength());
             }
             else
             {
-              out.write( FOUND_CMD );
-              out.write(value);
+              out.write( NOT_FOUND_CMD );
             }
             break;
           }
           // GETN n, [Key]*n -> OK n [FOUND Value | NOT_FOUND]*n  OK
           case GETN_CMD:
           {
+            // all keys are read into one buffer and probed in their serialized form
             int n = BaseUtil.readVUInt(in);
-            if( n > keys.length ||    // bigger array required
-                3 * n < keys.length ) // array is way too big
-            {
-              keys = new JsonValue[n];
-            }
+            keyBuf.reset();
+            keyOffsets.clear();
             for(int i = 0 ; i < n ; i++)
             {
-              keys[i] = table.keySerializer.read(in, keys[i]);
+              keyOffsets.add(keyBuf.getLength());
+              readKey(keyBuf);
             }
+            keyOffsets.add(keyBuf.getLength());
             out.write( OK_CMD );
             BaseUtil.writeVUInt(out,n);
             for(int i = 0 ; i < n ; i++)
             {
-              byte[] value = table.table.get(keys[i]);
-              if( value == null )
+              int offset = keyOffsets.get(i);
+              int length = keyOffsets.get(i+1) - offset;
+              valueBuf.reset();
+              if( table.table.get(keyBuf.getData(), offset, length, valueBuf) )
               {
-                out.write( NOT_FOUND_CMD );
+                out.write( FOUND_CMD );
+                out.write(valueBuf.getData(), 0, valueBuf.getLength());
               }
               else
               {
-                out.write( FOUND_CMD );
-                out.write(value);
+                out.write( NOT_FOUND_CMD );
               }
             }
             out.write( OK_CMD );
@@ -125,6 +137,7 @@ public class HashtableServer implements HashtableConstants, Runnable
             table = HashMapCache.instance.get(tableId.toString(), ageMS, leaseMS);
             if( table.isBuilt() ) // The table is good to go
             {
+              keySerializer = new TempBinaryFullSerializer(table.keySchema);
               out.write( OK_CMD );
               BaseUtil.writeVSLong(out, 0); // TODO: implement leases
               defaultSerializer.write(out, table.schema);
@@ -147,20 +160,18 @@ public class HashtableServer implements HashtableConstants, Runnable
                 throw new ProtocolException("expected SCHEMA");  
               }
               table.setSchema( (JsonSchema)defaultSerializer.read(in, null) );
-              DataOutputBuffer buf = new DataOutputBuffer();
+              keySerializer = new TempBinaryFullSerializer(table.keySchema);
               
               System.err.println("building hashtable "+table.tableId);
 
               while( (command = in.readByte()) == PUT_CMD )
               {
-                // TODO: we need to use a spilling hashtable to avoid memory overflows...
-                // TODO: we could at least pack the values more tightly 
-                buf.reset();
-                JsonValue key = table.keySerializer.read(in, null); // Be sure NOT to reuse the key here!
-                table.valueSerializer.copy(in, buf);
-                byte[] val = new byte[buf.getLength()];
-                System.arraycopy(buf.getData(), 0, val, 0, val.length);
-                table.table.put(key, val);
+                keyBuf.reset();
+                readKey(keyBuf);
+                valueBuf.reset();
+                table.valueSerializer.copy(in, valueBuf);
+                table.table.put(keyBuf.getData(), keyBuf.getLength(), 
+                                valueBuf.getData(), valueBuf.getLength());
               }
               if( command != OK_CMD )
               {
@@ -219,4 +230,14 @@ public class HashtableServer implements HashtableConstants, Runnable
       }
     }
   }
+
+  /** 
+   * Reads a key and appends it to <code>out</code> in canonical form, in which keys that are 
+   * equal values (e.g., 1, 1.0d, and 1.00m) have equal bytes.
+   */
+  private void readKey(DataOutputBuffer out) throws IOException
+  {
+    key = keySerializer.read(in, key);
+    canonicalSerializer.writeCanonical(out, key);
+  }
 }
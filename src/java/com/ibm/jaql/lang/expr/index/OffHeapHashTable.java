@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+/**
+ * Open-addressing hash table from serialized keys to serialized values that keeps all of its 
+ * data in direct (off-heap) buffers, so that large tables do not burden the garbage collector.
+ * 
+ * Entries are appended to slabs of direct memory as (keyLength, valueLength, key, value). 
+ * The first slab is small and each further slab is twice as large as the previous one, up to
+ * {@link #MAX_SLAB_SIZE}, so that small tables hold little memory.
+ * The slot arrays hold the hash code and the address (slab, offset) of each entry and are 
+ * probed linearly. Keys are compared by their bytes, so keys have to be serialized 
+ * canonically. Memory is requested from a {@link HashMapCache} before it is allocated.
+ * 
+ * A table is built by a single thread; once built, it can be read concurrently.
+ */
+final class OffHeapHashTable
+{
+  static final int MIN_SLAB_SIZE = 64 * 1024;
+  static final int MAX_SLAB_SIZE = 16 * 1024 * 1024;
+  static final int INITIAL_CAPACITY = 1024;
+  
+  private final HashMapCache.Table owner;
+  private ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+  private ByteBuffer slab;          // current slab
+  private IntBuffer hashes;
+  private LongBuffer addresses;     // address+1 of each entry, 0 if the slot is empty
+  private int mask;
+  private int size = 0;
+  private long memory = 0;
+  
+  OffHeapHashTable(HashMapCache.Table owner)
+  {
+    this.owner = owner;
+  }
+  
+  /** Returns the number of entries in the table. */
+  int size()
+  {
+    return size;
+  }
+  
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+  
+  /** Returns the number of bytes of direct memory held by this table. */
+  long memory()
+  {
+    return memory;
+  }
+  
+  /** Adds or replaces the value of the given key. */
+  void put(byte[] key, int keyLength, byte[] value, int valueLength)
+  {
+    if( addresses == null )
+    {
+      allocateSlots(INITIAL_CAPACITY);
+    }
+    else if( 4L * (size + 1) > 3L * (mask + 1) )
+    {
+      resize();
+    }
+    
+    int entryLength = 8 + keyLength + valueLength;
+    if( slab == null || slab.remaining() < entryLength )
+    {
+      int slabSize = slab == null ? MIN_SLAB_SIZE : Math.min(MAX_SLAB_SIZE, 2 * slab.capacity());
+      slab = ByteBuffer.allocateDirect(reserve(Math.max(slabSize, entryLength)));
+      slabs.add(slab);
+    }
+    long address = ((long)(slabs.size() - 1) << 32) | slab.position();
+    slab.putInt(keyLength);
+    slab.putInt(valueLength);
+    slab.put(key, 0, keyLength);
+    slab.put(value, 0, valueLength);
+    
+    int h = hash(key, 0, keyLength);
+    int i = find(h, key, 0, keyLength);
+    if( addresses.get(i) == 0 )
+    {
+      size++;
+    }
+    hashes.put(i, h);
+    addresses.put(i, address + 1);
+  }
+  
+  /** If the key is found, writes its value to <code>out</code> and returns true. */
+  boolean get(byte[] key, int keyOffset, int keyLength, DataOutput out) throws IOException
+  {
+    if( addresses == null )
+    {
+      return false;
+    }
+    int i = find(hash(key, keyOffset, keyLength), key, keyOffset, keyLength);
+    long address = addresses.get(i) - 1;
+    if( address < 0 )
+    {
+      return false;
+    }
+    ByteBuffer entry = slabs.get((int)(address >>> 32)).duplicate();
+    int p = (int)address;
+    int valueLength = entry.getInt(p + 4);
+    entry.position(p + 8 + keyLength);
+    byte[] buf = new byte[Math.min(valueLength, 8192)];
+    while( valueLength > 0 )
+    {
+      int n = Math.min(valueLength, buf.length);
+      entry.get(buf, 0, n);
+      out.write(buf, 0, n);
+      valueLength -= n;
+    }
+    return true;
+  }
+  
+  /** Releases all memory of this table. */
+  void clear()
+  {
+    slabs.clear();
+    slab = null;
+    hashes = null;
+    addresses = null;
+    size = 0;
+    HashMapCache.instance.free(memory);
+    memory = 0;
+  }
+  
+  /** Returns the slot of the given key, or the empty slot where it would be inserted. */
+  private int find(int h, byte[] key, int keyOffset, int keyLength)
+  {
+    int i = h & mask;
+    while( true )
+    {
+      long address = addresses.get(i) - 1;
+      if( address < 0 || (hashes.get(i) == h && keyEquals(address, key, keyOffset, keyLength)) )
+      {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+  
+  private boolean keyEquals(long address, byte[] key, int keyOffset, int keyLength)
+  {
+    ByteBuffer entry = slabs.get((int)(address >>> 32));
+    int p = (int)address;
+    if( entry.getInt(p) != keyLength )
+    {
+      return false;
+    }
+    p += 8;
+    for(int i = 0 ; i < keyLength ; i++)
+    {
+      if( entry.get(p + i) != key[keyOffset + i] )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private void allocateSlots(int capacity)
+  {
+    reserve(12L * capacity);
+    hashes = ByteBuffer.allocateDirect(4 * capacity).asIntBuffer();
+    addresses = ByteBuffer.allocateDirect(8 * capacity).asLongBuffer();
+    mask = capacity - 1;
+  }
+  
+  private void resize()
+  {
+    IntBuffer oldHashes = hashes;
+    LongBuffer oldAddresses = addresses;
+    int oldCapacity = mask + 1;
+    allocateSlots(2 * oldCapacity);
+    for(int j = 0 ; j < oldCapacity ; j++)
+    {
+      long address = oldAddresses.get(j);
+      if( address != 0 )
+      {
+        int h = oldHashes.get(j);
+        int i = h & mask;
+        while( addresses.get(i) != 0 )
+        {
+          i = (i + 1) & mask;
+        }
+        hashes.put(i, h);
+        addresses.put(i, address);
+      }
+    }
+    HashMapCache.instance.free(12L * oldCapacity);
+    memory -= 12L * oldCapacity;
+  }
+  
+  private int reserve(long bytes)
+  {
+    HashMapCache.instance.reserve(owner, bytes);
+    memory += bytes;
+    return (int)bytes;
+  }
+  
+  private static int hash(byte[] key, int offset, int length)
+  {
+    int h = 0x9747b28c;
+    for(int i = offset ; i < offset + length ; i++)
+    {
+      h = (h ^ key[i]) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+}
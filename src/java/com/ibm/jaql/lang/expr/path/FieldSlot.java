@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.path;
+
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.MutableJsonString;
+import com.ibm.jaql.json.util.FieldNameCache;
+
+/** 
+ * Finds a field in a sequence of records. The index at which the field was found last is 
+ * remembered and checked first for the next {@link BufferedJsonRecord}, so that records with the
+ * same layout (e.g., all records read from a file with a fixed schema) are accessed without a
+ * hash lookup of the field name. If the check fails, the field is looked up by name and its new 
+ * index is remembered.
+ * 
+ * Field names are canonicalized using the {@link FieldNameCache}; because the record 
+ * serializers do the same, the check is usually a reference comparison.
+ */
+final class FieldSlot
+{
+  private JsonString name;      // last immutable name looked up, as given
+  private JsonString canonical; // canonical instance of name
+  private int slot;             // index at which name was found last
+  
+  /** Returns the index of the field <code>name</code> in <code>rec</code> or a negative number
+   * if the field does not exist. */
+  int indexOf(BufferedJsonRecord rec, JsonString name)
+  {
+    if( name != this.name )
+    {
+      canonical = FieldNameCache.get(name);
+      this.name = name instanceof MutableJsonString ? null : name;
+    }
+    int i = slot;
+    if( i < rec.size() )
+    {
+      JsonString n = rec.getName(i);
+      if( n == canonical || n.equals(canonical) )
+      {
+        return i;
+      }
+    }
+    i = rec.indexOf(canonical);
+    if( i >= 0 )
+    {
+      slot = i;
+    }
+    return i;
+  }
+  
+  /** Returns the value of the field <code>name</code> in <code>rec</code> or null if the field
+   * does not exist. */
+  JsonValue get(JsonRecord rec, JsonString name)
+  {
+    if( rec instanceof BufferedJsonRecord )
+    {
+      BufferedJsonRecord r = (BufferedJsonRecord)rec;
+      int i = indexOf(r, name);
+      return i >= 0 ? r.get(i) : null;
+    }
+    return rec.get(name);
+  }
+}
@@ -38,6 +38,7 @@ import com.ibm.jaql.util.FastPrinter;
 /** e.g., .a */
 public class PathFieldValue extends PathStep
 {
+  private final FieldSlot slot = new FieldSlot();
 
   /**
    * @param exprs
@@ -155,7 +156,7 @@ public class PathFieldValue extends PathStep
     {
       return null;
     }
-    JsonValue value = rec.get(name);
+    JsonValue value = slot.get(rec, name);
     return nextStep(context, value);
   }
 
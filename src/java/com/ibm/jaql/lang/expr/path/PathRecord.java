@@ -31,6 +31,7 @@ import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.lang.core.Context;
 import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
 import com.ibm.jaql.lang.expr.core.Expr;
 import com.ibm.jaql.lang.expr.metadata.MappingTable;
 import com.ibm.jaql.util.FastPrinter;
@@ -39,6 +40,11 @@ import com.ibm.jaql.util.FastPrinter;
 /** e.g. ${.a,.b} */;
 public class PathRecord extends PathStep
 {
+  // set on evaluation when all fields are PathOneField with constant, distinct names
+  private Expr[]       checkedExprs; // the children that were checked, and their name exprs
+  private JsonString[] fieldNames;
+  private FieldSlot[]  fieldSlots;
+  
   /**
    * @param exprs
    */
@@ -110,6 +116,14 @@ public class PathRecord extends PathStep
     {
       return null;
     }
+    if( !fieldsChecked() )
+    {
+      checkFields();
+    }
+    if( fieldNames != null && oldRec instanceof BufferedJsonRecord )
+    {
+      return evalNamedFields(context, (BufferedJsonRecord)oldRec);
+    }
     // TODO: this can be made much faster when "*" is not used.
     // TODO: this can be made much faster when only "*" is used, without inclusion/exclusion
     BufferedJsonRecord newRec = new BufferedJsonRecord(); // TODO: memory
@@ -143,6 +157,83 @@ public class PathRecord extends PathStep
     return newRec;
   }
   
+  /** Returns true if the children have not been changed since {@link #checkFields()}. */
+  private boolean fieldsChecked()
+  {
+    final int m = exprs.length - 1;
+    if( checkedExprs == null || checkedExprs.length != 2 * m )
+    {
+      return false;
+    }
+    for( int j = 0 ; j < m ; j++ )
+    {
+      if( checkedExprs[j] != exprs[j] || checkedExprs[m + j] != exprs[j].child(0) )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /** Sets <code>fieldNames</code> if only fields with constant, distinct names are projected. */
+  private void checkFields()
+  {
+    final int m = exprs.length - 1;
+    checkedExprs = new Expr[2 * m];
+    for( int j = 0 ; j < m ; j++ )
+    {
+      checkedExprs[j] = exprs[j];
+      checkedExprs[m + j] = exprs[j].child(0); // every step has at least its next step
+    }
+    fieldNames = null;
+    JsonString[] names = new JsonString[m];
+    for( int j = 0 ; j < m ; j++ )
+    {
+      if( !(exprs[j] instanceof PathOneField) || !(exprs[j].child(0) instanceof ConstExpr) )
+      {
+        return;
+      }
+      JsonValue name = ((ConstExpr)exprs[j].child(0)).value;
+      if( !(name instanceof JsonString) )
+      {
+        return;
+      }
+      names[j] = (JsonString)name;
+      for( int k = 0 ; k < j ; k++ )
+      {
+        if( names[k].equals(names[j]) )
+        {
+          return;
+        }
+      }
+    }
+    fieldSlots = new FieldSlot[m];
+    for( int j = 0 ; j < m ; j++ )
+    {
+      fieldSlots[j] = new FieldSlot();
+    }
+    fieldNames = names;
+  }
+  
+  /** Projects the fields in <code>fieldNames</code> by looking each of them up, instead of
+   * matching every field of the input record against every projected field. */
+  private JsonValue evalNamedFields(Context context, BufferedJsonRecord oldRec) throws Exception
+  {
+    final int m = fieldNames.length;
+    BufferedJsonRecord newRec = new BufferedJsonRecord(m);
+    for( int j = 0 ; j < m ; j++ )
+    {
+      int i = fieldSlots[j].indexOf(oldRec, fieldNames[j]);
+      if( i >= 0 )
+      {
+        JsonValue value = ((PathStep)exprs[j]).nextStep(context, oldRec.get(i));
+        value = nextStep(context, value);
+        newRec.add(oldRec.getName(i), value);
+      }
+    }
+    return newRec;
+  }
+  
   
   // -- schema ------------------------------------------------------------------------------------
   
@@ -112,7 +112,7 @@ public class RegexExtractAllFn extends IterExpr
       return JsonIterator.NULL;
     }
     final Matcher matcher = regex.takeMatcher();
-    matcher.reset(text.toString());
+    matcher.reset(text);
     final int n = matcher.groupCount();    
     final BufferedJsonArray arr = new BufferedJsonArray(n); // TODO: memory
     
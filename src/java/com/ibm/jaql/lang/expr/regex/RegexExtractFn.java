@@ -102,7 +102,7 @@ public class RegexExtractFn extends Expr
       return null;
     }
     final Matcher matcher = regex.takeMatcher();
-    matcher.reset(text.toString());
+    matcher.reset(text);
     if (!matcher.find())
     {
       regex.returnMatcher(matcher);
@@ -80,7 +80,7 @@ public class RegexMatchFn extends IterExpr
       return JsonIterator.NULL;
     }
     final Matcher matcher = regex.takeMatcher();
-    matcher.reset(text.toString());
+    matcher.reset(text);
     if (!matcher.find())
     {
       regex.returnMatcher(matcher);
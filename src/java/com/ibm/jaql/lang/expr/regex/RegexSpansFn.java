@@ -77,7 +77,7 @@ public class RegexSpansFn extends IterExpr
       return JsonIterator.NULL;
     }
     final Matcher matcher = regex.takeMatcher();
-    matcher.reset(text.toString());
+    matcher.reset(text);
     if (!matcher.find())
     {
       regex.returnMatcher(matcher);
@@ -74,7 +74,7 @@ public class RegexTestFn extends Expr
       return null;
     }
     final Matcher matcher = regex.takeMatcher();
-    matcher.reset(text.toString());
+    matcher.reset(text);
     boolean match = matcher.find();
     regex.returnMatcher(matcher);
     return JsonBool.make(match);
@@ -84,7 +84,7 @@ public class StrReplaceFn extends Expr
     JsonString jreplacement = (JsonString)exprs[2].eval(context);     
     String replacement = jreplacement == null ? "" : jreplacement.toString();
     Matcher matcher = jregex.takeMatcher();
-    matcher.reset(jstr.toString());
+    matcher.reset(jstr);
     boolean all = true;
     String res;
     if( all )
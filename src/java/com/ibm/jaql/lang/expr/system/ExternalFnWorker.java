@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.system;
+
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonValue;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Base class for external functions written in Java that run as a pooled worker process (see
+ * {@link ExternalProcessPool}). A subclass implements {@link #process(JsonValue, BufferedJsonArray)}
+ * and calls {@link #run()} from its main method; the function is then defined by
+ *
+ * <pre>
+ * externalfn({ cmd: 'java -cp ... MyWorker', mode: 'streaming', protocol: 'framed' })
+ * </pre>
+ */
+public abstract class ExternalFnWorker {
+
+    /**
+     * Adds the outputs for one input value to results. In push mode, the input value is the
+     * argument of the call; in streaming mode, it is one value of the input.
+     */
+    protected abstract void process(JsonValue value, BufferedJsonArray results) throws Exception;
+
+    /**
+     * Serves requests on stdin and stdout until stdin is closed.
+     */
+    public void run() throws IOException {
+        run(System.in, System.out);
+    }
+
+    /**
+     * Serves requests until the input is closed.
+     */
+    public void run(InputStream in, OutputStream out) throws IOException {
+        DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+        DataInputBuffer inbuf = new DataInputBuffer();
+        DataOutputBuffer outbuf = new DataOutputBuffer();
+        BufferedJsonArray results = new BufferedJsonArray();
+        JsonValue request = null;
+        while (true) {
+            try {
+                request = ExternalProcessPool.readFrame(din, inbuf, request);
+            } catch (EOFException e) {
+                break;
+            }
+            results.clear();
+            try {
+                for (JsonValue value : (JsonArray) request) {
+                    process(value, results);
+                }
+                ExternalProcessPool.writeFrame(dout, results, outbuf);
+            } catch (Exception e) {
+                ExternalProcessPool.writeError(dout, e.toString());
+            }
+            dout.flush();
+        }
+        dout.close();
+    }
+}
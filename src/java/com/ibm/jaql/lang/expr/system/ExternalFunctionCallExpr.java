@@ -26,7 +26,10 @@ import com.ibm.jaql.json.parser.JsonParser;
 import com.ibm.jaql.json.parser.ParseException;
 import com.ibm.jaql.json.schema.Schema;
 import com.ibm.jaql.json.schema.SchemaFactory;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonArray;
 import com.ibm.jaql.json.type.JsonBool;
+import com.ibm.jaql.json.type.JsonNumber;
 import com.ibm.jaql.json.type.JsonRecord;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.json.type.JsonValue;
@@ -37,12 +40,11 @@ import com.ibm.jaql.lang.core.VarMap;
 import com.ibm.jaql.lang.expr.core.Expr;
 import com.ibm.jaql.lang.expr.core.ExprProperty;
 import com.ibm.jaql.lang.expr.core.IterExpr;
+import com.ibm.jaql.lang.expr.system.ExternalProcessPool.Worker;
 import com.ibm.jaql.lang.util.JaqlUtil;
 import com.ibm.jaql.util.Bool3;
 import com.ibm.jaql.util.FastPrinter;
-import org.apache.hadoop.conf.Configuration;
 
-import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.UndeclaredThrowableException;
@@ -51,12 +53,32 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Calls an external function defined by <code>externalfn()</code>.
+ *
+ * By default, a new process is started for each evaluation and values are exchanged as lines
+ * of text. With <code>protocol: 'framed'</code>, the call is served by a persistent worker
+ * process from the {@link ExternalProcessPool} of the function, and values are exchanged in
+ * length-prefixed binary frames. In streaming mode, the input is sent in batches of
+ * <code>batchSize</code> values (default {@value #DEFAULT_BATCH_SIZE}); up to
+ * <code>maxPending</code> batches (default {@value #DEFAULT_MAX_PENDING}) are sent ahead of the
+ * results that have been read.
+ */
 public class ExternalFunctionCallExpr extends IterExpr {
 
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_MAX_PENDING = 4;
+
     private static final JsonString CMD = new JsonString("cmd");
     private static final JsonString WRITEOPTS = new JsonString("writeOpts");
     private static final JsonString READOPTS = new JsonString("readOpts");
+    private static final JsonString PROTOCOL = new JsonString("protocol");
+    private static final JsonString FRAMED = new JsonString("framed");
+    private static final JsonString BATCH_SIZE = new JsonString("batchSize");
+    private static final JsonString MAX_PENDING = new JsonString("maxPending");
 
     private Process process = null;
     private InputStream stdin = null;
@@ -191,6 +213,9 @@ public class ExternalFunctionCallExpr extends IterExpr {
 
     @Override
     public JsonIterator iter(Context context) throws Exception {
+        if (FRAMED.equals(rec.get(PROTOCOL))) {
+            return framedIter(context);
+        }
         try {
             initProcess(context);
 
@@ -285,28 +310,155 @@ public class ExternalFunctionCallExpr extends IterExpr {
 
     }
 
-    private void initProcess(Context context) throws Exception {
-        ProcessBuilder pb = new ProcessBuilder();
-
-        if (cmd instanceof JsonString) {
-            String tmp = ((JsonString) cmd).toString();
-            String[] cmdArray = tmp.split(" ");
-            ArrayList<String> array = new ArrayList<String>();
-            for (String s : cmdArray) {
-                if (s.length() > 0)
-                    array.add(s.trim());
+    private int intOption(JsonString name, int defaultValue) {
+        JsonValue value = rec.get(name);
+        int i = value == null ? defaultValue : ((JsonNumber) value).intValueExact();
+        if (i < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + i);
+        }
+        return i;
+    }
+
+    /**
+     * Serves the call from the worker pool of the function.
+     */
+    private JsonIterator framedIter(Context context) throws Exception {
+        final ExternalProcessPool pool = ExternalProcessPool.get(rec);
+        if (mode.equals(new JsonString("push"))) {
+            JsonValue arg = exprs[0].eval(context);
+            BufferedJsonArray batch = new BufferedJsonArray();
+            batch.add(arg);
+            Worker worker = pool.acquire();
+            boolean ok = false;
+            try {
+                worker.send(batch);
+                JsonArray result = worker.receive(null);
+                ok = true;
+                return result.iter();
+            } finally {
+                pool.release(worker, ok);
+            }
+        } else if (mode.equals(new JsonString("streaming"))) {
+            return new FramedStream(pool, exprs[0].iter(context), context);
+        } else {
+            throw new RuntimeException("unsupported mode: " + mode);
+        }
+    }
+
+    /**
+     * Streams the input to a pooled worker in batches. A sender thread sends the batches while
+     * the consumer reads the results. The queue of outstanding batches is bounded, which
+     * throttles the sender when the consumer falls behind. The stream is closed when the context
+     * is reset, so that a worker is released even when the results are not read to the end.
+     */
+    private class FramedStream extends ClosableJsonIterator {
+        private final Object END = new Object();
+
+        private final ExternalProcessPool pool;
+        private final JsonIterator input;
+        private final int batchSize = intOption(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        private final BlockingQueue<Object> pending = new ArrayBlockingQueue<Object>(
+                intOption(MAX_PENDING, DEFAULT_MAX_PENDING));
+        private final Thread sender;
+        private volatile Throwable sendError;
+        private Worker worker;
+        private JsonArray results;
+        private long index;
+
+        FramedStream(ExternalProcessPool pool, JsonIterator input, Context context) throws Exception {
+            this.pool = pool;
+            this.input = input;
+            this.worker = pool.acquire();
+            context.doAtReset(new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+            this.sender = new Thread() {
+                @Override
+                public void run() {
+                    send();
+                }
+            };
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        private void send() {
+            Worker worker = this.worker; // close() clears the field
+            try {
+                BufferedJsonArray batch = new BufferedJsonArray();
+                boolean more = true;
+                while (more) {
+                    batch.clear();
+                    while (batch.size() < batchSize && (more = input.moveNext())) {
+                        batch.addCopy(input.current());
+                    }
+                    if (batch.size() > 0) {
+                        worker.send(batch);
+                        pending.put(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return; // closed by the consumer
+            } catch (Throwable e) {
+                sendError = e;
+            }
+            try {
+                pending.put(END);
+            } catch (InterruptedException e) {
+                // closed by the consumer
+            }
+        }
+
+        @Override
+        public boolean moveNext() throws Exception {
+            while (worker != null) {
+                if (results != null && index < results.count()) {
+                    currentValue = results.get(index++);
+                    return true;
+                }
+                if (pending.take() == END) {
+                    finish(sendError == null);
+                    if (sendError instanceof Exception) {
+                        throw (Exception) sendError;
+                    } else if (sendError != null) {
+                        throw new UndeclaredThrowableException(sendError);
+                    }
+                    return false;
+                }
+                try {
+                    results = worker.receive(results);
+                } catch (Exception e) {
+                    close();
+                    throw e;
+                }
+                index = 0;
             }
-            pb.command(array);
+            return false;
         }
 
-        Configuration cfg = new Configuration();
+        private void finish(boolean reusable) {
+            if (worker != null) {
+                pool.release(worker, reusable);
+                worker = null;
+            }
+        }
 
-        File directory = new File(cfg.get("mapred.local.dir", "."));
-        pb.directory(directory);
+        @Override
+        public void close() {
+            if (worker != null) {
+                // batches may still be outstanding, so the worker cannot be reused
+                sender.interrupt();
+                finish(false);
+                pending.clear();
+            }
+        }
+    }
 
-        // unset environment variables that jvm dump to stderr
-        pb.environment().remove("_JAVA_OPTIONS");
-        pb.environment().remove("JAVA_TOOL_OPTIONS");
+    private void initProcess(Context context) throws Exception {
+        ProcessBuilder pb = ExternalProcessPool.processBuilder(cmd);
 
         process = pb.start();
 
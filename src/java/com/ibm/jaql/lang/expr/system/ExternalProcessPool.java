@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.system;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * A pool of persistent worker processes for one external function definition. It is used by
+ * {@link ExternalFunctionCallExpr} when the function is defined with
+ * <code>protocol: 'framed'</code>; the worker processes are started on demand, reused across
+ * calls, and destroyed when the JVM exits.
+ *
+ * Workers talk a length-prefixed binary protocol on stdin and stdout. Every frame is a 4-byte
+ * big-endian length followed by that many bytes holding a JSON array in the format of
+ * {@link BinaryFullSerializer#getDefault()}. A worker answers each request frame with exactly
+ * one response frame, in order, that holds the outputs for all values of the request. A
+ * negative length reports an error; it is followed by -length bytes of a UTF-8 message.
+ * {@link ExternalFnWorker} implements the worker side of the protocol.
+ *
+ * The pool size is set by the <code>poolSize</code> option of the function definition and
+ * defaults to the number of processors. A call that finds all workers busy waits at most
+ * <code>acquireTimeout</code> milliseconds (default {@value #DEFAULT_ACQUIRE_TIMEOUT}) for one
+ * to be released.
+ */
+public class ExternalProcessPool {
+
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 60000;
+
+    private static final BinaryFullSerializer SERIALIZER = BinaryFullSerializer.getDefault();
+    private static final JsonString CMD = new JsonString("cmd");
+    private static final JsonString POOL_SIZE = new JsonString("poolSize");
+    private static final JsonString ACQUIRE_TIMEOUT = new JsonString("acquireTimeout");
+
+    private static final HashMap<String, ExternalProcessPool> pools = new HashMap<String, ExternalProcessPool>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                closeAll();
+            }
+        });
+    }
+
+    /**
+     * Returns the pool of the function defined by rec.
+     */
+    public static ExternalProcessPool get(JsonRecord rec) throws IOException {
+        String key = JsonUtil.printToString(rec);
+        synchronized (pools) {
+            ExternalProcessPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ExternalProcessPool(rec);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Destroys the worker processes of all pools.
+     */
+    public static void closeAll() {
+        ArrayList<ExternalProcessPool> all;
+        synchronized (pools) {
+            all = new ArrayList<ExternalProcessPool>(pools.values());
+        }
+        for (ExternalProcessPool pool : all) {
+            pool.close();
+        }
+    }
+
+    private final JsonValue cmd;
+    private final int maxSize;
+    private final long acquireTimeout;
+    private final LinkedList<Worker> idle = new LinkedList<Worker>();
+    private int numProcesses = 0;
+
+    protected ExternalProcessPool(JsonRecord rec) {
+        this.cmd = rec.get(CMD);
+        JsonValue size = rec.get(POOL_SIZE);
+        this.maxSize = size == null ? Runtime.getRuntime().availableProcessors()
+                : ((JsonNumber) size).intValueExact();
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + maxSize);
+        }
+        JsonValue timeout = rec.get(ACQUIRE_TIMEOUT);
+        this.acquireTimeout = timeout == null ? DEFAULT_ACQUIRE_TIMEOUT
+                : ((JsonNumber) timeout).longValueExact();
+        if (acquireTimeout < 1) {
+            throw new IllegalArgumentException("acquireTimeout must be positive: " + acquireTimeout);
+        }
+    }
+
+    /**
+     * Returns the number of worker processes that are running, idle or not.
+     */
+    public synchronized int numProcesses() {
+        return numProcesses;
+    }
+
+    /**
+     * Returns an idle worker, starting a new one if none is idle. If the pool is full, waits
+     * until a worker is released, but at most for the acquire timeout.
+     */
+    public Worker acquire() throws Exception {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + acquireTimeout;
+            while (idle.isEmpty() && numProcesses >= maxSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("all " + maxSize + " workers of the external"
+                            + " function are still in use after " + acquireTimeout + " ms;"
+                            + " increase poolSize or acquireTimeout");
+                }
+                wait(remaining);
+            }
+            if (!idle.isEmpty()) {
+                return idle.removeFirst();
+            }
+            numProcesses++;
+        }
+        try {
+            return new Worker(processBuilder(cmd));
+        } catch (Exception e) {
+            synchronized (this) {
+                numProcesses--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a worker to the pool. A worker that is not reusable, e.g., because a call failed
+     * or was abandoned while requests were outstanding, is destroyed.
+     */
+    public synchronized void release(Worker worker, boolean reusable) {
+        if (reusable && worker.isAlive()) {
+            idle.addFirst(worker);
+        } else {
+            worker.destroy();
+            numProcesses--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Destroys the idle workers.
+     */
+    public synchronized void close() {
+        for (Worker worker : idle) {
+            worker.destroy();
+            numProcesses--;
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    /**
+     * Returns a process builder for the command of an external function.
+     */
+    static ProcessBuilder processBuilder(JsonValue cmd) {
+        ProcessBuilder pb = new ProcessBuilder();
+
+        if (cmd instanceof JsonString) {
+            String tmp = ((JsonString) cmd).toString();
+            String[] cmdArray = tmp.split(" ");
+            ArrayList<String> array = new ArrayList<String>();
+            for (String s : cmdArray) {
+                if (s.length() > 0)
+                    array.add(s.trim());
+            }
+            pb.command(array);
+        }
+
+        Configuration cfg = new Configuration();
+
+        File directory = new File(cfg.get("mapred.local.dir", "."));
+        pb.directory(directory);
+
+        // unset environment variables that jvm dump to stderr
+        pb.environment().remove("_JAVA_OPTIONS");
+        pb.environment().remove("JAVA_TOOL_OPTIONS");
+        return pb;
+    }
+
+    /**
+     * Writes value as one frame.
+     */
+    public static void writeFrame(DataOutputStream out, JsonValue value, DataOutputBuffer buf)
+            throws IOException {
+        buf.reset();
+        SERIALIZER.write(buf, value);
+        out.writeInt(buf.getLength());
+        out.write(buf.getData(), 0, buf.getLength());
+    }
+
+    /**
+     * Writes an error frame.
+     */
+    public static void writeError(DataOutputStream out, String message) throws IOException {
+        byte[] bytes = message.getBytes("UTF-8");
+        out.writeInt(-bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads one frame; raises an {@link ExternalFnException} for an error frame and an
+     * {@link java.io.EOFException} at the end of the stream.
+     */
+    public static JsonValue readFrame(DataInputStream in, DataInputBuffer buf, JsonValue target)
+            throws IOException {
+        int length = in.readInt();
+        int n = Math.abs(length);
+        byte[] bytes = buf.getData(); // reuse the buffer of the last frame
+        if (bytes == null || bytes.length < n) {
+            bytes = new byte[n];
+        }
+        in.readFully(bytes, 0, n);
+        if (length < 0) {
+            throw new ExternalFnException(new String(bytes, 0, n, "UTF-8"));
+        }
+        buf.reset(bytes, length);
+        return SERIALIZER.read(buf, target);
+    }
+
+    /**
+     * An error reported by a worker process.
+     */
+    public static class ExternalFnException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ExternalFnException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A running worker process.
+     */
+    public static class Worker {
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final DataOutputBuffer outbuf = new DataOutputBuffer();
+        private final DataInputBuffer inbuf = new DataInputBuffer();
+
+        Worker(ProcessBuilder pb) throws IOException {
+            process = pb.start();
+            Thread errorThread = new ErrorThread(process.getErrorStream());
+            errorThread.setDaemon(true);
+            errorThread.start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        /**
+         * Sends a batch of values to the worker.
+         */
+        public void send(JsonArray batch) throws IOException {
+            writeFrame(out, batch, outbuf);
+            out.flush();
+        }
+
+        /**
+         * Receives the outputs for the oldest outstanding batch.
+         */
+        public JsonArray receive(JsonValue target) throws IOException {
+            return (JsonArray) readFrame(in, inbuf, target);
+        }
+
+        boolean isAlive() {
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        void destroy() {
+            // destroy first: closing flushes, which blocks when the worker stopped reading
+            process.destroy();
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the process is gone
+            }
+        }
+    }
+
+    /**
+     * Copies the stderr of a worker process to our stderr.
+     */
+    private static class ErrorThread extends Thread {
+        private final InputStream is;
+
+        ErrorThread(InputStream is) {
+            this.is = is;
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = is.read(buffer)) >= 0) {
+                    System.err.write(buffer, 0, n);
+                }
+                System.err.flush();
+                is.close();
+            } catch (IOException e) {
+                // the process went away
+            }
+        }
+    }
+}
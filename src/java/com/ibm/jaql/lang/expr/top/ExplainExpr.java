@@ -15,6 +15,7 @@
  */
 package com.ibm.jaql.lang.expr.top;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -123,7 +124,7 @@ public class ExplainExpr extends EnvExpr
     }
     if( true )     // NOW: temporary hacking:
     {
-      String query = exprText.toString();
+      String query = describeJobs(exprs[0]) + exprText.toString();
       return new JsonString(query);
     }
     else
@@ -194,6 +195,127 @@ public class ExplainExpr extends EnvExpr
     }
   }
   
+  /**
+   * Describes the map/reduce jobs of expr in the order they run, one comment line per job:
+   * 
+   *   // job 1: mrAggregate(map, aggregate, final): hdfs 'in' -> temp
+   *   // job 2: mapReduce(map): job 1 -> hdfs 'out'
+   *   
+   * @return the description, or the empty string if expr does not run any job
+   */
+  public static String describeJobs(Expr expr)
+  {
+    ArrayList<MapReduceBaseExpr> jobs = new ArrayList<MapReduceBaseExpr>();
+    findJobs(expr, jobs);
+    StringBuilder sb = new StringBuilder();
+    for( int i = 0 ; i < jobs.size() ; i++ )
+    {
+      MapReduceBaseExpr job = jobs.get(i);
+      sb.append("// job ").append(i + 1).append(": ");
+      JsonString[] fns;
+      if( job instanceof MRAggregate )
+      {
+        sb.append("mrAggregate");
+        fns = new JsonString[]{ MapReduceFn.MAP_KEY, MRAggregate.AGGREGATE_KEY, MRAggregate.FINAL_KEY };
+      }
+      else if( job instanceof MapReduceFn )
+      {
+        sb.append("mapReduce");
+        fns = new JsonString[]{ MapReduceFn.MAP_KEY, MapReduceFn.COMBINE_KEY, MapReduceFn.REDUCE_KEY };
+      }
+      else
+      {
+        sb.append(job.getClass().getSimpleName());
+        fns = new JsonString[]{ MapReduceFn.MAP_KEY };
+      }
+      sb.append("(");
+      String sep = "";
+      for( JsonString fn: fns )
+      {
+        if( job.findArgument(fn) != null )
+        {
+          sb.append(sep).append(fn);
+          sep = ", ";
+        }
+      }
+      sb.append("): ");
+      sb.append(describeFd(job.findArgument(MapReduceFn.INPUT_KEY), jobs));
+      sb.append(" -> ");
+      sb.append(describeFd(job.findArgument(MapReduceFn.OUTPUT_KEY), jobs));
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+  
+  /** Adds the jobs of expr to jobs, inputs first. */
+  private static void findJobs(Expr expr, ArrayList<MapReduceBaseExpr> jobs)
+  {
+    for( Expr e: expr.children() )
+    {
+      findJobs(e, jobs);
+    }
+    if( expr instanceof MapReduceBaseExpr )
+    {
+      jobs.add((MapReduceBaseExpr)expr);
+    }
+  }
+  
+  /** Describes an input or output of a job. */
+  private static String describeFd(Expr fd, ArrayList<MapReduceBaseExpr> jobs)
+  {
+    while( fd instanceof VarExpr && ((VarExpr)fd).findVarDef() != null )
+    {
+      fd = ((VarExpr)fd).findVarDef().eqExpr();
+    }
+    int job = jobs.indexOf(fd);
+    if( job >= 0 )
+    {
+      return "job " + (job + 1);
+    }
+    if( fd instanceof HadoopTempExpr )
+    {
+      return "temp";
+    }
+    if( fd instanceof ArrayExpr )
+    {
+      StringBuilder sb = new StringBuilder("[");
+      String sep = "";
+      for( Expr e: fd.children() )
+      {
+        sb.append(sep).append(describeFd(e, jobs));
+        sep = ", ";
+      }
+      return sb.append("]").toString();
+    }
+    if( fd instanceof ConstExpr )
+    {
+      return describeFd(((ConstExpr)fd).value);
+    }
+    return fd == null ? "?" : fd.getClass().getSimpleName();
+  }
+  
+  /** Describes a constant file descriptor or an array of them. */
+  private static String describeFd(JsonValue fd)
+  {
+    if( fd instanceof JsonRecord )
+    {
+      JsonRecord rec = (JsonRecord)fd;
+      return rec.get(Adapter.TYPE_NAME) + " '" + rec.get(Adapter.LOCATION_NAME) + "'";
+    }
+    if( fd instanceof JsonArray )
+    {
+      StringBuilder sb = new StringBuilder("[");
+      String sep = "";
+      for( JsonValue v: (JsonArray)fd )
+      {
+        sb.append(sep).append(describeFd(v));
+        sep = ", ";
+      }
+      return sb.append("]").toString();
+    }
+    return String.valueOf(fd);
+  }
+
   protected void buildGraphAux(JsonString currentNodeId, Expr... exprs) throws Exception
   {
     for(Expr expr: exprs)
@@ -695,12 +695,15 @@ top[Expr in] returns [Expr r=null]
     { Expr n; Expr by=null; }
     : kwTop n=expr (by=sortCmp)?
       {
-        // TODO: add heap-based top operator
         if( by != null )
         {
-          in = new SortExpr(in, by);
+          // the sort only keeps the first n values, using a heap when n is small
+          r = new SortExpr(in, by, n);
+        }
+        else
+        {
+          r = new PathExpr(in, new PathArrayHead(new MathExpr(MathExpr.MINUS, n, new ConstExpr(JsonLong.ONE))));
         }
-        r = new PathExpr(in, new PathArrayHead(new MathExpr(MathExpr.MINUS, n, new ConstExpr(JsonLong.ONE))));
       }
     ;
     
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.rewrite;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import com.ibm.jaql.io.Adapter;
+import com.ibm.jaql.io.hadoop.ColumnarFormat;
+import com.ibm.jaql.io.hadoop.ColumnarPredicate;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.expr.core.BindingExpr;
+import com.ibm.jaql.lang.expr.core.CompareExpr;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.CopyField;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.FilterExpr;
+import com.ibm.jaql.lang.expr.core.ForExpr;
+import com.ibm.jaql.lang.expr.core.TransformExpr;
+import com.ibm.jaql.lang.expr.core.VarExpr;
+import com.ibm.jaql.lang.expr.io.ColumnarFn;
+import com.ibm.jaql.lang.expr.io.ReadFn;
+import com.ibm.jaql.lang.expr.path.PathExpr;
+import com.ibm.jaql.lang.expr.path.PathFieldValue;
+import com.ibm.jaql.lang.expr.path.PathReturn;
+
+/**
+ * Pushes field projections and filter predicates into reads of columnar files:
+ *
+ * read(columnar(...)) -> filter p1 -> ... -> filter pn -> transform/for e
+ *   where all uses of the values in p1..pn and e are constant field accesses $.f
+ * ==>
+ * read(columnar(..., { project: [f...], where: [{field, op, value}...] })) -> filter ... -> e
+ *
+ * The predicates are the conjuncts of the filters that compare a field with a constant. The
+ * filters stay in place: the reader only skips the row groups that cannot satisfy the predicates.
+ *
+ * The analysis is done here because the other rules have no result that could be reused.
+ * VarProjection replaces a field access on a variable that is bound to a record constructor by
+ * the field's expression, but it never collects the fields of an input that are used.
+ * FilterPushDown only moves filters down the tree; it does not describe the predicates in a form
+ * a reader can evaluate. This rule depends on it, though: it runs in a later phase and relies on
+ * FilterPushDown having moved the filters next to the read.
+ */
+public class ColumnarPushDown extends Rewrite
+{
+  /**
+   * @param phase
+   */
+  public ColumnarPushDown(RewritePhase phase)
+  {
+    super(phase, ReadFn.class);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see com.ibm.jaql.lang.rewrite.Rewrite#rewrite(com.ibm.jaql.lang.expr.core.Expr)
+   */
+  @Override
+  public boolean rewrite(Expr expr) throws Exception
+  {
+    ReadFn read = (ReadFn) expr;
+    if (!(read.child(0) instanceof ConstExpr))
+    {
+      return false;
+    }
+    ConstExpr descExpr = (ConstExpr) read.child(0);
+    if (!(descExpr.value instanceof JsonRecord))
+    {
+      return false;
+    }
+    JsonRecord desc = (JsonRecord) descExpr.value;
+    if (!ColumnarFn.TYPE.equals(desc.get(Adapter.TYPE_NAME)))
+    {
+      return false;
+    }
+
+    TreeSet<JsonString> fields = new TreeSet<JsonString>();
+    ArrayList<ColumnarPredicate> predicates = new ArrayList<ColumnarPredicate>();
+    if (!findUses(read, fields, predicates))
+    {
+      return false;
+    }
+
+    // build the new options
+    JsonString optionsName = desc.get(Adapter.INOPTIONS_NAME) != null
+        ? Adapter.INOPTIONS_NAME : Adapter.OPTIONS_NAME;
+    JsonRecord oldOptions = (JsonRecord) desc.get(optionsName);
+    BufferedJsonRecord options = new BufferedJsonRecord();
+    if (oldOptions != null)
+    {
+      options.setCopy(oldOptions);
+    }
+    BufferedJsonArray project = new BufferedJsonArray();
+    for (JsonString f : fields)
+    {
+      project.add(f);
+    }
+    options.set(ColumnarFormat.PROJECT_OPTION, project);
+    if (!predicates.isEmpty())
+    {
+      BufferedJsonArray where = new BufferedJsonArray();
+      for (ColumnarPredicate p : predicates)
+      {
+        where.add(p.toRecord());
+      }
+      options.set(ColumnarFormat.WHERE_OPTION, where);
+    }
+    else
+    {
+      options.remove(ColumnarFormat.WHERE_OPTION);
+    }
+    if (options.equals(oldOptions))
+    {
+      return false;
+    }
+
+    BufferedJsonRecord newDesc = new BufferedJsonRecord();
+    newDesc.setCopy(desc);
+    newDesc.set(optionsName, options);
+    descExpr.replaceInParent(new ConstExpr(newDesc));
+    return true;
+  }
+
+  /**
+   * Finds the fields and predicates on the values produced by expr, through a chain of filters
+   * that ends in a transform or for loop.
+   *
+   * @return false if the values are used in some other way
+   */
+  protected boolean findUses(Expr expr, TreeSet<JsonString> fields,
+      ArrayList<ColumnarPredicate> predicates)
+  {
+    if (!(expr.parent() instanceof BindingExpr))
+    {
+      return false;
+    }
+    BindingExpr b = (BindingExpr) expr.parent();
+    if (b.type != BindingExpr.Type.IN || b.var2 != null)
+    {
+      return false;
+    }
+    Expr op = b.parent();
+    Var v = b.var;
+    if (op instanceof FilterExpr && ((FilterExpr) op).binding() == b)
+    {
+      FilterExpr filter = (FilterExpr) op;
+      for (int i = 0; i < filter.conjunctivePred_count(); i++)
+      {
+        Expr pred = filter.conjunctivePred(i);
+        if (!findFields(pred, v, fields))
+        {
+          return false;
+        }
+        ColumnarPredicate p = toPredicate(pred, v);
+        if (p != null)
+        {
+          predicates.add(p);
+        }
+      }
+      return findUses(filter, fields, predicates);
+    }
+    else if (op instanceof TransformExpr && ((TransformExpr) op).binding() == b)
+    {
+      return findFields(((TransformExpr) op).projection(), v, fields);
+    }
+    else if (op instanceof ForExpr && ((ForExpr) op).binding() == b)
+    {
+      return findFields(((ForExpr) op).collectExpr(), v, fields);
+    }
+    return false;
+  }
+
+  /**
+   * Adds the fields of v used in expr.
+   *
+   * @return false if v is used other than by a constant field access
+   */
+  protected boolean findFields(Expr expr, Var v, TreeSet<JsonString> fields)
+  {
+    if (expr instanceof VarExpr && ((VarExpr) expr).var() == v)
+    {
+      JsonString f = accessedField(expr);
+      if (f == null)
+      {
+        return false;
+      }
+      fields.add(f);
+      return true;
+    }
+    for (int i = 0; i < expr.numChildren(); i++)
+    {
+      if (!findFields(expr.child(i), v, fields))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the field if the variable reference is the input of a constant field access, and
+   * null otherwise.
+   */
+  protected JsonString accessedField(Expr varExpr)
+  {
+    Expr parent = varExpr.parent();
+    Expr name = null;
+    if (parent instanceof PathExpr && ((PathExpr) parent).input() == varExpr
+        && ((PathExpr) parent).firstStep() instanceof PathFieldValue)
+    {
+      name = ((PathFieldValue) ((PathExpr) parent).firstStep()).nameExpr();
+    }
+    else if (parent instanceof CopyField && ((CopyField) parent).recExpr() == varExpr)
+    {
+      name = ((CopyField) parent).nameExpr();
+    }
+    if (name instanceof ConstExpr && ((ConstExpr) name).value instanceof JsonString)
+    {
+      return (JsonString) ((ConstExpr) name).value;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the predicate if pred compares a field of v with a non-null constant, and null
+   * otherwise.
+   */
+  protected ColumnarPredicate toPredicate(Expr pred, Var v)
+  {
+    if (!(pred instanceof CompareExpr))
+    {
+      return null;
+    }
+    CompareExpr cmp = (CompareExpr) pred;
+    int op = cmp.op();
+    Expr field = cmp.child(0);
+    Expr value = cmp.child(1);
+    if (field instanceof ConstExpr)
+    {
+      // c op $.f ==> $.f op' c
+      Expr e = field;
+      field = value;
+      value = e;
+      switch (op)
+      {
+        case CompareExpr.LT : op = CompareExpr.GT; break;
+        case CompareExpr.LE : op = CompareExpr.GE; break;
+        case CompareExpr.GT : op = CompareExpr.LT; break;
+        case CompareExpr.GE : op = CompareExpr.LE; break;
+      }
+    }
+    if (op == CompareExpr.NE || !(value instanceof ConstExpr) || !(field instanceof PathExpr))
+    {
+      return null;
+    }
+    JsonValue c = ((ConstExpr) value).value;
+    PathExpr path = (PathExpr) field;
+    if (c == null || !(path.input() instanceof VarExpr) || ((VarExpr) path.input()).var() != v
+        || !(path.firstStep() instanceof PathFieldValue)
+        || !(((PathFieldValue) path.firstStep()).nextStep() instanceof PathReturn))
+    {
+      return null;
+    }
+    JsonString f = accessedField(path.input());
+    return f == null ? null : new ColumnarPredicate(f, op, c);
+  }
+}
@@ -531,7 +531,7 @@ public class FilterPushDown extends Rewrite
 		  return filterGroupbyRewrite(fe);
 	  else if (filter_input.inExpr() instanceof ForExpr)
 		  return filterExpandRewrite(fe);
-	  else if (filter_input.inExpr() instanceof SortExpr)
+	  else if (filter_input.inExpr() instanceof SortExpr && ((SortExpr) filter_input.inExpr()).limitExpr() == null)
 	  {
 		  ArrayList<Integer> child_ids = new ArrayList<Integer>();
 		  child_ids.add(0);
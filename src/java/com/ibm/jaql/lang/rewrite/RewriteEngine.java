@@ -34,6 +34,7 @@ public class RewriteEngine
   protected RewritePhase[] phases      = new RewritePhase[7];
   protected boolean        traceFire   = false;
   protected boolean        explainFire = false;                    // traceFire must true for this to matter
+  protected RewriteStats   stats       = null;                     // null if not collected
   protected long           counter     = 0;
 
   // These are work areas for use by rewrites.
@@ -62,12 +63,15 @@ public class RewriteEngine
         traceFire = explainFire = true;
       }
     }
+    if (Boolean.getBoolean("jaql.rewrite.stats"))
+    {
+      stats = new RewriteStats();
+    }
 
-    ExprWalker postOrderWalker = new PostOrderExprWalker();
     // ExprWalker rootWalker = new OneExprWalker();
 
     //------------------------------------------------------------------------------------
-    RewritePhase phase = phases[phaseId] = new RewritePhase(this, postOrderWalker, 10000);
+    RewritePhase phase = phases[phaseId] = new RewritePhase(this, 10000);
     new LetInline(phase);
     new DoMerge(phase);
     new DoPullup(phase);
@@ -113,7 +117,7 @@ public class RewriteEngine
     //---end:tee---
     
     //------------------------------------------------------------------------------
-    phase = phases[++phaseId] = new RewritePhase(this, postOrderWalker, 10000);
+    phase = phases[++phaseId] = new RewritePhase(this, 10000);
     new LetInline(phase);
     new DoMerge(phase);
     new DoPullup(phase);
@@ -142,7 +146,7 @@ public class RewriteEngine
     //----end;tee------
 
     //------------------------------------------------------------------------------
-    RewritePhase basicPhase = new RewritePhase(this, postOrderWalker, 10000);
+    RewritePhase basicPhase = new RewritePhase(this, 10000);
     phase = phases[++phaseId] = basicPhase;
     new LetInline(phase);
     new DoMerge(phase);
@@ -153,6 +157,7 @@ public class RewriteEngine
     new TrivialForElimination(phase);
     new TrivialTransformElimination(phase);
     new TransformMerge(phase);
+    new SortTopMerge(phase);
     new ForToLet(phase);
     new AsArrayElimination(phase);
     // new GlobalInline(phase);
@@ -175,6 +180,7 @@ public class RewriteEngine
     new SimplifyUnion(phase);
     new UnionToComposite(phase);
     new VarProjection(phase);
+    new ColumnarPushDown(phase);
     new ImproveRecordConstruction(phase);
     new SimplifyRecord(phase);
     new UnnestFor(phase);
@@ -193,7 +199,7 @@ public class RewriteEngine
 
     
     //------------------------------------------------------------------------------
-    phase = phases[++phaseId] = new RewritePhase(this, postOrderWalker, 10000);
+    phase = phases[++phaseId] = new RewritePhase(this, 10000);
     // new GroupToMapReduce(phase);
     new JoinToCogroup(phase);
     // new TempSharedVariable(phase);
@@ -204,14 +210,14 @@ public class RewriteEngine
 
 //    // TODO: put ConstEval in basicPhase? it is somewhat expensive because it 
 //    // tested on every expr and the test can walk a lot of the tree...
-//    phase = phases[++phaseId] = new RewritePhase(this, postOrderWalker, 1000);
+//    phase = phases[++phaseId] = new RewritePhase(this, 1000);
 //    new ConstEval(phase); // TODO: run bottom-up/post-order
 //    new LetInline(phase); // ConstEval opens more LetInline chances, which opens more ConstEval   
 //    //new ConstFunction(phase);
 
     //------------------------------------------------------------------------------
     // phase = phases[++phaseId] = new RewritePhase(this, rootWalker, 1);
-    phase = phases[++phaseId] = new RewritePhase(this, postOrderWalker, 1000);
+    phase = phases[++phaseId] = new RewritePhase(this, 1000);
     new ToMapReduce(phase);
     new WriteAssignment(phase);
     new LetInline(phase);
@@ -220,7 +226,7 @@ public class RewriteEngine
     new UnionToComposite(phase);
 
     //------------------------------------------------------------------------------
-    phase = phases[++phaseId] = new RewritePhase(this, postOrderWalker, 10000);
+    phase = phases[++phaseId] = new RewritePhase(this, 10000);
     new GroupElimination(phase);
     new PerPartitionElimination(phase);
     new PragmaElimination(phase);
@@ -253,6 +259,7 @@ public class RewriteEngine
     {
       throw new IllegalArgumentException("expression tree does not have an environment");
     }
+    long startTime = stats != null ? System.nanoTime() : 0;
     // We always run getSchema at the top to get variable schemas set.  There should be a better way...
     Schema schema = stmt.getSchema();
     if( traceFire )
@@ -271,9 +278,40 @@ public class RewriteEngine
       System.err.print("end ");
       System.err.println(schema);
     }
+    if (stats != null)
+    {
+      stats.ran(System.nanoTime() - startTime);
+    }
     return stmt;
   }
 
+  /**
+   * Turn on and off the collection of rewrite statistics. Statistics are collected from the 
+   * start when the system property <code>jaql.rewrite.stats</code> is true.
+   * 
+   * @param collect
+   */
+  public void collectStats(boolean collect)
+  {
+    if (!collect)
+    {
+      stats = null;
+    }
+    else if (stats == null)
+    {
+      stats = new RewriteStats();
+    }
+  }
+
+  /**
+   * @return the statistics collected over all runs of this engine, or null if statistics are not
+   *         collected
+   */
+  public RewriteStats getStats()
+  {
+    return stats;
+  }
+
   /**
    * @return a unique number for this run of the engine
    */
@@ -18,31 +18,40 @@ package com.ibm.jaql.lang.rewrite;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.jaql.lang.core.Var;
 import com.ibm.jaql.lang.expr.core.Expr;
-import com.ibm.jaql.lang.walk.ExprWalker;
+import com.ibm.jaql.lang.walk.ChangedExprWalker;
 import com.ibm.jaql.util.FastPrintBuffer;
 
 /**
+ * A set of rules that is fired until no rule applies anymore (or maxFire rules fired).
  * 
+ * The rules that apply to a concrete expression class are looked up once and kept in a dispatch
+ * table. Each expression on which no rule fired is stamped with the stamp of the current pass;
+ * after a rule fired, only the subtrees that have been modified since are walked again (see
+ * {@link Expr#getRewriteStamp()}). Because a rule may depend on more than the subtree it fires
+ * on, the fixpoint is confirmed by a final walk over the entire tree.
  */
 public class RewritePhase
 {
+  private static final Rewrite[]                            NO_RULES = new Rewrite[0];
+  private static final AtomicInteger                        stamps   = new AtomicInteger();
+
   public RewriteEngine                                      engine;
-  public ExprWalker                                         walker;
   public int                                                maxFire = 0;
   public HashMap<Class<? extends Expr>, ArrayList<Rewrite>> rules   = new HashMap<Class<? extends Expr>, ArrayList<Rewrite>>();
+  protected HashMap<Class<?>, Rewrite[]>                    dispatch = new HashMap<Class<?>, Rewrite[]>();
+  protected ChangedExprWalker                               walker  = new ChangedExprWalker();
 
   /**
    * @param engine
-   * @param walker
    * @param maxFire
    */
-  public RewritePhase(RewriteEngine engine, ExprWalker walker, int maxFire)
+  public RewritePhase(RewriteEngine engine, int maxFire)
   {
     this.engine = engine;
-    this.walker = walker;
     this.maxFire = maxFire;
   }
 
@@ -59,6 +68,7 @@ public class RewritePhase
       rules.put(fireOn, rs);
     }
     rs.add(r);
+    dispatch.clear();
   }
 
   /**
@@ -73,6 +83,45 @@ public class RewritePhase
     }
   }
 
+  /**
+   * Returns the rules to try on an expression of the given class: the rules registered for the
+   * class itself, followed by the ones of its superclasses.
+   * 
+   * @param exprClass
+   */
+  protected Rewrite[] rulesFor(Class<?> exprClass)
+  {
+    Rewrite[] rs = dispatch.get(exprClass);
+    if (rs == null)
+    {
+      ArrayList<Rewrite> all = new ArrayList<Rewrite>();
+      for (Class<?> c = exprClass; c != Object.class; c = c.getSuperclass())
+      {
+        ArrayList<Rewrite> myRules = rules.get(c);
+        if (myRules != null)
+        {
+          all.addAll(myRules);
+        }
+      }
+      rs = all.isEmpty() ? NO_RULES : all.toArray(new Rewrite[all.size()]);
+      dispatch.put(exprClass, rs);
+    }
+    return rs;
+  }
+
+  /**
+   * Returns a new stamp for a pass over the tree; never 0.
+   */
+  protected static int nextStamp()
+  {
+    int stamp;
+    do
+    {
+      stamp = stamps.incrementAndGet();
+    } while (stamp == 0);
+    return stamp;
+  }
+
   /**
    * Returns true if the tree is valid.  Raises an exception otherwise.
    * @param expr
@@ -104,71 +153,91 @@ public class RewritePhase
       return;
     }
     int fireCount = 0;
-    HashMap<Class<? extends Expr>, ArrayList<Rewrite>> rules = this.rules;
-    ExprWalker walker = this.walker;
-    walker.reset(start);
-    Expr expr;
+    ChangedExprWalker walker = this.walker;
+    final RewriteStats stats = engine.stats;
     final boolean traceFire = engine.traceFire;
-    final boolean traceTryRule = false; // engine.traceTryRule;
-    final boolean tracing = traceFire || traceTryRule;
+    final boolean timing = stats != null || traceFire;
     long numTried = 0;
     long lastFired = System.nanoTime();
-    walking : while ((expr = walker.next()) != null)
+    int stamp = nextStamp();
+    boolean fullWalk = true;
+    walker.reset(start, stamp);
+    if (stats != null)
     {
-      for (Class<?> exprClass = expr.getClass(); exprClass != Object.class; exprClass = exprClass
-          .getSuperclass())
+      stats.walked();
+    }
+    Expr expr;
+    walking : while (true)
+    {
+      expr = walker.next();
+      if (expr == null)
       {
-        ArrayList<Rewrite> myRules = rules.get(exprClass);
-        if (myRules != null)
+        if (fullWalk)
+        {
+          return;
+        }
+        // confirm the fixpoint on the entire tree
+        stamp = nextStamp();
+        fullWalk = true;
+        walker.reset(start, stamp);
+        if (stats != null)
+        {
+          stats.walked();
+        }
+        continue;
+      }
+      Rewrite[] myRules = rulesFor(expr.getClass());
+      for (int i = 0; i < myRules.length; i++)
+      {
+        Rewrite r = myRules[i];
+        long startTime = timing ? System.nanoTime() : 0;
+        boolean fired = r.rewrite(expr);
+        long now = timing ? System.nanoTime() : 0;
+        if (stats != null)
+        {
+          stats.tried(r, fired, now - startTime);
+        }
+        if (!fired)
         {
-          int n = myRules.size();
-          for (int i = 0; i < n; i++)
+          numTried++;
+        }
+        else
+        {
+          if (traceFire)
           {
-            Rewrite r = myRules.get(i);
-            long startTime = tracing ? System.nanoTime() : 0;
-            if (r.rewrite(expr))
+            System.err.println("{ type:'skip', numTried:"+numTried+", nanos:"+(now-lastFired)+" },");
+            System.err.println("{ type:'fired', rule:'" + r.getClass().getSimpleName() + "', nanos:"+(now-startTime)+" },");
+            if (engine.explainFire)
             {
-              if (traceFire)
-              {
-                long now = System.nanoTime();
-                if( true /*!traceTryRule*/ )
-                {
-                  System.err.println("{ type:'skip', numTried:"+numTried+", nanos:"+(now-lastFired)+" },");
-                }
-                System.err.println("{ type:'fired', rule:'" + r.getClass().getSimpleName() + "', nanos:"+(now-startTime)+" },");
-                if (engine.explainFire)
-                {
-                  System.err.println();
-//                  VarTagger.tag(start);
-                  FastPrintBuffer exprText = new FastPrintBuffer();
-                  start.decompile(exprText, new HashSet<Var>());
-                  System.err.println(exprText.toString());
-                  System.err.println();
-                }
-                System.err.flush();
-                lastFired = now;
-                numTried = 0;
-              }
-              assert validateTree(start);
-              if (++fireCount >= maxFire)
-              {
-                return;
-              }
-              walker.reset();
-              continue walking;
-            }
-            else 
-            {
-              numTried++;
-              if( traceTryRule )
-              {
-                long now = System.nanoTime();
-                System.err.println("{ type:'tried', rule:'" + r.getClass().getSimpleName() + "', nanos:"+(now-startTime)+" },");
-              }
+              System.err.println();
+              FastPrintBuffer exprText = new FastPrintBuffer();
+              start.decompile(exprText, new HashSet<Var>());
+              System.err.println(exprText.toString());
+              System.err.println();
             }
+            System.err.flush();
+            lastFired = now;
+            numTried = 0;
+          }
+          assert validateTree(start);
+          if (++fireCount >= maxFire)
+          {
+            return;
+          }
+          fullWalk = false;
+          walker.reset(start, stamp);
+          if (stats != null)
+          {
+            stats.walked();
           }
+          continue walking;
         }
       }
+      if (stats != null)
+      {
+        stats.visited();
+      }
+      expr.setRewriteStamp(stamp);
     }
   }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.rewrite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+
+/**
+ * Statistics collected by a {@link RewriteEngine}: how often each rule has been tried and fired
+ * and how much time it took, as well as totals over all runs of the engine. Rules are identified
+ * by their class; the statistics of a rule that is used in several phases are summed up.
+ */
+public class RewriteStats
+{
+  public static final JsonString RUNS_NAME        = new JsonString("runs");
+  public static final JsonString PASSES_NAME      = new JsonString("passes");
+  public static final JsonString VISITED_NAME     = new JsonString("visited");
+  public static final JsonString NANOS_NAME       = new JsonString("nanos");
+  public static final JsonString RULES_NAME       = new JsonString("rules");
+  public static final JsonString RULE_NAME        = new JsonString("rule");
+  public static final JsonString TRIED_NAME       = new JsonString("tried");
+  public static final JsonString FIRED_NAME       = new JsonString("fired");
+  public static final JsonString TRIED_NANOS_NAME = new JsonString("triedNanos");
+  public static final JsonString FIRED_NANOS_NAME = new JsonString("firedNanos");
+
+  /** Statistics of a single rule. The counts and times of tries include the ones that fired. */
+  public static class RuleStats
+  {
+    public final String rule;
+    public long         numTried;
+    public long         numFired;
+    public long         triedNanos;
+    public long         firedNanos;
+
+    RuleStats(String rule)
+    {
+      this.rule = rule;
+    }
+
+    public JsonRecord toJson()
+    {
+      BufferedJsonRecord r = new BufferedJsonRecord(5);
+      r.add(RULE_NAME, new JsonString(rule));
+      r.add(TRIED_NAME, new JsonLong(numTried));
+      r.add(FIRED_NAME, new JsonLong(numFired));
+      r.add(TRIED_NANOS_NAME, new JsonLong(triedNanos));
+      r.add(FIRED_NANOS_NAME, new JsonLong(firedNanos));
+      return r;
+    }
+  }
+
+  protected final LinkedHashMap<Class<?>, RuleStats> rules = new LinkedHashMap<Class<?>, RuleStats>();
+  protected long numRuns;
+  protected long numPasses;
+  protected long numVisited;
+  protected long nanos;
+
+  /** Record one try of the given rule. */
+  public void tried(Rewrite rule, boolean fired, long nanos)
+  {
+    Class<?> c = rule.getClass();
+    RuleStats s = rules.get(c);
+    if (s == null)
+    {
+      s = new RuleStats(c.getSimpleName());
+      rules.put(c, s);
+    }
+    s.numTried++;
+    s.triedNanos += nanos;
+    if (fired)
+    {
+      s.numFired++;
+      s.firedNanos += nanos;
+    }
+  }
+
+  /** Record one walk over (parts of) the expression tree. */
+  public void walked()
+  {
+    numPasses++;
+  }
+
+  /** Record that all rules have been tried on an expression. */
+  public void visited()
+  {
+    numVisited++;
+  }
+
+  /** Record one run of the engine. */
+  public void ran(long nanos)
+  {
+    numRuns++;
+    this.nanos += nanos;
+  }
+
+  public long getNumRuns()
+  {
+    return numRuns;
+  }
+
+  public long getNumPasses()
+  {
+    return numPasses;
+  }
+
+  public long getNumVisited()
+  {
+    return numVisited;
+  }
+
+  public long getNanos()
+  {
+    return nanos;
+  }
+
+  /** Returns the statistics of all rules that have been tried, in the order of first use. */
+  public Collection<RuleStats> getRuleStats()
+  {
+    return Collections.unmodifiableCollection(rules.values());
+  }
+
+  public void reset()
+  {
+    rules.clear();
+    numRuns = numPasses = numVisited = nanos = 0;
+  }
+
+  /**
+   * Returns the statistics as a record <code>{ runs, passes, visited, nanos, rules: [...] }</code>,
+   * with the rules ordered by the time spent in them.
+   */
+  public JsonRecord toJson()
+  {
+    ArrayList<RuleStats> sorted = new ArrayList<RuleStats>(rules.values());
+    Collections.sort(sorted, new Comparator<RuleStats>() {
+      public int compare(RuleStats a, RuleStats b)
+      {
+        return a.triedNanos > b.triedNanos ? -1 : a.triedNanos < b.triedNanos ? 1 : 0;
+      }
+    });
+    BufferedJsonArray arr = new BufferedJsonArray(sorted.size());
+    for (int i = 0; i < sorted.size(); i++)
+    {
+      arr.set(i, sorted.get(i).toJson());
+    }
+    BufferedJsonRecord r = new BufferedJsonRecord(5);
+    r.add(RUNS_NAME, new JsonLong(numRuns));
+    r.add(PASSES_NAME, new JsonLong(numPasses));
+    r.add(VISITED_NAME, new JsonLong(numVisited));
+    r.add(NANOS_NAME, new JsonLong(nanos));
+    r.add(RULES_NAME, arr);
+    return r;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.rewrite;
+
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.expr.array.SliceFn;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.SortExpr;
+
+/**
+ * e1 -> sort using cmp -> slice(e2, n)
+ *    where n is a constant
+ *
+ *   e1 -> top (n+1) using cmp -> slice(e2, n)
+ *
+ * This catches <code>sort ... -> top n</code> and head paths like <code>[*:n]</code> on a
+ * sort, which are rewritten to slice. The limited sort selects its values with a heap when
+ * the limit is small.
+ */
+public class SortTopMerge extends Rewrite
+{
+  /**
+   * @param phase
+   */
+  public SortTopMerge(RewritePhase phase)
+  {
+    super(phase, SliceFn.class);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see com.ibm.jaql.lang.rewrite.Rewrite#rewrite(com.ibm.jaql.lang.expr.core.Expr)
+   */
+  @Override
+  public boolean rewrite(Expr expr)
+  {
+    SliceFn slice = (SliceFn) expr;
+    if( !(slice.child(0) instanceof SortExpr) )
+    {
+      return false;
+    }
+    SortExpr sort = (SortExpr) slice.child(0);
+    if( sort.limitExpr() != null )
+    {
+      return false;
+    }
+
+    Expr high = slice.child(2);
+    if( !(high instanceof ConstExpr) )
+    {
+      return false;
+    }
+    JsonValue n = ((ConstExpr) high).value;
+    if( !(n instanceof JsonLong) || ((JsonLong) n).get() == Long.MAX_VALUE )
+    {
+      return false;
+    }
+
+    // The slice stays on top; it still handles the low index and a null input.
+    Expr limit = new ConstExpr(new JsonLong(((JsonLong) n).get() + 1));
+    sort.replaceInParent(new SortExpr(sort.inputExpr(), sort.cmpExpr(), limit));
+    return true;
+  }
+}
@@ -26,6 +26,7 @@ import com.ibm.jaql.json.type.JsonSchema;
 import com.ibm.jaql.json.type.JsonString;
 import com.ibm.jaql.lang.core.Env;
 import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.core.VarMap;
 import com.ibm.jaql.lang.expr.agg.AlgebraicAggregate;
 import com.ibm.jaql.lang.expr.array.DeemptyFn;
 import com.ibm.jaql.lang.expr.core.AggregateFullExpr;
@@ -36,12 +37,16 @@ import com.ibm.jaql.lang.expr.core.DoExpr;
 import com.ibm.jaql.lang.expr.core.Expr;
 import com.ibm.jaql.lang.expr.core.ForExpr;
 import com.ibm.jaql.lang.expr.core.GroupByExpr;
+import com.ibm.jaql.lang.expr.core.IndexExpr;
 import com.ibm.jaql.lang.expr.core.NameValueBinding;
 import com.ibm.jaql.lang.expr.core.RecordExpr;
+import com.ibm.jaql.lang.expr.core.SortExpr;
 import com.ibm.jaql.lang.expr.core.TransformExpr;
 import com.ibm.jaql.lang.expr.core.VarExpr;
 import com.ibm.jaql.lang.expr.function.DefineJaqlFunctionExpr;
+import com.ibm.jaql.lang.expr.function.FunctionCallExpr;
 import com.ibm.jaql.lang.expr.hadoop.MRAggregate;
+import com.ibm.jaql.lang.expr.hadoop.MapReduceBaseExpr;
 import com.ibm.jaql.lang.expr.hadoop.MapReduceFn;
 import com.ibm.jaql.lang.expr.io.HadoopTempExpr;
 import com.ibm.jaql.lang.expr.io.ReadFn;
@@ -630,9 +635,218 @@ public class ToMapReduce extends Rewrite
     modified = false;
     Segment seg = segment(expr);
     visit(seg);
+    while (fuseJobs(expr))
+    {
+      modified = true;
+    }
     return modified;
   }
 
+  /**
+   * Fuses the map/reduce jobs that only pass data through a temp, so that the temp is not 
+   * written:
+   * 
+   *   mapReduce({ input: mapReduce({ input: I, output: temp, map: m1 }), output: O, map: m2, ... })
+   *     => mapReduce({ input: I, output: O, map: fn($in) m2(m1($in) -> transform $[1]), ... })
+   *     
+   *   mapReduce({ input: mapReduce({ ..., output: temp, reduce: r }), output: O, map: m })
+   *     => mapReduce({ ..., output: O, reduce: fn(...) m(r(...)) -> transform $[1] })
+   * 
+   * The second rule also folds a map into the final function of an mrAggregate. A map 
+   * function is only moved if it maps each value on its own, because it sees other partitions 
+   * of its input afterwards.
+   * 
+   * @param expr
+   * @return true if a job was fused
+   */
+  private boolean fuseJobs(Expr expr)
+  {
+    boolean fused = false;
+    for (int i = 0; i < expr.numChildren(); i++)
+    {
+      fused |= fuseJobs(expr.child(i));
+    }
+    if (expr instanceof MapReduceFn || expr instanceof MRAggregate)
+    {
+      fused |= fuseInput((MapReduceBaseExpr) expr);
+    }
+    return fused;
+  }
+
+  /**
+   * Fuses the consumer with the job that produces its input, if possible.
+   * 
+   * @param consumer
+   * @return
+   */
+  private boolean fuseInput(MapReduceBaseExpr consumer)
+  {
+    Expr input = consumer.findArgument(MapReduceBaseExpr.INPUT_KEY);
+    BindingExpr bind = null;
+    if (input instanceof VarExpr)
+    {
+      bind = producerBinding(consumer, (VarExpr) input);
+      if (bind == null)
+      {
+        return false;
+      }
+      input = bind.eqExpr();
+    }
+    if (!(consumer.child(0) instanceof RecordExpr)
+        || !(input instanceof MapReduceFn || input instanceof MRAggregate)
+        || !(input.child(0) instanceof RecordExpr))
+    {
+      return false;
+    }
+    MapReduceBaseExpr producer = (MapReduceBaseExpr) input;
+    if (!(producer.findArgument(MapReduceBaseExpr.OUTPUT_KEY) instanceof HadoopTempExpr)
+        || !hasDefaultOptions(producer) || !hasDefaultOptions(consumer))
+    {
+      return false;
+    }
+    Expr pmap = producer.findArgument(MapReduceBaseExpr.MAP_KEY);
+    Expr cmap = consumer.findArgument(MapReduceBaseExpr.MAP_KEY);
+    if (!(pmap instanceof DefineJaqlFunctionExpr) || !isPerValue(cmap))
+    {
+      return false;
+    }
+    Expr producerLast = lastFunction(producer);
+    if (producerLast != null && 
+        (lastFunction(consumer) != null || !(producerLast instanceof DefineJaqlFunctionExpr)))
+    {
+      return false;
+    }
+
+    if (bind != null)
+    {
+      // move the producer from its binding to the input of the consumer
+      bind.parent().removeChild(bind.getChildSlot());
+      replaceArgument(consumer, MapReduceBaseExpr.INPUT_KEY, producer);
+    }
+
+    if (producerLast == null)
+    {
+      // map-only producer: run its map in front of the consumer's map
+      Var in = engine.env.makeVar("$in");
+      Expr body = new FunctionCallExpr(detach(cmap), 
+          values(new FunctionCallExpr(detach(pmap), new VarExpr(in))));
+      replaceArgument(consumer, MapReduceBaseExpr.MAP_KEY, 
+          new DefineJaqlFunctionExpr(new Var[]{ in }, body));
+      replaceArgument(consumer, MapReduceBaseExpr.INPUT_KEY,
+          detach(producer.findArgument(MapReduceBaseExpr.INPUT_KEY)));
+      return true;
+    }
+    // map-only consumer: run its map at the end of the producer's reduce or final function
+    DefineJaqlFunctionExpr fn = (DefineJaqlFunctionExpr) producerLast;
+    fn.setBody(values(new FunctionCallExpr(detach(cmap), detach(fn.body()))));
+    replaceArgument(producer, MapReduceBaseExpr.OUTPUT_KEY, 
+        detach(consumer.findArgument(MapReduceBaseExpr.OUTPUT_KEY)));
+    consumer.replaceInParent(detach(producer));
+    return true;
+  }
+
+  /**
+   * Returns the binding of the input variable of consumer if it is bound to a job by the 
+   * statement right before the consumer in a do block, and the consumer is its only use.
+   */
+  private static BindingExpr producerBinding(MapReduceBaseExpr consumer, VarExpr input)
+  {
+    BindingExpr bind = input.findVarDef();
+    if (bind == null || !(bind.parent() instanceof DoExpr))
+    {
+      return null;
+    }
+    Expr stmt = consumer;
+    while (stmt.parent() != bind.parent())
+    {
+      stmt = stmt.parent();
+      if (stmt == null)
+      {
+        return null;
+      }
+    }
+    ArrayList<Expr> uses = new ArrayList<Expr>();
+    bind.parent().getVarUses(bind.var, uses);
+    if (stmt.getChildSlot() != bind.getChildSlot() + 1 || uses.size() != 1)
+    {
+      return null;
+    }
+    return bind;
+  }
+
+  /** Returns the reduce or final function of a job, or null for a map-only job. */
+  private static Expr lastFunction(MapReduceBaseExpr job)
+  {
+    if (job instanceof MRAggregate)
+    {
+      return job.findArgument(MRAggregate.FINAL_KEY);
+    }
+    return job.findArgument(MapReduceFn.REDUCE_KEY);
+  }
+
+  /** Replaces the value of an argument of job by value. */
+  private static void replaceArgument(MapReduceBaseExpr job, JsonString name, Expr value)
+  {
+    job.findArgument(name).replaceInParent(value);
+  }
+
+  /** Replaces expr in its parent by a placeholder and returns expr. */
+  private static Expr detach(Expr expr)
+  {
+    expr.replaceInParent(new ConstExpr(null));
+    return expr;
+  }
+
+  private static boolean hasDefaultOptions(MapReduceBaseExpr job)
+  {
+    Expr options = job.findArgument(MapReduceFn.OPTIONS_KEY);
+    return options == null || (options instanceof ConstExpr && ((ConstExpr) options).value == null);
+  }
+
+  /** pairs -> transform $[1] */
+  private Expr values(Expr pairs)
+  {
+    Var pair = engine.env.makeVar("$");
+    return new TransformExpr(pair, pairs, 
+        new IndexExpr(new VarExpr(pair), new ConstExpr(JsonLong.ONE)));
+  }
+
+  /**
+   * Is fn a function of one array whose result can be computed from any partition of its
+   * argument, like <code>fn($in) $in -> transform ... -> filter ...</code>?
+   */
+  private static boolean isPerValue(Expr fn)
+  {
+    if (!(fn instanceof DefineJaqlFunctionExpr) || ((DefineJaqlFunctionExpr) fn).numParams() != 1)
+    {
+      return false;
+    }
+    Var in = ((DefineJaqlFunctionExpr) fn).varOf(0);
+    Expr expr = ((DefineJaqlFunctionExpr) fn).body();
+    ArrayList<Expr> uses = new ArrayList<Expr>();
+    while (!(expr instanceof VarExpr && ((VarExpr) expr).var() == in))
+    {
+      if (!expr.isMappable(0))
+      {
+        return false;
+      }
+      for (int i = 1; i < expr.numChildren(); i++)
+      {
+        expr.child(i).getVarUses(in, uses);
+        if (!uses.isEmpty())
+        {
+          return false;
+        }
+      }
+      expr = expr.child(0);
+      if (expr instanceof BindingExpr)
+      {
+        expr = expr.child(0);
+      }
+    }
+    return true;
+  }
+
   /**
    * @param expr
    * @return
@@ -779,6 +993,10 @@ public class ToMapReduce extends Rewrite
       seg.primaryExpr = expr;
       // FIXME: dig into input/output expressions
     }
+    else if (expr instanceof SortExpr && ((SortExpr) expr).limitExpr() instanceof ConstExpr)
+    {
+      seg = segmentTop((SortExpr) expr);
+    }
     else if (expr instanceof DenullFn || expr instanceof DeemptyFn)
     {
       seg = segment(expr.child(0));
@@ -806,6 +1024,57 @@ public class ToMapReduce extends Rewrite
     return seg;
   }
 
+  /**
+   * e -> top k using cmp
+   *    where e is a map segment
+   *    
+   *   e -> top k using cmp -> top k using cmp
+   *   
+   * The inner top k joins the map segment, so each map task only outputs its first k values,
+   * and the outer top k merges them locally.
+   * 
+   * @param sort
+   * @return
+   */
+  protected Segment segmentTop(SortExpr sort)
+  {
+    Segment s = segment(sort.inputExpr());
+    if (s.type == Segment.Type.MAP && !readsJobOutput((ReadFn) s.primaryExpr))
+    {
+      SortExpr partial = new SortExpr(s.root, 
+          sort.cmpExpr().clone(new VarMap()), sort.limitExpr().clone(new VarMap()));
+      sort.setChild(0, partial);
+      s.root = partial;
+    }
+    Segment seg = new Segment(Segment.Type.SEQUENTIAL);
+    for (Expr e : sort.children())
+    {
+      seg.addChild(e == s.root ? s : segment(e));
+    }
+    return seg;
+  }
+
+  /**
+   * Does the reader read the output of a map/reduce job of the query, e.g., the partial results
+   * of a top k?
+   * 
+   * @param reader
+   * @return
+   */
+  private boolean readsJobOutput(ReadFn reader)
+  {
+    Expr fd = reader.descriptor();
+    if (fd instanceof VarExpr)
+    {
+      BindingExpr def = ((VarExpr) fd).findVarDef();
+      if (def != null)
+      {
+        fd = def.eqExpr();
+      }
+    }
+    return fd instanceof MapReduceBaseExpr;
+  }
+
   private Segment makeMapSegment(Segment seg)
   {
     Expr root = seg.root;
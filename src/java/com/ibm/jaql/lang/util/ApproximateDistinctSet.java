@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import java.util.ArrayList;
+
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.BloomFilter;
+
+/**
+ * An approximate version of {@link JsonDistinctSet} that only keeps a Bloom filter over the hash
+ * codes of the values seen so far. Duplicates are always detected, but a new value is mistaken
+ * for a duplicate with probability of at most the given false positive rate, or when its 64-bit
+ * hash code collides with the one of a different value.
+ *
+ * Since the number of values is not known in advance, the set starts with a small filter and
+ * adds a filter of twice the capacity and half the false positive rate whenever the current one
+ * is full (a scalable Bloom filter), so that the total false positive rate stays bounded.
+ */
+public class ApproximateDistinctSet
+{
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+  protected static final long INITIAL_CAPACITY = 64 * 1024;
+
+  protected final double falsePositiveRate;
+  protected final ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+  protected BloomFilter current;
+  protected long capacity;
+  protected double rate;
+  protected long count;     // number of values in the current filter
+
+  public ApproximateDistinctSet()
+  {
+    this(DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * @param falsePositiveRate upper bound for the probability that a new value is mistaken for a
+   *        duplicate; must be between 0 and 1
+   */
+  public ApproximateDistinctSet(double falsePositiveRate)
+  {
+    if( !(falsePositiveRate > 0 && falsePositiveRate < 1) )
+    {
+      throw new IllegalArgumentException("false positive rate must be between 0 and 1: " 
+                                         + falsePositiveRate);
+    }
+    this.falsePositiveRate = falsePositiveRate;
+    reset();
+  }
+
+  /** Adds a value to the set. Returns true if the value has (probably) not been seen before. */
+  public boolean add(JsonValue value)
+  {
+    long h = value == null ? 0 : value.longHashCode();
+    for( int i = 0 ; i < filters.size() ; i++ )
+    {
+      if( filters.get(i).mightContain(h) )
+      {
+        return false;
+      }
+    }
+    if( count == capacity )
+    {
+      addFilter();
+    }
+    current.add(h);
+    count++;
+    return true;
+  }
+
+  /** Returns the approximate number of bytes held in memory by this set. */
+  public long getMemoryUsage()
+  {
+    long size = 0;
+    for( BloomFilter f : filters )
+    {
+      size += f.sizeInBytes();
+    }
+    return size;
+  }
+
+  public void reset()
+  {
+    filters.clear();
+    capacity = INITIAL_CAPACITY / 2;
+    // the rates of the filters form a geometric series that sums up to falsePositiveRate
+    rate = falsePositiveRate;
+    addFilter();
+  }
+
+  private void addFilter()
+  {
+    capacity *= 2;
+    rate /= 2;
+    // bits per value for the given rate: -ln(rate) / ln(2)^2
+    int bitsPerItem = (int)Math.ceil(-Math.log(rate) / (Math.log(2) * Math.log(2)));
+    current = new BloomFilter(capacity, bitsPerItem);
+    filters.add(current);
+    count = 0;
+  }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.util.PagedFile;
+import com.ibm.jaql.util.SpillFile;
+
+/**
+ * A set of values that is used to remove duplicates from a stream of values while the stream is
+ * read. {@link #add(JsonValue)} returns true the first time a value is seen, so the caller can
+ * pass the value on immediately.
+ *
+ * Like the {@link JsonHashTable}, the set is hash partitioned and keeps its values in serialized
+ * form. When its memory usage exceeds the memory limit, the largest partitions are spilled to a
+ * {@link SpillFile}, together with a mark that they have already been passed on. Values of a
+ * spilled partition cannot be decided while the stream is read; they are appended to the spill
+ * file and returned by {@link #deferred()} once the input has been consumed. Each spilled
+ * partition is processed by a nested set that partitions on a different set of hash bits.
+ *
+ * The default memory limit is the one of the {@link JsonHashTable}.
+ */
+public class JsonDistinctSet
+{
+  private static final BinaryFullSerializer SERIALIZER = BinaryFullSerializer.getDefault();
+
+  protected static final int   PARTITION_BITS   = JsonHashTable.PARTITION_BITS;
+  protected static final int   NUM_PARTITIONS   = 1 << PARTITION_BITS;
+  protected static final int   MAX_LEVEL        = JsonHashTable.MAX_LEVEL;
+  protected static final int   INITIAL_CAPACITY = 16;   // must be a power of two
+  protected static final float LOAD_FACTOR      = 0.75f;
+  protected static final int   ENTRY_OVERHEAD   = 40;   // approximate bytes used by an Entry object
+
+  protected static final int   SEEN    = 0;  // spilled value that has been passed on
+  protected static final int   PENDING = 1;  // spilled value that has not been decided yet
+
+  /** A value in a resident partition. */
+  protected static class Entry
+  {
+    int   hashCode;
+    int   offset;
+    int   length;
+    Entry next;
+  }
+
+  /**
+   * One hash partition of the set. A partition is either resident (<code>spill == null</code>)
+   * or spilled, in which case <code>table</code> and <code>outbuf</code> are not used.
+   */
+  protected class Partition
+  {
+    Entry[]          table  = new Entry[INITIAL_CAPACITY];
+    DataOutputBuffer outbuf = new DataOutputBuffer();
+    long             numValues;
+    SpillFile        spill;
+    long             numPending;
+
+    /** Approximate number of bytes of memory held by this partition. */
+    long getMemoryUsage()
+    {
+      if( spill != null )
+      {
+        return 0;
+      }
+      return outbuf.getLength() + table.length * 8L + numValues * ENTRY_OVERHEAD;
+    }
+
+    /** Double the size of the hash table. */
+    void grow()
+    {
+      Entry[] newTable = new Entry[table.length * 2];
+      int mask = newTable.length - 1;
+      for( Entry e1: table )
+      {
+        Entry next;
+        for( Entry e = e1 ; e != null ; e = next )
+        {
+          next = e.next;
+          int i = JsonHashTable.bucket(e.hashCode) & mask;
+          e.next = newTable[i];
+          newTable[i] = e;
+        }
+      }
+      table = newTable;
+    }
+
+    /** Add the value serialized in valbuf. Returns true if it has not been seen before and
+     * the partition is resident. */
+    boolean add(int h, JsonValue value, boolean seen) throws IOException
+    {
+      if( spill != null )
+      {
+        spill.writeByte(seen ? SEEN : PENDING);
+        spill.write(valbuf.getData(), 0, valbuf.getLength());
+        if( !seen )
+        {
+          numPending++;
+        }
+        return false;
+      }
+
+      int i = JsonHashTable.bucket(h) & (table.length - 1);
+      for (Entry e = table[i]; e != null; e = e.next)
+      {
+        if (e.hashCode == h && valueEquals(this, e, value))
+        {
+          return false;
+        }
+      }
+
+      long before = getMemoryUsage();
+      Entry e = new Entry();
+      e.hashCode = h;
+      e.next = table[i];
+      table[i] = e;
+      e.offset = outbuf.getLength();
+      outbuf.write(valbuf.getData(), 0, valbuf.getLength());
+      e.length = valbuf.getLength();
+      numValues++;
+      if( numValues > table.length * LOAD_FACTOR )
+      {
+        grow();
+      }
+      memoryUsage += getMemoryUsage() - before;
+      return true;
+    }
+
+    /** Move all the values of this partition to a spill file and release the memory. */
+    void spill() throws IOException
+    {
+      assert spill == null;
+      SpillFile sf = new SpillFile(PagedFile.get());
+      byte[] data = outbuf.getData();
+      for( Entry e1: table )
+      {
+        for( Entry e = e1 ; e != null ; e = e.next )
+        {
+          sf.writeByte(SEEN);
+          sf.write(data, e.offset, e.length);
+        }
+      }
+      memoryUsage -= getMemoryUsage();
+      spill = sf;
+      table = null;
+      outbuf = null;
+    }
+  }
+
+  protected long             memoryLimit;
+  protected int              level;
+  protected Partition[]      partitions;
+  protected long             numValues;
+  protected long             memoryUsage;
+  protected boolean          spilled;
+
+  JsonValue                  value2   = null;
+  DataOutputBuffer           valbuf   = new DataOutputBuffer();
+  DataInputBuffer            inbuf    = new DataInputBuffer();
+
+  public JsonDistinctSet()
+  {
+    this(JsonHashTable.DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * @param memoryLimit approximate number of bytes to hold in memory before spilling partitions
+   *        to disk; use <code>Long.MAX_VALUE</code> to never spill
+   */
+  public JsonDistinctSet(long memoryLimit)
+  {
+    this(memoryLimit, 0);
+  }
+
+  protected JsonDistinctSet(long memoryLimit, int level)
+  {
+    this.memoryLimit = memoryLimit;
+    this.level = level;
+    this.partitions = new Partition[NUM_PARTITIONS];
+    reset();
+  }
+
+  /** Returns the number of distinct values held in memory. */
+  public long numValues()
+  {
+    return numValues;
+  }
+
+  /** Returns the approximate number of bytes held in memory by this set. */
+  public long getMemoryUsage()
+  {
+    return memoryUsage;
+  }
+
+  /** Returns true if at least one partition of this set has been spilled to disk. */
+  public boolean isSpilled()
+  {
+    return spilled;
+  }
+
+  public void reset()
+  {
+    for(int i = 0 ; i < partitions.length ; i++)
+    {
+      Partition p = partitions[i];
+      if( p != null && p.spill != null )
+      {
+        try
+        {
+          p.spill.clear();
+        }
+        catch (IOException e)
+        {
+          // the pages are reclaimed when the file is finalized
+        }
+      }
+      partitions[i] = new Partition();
+    }
+    numValues = 0;
+    memoryUsage = 0;
+    spilled = false;
+    for( Partition p: partitions )
+    {
+      memoryUsage += p.getMemoryUsage();
+    }
+  }
+
+  /** Compare the value of entry e with the value serialized in valbuf. */
+  private boolean valueEquals(Partition p, Entry e, JsonValue value) throws IOException
+  {
+    byte[] data = p.outbuf.getData();
+    int len = valbuf.getLength();
+    if( e.length == len )
+    {
+      // equal serialized values are equal
+      byte[] vdata = valbuf.getData();
+      int off = e.offset;
+      int i = 0;
+      while( i < len && data[off + i] == vdata[i] )
+      {
+        i++;
+      }
+      if( i == len )
+      {
+        return true;
+      }
+    }
+    // different encodings may still be equal values
+    inbuf.reset(data, e.offset, e.length);
+    value2 = SERIALIZER.read(inbuf, value2);
+    return JsonUtil.equals(value, value2);
+  }
+
+  /**
+   * Adds a value to the set. Returns true if the value has not been seen before; the value is
+   * copied. Returns false if the value is a duplicate or if it cannot be decided yet because
+   * its partition has been spilled; in the latter case, the value is returned by
+   * {@link #deferred()} if it is not a duplicate.
+   */
+  public boolean add(JsonValue value) throws IOException
+  {
+    return add(value, false);
+  }
+
+  /** Adds a value to the set. If <code>seen</code> is true, the value has been passed on
+   * already. */
+  protected boolean add(JsonValue value, boolean seen) throws IOException
+  {
+    int h = (value == null) ? 0 : value.hashCode();
+    valbuf.reset();
+    SERIALIZER.write(valbuf, value);
+    Partition p = partitions[partition(h)];
+    long values = p.numValues;
+    boolean added = p.add(h, value, seen);
+    numValues += p.numValues - values;
+    if( memoryUsage > memoryLimit && level < MAX_LEVEL )
+    {
+      spillPartitions();
+    }
+    return added && !seen;
+  }
+
+  /** Returns the partition of hash code h on this level. Each level uses different hash bits. */
+  protected final int partition(int h)
+  {
+    int x = h * 0x9E3779B9;
+    return (x >>> (32 - PARTITION_BITS * (level + 1))) & (NUM_PARTITIONS - 1);
+  }
+
+  /** Spill the largest resident partitions until the memory usage is below the limit. */
+  protected void spillPartitions() throws IOException
+  {
+    while( memoryUsage > memoryLimit )
+    {
+      Partition largest = null;
+      for( Partition p: partitions )
+      {
+        if( p.spill == null && (largest == null || p.getMemoryUsage() > largest.getMemoryUsage()) )
+        {
+          largest = p;
+        }
+      }
+      if( largest == null )
+      {
+        return;
+      }
+      numValues -= largest.numValues;
+      largest.spill();
+      spilled = true;
+    }
+  }
+
+  /**
+   * Returns the values of spilled partitions that have not been seen before, each once. Must
+   * only be called after all values have been added. The set must not be modified while the
+   * iterator is in use.
+   */
+  public JsonIterator deferred()
+  {
+    if( !spilled )
+    {
+      return JsonIterator.EMPTY;
+    }
+    return new JsonIterator() {
+      int pindex = 0;
+      SpillFile.SFDataInput input;
+      long remaining;
+      JsonDistinctSet nested;
+      JsonIterator nestedIter;
+      JsonValue value;
+
+      public boolean moveNext() throws Exception
+      {
+        while( true )
+        {
+          // read the spill file of the current partition into the nested set
+          while( remaining > 0 )
+          {
+            int mark = input.readByte();
+            value = SERIALIZER.read(input, value);
+            if( mark == PENDING )
+            {
+              remaining--;
+            }
+            if( nested.add(value, mark == SEEN) )
+            {
+              currentValue = value;
+              return true;
+            }
+          }
+          if( nestedIter == null && nested != null )
+          {
+            nestedIter = nested.deferred();
+          }
+          if( nestedIter != null )
+          {
+            if( nestedIter.moveNext() )
+            {
+              currentValue = nestedIter.current();
+              return true;
+            }
+            nested.reset();
+            nested = null;
+            nestedIter = null;
+          }
+
+          // move to the next spilled partition that has pending values
+          Partition p = null;
+          while( pindex < partitions.length && p == null )
+          {
+            p = partitions[pindex++];
+            if( p.spill == null || p.numPending == 0 )
+            {
+              p = null;
+            }
+          }
+          if( p == null )
+          {
+            return false;
+          }
+          if( !p.spill.isFrozen() )
+          {
+            p.spill.freeze();
+          }
+          input = p.spill.getInput();
+          remaining = p.numPending;
+          nested = new JsonDistinctSet(memoryLimit, level + 1);
+        }
+      }
+    };
+  }
+}
@@ -15,8 +15,11 @@
  */
 package com.ibm.jaql.lang.util;
 
+import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
@@ -27,23 +30,47 @@ import com.ibm.jaql.json.type.JsonValue;
 import com.ibm.jaql.json.type.SpilledJsonArray;
 import com.ibm.jaql.util.BaseUtil;
 import com.ibm.jaql.util.LongArray;
+import com.ibm.jaql.util.PagedFile;
+import com.ibm.jaql.util.SpillFile;
 
 /**
- * 
+ * A hash table that groups serialized values by key, separately for each of <code>numTags</code>
+ * inputs.
+ *
+ * The table is hash partitioned. Each partition keeps its keys and values in serialized form in
+ * its own buffer and uses a chained hash table that doubles in size when it gets too full. When
+ * the memory used by the table exceeds the memory limit, the largest partitions are spilled to a
+ * {@link SpillFile} and all further values for these partitions are appended to the spill file
+ * directly. Spilled partitions are read back one at a time when the table is iterated, using a
+ * nested table that partitions on a different set of hash bits (Grace hash join).
+ *
+ * The default memory limit can be set using the <code>jaql.hashtable.memory</code> system
+ * property (in bytes).
  */
 public class JsonHashTable
 {
   private static final BinaryFullSerializer SERIALIZER = BinaryFullSerializer.getDefault();
-  
+
+  public static final String MEMORY_LIMIT_PROPERTY = "jaql.hashtable.memory";
+  public static final long DEFAULT_MEMORY_LIMIT
+    = Long.getLong(MEMORY_LIMIT_PROPERTY, 64 * 1024 * 1024);
+
+  protected static final int   PARTITION_BITS   = 4;
+  protected static final int   NUM_PARTITIONS   = 1 << PARTITION_BITS;
+  protected static final int   MAX_LEVEL        = 32 / PARTITION_BITS - 1; // never spill below this level
+  protected static final int   INITIAL_CAPACITY = 16;   // must be a power of two
+  protected static final float LOAD_FACTOR      = 0.75f;
+  protected static final int   ENTRY_OVERHEAD   = 64;   // approximate bytes used by an Entry object
+
   /**
-   * 
+   *
    */
   protected static class Entry
   {
     int         hashCode;
     long        keyOffset;
     long        keyLength;
-    LongArray[] values;   // offset of each value with this key, partitioned by tag
+    LongArray[] values;   // offset and length of each value with this key, partitioned by tag
     Entry       next;
 
     /**
@@ -59,22 +86,168 @@ public class JsonHashTable
     }
   }
 
-  Entry[]          table  = new Entry[1000];       // TODO: make dynamic
-  JsonValue           key2   = null;
-  DataOutputBuffer outbuf = new DataOutputBuffer();
-  DataInputBuffer  inbuf  = new DataInputBuffer();
-  int              numTags;
-  long             numKeys;
-  long             numValues;
-  
+  /**
+   * One hash partition of the table. A partition is either resident (<code>spill == null</code>)
+   * or spilled, in which case <code>table</code> and <code>outbuf</code> are not used.
+   */
+  protected class Partition
+  {
+    Entry[]          table  = new Entry[INITIAL_CAPACITY];
+    DataOutputBuffer outbuf = new DataOutputBuffer();
+    long             numKeys;
+    long             numValues;
+    SpillFile        spill;
+    long             numSpilled; // number of (tag,key,value) triples in the spill file
+
+    /** Approximate number of bytes of memory held by this partition. */
+    long getMemoryUsage()
+    {
+      if( spill != null )
+      {
+        return 0;
+      }
+      return outbuf.getLength() + table.length * 8L + numKeys * ENTRY_OVERHEAD + numValues * 16;
+    }
+
+    /** Double the size of the hash table. */
+    void grow()
+    {
+      Entry[] newTable = new Entry[table.length * 2];
+      int mask = newTable.length - 1;
+      for( Entry e1: table )
+      {
+        Entry next;
+        for( Entry e = e1 ; e != null ; e = next )
+        {
+          next = e.next;
+          int i = bucket(e.hashCode) & mask;
+          e.next = newTable[i];
+          newTable[i] = e;
+        }
+      }
+      table = newTable;
+    }
+
+    /** Add a value whose key is serialized in keybuf. */
+    void add(int tag, int h, JsonValue key, byte[] value, int valueOffset, int valueLength)
+      throws IOException
+    {
+      if( spill != null )
+      {
+        BaseUtil.writeVUInt(spill, tag);
+        spill.write(keybuf.getData(), 0, keybuf.getLength());
+        spill.write(value, valueOffset, valueLength);
+        numSpilled++;
+        return;
+      }
+
+      int i = bucket(h) & (table.length - 1);
+      Entry e;
+      for (e = table[i]; e != null; e = e.next)
+      {
+        if (e.hashCode == h && keyEquals(this, e, key))
+        {
+          break;
+        }
+      }
+
+      long before = getMemoryUsage();
+      if (e == null)
+      {
+        numKeys++;
+        e = new Entry(numTags);
+        e.hashCode = h;
+        e.next = table[i];
+        table[i] = e;
+        e.keyOffset = outbuf.getLength();
+        outbuf.write(keybuf.getData(), 0, keybuf.getLength());
+        e.keyLength = keybuf.getLength();
+        if( numKeys > table.length * LOAD_FACTOR )
+        {
+          grow();
+        }
+      }
+      numValues++;
+      long offset = outbuf.getLength();
+      e.values[tag].add(offset);
+      outbuf.write(value, valueOffset, valueLength);
+      e.values[tag].add(valueLength);
+      memoryUsage += getMemoryUsage() - before;
+    }
+
+    /** Move all the values of this partition to a spill file and release the memory. */
+    void spill() throws IOException
+    {
+      assert spill == null;
+      SpillFile sf = new SpillFile(PagedFile.get());
+      byte[] data = outbuf.getData();
+      for( Entry e1: table )
+      {
+        for( Entry e = e1 ; e != null ; e = e.next )
+        {
+          for( int t = 0 ; t < numTags ; t++ )
+          {
+            LongArray la = e.values[t];
+            int n = la.size();
+            for(int j = 0 ; j < n ; j += 2)
+            {
+              BaseUtil.writeVUInt(sf, t);
+              sf.write(data, (int)e.keyOffset, (int)e.keyLength);
+              sf.write(data, (int)la.get(j), (int)la.get(j+1));
+              numSpilled++;
+            }
+          }
+        }
+      }
+      memoryUsage -= getMemoryUsage();
+      spill = sf;
+      table = null;
+      outbuf = null;
+    }
+  }
+
+  protected int              numTags;
+  protected long             memoryLimit;
+  protected int              level;
+  protected Partition[]      partitions;
+  protected long             numKeys;
+  protected long             numValues;
+  protected long             memoryUsage;
+  protected boolean          spilled;
+
+  JsonValue                  key2     = null;
+  DataOutputBuffer           keybuf   = new DataOutputBuffer();
+  DataOutputBuffer           valbuf   = new DataOutputBuffer();
+  DataInputBuffer            inbuf    = new DataInputBuffer();
+
   /**
    * @param numTags
    */
   public JsonHashTable(int numTags)
+  {
+    this(numTags, DEFAULT_MEMORY_LIMIT);
+  }
+
+  /**
+   * @param numTags
+   * @param memoryLimit approximate number of bytes to hold in memory before spilling partitions
+   *        to disk; use <code>Long.MAX_VALUE</code> to never spill
+   */
+  public JsonHashTable(int numTags, long memoryLimit)
+  {
+    this(numTags, memoryLimit, 0);
+  }
+
+  protected JsonHashTable(int numTags, long memoryLimit, int level)
   {
     this.numTags = numTags;
+    this.memoryLimit = memoryLimit;
+    this.level = level;
+    this.partitions = new Partition[NUM_PARTITIONS];
+    reset();
   }
 
+  /** Returns the number of distinct keys held in memory. */
   public long numKeys()
   {
     return numKeys;
@@ -83,100 +256,215 @@ public class JsonHashTable
   public long numValues()
   {
     return numValues;
-    }
+  }
 
+  /** Returns the approximate number of bytes held in memory by this table. */
   public long getMemoryUsage()
   {
-    return outbuf.size() + numKeys * (5*8) + numValues * 8; // TODO: why is size() an int??
+    return memoryUsage;
+  }
+
+  /** Returns true if at least one partition of this table has been spilled to disk. */
+  public boolean isSpilled()
+  {
+    return spilled;
   }
 
   public void reset()
   {
-    for(int i = 0 ; i < table.length ; i++)
+    for(int i = 0 ; i < partitions.length ; i++)
     {
-      table[i] = null;
+      Partition p = partitions[i];
+      if( p != null && p.spill != null )
+      {
+        try
+        {
+          p.spill.clear();
+        }
+        catch (IOException e)
+        {
+          // the pages are reclaimed when the file is finalized
+        }
+      }
+      partitions[i] = new Partition();
     }
-    outbuf.reset();
     numKeys = 0;
     numValues = 0;
+    memoryUsage = 0;
+    spilled = false;
+    for( Partition p: partitions )
+    {
+      memoryUsage += p.getMemoryUsage();
+    }
   }
-  
+
+  /** Spread the hash code for the bucket index of a power-of-two table. */
+  protected static int bucket(int h)
+  {
+    return h ^ (h >>> 16);
+  }
+
+  /** Returns the partition of hash code h on this level. Each level uses different hash bits. */
+  protected final int partition(int h)
+  {
+    int x = h * 0x9E3779B9;
+    return (x >>> (32 - PARTITION_BITS * (level + 1))) & (NUM_PARTITIONS - 1);
+  }
+
+  /** Compare the key of entry e with the key serialized in keybuf. */
+  private boolean keyEquals(Partition p, Entry e, JsonValue key) throws IOException
+  {
+    byte[] data = p.outbuf.getData();
+    int len = keybuf.getLength();
+    if( e.keyLength == len )
+    {
+      // equal serialized keys are equal
+      byte[] kdata = keybuf.getData();
+      int off = (int)e.keyOffset;
+      int i = 0;
+      while( i < len && data[off + i] == kdata[i] )
+      {
+        i++;
+      }
+      if( i == len )
+      {
+        return true;
+      }
+    }
+    // different encodings may still be equal values
+    inbuf.reset(data, (int) e.keyOffset, (int) e.keyLength);
+    key2 = SERIALIZER.read(inbuf, key2);
+    return JsonUtil.equals(key, key2);
+  }
+
   /**
    * This must be true: 0 <= tag < numTags
-   * 
+   *
    * @param tag
    * @param key
    * @param value
    * @throws IOException
    */
   public void add(int tag, JsonValue key, JsonValue value) throws IOException
+  {
+    valbuf.reset();
+    SERIALIZER.write(valbuf, value);
+    addSerialized(tag, key, valbuf.getData(), 0, valbuf.getLength());
+  }
+
+  /** Add a value that is already serialized with the default binary serializer. */
+  protected void addSerialized(int tag, JsonValue key, byte[] value, int valueOffset, int valueLength)
+    throws IOException
   {
     int h = (key == null) ? 0 : key.hashCode();
-    int i = (h & 0x7fffffff) % table.length; // TODO: use fast mod (pow 2?)
-    Entry e;
-    for (e = table[i]; e != null; e = e.next)
+    keybuf.reset();
+    SERIALIZER.write(keybuf, key);
+    Partition p = partitions[partition(h)];
+    long keys = p.numKeys;
+    p.add(tag, h, key, value, valueOffset, valueLength);
+    numKeys += p.numKeys - keys;
+    numValues++;
+    if( memoryUsage > memoryLimit && level < MAX_LEVEL )
     {
-      if (e.hashCode == h)
+      spillPartitions();
+    }
+  }
+
+  /** Spill the largest resident partitions until the memory usage is below the limit. */
+  protected void spillPartitions() throws IOException
+  {
+    while( memoryUsage > memoryLimit )
+    {
+      Partition largest = null;
+      for( Partition p: partitions )
       {
-        inbuf.reset(outbuf.getData(), (int) e.keyOffset, outbuf.getLength());
-        key2 = SERIALIZER.read(inbuf, key2);
-        if (JsonUtil.equals(key, key2)) // TODO: use RawComparator or keep deserialized
+        if( p.spill == null && (largest == null || p.getMemoryUsage() > largest.getMemoryUsage()) )
         {
-          break;
+          largest = p;
         }
       }
+      if( largest == null )
+      {
+        return;
+      }
+      numKeys -= largest.numKeys;
+      largest.spill();
+      spilled = true;
     }
-
-    if (e == null)
-    {
-      numKeys++;
-      e = new Entry(numTags);
-      e.hashCode = h;
-      e.next = table[i];
-      table[i] = e;
-      e.keyOffset = outbuf.getLength();
-      SERIALIZER.write(outbuf, key);
-      e.keyLength = outbuf.getLength() - e.keyOffset;
-    }
-    numValues++;
-    long offset = outbuf.getLength();    
-    e.values[tag].add(offset);
-    SERIALIZER.write(outbuf, value);
-    e.values[tag].add(outbuf.getLength() - offset);
   }
 
+  /**
+   * Write the values of one tag, grouped by key, in key order.
+   * The table must not be spilled.
+   */
   public void write(DataOutput out, int tag) throws IOException
   {
-    //   this needs to write the keys on one chain in a well-defined order so we can merge them!
-    for( Entry e1: table )
+    if( spilled )
     {
-      for( Entry e = e1 ; e != null ; e = e.next )
+      throw new IllegalStateException("cannot write a spilled hash table");
+    }
+    // write the keys in a well-defined order so we can merge them!
+    final Entry[] entries = new Entry[(int)numKeys];
+    final Partition[] owners = new Partition[entries.length];
+    final JsonValue[] keys = new JsonValue[entries.length];
+    Integer[] order = new Integer[entries.length];
+    int k = 0;
+    for( Partition p: partitions )
+    {
+      for( Entry e1: p.table )
       {
-        out.write(outbuf.getData(), (int)e.keyOffset, (int)e.keyLength);
-        LongArray la = e.values[tag];
-        int n = la.size();
+        for( Entry e = e1 ; e != null ; e = e.next )
+        {
+          inbuf.reset(p.outbuf.getData(), (int)e.keyOffset, (int)e.keyLength);
+          keys[k] = SERIALIZER.read(inbuf, null);
+          entries[k] = e;
+          owners[k] = p;
+          order[k] = k;
+          k++;
+        }
+      }
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer i, Integer j)
+      {
+        return JsonUtil.compare(keys[i], keys[j]);
+      }
+    });
+    for( Integer i: order )
+    {
+      Entry e = entries[i];
+      byte[] data = owners[i].outbuf.getData();
+      LongArray la = e.values[tag];
+      int n = la.size();
+      if( n > 0 )
+      {
+        out.write(data, (int)e.keyOffset, (int)e.keyLength);
         BaseUtil.writeVUInt(out, n / 2);
-        for(int i = 0 ; i < n ; i += 2)
+        for(int j = 0 ; j < n ; j += 2)
         {
-          out.write(outbuf.getData(), (int)la.get(i), (int)la.get(i+1));
+          out.write(data, (int)la.get(j), (int)la.get(j+1));
         }
       }
     }
   }
-  
+
   /**
-   * 
+   * Iterates over all keys of the table, including the keys of spilled partitions.
    */
   public class Iterator
   {
+    protected int         pindex = 0;
     protected int         index = 0;
+    protected Partition   partition = null;
     protected Entry       entry = null;
     protected SpilledJsonArray values[];
     protected JsonValue      value = null;
     protected JsonValue      key   = null;
+    protected JsonHashTable  nested;
+    protected Iterator       nestedIter;
 
     /**
-     * 
+     *
      */
     public Iterator()
     {
@@ -193,6 +481,43 @@ public class JsonHashTable
      */
     public boolean next() throws IOException
     {
+      while( true )
+      {
+        if( nestedIter != null )
+        {
+          if( nestedIter.next() )
+          {
+            return true;
+          }
+          nested.reset();
+          nested = null;
+          nestedIter = null;
+        }
+        if( partition != null && nextEntry() )
+        {
+          return true;
+        }
+        if( pindex == partitions.length )
+        {
+          return false;
+        }
+        partition = partitions[pindex++];
+        entry = null;
+        index = 0;
+        if( partition.spill != null )
+        {
+          nested = reload(partition);
+          nestedIter = nested.new Iterator();
+          nestedIter.values = values; // share the value arrays
+          partition = null;
+        }
+      }
+    }
+
+    /** Move to the next entry of the current resident partition. */
+    private boolean nextEntry() throws IOException
+    {
+      Entry[] table = partition.table;
       if (entry != null)
       {
         entry = entry.next;
@@ -207,7 +532,8 @@ public class JsonHashTable
         index++;
       }
 
-      inbuf.reset(outbuf.getData(), (int) entry.keyOffset, (int) entry.keyLength);
+      byte[] data = partition.outbuf.getData();
+      inbuf.reset(data, (int) entry.keyOffset, (int) entry.keyLength);
       key = SERIALIZER.read(inbuf, key);
 
       // It's sad to copy all the values... I could create a new Table type, but it has to be JaqlType.
@@ -218,12 +544,11 @@ public class JsonHashTable
         LongArray voffsets = entry.values[i];
         for (int j = 0; j < voffsets.size(); j+=2)
         {
-          va.addCopySerialized(outbuf.getData(), (int) voffsets.get(j), (int) voffsets.get(j+1),
+          va.addCopySerialized(data, (int) voffsets.get(j), (int) voffsets.get(j+1),
               SERIALIZER);
         }
         va.freeze();
       }
-
       return true;
     }
 
@@ -232,7 +557,7 @@ public class JsonHashTable
      */
     public JsonValue key()
     {
-      return key;
+      return nestedIter != null ? nestedIter.key() : key;
     }
 
     /**
@@ -245,6 +570,29 @@ public class JsonHashTable
     }
   }
 
+  /** Read a spilled partition into a new table on the next level. */
+  protected JsonHashTable reload(Partition p) throws IOException
+  {
+    JsonHashTable table = new JsonHashTable(numTags, memoryLimit, level + 1);
+    SpillFile sf = p.spill;
+    if( !sf.isFrozen() )
+    {
+      sf.freeze();
+    }
+    DataInput in = sf.getInput();
+    JsonValue key = null;
+    DataOutputBuffer buf = new DataOutputBuffer();
+    for( long i = 0 ; i < p.numSpilled ; i++ )
+    {
+      int tag = BaseUtil.readVUInt(in);
+      key = SERIALIZER.read(in, key);
+      buf.reset();
+      SERIALIZER.copy(in, buf);
+      table.addSerialized(tag, key, buf.getData(), 0, buf.getLength());
+    }
+    return table;
+  }
+
   /**
    * @return
    */
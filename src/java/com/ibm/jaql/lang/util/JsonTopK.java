@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.ibm.jaql.io.hadoop.JsonHolder;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.DefaultJsonComparator;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.core.JsonComparator;
+
+/**
+ * Keeps the first <code>limit</code> (key, value) pairs in key order. The pairs are kept in a
+ * bounded heap whose head is the last pair kept, so n pairs are processed in O(n log limit) time
+ * and O(limit) memory, instead of sorting all of them. Among pairs with equal keys, the pairs
+ * added first are kept and returned first, which is what a stable sort followed by a limit
+ * returns.
+ *
+ * This is used by limited sorts up to <code>jaql.topk.heap.max</code> values (default 10000);
+ * larger limits use the {@link JsonSorter}, which can spill to disk.
+ */
+public class JsonTopK
+{
+  public static final String MAX_HEAP_PROPERTY = "jaql.topk.heap.max";
+  public static final long DEFAULT_MAX_HEAP = Long.getLong(MAX_HEAP_PROPERTY, 10000);
+
+  /** A pair in the heap */
+  protected static class Entry
+  {
+    JsonHolder key = new JsonHolder();
+    JsonValue  value;
+    long       seq;    // position in the input
+  }
+
+  protected final JsonComparator       comparator;
+  protected final int                  limit;
+  protected final PriorityQueue<Entry> heap;
+  protected final JsonHolder           probe = new JsonHolder();
+  protected long                       seq;
+
+  /**
+   * @param comparator the key order, or null for the default order
+   * @param limit the number of pairs to keep
+   */
+  public JsonTopK(JsonComparator comparator, int limit)
+  {
+    if (comparator == null)
+    {
+      comparator = new DefaultJsonComparator();
+    }
+    this.comparator = comparator;
+    this.limit = limit;
+    this.heap = new PriorityQueue<Entry>(Math.max(1, limit), new Comparator<Entry>() {
+      @Override
+      public int compare(Entry x, Entry y)
+      {
+        // inverted, so that the last pair kept is at the head of the queue
+        return JsonTopK.this.compare(y, x);
+      }
+    });
+  }
+
+  /** Orders pairs by key, then by input position. */
+  protected int compare(Entry x, Entry y)
+  {
+    int c = comparator.compare(x.key, y.key);
+    if (c == 0)
+    {
+      c = x.seq < y.seq ? -1 : (x.seq == y.seq ? 0 : 1);
+    }
+    return c;
+  }
+
+  /**
+   * Adds a pair. The key and value are copied if they are kept.
+   */
+  public void add(JsonValue key, JsonValue value) throws Exception
+  {
+    if (heap.size() < limit)
+    {
+      Entry e = new Entry();
+      e.key.value = JsonUtil.getCopy(key, null);
+      e.value = JsonUtil.getCopy(value, null);
+      e.seq = seq;
+      heap.add(e);
+    }
+    else if (limit > 0)
+    {
+      // the new pair comes after all kept pairs with an equal key
+      Entry last = heap.peek();
+      probe.value = key;
+      if (comparator.compare(probe, last.key) < 0)
+      {
+        heap.poll();
+        last.key.value = JsonUtil.getCopy(key, last.key.value);
+        last.value = JsonUtil.getCopy(value, last.value);
+        last.seq = seq;
+        heap.add(last);
+      }
+      probe.value = null;
+    }
+    seq++;
+  }
+
+  /** Returns the number of pairs kept. */
+  public int size()
+  {
+    return heap.size();
+  }
+
+  /**
+   * Returns the values of the pairs kept, in key order. The pairs are removed.
+   */
+  public JsonIterator iter() throws Exception
+  {
+    JsonValue[] values = new JsonValue[heap.size()];
+    for (int i = values.length - 1; i >= 0; i--)
+    {
+      values[i] = heap.poll().value;
+    }
+    seq = 0;
+    return new BufferedJsonArray(values, values.length, false).iter();
+  }
+}
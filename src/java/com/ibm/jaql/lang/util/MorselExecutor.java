@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.core.Var;
+import com.ibm.jaql.lang.core.VarMap;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.ExprProperty;
+import com.ibm.jaql.lang.walk.PostOrderExprWalker;
+import com.ibm.jaql.util.SpillStats;
+
+/**
+ * Local parallel evaluation of per-element expressions, such as the body of a <code>for</code>,
+ * <code>transform</code>, or <code>filter</code>. The input array is split into morsels of 
+ * <code>jaql.local.morsel.size</code> consecutive elements that are evaluated on a thread 
+ * pool of <code>jaql.local.parallelism</code> threads. Each thread uses a private copy of the 
+ * expression and a private {@link Context}, so that variable bindings and function copies are 
+ * not shared. The values of the captured variables and of the constants are copied as well: 
+ * values cache their representations lazily (e.g., the bytes and the string of a 
+ * {@link com.ibm.jaql.json.type.JsonString}), so they cannot be read by several threads. The 
+ * copies are made by the calling thread before the tasks are submitted. The results are 
+ * returned in input order.
+ * 
+ * Local parallelism is disabled by default (parallelism 1). An expression is only evaluated in 
+ * parallel if it has no side effects, is deterministic, does not read external data, and all 
+ * variables that it captures are bound to values. Expressions that are evaluated by a pool thread
+ * are never evaluated in parallel again.
+ * 
+ * Plans are kept by the calling expression, see {@link #plan(MorselExecutor, Mode, Var, Expr...)}.
+ */
+public final class MorselExecutor
+{
+  public static final String PARALLELISM_PROPERTY = "jaql.local.parallelism";
+  public static final String MORSEL_SIZE_PROPERTY = "jaql.local.morsel.size";
+  
+  private static volatile int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 1);
+  private static final int morselSize = Math.max(1, Integer.getInteger(MORSEL_SIZE_PROPERTY, 1024));
+  private static ExecutorService pool;
+  
+  /** How the per-element expressions produce the result elements. */
+  public enum Mode
+  {
+    EXPAND,     // the elements of the array returned by the first expression 
+    TRANSFORM,  // the value of the first expression 
+    FILTER      // the input element if all expressions are true
+  }
+  
+  private final Mode mode;
+  private final Var var;
+  private final Expr[] body;
+  private final boolean safe;
+  private final HashSet<Var> capturedVars;
+  private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+  
+  /** The workers used by each context since its last reset */
+  private final IdentityHashMap<Context, HashSet<Worker>> usedWorkers = 
+    new IdentityHashMap<Context, HashSet<Worker>>();
+  
+  private MorselExecutor(Mode mode, Var var, Expr[] body)
+  {
+    this.mode = mode;
+    this.var = var;
+    this.body = body;
+    boolean safe = true;
+    capturedVars = new HashSet<Var>();
+    for( Expr e: body )
+    {
+      safe = safe && e.getProperty(ExprProperty.HAS_SIDE_EFFECTS, true).never()
+                  && e.getProperty(ExprProperty.IS_NONDETERMINISTIC, true).never()
+                  && e.getProperty(ExprProperty.READS_EXTERNAL_DATA, true).never();
+      capturedVars.addAll(e.getCapturedVars());
+    }
+    capturedVars.remove(var);
+    this.safe = safe;
+  }
+  
+  /** Returns true if local parallelism is enabled at all. */
+  public static boolean isEnabled()
+  {
+    return parallelism > 1;
+  }
+  
+  /** Sets the number of threads used for local parallelism; 1 disables it. */
+  public static synchronized void setParallelism(int n)
+  {
+    if( pool != null && n != parallelism )
+    {
+      pool.shutdown();
+      pool = null;
+    }
+    parallelism = Math.max(1, n);
+  }
+  
+  /**
+   * Returns a plan that evaluates <code>body</code> for every element bound to <code>var</code>.
+   * The calling expression keeps the plan and passes it back in as <code>plan</code>, which 
+   * is reused as long as it was made for the same variable and expressions. 
+   */
+  public static MorselExecutor plan(MorselExecutor plan, Mode mode, Var var, Expr... body)
+  {
+    if( plan != null && plan.mode == mode && plan.var == var 
+        && plan.body.length == body.length )
+    {
+      boolean same = true;
+      for( int i = 0 ; i < body.length ; i++ )
+      {
+        same = same && plan.body[i] == body[i];
+      }
+      if( same )
+      {
+        return plan;
+      }
+    }
+    return new MorselExecutor(mode, var, body);
+  }
+  
+  /** Returns true if this plan can be evaluated in parallel by the current thread. */
+  public boolean isApplicable()
+  {
+    if( parallelism <= 1 || !safe || Thread.currentThread() instanceof PoolThread )
+    {
+      return false;
+    }
+    for( Var v: capturedVars )
+    {
+      if( v.type() != Var.Type.VALUE )
+      {
+        return false; // lazily evaluated variables would be evaluated by multiple threads
+      }
+    }
+    return true;
+  }
+  
+  private static synchronized ExecutorService getPool()
+  {
+    if( pool == null )
+    {
+      pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new PoolThread(r);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+  
+  /** Returns the set of workers used by <code>context</code>. The workers are reset together 
+   * with the context, using a single reset task per context. */
+  private HashSet<Worker> usedWorkers(final Context context)
+  {
+    synchronized( usedWorkers )
+    {
+      HashSet<Worker> used = usedWorkers.get(context);
+      if( used == null )
+      {
+        used = new HashSet<Worker>();
+        usedWorkers.put(context, used);
+        context.doAtReset(new Runnable() {
+          @Override
+          public void run()
+          {
+            HashSet<Worker> used;
+            synchronized( usedWorkers )
+            {
+              used = usedWorkers.remove(context);
+            }
+            for( Worker w: used )
+            {
+              w.context.reset();
+            }
+          }
+        });
+      }
+      return used;
+    }
+  }
+  
+  /**
+   * Returns the results for the elements of <code>input</code>, in input order.
+   * 
+   * @param context context of the caller; the contexts of the workers are reset with it
+   */
+  public JsonIterator iter(final Context context, final JsonIterator input)
+  {
+    final SpillStats spillStats = SpillStats.current();
+    final HashSet<Worker> used = usedWorkers(context);
+    
+    return new JsonIterator() 
+    {
+      final LinkedList<Future<Morsel>> pending = new LinkedList<Future<Morsel>>();
+      final int window = 2 * parallelism;
+      boolean inputDone = false;
+      Morsel current = null;
+      int pos = 0;
+      
+      @Override
+      public boolean moveNext() throws Exception
+      {
+        while( true )
+        {
+          if( current != null )
+          {
+            if( pos < current.results.size() )
+            {
+              Object r = current.results.get(pos++);
+              if( r instanceof Failure )
+              {
+                Failure f = (Failure)r;
+                if( mode == Mode.EXPAND )
+                {
+                  rethrow(f.error);
+                }
+                JaqlUtil.getExceptionHandler().handleException(f.error, f.value);
+                if( mode == Mode.FILTER )
+                {
+                  current = null;
+                  pending.clear();
+                  inputDone = true;
+                  return false;
+                }
+                continue;
+              }
+              currentValue = (JsonValue)r;
+              return true;
+            }
+            current = null;
+          }
+          
+          while( !inputDone && pending.size() < window )
+          {
+            Morsel m = new Morsel();
+            while( m.inputs.size() < morselSize && input.moveNext() )
+            {
+              m.inputs.add(JsonUtil.getCopy(input.current(), null));
+            }
+            inputDone = m.inputs.size() < morselSize;
+            if( m.inputs.isEmpty() )
+            {
+              break;
+            }
+            Worker w = idleWorkers.poll();
+            if( w == null )
+            {
+              w = new Worker();
+            }
+            if( w.boundBy != this )
+            {
+              w.bind(context);
+              w.boundBy = this;
+            }
+            synchronized( usedWorkers )
+            {
+              used.add(w);
+            }
+            pending.add(getPool().submit(new Task(m, w, spillStats)));
+          }
+          
+          if( pending.isEmpty() )
+          {
+            return false;
+          }
+          try
+          {
+            current = pending.remove().get();
+          }
+          catch( ExecutionException e )
+          {
+            rethrow(e.getCause());
+          }
+          pos = 0;
+        }
+      }
+    };
+  }
+  
+  private static void rethrow(Throwable t) throws Exception
+  {
+    if( t instanceof Exception )
+    {
+      throw (Exception)t;
+    }
+    if( t instanceof Error )
+    {
+      throw (Error)t;
+    }
+    throw new RuntimeException(t);
+  }
+
+  /** Threads of the pool; expressions are not evaluated in parallel again by these. */
+  private static final class PoolThread extends Thread
+  {
+    PoolThread(Runnable r)
+    {
+      super(r, "jaql-morsel");
+    }
+  }
+  
+  /** A private copy of the expressions that is used by one thread at a time. */
+  private final class Worker
+  {
+    final Context context = new Context();
+    final Var var;
+    final Expr[] body;
+    final HashMap<Var, Var> captured = new HashMap<Var, Var>(); // caller's var -> private var
+    Object boundBy; // the iterator that bound the captured variables, accessed by the caller
+    
+    Worker() throws Exception
+    {
+      VarMap varMap = new VarMap();
+      this.var = varMap.remap(MorselExecutor.this.var);
+      for( Var v: capturedVars )
+      {
+        captured.put(v, varMap.remap(v));
+      }
+      this.body = new Expr[MorselExecutor.this.body.length];
+      PostOrderExprWalker walker = new PostOrderExprWalker();
+      for( int i = 0 ; i < body.length ; i++ )
+      {
+        body[i] = MorselExecutor.this.body[i].clone(varMap);
+        walker.reset(body[i]);
+        Expr e;
+        while( (e = walker.next()) != null )
+        {
+          if( e instanceof ConstExpr )
+          {
+            ConstExpr c = (ConstExpr)e;
+            c.value = JsonUtil.getCopy(c.value, null); // clones share the value
+          }
+        }
+      }
+    }
+    
+    /** Binds the private variables to copies of the captured values of the caller. */
+    void bind(Context context) throws Exception
+    {
+      for( Map.Entry<Var, Var> e: captured.entrySet() )
+      {
+        e.getValue().setValue(JsonUtil.getCopy(e.getKey().getValue(context), null));
+      }
+    }
+  }
+  
+  /** Consecutive input elements and their results */
+  private static final class Morsel
+  {
+    final ArrayList<JsonValue> inputs = new ArrayList<JsonValue>();
+    final ArrayList<Object> results = new ArrayList<Object>(); // JsonValue or Failure
+  }
+  
+  /** The error raised while evaluating the expressions for an input element */
+  private static final class Failure
+  {
+    final Throwable error;
+    final JsonValue value;
+    
+    Failure(Throwable error, JsonValue value)
+    {
+      this.error = error;
+      this.value = value;
+    }
+  }
+  
+  private final class Task implements Callable<Morsel>
+  {
+    final Morsel morsel;
+    final Worker worker;
+    final SpillStats spillStats;
+    
+    Task(Morsel morsel, Worker worker, SpillStats spillStats)
+    {
+      this.morsel = morsel;
+      this.worker = worker;
+      this.spillStats = spillStats;
+    }
+    
+    @Override
+    public Morsel call() throws Exception
+    {
+      SpillStats oldStats = SpillStats.setCurrent(spillStats); // charge the query's spills 
+      try
+      {
+        for( JsonValue value: morsel.inputs )
+        {
+          worker.var.setValue(value);
+          try
+          {
+            evaluate(value);
+          }
+          catch( Throwable t )
+          {
+            morsel.results.add(new Failure(t, value));
+            if( mode != Mode.TRANSFORM ) // the other modes stop at the first error
+            {
+              break;
+            }
+          }
+        }
+        worker.var.undefine();
+        morsel.inputs.clear();
+        return morsel;
+      }
+      finally
+      {
+        SpillStats.setCurrent(oldStats);
+        idleWorkers.add(worker);
+      }
+    }
+    
+    private void evaluate(JsonValue value) throws Exception
+    {
+      Context context = worker.context;
+      switch( mode )
+      {
+        case EXPAND:
+          for( JsonValue v: worker.body[0].iter(context) )
+          {
+            morsel.results.add(JsonUtil.getCopy(v, null));
+          }
+          break;
+        case TRANSFORM:
+          morsel.results.add(JsonUtil.getCopy(worker.body[0].eval(context), null));
+          break;
+        case FILTER:
+          for( Expr pred: worker.body )
+          {
+            if( !JaqlUtil.ebv(pred.eval(context)) )
+            {
+              return;
+            }
+          }
+          morsel.results.add(value);
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.walk;
+
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.util.IntArray;
+
+/**
+ * A post-order walker that skips all subtrees whose rewrite stamp is the given stamp, i.e.,
+ * subtrees that have not been modified since they were last visited with that stamp (see
+ * {@link Expr#getRewriteStamp()}). With a fresh stamp, all expressions are visited in the same
+ * order as with the {@link PostOrderExprWalker}.
+ */
+public class ChangedExprWalker extends ExprWalker
+{
+  Expr     start;
+  Expr     cur;
+  int      stamp;
+  IntArray slots = new IntArray(); // index into Expr.exprs of current path from root to cur
+
+  /**
+   * reset must be called;
+   */
+  public ChangedExprWalker()
+  {
+  }
+
+  /**
+   * Start a walk that skips the subtrees that carry the given stamp.
+   * 
+   * @param start
+   * @param stamp
+   */
+  public void reset(Expr start, int stamp)
+  {
+    this.stamp = stamp;
+    reset(start);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see com.ibm.jaql.lang.walk.ExprWalker#reset(com.ibm.jaql.lang.expr.core.Expr)
+   */
+  public void reset(Expr start)
+  {
+    this.start = start;
+    slots.clear();
+    if (start == null || start.getRewriteStamp() == stamp)
+    {
+      cur = null;
+    }
+    else
+    {
+      cur = descend(start);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see com.ibm.jaql.lang.walk.ExprWalker#reset()
+   */
+  public void reset()
+  {
+    reset(start);
+  }
+
+  /**
+   * Return the first expression in post-order below e, skipping unchanged subtrees.
+   */
+  private Expr descend(Expr e)
+  {
+    int slot;
+    while ((slot = nextChanged(e, 0)) >= 0)
+    {
+      slots.add(slot);
+      e = e.child(slot);
+    }
+    return e;
+  }
+
+  /**
+   * Return the first slot at or after the given one whose child has been changed, or -1.
+   */
+  private int nextChanged(Expr e, int slot)
+  {
+    int n = e.numChildren();
+    for (; slot < n; slot++)
+    {
+      Expr c = e.child(slot);
+      if (c != null && c.getRewriteStamp() != stamp)
+      {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Return the next in a post-order traversal (non-Javadoc)
+   * 
+   * @see com.ibm.jaql.lang.walk.ExprWalker#next()
+   */
+  public Expr next()
+  {
+    Expr ret = cur;
+    if (ret == start || ret == null)
+    {
+      cur = null;
+    }
+    else
+    {
+      // pop up to the parent and go to the first changed descendant of the next changed sibling
+      cur = ret.parent();
+      int slot = nextChanged(cur, slots.pop() + 1);
+      if (slot >= 0)
+      {
+        slots.add(slot);
+        cur = descend(cur.child(slot));
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** A Bloom filter over 64-bit hash codes, such as those returned by 
+ * {@link com.ibm.jaql.json.type.JsonValue#longHashCode()}. The filter answers whether a
+ * hash code may have been added; false positives are possible, false negatives are not.
+ * Probe positions are derived from a single hash code by double hashing. */
+public class BloomFilter
+{
+  private long[] bits;
+  private long numBits;
+  private int numHashes;
+  
+  /** Creates a filter sized for <code>expectedItems</code> items using 
+   * <code>bitsPerItem</code> bits per item. */
+  public BloomFilter(long expectedItems, int bitsPerItem)
+  {
+    long n = Math.max(64, Math.max(1, expectedItems) * Math.max(1, bitsPerItem));
+    this.bits = new long[(int)Math.min(Integer.MAX_VALUE - 8, (n + 63) >>> 6)];
+    this.numBits = (long)bits.length << 6;
+    // k = ln(2) * m/n minimizes the false positive rate
+    this.numHashes = Math.max(1, Math.min(16, (int)Math.round(0.693 * bitsPerItem)));
+  }
+  
+  private BloomFilter()
+  {
+  }
+  
+  /** Adds the given hash code to the filter. */
+  public void add(long hash)
+  {
+    long h = mix(hash);
+    long h1 = h & 0xffffffffL;
+    long h2 = (h >>> 32) | 1;
+    for (int i = 0; i < numHashes; i++)
+    {
+      long p = (h1 + i * h2) % numBits;
+      bits[(int)(p >>> 6)] |= 1L << p;
+    }
+  }
+  
+  /** Returns false if the given hash code has definitely not been added to the filter. */
+  public boolean mightContain(long hash)
+  {
+    long h = mix(hash);
+    long h1 = h & 0xffffffffL;
+    long h2 = (h >>> 32) | 1;
+    for (int i = 0; i < numHashes; i++)
+    {
+      long p = (h1 + i * h2) % numBits;
+      if ((bits[(int)(p >>> 6)] & (1L << p)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /** Removes all hash codes from the filter. */
+  public void clear()
+  {
+    Arrays.fill(bits, 0);
+  }
+  
+  /** Returns the size of this filter in bytes. */
+  public long sizeInBytes()
+  {
+    return 8L * bits.length;
+  }
+  
+  /** Writes this filter to the given output. */
+  public void write(DataOutput out) throws IOException
+  {
+    BaseUtil.writeVUInt(out, numHashes);
+    BaseUtil.writeVUInt(out, bits.length);
+    for (long b : bits)
+    {
+      out.writeLong(b);
+    }
+  }
+  
+  /** Reads a filter written with {@link #write(DataOutput)}. */
+  public static BloomFilter read(DataInput in) throws IOException
+  {
+    BloomFilter f = new BloomFilter();
+    f.numHashes = BaseUtil.readVUInt(in);
+    f.bits = new long[BaseUtil.readVUInt(in)];
+    f.numBits = (long)f.bits.length << 6;
+    for (int i = 0; i < f.bits.length; i++)
+    {
+      f.bits[i] = in.readLong();
+    }
+    return f;
+  }
+  
+  /** Spreads the bits of a hash code; hash codes of small integers differ only in few bits. */
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
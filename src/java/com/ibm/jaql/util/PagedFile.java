@@ -21,7 +21,16 @@ import java.io.RandomAccessFile;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /** 
  * Methods to access a file consisting of a set of pages, including methods to 
@@ -29,8 +38,14 @@ import java.util.ConcurrentModificationException;
  * correspond to the order of their allocation, as freed pages will be reused to 
  * satisfy subsequent allocations. 
  * 
- * Jaql uses a single page file per JVM, which can be retrieved using 
- * {@link PagedFile#get()}. The page file is cleaned up when the JVM exits.
+ * Jaql keeps a few page files per JVM, which are handed out by the {@link SpillManager}.
+ * {@link PagedFile#get()} returns the one for the current thread. These page files are
+ * cleaned up when the JVM exits.
+ * 
+ * Pages can optionally be compressed on disk; a compressed page still occupies a full slot
+ * of the file but only the compressed bytes are written and read. Pages can also be written 
+ * behind: a write copies the page and returns, a background thread writes it, and reads of 
+ * the page are served from the copy until it is on disk.
  */
 public final class PagedFile
 {
@@ -40,14 +55,22 @@ public final class PagedFile
   protected ByteBuffer    freeList;	// list of free pages
   protected long          fileEnd;
   protected int           version;
+  protected final int     slotSize;     // bytes of a page on disk
+  protected boolean       shared;       // true for the page files of the SpillManager
 
-  private static final int       TEMP_PAGE_SIZE           = 64 * 1024;    // TODO: this is tuneable
-  private static final PagedFile pagedFile = makeTempPagedFile(); 
+  protected final Compressor   compressor;   // null if pages are not compressed
+  protected final Decompressor decompressor;
+  
+  protected final ExecutorService writer;   // null if pages are written synchronously
+  protected final int             writeBehind;
+  protected final Semaphore       writeSlots;
+  protected final ConcurrentHashMap<Long, ByteBuffer> pending; // pages not yet on disk
+  protected volatile IOException  writeError;
   
-  /** Return the global page file. */
+  /** Return the page file of the current thread. */
   public static PagedFile get()
   {
-    return pagedFile;
+    return SpillManager.get().arena();
   }
   
   /**
@@ -62,7 +85,7 @@ public final class PagedFile
       f.deleteOnExit();
       RandomAccessFile file = new RandomAccessFile(f, "rw");
       file.setLength(0);
-      PagedFile pf = new PagedFile(file.getChannel(), TEMP_PAGE_SIZE);
+      PagedFile pf = new PagedFile(file.getChannel(), SpillManager.DEFAULT_PAGE_SIZE);
       return pf;
     }
     catch (IOException ex)
@@ -79,8 +102,47 @@ public final class PagedFile
    * @throws IOException
    */
   public PagedFile(FileChannel file, int pageSize) throws IOException
+  {
+    this(file, pageSize, false, 0);
+  }
+  
+  /**
+   * pageSize must be a multiple of 8, >= 256, and acceptable to ByteBuffer
+   * 
+   * @param file
+   * @param pageSize
+   * @param compress compress pages on disk
+   * @param writeBehind the maximum number of pages that are written in the background, or 0 
+   *                    to write pages synchronously 
+   * @throws IOException
+   */
+  public PagedFile(FileChannel file, int pageSize, boolean compress, int writeBehind)
+    throws IOException
   {
     this.file = file;
+    slotSize = compress ? pageSize + 4 : pageSize; // length of the compressed page
+    compressor = compress ? new Compressor(pageSize) : null;
+    decompressor = compress ? new Decompressor(pageSize) : null;
+    this.writeBehind = writeBehind;
+    if (writeBehind > 0)
+    {
+      writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "jaql-pagefile-writer");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      writeSlots = new Semaphore(writeBehind);
+      pending = new ConcurrentHashMap<Long, ByteBuffer>();
+    }
+    else
+    {
+      writer = null;
+      writeSlots = null;
+      pending = null;
+    }
     freeList = ByteBuffer.allocate(pageSize);
     if (file.size() >= pageSize)
     {
@@ -106,8 +168,7 @@ public final class PagedFile
       long freeListHead = freeList.getLong();
       int freeLimit = freeList.getInt();
       // read the start of the freeList
-      freeList.clear();
-      file.read(freeList, freeListHead);
+      readPage(freeList, freeListHead);
       freeList.position(freeLimit);
       freeList.limit(pageSize);
     }
@@ -140,14 +201,15 @@ public final class PagedFile
    */
   public synchronized void clear()
   {
-    if (this == get())
+    if (shared)
     {
       throw new IllegalStateException("global page file must not be cleared");
     }
+    flush();
     
     // init the freeList
     version++;
-    fileEnd = pageSize(); // the first page is the file header
+    fileEnd = slotSize; // the first page is the file header
     freeList.clear();
     freeList.putLong(-1);
   }
@@ -165,8 +227,7 @@ public final class PagedFile
       // write the freeList to the last free page
       n -= 8;
       freeListHead = freeList.getLong(n);
-      freeList.clear();
-      file.write(freeList, freeListHead);
+      writePage(freeList, freeListHead, null);
     }
     else
     {
@@ -179,8 +240,24 @@ public final class PagedFile
     freeList.putInt(pageSize());
     freeList.putLong(freeListHead);
     freeList.putInt(n); // bytes on the last free list page
+    flush();
+    checkWriteError();
     freeList.clear();
     file.write(freeList, 0);
+    if (writer != null)
+    {
+      writer.shutdown();
+    }
+  }
+  
+  /** Waits until all pages written behind are on disk. */
+  public void flush()
+  {
+    if (writer != null)
+    {
+      writeSlots.acquireUninterruptibly(writeBehind);
+      writeSlots.release(writeBehind);
+    }
   }
 
   /** Adds a page to the list of free pages.
@@ -199,8 +276,7 @@ public final class PagedFile
       else
       {
         // If there is NO room in the in-memory free list, write the current free list to this page 
-        freeList.clear();
-        file.write(freeList, offset);
+        writePage(freeList, offset, null);
         freeList.clear();
         freeList.putLong(offset); // next page of free page pointers is this page
       }
@@ -246,18 +322,17 @@ public final class PagedFile
       if (nextFree >= 0)
       {
         // read the next (full) page of free page pointers
-        freeList.clear();
-        file.read(freeList, nextFree);
+        readPage(freeList, nextFree);
+        freeList.position(freeList.capacity());
       }
       else
       {
         // no more free blocks - extend the file
-        long pageSize = pageSize();
-        fileEnd += allocSize * pageSize;
+        fileEnd += allocSize * (long)slotSize;
         long page = fileEnd;
         for (int i = 0; i < allocSize; i++)
         {
-          page -= pageSize;
+          page -= slotSize;
           freePage(expectedVersion, page);
         }
       }
@@ -267,7 +342,7 @@ public final class PagedFile
 
     // take last pointer from the current freeList buffer
     long p = freeList.getLong(n);
-    assert p >= pageSize(); // the first page is the file file header
+    assert p >= slotSize; // the first page is the file file header
     freeList.position(n);
     return p;
   }
@@ -284,8 +359,7 @@ public final class PagedFile
       throw new ConcurrentModificationException("expected version " + expectedVersion 
           + " but found " + version);
     }
-    buffer.clear(); // write the whole page
-    file.write(buffer, offset);
+    writePage(buffer, offset, SpillStats.current()); // write the whole page
   }
 
   /**
@@ -296,8 +370,7 @@ public final class PagedFile
   public long write(int expectedVersion, ByteBuffer buffer) throws IOException
   {
     long offset = allocatePage(expectedVersion);
-    buffer.clear();
-    file.write(buffer, offset);
+    writePage(buffer, offset, SpillStats.current());
     return offset;
   }
 
@@ -313,9 +386,202 @@ public final class PagedFile
       throw new ConcurrentModificationException("expected version " + expectedVersion 
           + " but found " + version);
     }
-    buffer.clear();
-    file.read(buffer, offset);
+    readPage(buffer, offset);
     buffer.position(0);
   }
-
+  
+  /**
+   * Writes the whole page, in the background if pages are written behind.
+   * 
+   * @param stats charged with the page, if not null
+   */
+  protected void writePage(ByteBuffer page, long offset, final SpillStats stats) 
+    throws IOException
+  {
+    checkWriteError();
+    if (writer == null)
+    {
+      int n = writeSlot(page, offset);
+      if (stats != null)
+      {
+        stats.add(page.capacity(), n);
+      }
+      return;
+    }
+    
+    // copy the page; it is read from the copy until it has been written 
+    final ByteBuffer copy = ByteBuffer.allocate(page.capacity());
+    page.clear();
+    copy.put(page);
+    final Long key = offset;
+    writeSlots.acquireUninterruptibly();
+    pending.put(key, copy);
+    writer.execute(new Runnable() {
+      public void run()
+      {
+        try
+        {
+          int n = writeSlot(copy, key);
+          if (stats != null)
+          {
+            stats.add(copy.capacity(), n);
+          }
+        }
+        catch (IOException e)
+        {
+          writeError = e;
+        }
+        finally
+        {
+          pending.remove(key, copy);
+          writeSlots.release();
+        }
+      }
+    });
+  }
+  
+  /** Writes the page to its slot and returns the number of bytes written. */
+  private int writeSlot(ByteBuffer page, long offset) throws IOException
+  {
+    if (compressor == null)
+    {
+      page.clear();
+      file.write(page, offset);
+      return page.capacity();
+    }
+    synchronized (compressor)
+    {
+      ByteBuffer slot = compressor.compress(page);
+      file.write(slot, offset);
+      return slot.limit();
+    }
+  }
+  
+  /** Reads the whole page. */
+  protected void readPage(ByteBuffer buffer, long offset) throws IOException
+  {
+    checkWriteError();
+    buffer.clear();
+    if (pending != null)
+    {
+      ByteBuffer page = pending.get(offset);
+      if (page != null)
+      {
+        page = page.duplicate();
+        page.clear();
+        buffer.put(page);
+        return;
+      }
+    }
+    if (decompressor == null)
+    {
+      file.read(buffer, offset);
+      return;
+    }
+    synchronized (decompressor)
+    {
+      decompressor.read(file, buffer, offset);
+    }
+  }
+  
+  /** Rethrows the error of a failed write behind. */
+  private void checkWriteError() throws IOException
+  {
+    IOException e = writeError;
+    if (e != null)
+    {
+      IOException ioe = new IOException("failed to write page: " + e.getMessage());
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
+  
+  /** 
+   * Compresses pages into slots. A slot holds the length of the compressed page followed by the 
+   * compressed page, or -1 followed by the page if it does not compress.
+   */
+  private static final class Compressor
+  {
+    final Deflater   deflater = new Deflater(Deflater.BEST_SPEED, true);
+    final ByteBuffer slot;
+    
+    Compressor(int pageSize)
+    {
+      slot = ByteBuffer.allocate(pageSize + 4);
+    }
+    
+    ByteBuffer compress(ByteBuffer page)
+    {
+      int pageSize = page.capacity();
+      byte[] out = slot.array();
+      deflater.reset();
+      deflater.setInput(page.array(), page.arrayOffset(), pageSize);
+      deflater.finish();
+      int n = deflater.deflate(out, 4, pageSize);
+      slot.clear();
+      if (deflater.finished() && n < pageSize)
+      {
+        slot.putInt(0, n);
+        slot.limit(4 + n);
+      }
+      else
+      {
+        slot.putInt(0, -1);
+        System.arraycopy(page.array(), page.arrayOffset(), out, 4, pageSize);
+      }
+      return slot;
+    }
+  }
+  
+  /** Reads slots written by the {@link Compressor}. */
+  private static final class Decompressor
+  {
+    final Inflater   inflater = new Inflater(true);
+    final ByteBuffer slot;
+    
+    Decompressor(int pageSize)
+    {
+      slot = ByteBuffer.allocate(pageSize + 4);
+    }
+    
+    void read(FileChannel file, ByteBuffer buffer, long offset) throws IOException
+    {
+      slot.clear();
+      file.read(slot, offset);
+      byte[] page = buffer.array();
+      int off = buffer.arrayOffset();
+      int pageSize = buffer.capacity();
+      if (slot.position() < 4)
+      {
+        // never written
+        Arrays.fill(page, off, off + pageSize, (byte)0);
+        return;
+      }
+      int n = slot.getInt(0);
+      if (n < 0)
+      {
+        System.arraycopy(slot.array(), 4, page, off, pageSize);
+        return;
+      }
+      inflater.reset();
+      inflater.setInput(slot.array(), 4, n);
+      try
+      {
+        int len = 0;
+        while (!inflater.finished() && len < pageSize)
+        {
+          int k = inflater.inflate(page, off + len, pageSize - len);
+          if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          {
+            throw new IOException("truncated page at " + offset);
+          }
+          len += k;
+        }
+      }
+      catch (DataFormatException e)
+      {
+        throw new IOException("corrupt page at " + offset + ": " + e.getMessage());
+      }
+    }
+  }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands out the page files that hold the temporary data of a JVM, such as spilled arrays and
+ * hash tables. Instead of one page file, the pages are spread over several arenas so that
+ * threads that spill at the same time do not wait for each other: each arena is a page file of
+ * its own with its own lock, and a thread always uses the same arena. The page files of the
+ * arenas are created on first use in the spill directories, taking the directories in turn.
+ *
+ * The global manager is configured with system properties:
+ * <ul>
+ * <li><code>jaql.spill.dirs</code>: comma-separated spill directories (default: the temp
+ *     directory)</li>
+ * <li><code>jaql.spill.arenas</code>: number of arenas (default: number of processors)</li>
+ * <li><code>jaql.spill.page.size</code>: page size in bytes (default: 64K)</li>
+ * <li><code>jaql.spill.compress</code>: compress the pages on disk (default: false)</li>
+ * <li><code>jaql.spill.writeBehind</code>: number of pages per arena that are written in the
+ *     background, 0 to write synchronously (default: 0)</li>
+ * </ul>
+ */
+public final class SpillManager
+{
+  public static final String DIRS_PROPERTY         = "jaql.spill.dirs";
+  public static final String ARENAS_PROPERTY       = "jaql.spill.arenas";
+  public static final String PAGE_SIZE_PROPERTY    = "jaql.spill.page.size";
+  public static final String COMPRESS_PROPERTY     = "jaql.spill.compress";
+  public static final String WRITE_BEHIND_PROPERTY = "jaql.spill.writeBehind";
+
+  public static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+
+  private static SpillManager global;
+
+  private final File[] dirs;
+  private final int pageSize;
+  private final boolean compress;
+  private final int writeBehind;
+  private final AtomicReferenceArray<PagedFile> arenas;
+  private int nextDir;
+
+  /** Returns the global manager. */
+  public static synchronized SpillManager get()
+  {
+    if( global == null )
+    {
+      ArrayList<File> dirs = new ArrayList<File>();
+      for( String d: System.getProperty(DIRS_PROPERTY, "").split(",") )
+      {
+        if( d.trim().length() > 0 )
+        {
+          dirs.add(new File(d.trim()));
+        }
+      }
+      global = new SpillManager(
+          dirs.toArray(new File[dirs.size()]),
+          Integer.getInteger(ARENAS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+          Integer.getInteger(PAGE_SIZE_PROPERTY, DEFAULT_PAGE_SIZE),
+          Boolean.getBoolean(COMPRESS_PROPERTY),
+          Integer.getInteger(WRITE_BEHIND_PROPERTY, 0));
+    }
+    return global;
+  }
+
+  /**
+   * @param dirs the spill directories, or none for the temp directory
+   * @param numArenas
+   * @param pageSize a multiple of 8, >= 256
+   * @param compress compress the pages on disk
+   * @param writeBehind the number of pages per arena that are written in the background
+   */
+  public SpillManager(File[] dirs, int numArenas, int pageSize, boolean compress, int writeBehind)
+  {
+    if( pageSize < 256 || pageSize % 8 != 0 )
+    {
+      throw new IllegalArgumentException("invalid page size: " + pageSize);
+    }
+    this.dirs = dirs.length > 0 ? dirs : new File[] { null };
+    this.pageSize = pageSize;
+    this.compress = compress;
+    this.writeBehind = Math.max(writeBehind, 0);
+    this.arenas = new AtomicReferenceArray<PagedFile>(Math.max(numArenas, 1));
+  }
+
+  /** Returns the page file of the current thread. */
+  public PagedFile arena()
+  {
+    int i = (int)(Thread.currentThread().getId() % arenas.length());
+    PagedFile pf = arenas.get(i);
+    if( pf == null )
+    {
+      synchronized( this )
+      {
+        pf = arenas.get(i);
+        if( pf == null )
+        {
+          pf = makePagedFile(dirs[nextDir]);
+          nextDir = (nextDir + 1) % dirs.length;
+          arenas.set(i, pf);
+        }
+      }
+    }
+    return pf;
+  }
+
+  /** Returns the number of arenas. */
+  public int numArenas()
+  {
+    return arenas.length();
+  }
+
+  /** Creates a page file in dir that is deleted when the JVM exits. */
+  private PagedFile makePagedFile(File dir)
+  {
+    try
+    {
+      if( dir != null )
+      {
+        dir.mkdirs();
+      }
+      File f = File.createTempFile("jaql-pagefile", ".dat", dir);
+      f.deleteOnExit();
+      RandomAccessFile file = new RandomAccessFile(f, "rw");
+      file.setLength(0);
+      PagedFile pf = new PagedFile(file.getChannel(), pageSize, compress, writeBehind);
+      pf.shared = true;
+      return pf;
+    }
+    catch (IOException ex)
+    {
+      throw new UndeclaredThrowableException(ex);
+    }
+  }
+}
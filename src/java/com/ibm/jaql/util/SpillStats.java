@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the pages that a query spills to the {@link PagedFile}s. The statistics of the
+ * running query are bound to the threads that evaluate it, see {@link #current()}; pages that
+ * are written by other threads are not counted.
+ */
+public final class SpillStats
+{
+  private static final InheritableThreadLocal<SpillStats> current =
+    new InheritableThreadLocal<SpillStats>();
+
+  private final AtomicLong pages     = new AtomicLong();
+  private final AtomicLong bytes     = new AtomicLong();
+  private final AtomicLong diskBytes = new AtomicLong();
+
+  /** Returns the statistics bound to the current thread, or null. */
+  public static SpillStats current()
+  {
+    return current.get();
+  }
+
+  /** Binds stats to the current thread and returns the statistics bound before. */
+  public static SpillStats setCurrent(SpillStats stats)
+  {
+    SpillStats old = current.get();
+    current.set(stats);
+    return old;
+  }
+
+  /** Counts a page of <code>bytes</code> bytes that took <code>diskBytes</code> on disk. */
+  public void add(int bytes, int diskBytes)
+  {
+    this.pages.incrementAndGet();
+    this.bytes.addAndGet(bytes);
+    this.diskBytes.addAndGet(diskBytes);
+  }
+
+  /** Returns the number of pages written. */
+  public long getPages()
+  {
+    return pages.get();
+  }
+
+  /** Returns the number of bytes written, before compression. */
+  public long getBytes()
+  {
+    return bytes.get();
+  }
+
+  /** Returns the number of bytes written to disk. */
+  public long getDiskBytes()
+  {
+    return diskBytes.get();
+  }
+
+  /** Sets all counts to zero. */
+  public void clear()
+  {
+    pages.set(0);
+    bytes.set(0);
+    diskBytes.set(0);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "spilled " + getPages() + " pages, " + getBytes() + " bytes, "
+      + getDiskBytes() + " bytes on disk";
+  }
+}
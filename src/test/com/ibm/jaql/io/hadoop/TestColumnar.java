@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonDate;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.Jaql;
+import com.ibm.jaql.lang.JaqlQuery;
+import com.ibm.jaql.lang.expr.core.CompareExpr;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+
+public class TestColumnar {
+
+  private static final int ROW_GROUP_SIZE = 10;
+  private static final int NUM_VALUES = 100;
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    JsonParser parser = new JsonParser();
+    List<JsonValue> values = new ArrayList<JsonValue>();
+    for (int i = 0; i < NUM_VALUES; i++) {
+      values.add(parser.parse("{ id: " + i                               // delta
+          + ", run: 'r" + (i / 20) + "'"                                // run length
+          + ", dict: 'd" + (i * 7 % 3) + "'"                            // dictionary
+          + ", plain: 'p" + i + "'"                                     // plain
+          + ", mixed: " + (i % 2 == 0 ? "1.5" : "'x'")                  // no stats
+          + ", nested: [" + i + ", { a: null }]"
+          + (i % 3 == 0 ? ", sparse: null" : "")
+          + "}"));
+      if (i % 17 == 0) {
+        values.add(new JsonDate(1262304000000L + i * 1000L));
+        values.add(null);
+      }
+    }
+    Path file = write(values);
+    assertEquals(values, read(file, null, new ArrayList<ColumnarPredicate>()));
+  }
+
+  @Test
+  public void testProjectionAndSkipping() throws Exception {
+    List<JsonValue> values = new ArrayList<JsonValue>();
+    for (int i = 0; i < NUM_VALUES; i++) {
+      values.add(new JsonParser().parse("{ id: " + i + ", g: " + (i % 3) + ", s: 's" + i + "' }"));
+    }
+    Path file = write(values);
+
+    Set<JsonString> projection = new HashSet<JsonString>();
+    projection.add(new JsonString("id"));
+    ArrayList<ColumnarPredicate> predicates = new ArrayList<ColumnarPredicate>();
+    predicates.add(new ColumnarPredicate(new JsonString("id"), CompareExpr.GE, new JsonLong(85)));
+    predicates.add(new ColumnarPredicate(new JsonString("g"), CompareExpr.LT, new JsonLong(5)));
+    List<JsonValue> result = read(file, projection, predicates);
+
+    // only the row groups with ids 80..99 can match
+    assertEquals(2 * ROW_GROUP_SIZE, result.size());
+    for (int i = 0; i < result.size(); i++) {
+      assertEquals(new JsonParser().parse("{ id: " + (80 + i) + "}"), result.get(i));
+    }
+
+    // no row has the field, or the types differ
+    predicates.clear();
+    predicates.add(new ColumnarPredicate(new JsonString("none"), CompareExpr.EQ, new JsonLong(1)));
+    assertEquals(0, read(file, projection, predicates).size());
+    predicates.clear();
+    predicates.add(new ColumnarPredicate(new JsonString("s"), CompareExpr.EQ, new JsonLong(1)));
+    assertEquals(0, read(file, projection, predicates).size());
+  }
+
+  @Test
+  public void testPushDown() throws Exception {
+    String location = tempFile().getAbsolutePath();
+    evaluate("range(1, 100) -> transform { id: $, g: mod($, 3), s: strcat('s', $) }"
+        + " -> write(columnar('" + location + "', { conf: { '" + ColumnarFormat.ROW_GROUP_SIZE_NAME
+        + "': '" + ROW_GROUP_SIZE + "' } }))");
+
+    String q = "read(columnar('" + location + "')) -> filter $.id > 95 and 2 == $.g"
+        + " -> transform { $.id, x: $.s }";
+    Jaql jaql = new Jaql(q + ";");
+    JsonRecord options = findOptions(jaql.expr());
+    jaql.close();
+    assertNotNull(options);
+    assertEquals(new JsonParser().parse("['g', 'id', 's']"), options.get(ColumnarFormat.PROJECT_OPTION));
+    assertEquals(new JsonParser().parse(
+        "[{ field: 'id', op: '>', value: 95 }, { field: 'g', op: '==', value: 2 }]"),
+        options.get(ColumnarFormat.WHERE_OPTION));
+    assertEquals(new JsonParser().parse("[{ id: 98, x: 's98' }]"), evaluate(q));
+
+    // all fields are needed: no projection
+    q = "read(columnar('" + location + "')) -> filter $.id == 3";
+    jaql = new Jaql(q + ";");
+    assertEquals(null, findOptions(jaql.expr()));
+    jaql.close();
+    assertEquals(new JsonParser().parse("[{ id: 3, g: 0, s: 's3' }]"), evaluate(q));
+  }
+
+  private static Path write(List<JsonValue> values) throws Exception {
+    Path file = new Path(tempFile().getAbsolutePath());
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf);
+    ColumnarOutputFormat.ColumnarRecordWriter writer =
+        new ColumnarOutputFormat.ColumnarRecordWriter(fs.create(file), ROW_GROUP_SIZE);
+    JsonHolder key = new JsonHolderDefault();
+    JsonHolder value = new JsonHolderDefault();
+    for (JsonValue v : values) {
+      value.value = v;
+      writer.write(key, value);
+    }
+    writer.close(null);
+    return file;
+  }
+
+  private static List<JsonValue> read(Path file, Set<JsonString> projection,
+      ArrayList<ColumnarPredicate> predicates) throws Exception {
+    JobConf conf = new JobConf();
+    long length = FileSystem.getLocal(conf).getFileStatus(file).getLen();
+    // two splits, to check that each row group is read once
+    long half = length / 2;
+    List<JsonValue> result = new ArrayList<JsonValue>();
+    for (FileSplit split : new FileSplit[] {
+        new FileSplit(file, 0, half, (String[]) null),
+        new FileSplit(file, half, length - half, (String[]) null) }) {
+      ColumnarInputFormat.ColumnarRecordReader reader =
+          new ColumnarInputFormat.ColumnarRecordReader(split, conf, projection, predicates);
+      JsonHolder key = reader.createKey();
+      JsonHolder value = reader.createValue();
+      while (reader.next(key, value)) {
+        result.add(JsonUtil.getCopy(value.value, null));
+      }
+      assertFalse(reader.next(key, value));
+      reader.close();
+    }
+    return result;
+  }
+
+  private static File tempFile() throws Exception {
+    File file = File.createTempFile("jaql", "columnar");
+    file.delete();
+    file.deleteOnExit();
+    return file;
+  }
+
+  /** Returns the options of the read of the columnar file, if the compiler has set them. */
+  private static JsonRecord findOptions(Expr expr) {
+    if (expr instanceof ConstExpr && ((ConstExpr) expr).value instanceof JsonRecord) {
+      JsonRecord desc = (JsonRecord) ((ConstExpr) expr).value;
+      JsonValue options = desc.get(new JsonString("options"));
+      if (options instanceof JsonRecord
+          && ((JsonRecord) options).get(ColumnarFormat.PROJECT_OPTION) != null) {
+        return (JsonRecord) options;
+      }
+    }
+    for (int i = 0; i < expr.numChildren(); i++) {
+      JsonRecord options = findOptions(expr.child(i));
+      if (options != null) {
+        return options;
+      }
+    }
+    return null;
+  }
+
+  private static JsonValue evaluate(String q) throws Exception {
+    JaqlQuery query = new JaqlQuery(q + ";");
+    try {
+      return JsonUtil.getCopy(query.evaluate(), null);
+    } finally {
+      query.close();
+    }
+  }
+}
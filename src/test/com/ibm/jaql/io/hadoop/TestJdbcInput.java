@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.JaqlQuery;
+
+public class TestJdbcInput {
+
+  private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+  private static final String URL = "jdbc:derby:memory:jaqlTestJdbcInput;create=true";
+  private static final String QUERY = "select id, name from t";
+  private static final int NUM_ROWS = 1000;
+  private static final int NUM_NULLS = 10;
+
+  @BeforeClass
+  public static void createTable() throws Exception {
+    Connection conn = JdbcInputFormat.connect(DRIVER, URL, null);
+    conn.createStatement().execute("create table t (id bigint, name varchar(20))");
+    PreparedStatement insert = conn.prepareStatement("insert into t values (?, ?)");
+    // skewed keys: i^2
+    for (int i = 0; i < NUM_ROWS; i++) {
+      insert.setLong(1, (long) i * i);
+      insert.setString(2, "n" + i);
+      insert.addBatch();
+    }
+    for (int i = 0; i < NUM_NULLS; i++) {
+      insert.setNull(1, java.sql.Types.BIGINT);
+      insert.setString(2, "null" + i);
+      insert.addBatch();
+    }
+    insert.executeBatch();
+
+    // timestamps one minute (plus some millis) apart
+    conn.createStatement().execute("create table ts (created timestamp, name varchar(20))");
+    insert = conn.prepareStatement("insert into ts values (?, ?)");
+    for (int i = 0; i < NUM_ROWS; i++) {
+      insert.setTimestamp(1, new Timestamp(1262304000000L + i * 60123L));
+      insert.setString(2, "n" + i);
+      insert.addBatch();
+    }
+    for (int i = 0; i < NUM_NULLS; i++) {
+      insert.setNull(1, java.sql.Types.TIMESTAMP);
+      insert.setString(2, "null" + i);
+      insert.addBatch();
+    }
+    insert.executeBatch();
+    conn.close();
+  }
+
+  @Test
+  public void testRange() throws Exception {
+    int[] sizes = read(conf("range", null), 4);
+    assertEquals(4, sizes.length);
+    // equal-width ranges of skewed keys: the first range has the most rows
+    assertTrue(sizes[0] > sizes[3]);
+  }
+
+  @Test
+  public void testQuantile() throws Exception {
+    int[] sizes = read(conf("quantile", null), 4);
+    assertEquals(4, sizes.length);
+    for (int i = 1; i < sizes.length; i++) {
+      // about a quarter of the keys each
+      assertTrue(Math.abs(sizes[i] - NUM_ROWS / 4) < NUM_ROWS / 20);
+    }
+  }
+
+  @Test
+  public void testList() throws Exception {
+    int[] sizes = read(conf("list", "[250000, 10000, 10000]"), 10);
+    assertEquals(3, sizes.length);
+    assertEquals(100 + NUM_NULLS, sizes[0]); // 0..99^2 and the nulls
+    assertEquals(400, sizes[1]);
+    assertEquals(500, sizes[2]);
+  }
+
+  @Test
+  public void testTimestamp() throws Exception {
+    JobConf conf = conf("quantile", null);
+    conf.set(JdbcInputFormat.QUERY_KEY, "select created, name from ts");
+    conf.set(JdbcInputFormat.SPLIT_COLUMN_KEY, "created");
+    int[] sizes = read(conf, 4);
+    assertEquals(4, sizes.length);
+    for (int i = 1; i < sizes.length; i++) {
+      assertTrue(Math.abs(sizes[i] - NUM_ROWS / 4) < NUM_ROWS / 20);
+    }
+  }
+
+  @Test
+  public void testNone() throws Exception {
+    JobConf conf = conf(null, null);
+    int[] sizes = read(conf, 4);
+    assertEquals(1, sizes.length);
+  }
+
+  @Test
+  public void testAdapter() throws Exception {
+    String read = "read({ location: '" + URL + "', inoptions: {"
+        + " adapter: 'com.ibm.jaql.io.dbms.JdbcInputAdapter', driver: '" + DRIVER + "',"
+        + " query: '" + QUERY + "', fetchSize: 100 %s } })";
+    JsonValue serial = evaluate(String.format(read, "") + " -> sort by [$.name]");
+    assertEquals((long) NUM_ROWS + NUM_NULLS, ((JsonArray) serial).count());
+    for (String split : new String[] {
+        ", split: { strategy: 'range', column: 'id', count: 4 }",
+        ", split: { strategy: 'quantile', column: 'id', count: 3 }, threads: 2",
+        ", split: { strategy: 'list', column: 'id', points: [5, 50000] }" }) {
+      assertEquals(split, serial, evaluate(String.format(read, split) + " -> sort by [$.name]"));
+    }
+  }
+
+  private static JobConf conf(String strategy, String points) {
+    JobConf conf = new JobConf();
+    conf.set(JdbcInputFormat.DRIVER_KEY, DRIVER);
+    conf.set(JdbcInputFormat.URL_KEY, URL);
+    conf.set(JdbcInputFormat.QUERY_KEY, QUERY);
+    conf.setInt(JdbcInputFormat.FETCH_SIZE_KEY, 50);
+    if (strategy != null) {
+      conf.set(JdbcInputFormat.SPLIT_STRATEGY_KEY, strategy);
+      conf.set(JdbcInputFormat.SPLIT_COLUMN_KEY, "id");
+    }
+    if (points != null) {
+      conf.set(JdbcInputFormat.SPLIT_POINTS_KEY, points);
+    }
+    return conf;
+  }
+
+  /**
+   * Reads all splits, after a serialization round trip, and checks that each row is read once.
+   *
+   * @return the number of rows of each split
+   */
+  private static int[] read(JobConf conf, int numSplits) throws Exception {
+    JdbcInputFormat format = new JdbcInputFormat();
+    InputSplit[] splits = format.getSplits(conf, numSplits);
+    int[] sizes = new int[splits.length];
+    Set<String> names = new HashSet<String>();
+    for (int i = 0; i < splits.length; i++) {
+      DataOutputBuffer out = new DataOutputBuffer();
+      splits[i].write(out);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      JdbcInputFormat.JdbcSplit split = new JdbcInputFormat.JdbcSplit();
+      split.readFields(in);
+      assertSameBound(((JdbcInputFormat.JdbcSplit) splits[i]).low, split.low);
+      assertSameBound(((JdbcInputFormat.JdbcSplit) splits[i]).high, split.high);
+
+      RecordReader<JsonHolder, JsonHolder> reader = format.getRecordReader(split, conf,
+          Reporter.NULL);
+      JsonHolder key = reader.createKey();
+      JsonHolder value = reader.createValue();
+      while (reader.next(key, value)) {
+        String name = ((JsonRecord) value.value).get(new JsonString("name")).toString();
+        assertTrue(name, names.add(name));
+        sizes[i]++;
+      }
+      reader.close();
+    }
+    assertEquals(NUM_ROWS + NUM_NULLS, names.size());
+    return sizes;
+  }
+
+  /** Checks that a bound has the same type and value after a serialization round trip. */
+  private static void assertSameBound(JsonValue expected, JsonValue actual) {
+    if (expected == null) {
+      assertNull(actual);
+    } else {
+      assertEquals(expected.getType(), actual.getType());
+      assertEquals(0, JsonUtil.compare(expected, actual));
+    }
+  }
+
+  private static JsonValue evaluate(String q) throws Exception {
+    JaqlQuery query = new JaqlQuery(q + ";");
+    try {
+      return new JsonParser().parse(query.evaluate().toString());
+    } finally {
+      query.close();
+    }
+  }
+}
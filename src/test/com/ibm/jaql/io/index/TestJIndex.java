@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.JsonIterator;
+
+public class TestJIndex {
+
+  private static final int NUM_KEYS = 10000;
+  
+  private String filename;
+
+  @Before
+  public void setUp() throws Exception {
+    File file = File.createTempFile("jaql", "jindex");
+    file.delete();
+    filename = file.getPath();
+  }
+  
+  @After
+  public void tearDown() {
+    new File(filename + JIndexWriter.FILE_SUFFIX).delete();
+  }
+
+  @Test
+  public void testRangeScan() throws Exception {
+    write(1024, 10);
+    JIndexReader reader = new JIndexReader(filename);
+    assertEquals(2L * NUM_KEYS, reader.size());
+    check(reader.rangeScan(null, null), 0, NUM_KEYS - 1);
+    check(reader.rangeScan(new JsonLong(500), new JsonLong(2500)), 500, 2500);
+    check(reader.rangeScan(new JsonLong(-5), new JsonLong(3)), 0, 3);
+    check(reader.rangeScan(new JsonLong(NUM_KEYS - 3), null), NUM_KEYS - 3, NUM_KEYS - 1);
+    check(reader.rangeScan(new JsonLong(NUM_KEYS), null), 0, -1);
+    
+    // two scans at the same time
+    JsonIterator it1 = reader.rangeScan(new JsonLong(10), new JsonLong(10));
+    JsonIterator it2 = reader.rangeScan(new JsonLong(20), new JsonLong(20));
+    assertTrue(it1.moveNext());
+    assertTrue(it2.moveNext());
+    assertEquals(new JsonLong(10), ((JsonArray)it1.current()).get(0));
+    assertEquals(new JsonLong(20), ((JsonArray)it2.current()).get(0));
+    reader.close();
+  }
+
+  @Test
+  public void testPointLookup() throws Exception {
+    write(4096, 10);
+    JIndexReader reader = new JIndexReader(filename);
+    for (int i = 0; i < NUM_KEYS; i += 7) {
+      JsonValue key = new JsonLong(i);
+      check(reader.rangeScan(key, key), i, i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      JsonValue key = new JsonLong(NUM_KEYS + i);
+      assertFalse(reader.rangeScan(key, key).moveNext());
+    }
+    reader.close();
+  }
+
+  @Test
+  public void testNoBloom() throws Exception {
+    write(1, 0);
+    JIndexReader reader = new JIndexReader(filename);
+    check(reader.rangeScan(new JsonLong(77), new JsonLong(77)), 77, 77);
+    check(reader.rangeScan(new JsonLong(77), new JsonLong(81)), 77, 81);
+    reader.close();
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    new JIndexWriter(filename, 1024, 10).close();
+    JIndexReader reader = new JIndexReader(filename);
+    assertFalse(reader.rangeScan(null, null).moveNext());
+    assertFalse(reader.rangeScan(new JsonLong(1), new JsonLong(1)).moveNext());
+    reader.close();
+  }
+
+  /** Writes each key twice. */
+  private void write(int blockSize, int bloomBits) throws Exception {
+    JIndexWriter writer = new JIndexWriter(filename, blockSize, bloomBits);
+    for (int i = 0; i < NUM_KEYS; i++) {
+      for (int j = 0; j < 2; j++) {
+        writer.add(new JsonLong(i), new JsonString("value" + i + "-" + j));
+      }
+    }
+    writer.close();
+  }
+
+  private void check(JsonIterator it, int low, int high) throws Exception {
+    for (int i = low; i <= high; i++) {
+      for (int j = 0; j < 2; j++) {
+        assertTrue(it.moveNext());
+        JsonArray pair = (JsonArray) it.current();
+        assertEquals(new JsonLong(i), pair.get(0));
+        assertEquals(new JsonString("value" + i + "-" + j), pair.get(1));
+      }
+    }
+    assertFalse(it.moveNext());
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.io.serialization.text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import com.ibm.jaql.io.hadoop.converter.ToJsonTextConverter;
+import com.ibm.jaql.io.stream.converter.JsonTextOutputStream;
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonDate;
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.util.FastPrintBuffer;
+
+public class TestJsonTextWriter {
+
+  @Test
+  public void testSameAsSerializer() throws Exception {
+    JsonTextWriter pretty = new JsonTextWriter(false);
+    JsonTextWriter oneLine = new JsonTextWriter(true);
+    for (JsonValue v : values()) {
+      FastPrintBuffer out = new FastPrintBuffer();
+      JsonUtil.print(out, v);
+      out.close();
+      String expected = out.toString();
+
+      pretty.reset();
+      pretty.write(v);
+      assertEquals(expected, new String(pretty.getBytes(), 0, pretty.getLength(), "UTF-8"));
+
+      oneLine.reset();
+      oneLine.write(v);
+      assertEquals(expected.replace("\r", "").replace("\n", ""),
+          new String(oneLine.getBytes(), 0, oneLine.getLength(), "UTF-8"));
+    }
+  }
+
+  @Test
+  public void testConverter() throws Exception {
+    ToJsonTextConverter converter = new ToJsonTextConverter();
+    Text text = new Text();
+    JsonValue v = new JsonParser().parse("{ a: [1, 'x\\ny'], b: {} }");
+    converter.convert(v, NullWritable.get(), text);
+    assertEquals("{  \"a\": [    1,    \"x\\ny\"  ],  \"b\": {}}", text.toString());
+
+    // the target is reused
+    converter.convert(new JsonLong(7), NullWritable.get(), text);
+    assertEquals("7", text.toString());
+  }
+
+  @Test
+  public void testOutputStream() throws Exception {
+    JsonTextOutputStream stream = new JsonTextOutputStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    stream.setOutputStream(bytes);
+    List<JsonValue> values = values();
+    FastPrintBuffer expected = new FastPrintBuffer();
+    expected.print("[");
+    String sep = "";
+    for (JsonValue v : values) {
+      stream.write(v);
+      expected.print(sep);
+      JsonUtil.print(expected, v);
+      sep = ",";
+    }
+    expected.print("]");
+    expected.close();
+    stream.close();
+    assertEquals(expected.toString(), bytes.toString("UTF-8"));
+  }
+
+  private static List<JsonValue> values() throws Exception {
+    List<JsonValue> values = new ArrayList<JsonValue>();
+    values.add(null);
+    values.add(new JsonLong(0));
+    values.add(new JsonLong(-17));
+    values.add(new JsonLong(Long.MIN_VALUE));
+    values.add(new JsonLong(Long.MAX_VALUE));
+    values.add(new JsonDouble(-1.5e-300));
+    values.add(new JsonDecimal(new BigDecimal("123.450")));
+    values.add(new JsonDate(1262304000000L));
+    values.add(new JsonString(""));
+    values.add(new JsonString("quotes \" ' \\ and \b\f\n\r\t \u0001\u007f"));
+    values.add(new JsonString("caf\u00e9 \u0085 \u20ac \ud834\udd1e"));
+    values.add(new JsonParser().parse("[]"));
+    values.add(new JsonParser().parse("{}"));
+    values.add(new JsonParser().parse(
+        "{ b: [1, true, null, [], {}, [[2]]], a: { c: 'd', e: date('2010-01-01T00:00:00Z') },"
+        + " f: false, g: 3.25 }"));
+    return values;
+  }
+}
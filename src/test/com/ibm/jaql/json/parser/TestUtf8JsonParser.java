@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+
+public class TestUtf8JsonParser {
+
+  private static final String[] VALUES = {
+    "null", "true", "FALSE", "Null",
+    "0", "-12", "+5", "9223372036854775807", "-9223372036854775808",
+    "1.5", "-0.25", "1e3", "2.5E-2", "7d", "1.5d",
+    "''", "'abc'", "\"abc\"", "'it\\'s'", "\"a\\\"b\"", "'\\\\ \\/ \\b \\f \\n \\r \\t'",
+    "'\\u00e4\\u4e2d'", "'\\x41'", "'ä中'", "'line\\\ncontinued'", "'two\r\nlines'",
+    "'a' + 'b' \"c\"", "'a' 'b'",
+    "[]", "[ 1, 'two', [3], {} ]", "[null, true, 1.0]",
+    "{}", "{a:1}", "{\"a\": 1, 'b': 2, c_1: [3]}", "{@x: 1, _y#2: 2}",
+    "{a: {b: {c: 'deep'}}, d: [{e: 1}, {e: 2}]}",
+    "/* comment */ [1, // line comment\n 2]",
+  };
+
+  @Test
+  public void testSameAsJsonParser() throws Exception {
+    for (String s : VALUES) {
+      JsonValue expected = new JsonParser(new StringReader(s)).JsonVal();
+      check(s, expected, parse(s, null));
+      check(s, expected, parseStream(s, null));
+    }
+  }
+
+  @Test
+  public void testDecimal() throws Exception {
+    JsonValue v = parse("1.5m", null);
+    assertTrue(v instanceof JsonDecimal);
+    assertEquals("1.5", ((JsonDecimal) v).get().toString());
+    assertEquals("-3", ((JsonDecimal) parse("-3m", null)).get().toString());
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    String[] invalid = { "[1,]", "{a:}", "{a 1}", "'open", "0x10", "[1 2]", "{1: 2}",
+        "'\\q'", "9223372036854775808", "foo(", "/* open" };
+    for (String s : invalid) {
+      try {
+        parse(s, null);
+        fail("expected a parse error for " + s);
+      } catch (ParseException e) {
+        // expected
+      }
+    }
+    // characters that cannot start a token are lexical errors, as in the JsonParser
+    for (String s : new String[] { "[1, #]", "[1, \u0081]" }) {
+      try {
+        parse(s, null);
+        fail("expected a lexical error for " + s);
+      } catch (TokenMgrError e) {
+        // expected
+      }
+    }
+    try {
+      parse("{a: 1, a: 2}", null);
+      fail("expected duplicate field name");
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTopLevel() throws Exception {
+    Utf8JsonParser parser = new Utf8JsonParser();
+    byte[] b = "1 2".getBytes("UTF-8");
+    parser.setInput(b, 0, b.length);
+    assertEquals("1", parser.jsonVal(null).toString());
+    assertEquals("2", parser.jsonVal(null).toString());
+    assertSame(JsonParser.NIL, parser.jsonVal(null));
+
+    parser.setInput(b, 0, b.length);
+    try {
+      parser.topVal(null);
+      fail("expected a parse error");
+    } catch (ParseException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testArrayElements() throws Exception {
+    StringBuilder sb = new StringBuilder("[");
+    int n = 20000; // spans several buffers
+    for (int i = 0; i < n; i++) {
+      sb.append(i == 0 ? "" : ",\n").append("{id: ").append(i).append(", name: 'n").append(i)
+          .append("'}");
+    }
+    sb.append("]");
+    Utf8JsonParser parser = new Utf8JsonParser();
+    parser.setInput(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+    JsonValue v = parser.arrayFirst(null);
+    JsonValue first = v;
+    int i = 0;
+    while (v != JsonParser.NIL) {
+      assertSame(first, v);
+      BufferedJsonRecord rec = (BufferedJsonRecord) v;
+      assertEquals(Integer.toString(i), rec.get(new JsonString("id")).toString());
+      assertEquals("n" + i, rec.get(new JsonString("name")).toString());
+      i++;
+      v = parser.arrayNext(v);
+    }
+    assertEquals(n, i);
+
+    parser.setInput(new ByteArrayInputStream("[]".getBytes("UTF-8")));
+    assertSame(JsonParser.NIL, parser.arrayFirst(null));
+  }
+
+  @Test
+  public void testTargetReuse() throws Exception {
+    JsonValue target = parse("{a: 1, b: 'x', c: [1, 2, 3]}", null);
+    BufferedJsonRecord rec = (BufferedJsonRecord) target;
+    JsonValue a = rec.get(new JsonString("a"));
+    JsonValue c = rec.get(new JsonString("c"));
+
+    // same layout: everything is reused
+    JsonValue v = parse("{a: 2, b: 'yy', c: [4]}", target);
+    assertSame(target, v);
+    assertSame(a, rec.get(new JsonString("a")));
+    assertSame(c, rec.get(new JsonString("c")));
+    check("", parse("{a: 2, b: 'yy', c: [4]}", null), v);
+
+    // fewer fields
+    v = parse("{a: 3}", target);
+    assertSame(target, v);
+    check("", parse("{a: 3}", null), v);
+
+    // different layout
+    v = parse("{b: 'z', x: 5, a: 4}", target);
+    assertSame(target, v);
+    check("", parse("{b: 'z', x: 5, a: 4}", null), v);
+    assertEquals(3, ((BufferedJsonRecord) v).size());
+    assertEquals("4", rec.get(new JsonString("a")).toString());
+
+    // different type
+    v = parse("[1, 2]", target);
+    assertTrue(v instanceof BufferedJsonArray);
+  }
+
+  private static JsonValue parse(String s, JsonValue target) throws Exception {
+    Utf8JsonParser parser = new Utf8JsonParser();
+    byte[] b = s.getBytes("UTF-8");
+    parser.setInput(b, 0, b.length);
+    return parser.topVal(target);
+  }
+
+  private static JsonValue parseStream(String s, JsonValue target) throws Exception {
+    Utf8JsonParser parser = new Utf8JsonParser();
+    InputStream in = new ByteArrayInputStream(s.getBytes("UTF-8")) {
+      // return one byte at a time to exercise buffer refills
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+    parser.setInput(in);
+    return parser.topVal(target);
+  }
+
+  private static void check(String s, JsonValue expected, JsonValue actual) throws Exception {
+    assertEquals(s, expected == null ? null : expected.getType(),
+        actual == null ? null : actual.getType());
+    assertTrue(s, JsonUtil.equals(expected, actual));
+  }
+}
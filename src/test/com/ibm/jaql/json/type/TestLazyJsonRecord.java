@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.type;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ibm.jaql.io.serialization.binary.BinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.DefaultBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.def.LazyBinaryFullSerializer;
+import com.ibm.jaql.io.serialization.binary.temp.TempBinaryFullSerializer;
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.schema.SchemaFactory;
+
+public class TestLazyJsonRecord {
+
+	String rec = "{ name: 'x', id: 7, score: 1.5d, ok: true, tags: ['a', 'b', null], "
+		+ "nested: { a: [1, { b: 'c' }], d: {} }, empty: [] }";
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		JsonValue expected = new JsonParser().parse(rec);
+		JsonValue value = readLazy(write(expected));
+
+		Assert.assertTrue(value instanceof LazyJsonRecord);
+		Assert.assertEquals(0, JsonUtil.compare(expected, value));
+		Assert.assertEquals(0, JsonUtil.compare(value, expected));
+		Assert.assertEquals(expected.longHashCode(), value.longHashCode());
+		Assert.assertEquals(expected.toString(), value.toString());
+
+		JsonRecord r = (JsonRecord)value;
+		Assert.assertEquals(7, r.size());
+		Assert.assertTrue(r.get(new JsonString("tags")) instanceof LazyJsonArray);
+		Assert.assertTrue(r.get(new JsonString("nested")) instanceof LazyJsonRecord);
+		Assert.assertEquals(new JsonLong(7), r.get(new JsonString("id")));
+		Assert.assertNull(r.get(new JsonString("missing")));
+		Assert.assertFalse(r.containsKey(new JsonString("missing")));
+	}
+
+	@Test
+	public void testDecodeOnDemand() throws Exception {
+		LazyJsonRecord r = (LazyJsonRecord)readLazy(write(new JsonParser().parse(rec)));
+
+		Assert.assertEquals(new JsonString("x"), r.get(new JsonString("name")));
+		int decoded = 0;
+		for (int i=0; i<r.size(); i++) {
+			if (r.isDecoded[i]) decoded++;
+		}
+		Assert.assertEquals(1, decoded);
+
+		LazyJsonArray a = (LazyJsonArray)((JsonRecord)r.get(new JsonString("nested"))).get(new JsonString("a"));
+		Assert.assertEquals(2L, a.count());
+		Assert.assertEquals(new JsonString("c"), ((JsonRecord)a.get(1)).get(new JsonString("b")));
+		Assert.assertFalse(a.isDecoded[0]);
+	}
+
+	@Test
+	public void testCopyIsMutable() throws Exception {
+		JsonValue expected = new JsonParser().parse(rec);
+		LazyJsonRecord r = (LazyJsonRecord)readLazy(write(expected));
+
+		BufferedJsonRecord copy = r.getCopy(null);
+		Assert.assertEquals(0, JsonUtil.compare(expected, copy));
+		Assert.assertTrue(copy.get(new JsonString("nested")) instanceof BufferedJsonRecord);
+		copy.set(new JsonString("id"), new JsonLong(8));
+		Assert.assertEquals(new JsonLong(7), r.get(new JsonString("id")));
+
+		JsonRecord immutable = r.getImmutableCopy();
+		Assert.assertEquals(0, JsonUtil.compare(r, immutable));
+	}
+
+	@Test
+	public void testWriteIsPassThrough() throws Exception {
+		byte[] bytes = write(new JsonParser().parse(rec));
+		LazyJsonRecord r = (LazyJsonRecord)readLazy(bytes);
+		r.get(new JsonString("nested"));
+		Assert.assertTrue(Arrays.equals(bytes, write(r)));
+		Assert.assertTrue(Arrays.equals(write(new JsonParser().parse("[1, { b: 'c' }]")),
+				write(((JsonRecord)r.get(new JsonString("nested"))).get(new JsonString("a")))));
+	}
+
+	@Test
+	public void testReuseTarget() throws Exception {
+		BinaryFullSerializer serializer = LazyBinaryFullSerializer.getInstance();
+		byte[] bytes1 = write(new JsonParser().parse("{ a: { b: 1 }, c: 'first' }"));
+		byte[] bytes2 = write(new JsonParser().parse("{ a: { b: 2 }, c: 'second' }"));
+		JsonRecord r = (JsonRecord)serializer.read(input(bytes1), null);
+		JsonValue nested = r.get(new JsonString("a"));
+
+		// nested values remain valid when their parent is reused
+		JsonRecord r2 = (JsonRecord)serializer.read(input(bytes2), r);
+		Assert.assertSame(r, r2);
+		Assert.assertEquals(new JsonString("second"), r2.get(new JsonString("c")));
+		Assert.assertEquals(new JsonLong(1), ((JsonRecord)nested).get(new JsonString("b")));
+		Assert.assertEquals(new JsonLong(2), ((JsonRecord)r2.get(new JsonString("a"))).get(new JsonString("b")));
+	}
+
+	@Test
+	public void testTempSerializer() throws Exception {
+		JsonValue expected = new JsonParser().parse(rec);
+		TempBinaryFullSerializer serializer = new TempBinaryFullSerializer(SchemaFactory.anySchema());
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		serializer.write(new DataOutputStream(bout), expected);
+
+		JsonValue value = new TempBinaryFullSerializer(SchemaFactory.anySchema(), true)
+			.read(input(bout.toByteArray()), null);
+		Assert.assertTrue(value instanceof LazyJsonRecord);
+		Assert.assertEquals(0, JsonUtil.compare(expected, value));
+	}
+
+	@Test
+	public void testSpilledJsonArray() throws Exception {
+		SpilledJsonArray arr = new SpilledJsonArray(0);
+		for (int i=0; i<100; i++) {
+			arr.addCopy(new JsonParser().parse("{ i: " + i + ", v: [" + i + "] }"));
+		}
+		int i = 0;
+		for (JsonValue v : arr.iter()) {
+			Assert.assertTrue(v instanceof LazyJsonRecord);
+			Assert.assertEquals(new JsonLong(i), ((JsonRecord)v).get(new JsonString("i")));
+			i++;
+		}
+		Assert.assertEquals(100, i);
+		JsonRecord r = (JsonRecord)arr.get(42);
+		Assert.assertEquals(new JsonLong(42), ((JsonArray)r.get(new JsonString("v"))).get(0));
+	}
+
+	private static byte[] write(JsonValue value) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DefaultBinaryFullSerializer.getInstance().write(new DataOutputStream(bout), value);
+		return bout.toByteArray();
+	}
+
+	private static JsonValue readLazy(byte[] bytes) throws Exception {
+		return LazyBinaryFullSerializer.getInstance().read(input(bytes), null);
+	}
+
+	private static DataInputStream input(byte[] bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+}
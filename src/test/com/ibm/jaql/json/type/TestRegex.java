@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.json.type;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+import org.junit.Test;
+
+public class TestRegex
+{
+  @Test
+  public void testSharedPattern()
+  {
+    JsonRegex a = new JsonRegex("a+b", (byte)JsonRegex.CASE_INSENSITIVE);
+    JsonRegex b = new JsonRegex("a+b", (byte)JsonRegex.CASE_INSENSITIVE);
+    JsonRegex c = new JsonRegex("a+b", (byte)0);
+    assertSame(a.getPattern(), b.getPattern());
+    assertNotSame(a.getPattern(), c.getPattern());
+    assertSame(a.getPattern(), a.clone().getPattern());
+  }
+
+  @Test
+  public void testMatcherReuse()
+  {
+    JsonRegex regex = new JsonRegex("x(y*)", (byte)0);
+    Matcher m1 = regex.takeMatcher();
+    Matcher m2 = regex.takeMatcher(); // nested use gets its own matcher
+    assertNotSame(m1, m2);
+    m1.reset(new JsonString("axyyb"));
+    assertTrue(m1.find());
+    assertEquals("yy", m1.group(1));
+    regex.returnMatcher(m1);
+    regex.returnMatcher(m2);
+    Matcher m3 = regex.takeMatcher();
+    assertTrue(m3 == m1 || m3 == m2);
+    assertFalse(m3.find()); // the previous input was dropped
+    regex.returnMatcher(m3);
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception
+  {
+    final JsonRegex regex = new JsonRegex("([a-z]+)([0-9]+)", (byte)0);
+    final AtomicInteger errors = new AtomicInteger();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++)
+    {
+      final int id = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < 2000; i++)
+          {
+            String word = "t" + (char)('a' + id);
+            Matcher m = regex.takeMatcher();
+            m.reset(new JsonString("-- " + word + i + " --"));
+            if (!m.find() || !m.group(1).equals(word) || !m.group(2).equals("" + i))
+            {
+              errors.incrementAndGet();
+            }
+            regex.returnMatcher(m);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    assertEquals(0, errors.get());
+  }
+
+  @Test
+  public void testCharSequence() throws Exception
+  {
+    byte[] utf8 = "xxhello worldxx".getBytes("UTF-8");
+    JsonString ascii = new SubJsonString(utf8, 2, 11);
+    assertEquals(11, ascii.length());
+    assertEquals('w', ascii.charAt(6));
+    assertEquals("lo w", ascii.subSequence(3, 7).toString());
+    try
+    {
+      ascii.charAt(11);
+      fail();
+    }
+    catch (IndexOutOfBoundsException e)
+    {
+      // expected
+    }
+
+    JsonString unicode = new JsonString("gr\u00fc\u00dfe".getBytes("UTF-8"));
+    assertEquals(5, unicode.length());
+    assertEquals('\u00df', unicode.charAt(3));
+    assertEquals("\u00fc\u00df", unicode.subSequence(2, 4).toString());
+
+    MutableJsonString s = new MutableJsonString("abc");
+    assertEquals(3, s.length());
+    s.setCopy("\u00e4bc".getBytes("UTF-8"));
+    assertEquals(3, s.length());
+    assertEquals('\u00e4', s.charAt(0));
+
+    Matcher m = new JsonRegex("o w", (byte)0).takeMatcher();
+    m.reset(ascii);
+    assertTrue(m.find());
+    assertEquals(4, m.start());
+    assertEquals("hell_orld", m.reset(ascii).replaceAll("_"));
+  }
+}
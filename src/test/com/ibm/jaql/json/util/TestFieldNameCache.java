@@ -38,4 +38,58 @@ public class TestFieldNameCache {
 			assertTrue(cachedA == cachedB);
 		}
 	}
+	
+	@Test
+	/*
+	 * Tests whether hits and misses are counted
+	 */
+	public void testCounters() throws Exception {
+		JsonString field = new JsonString("CounterTest");
+		FieldNameCache.get(field);
+		long hits = FieldNameCache.hits();
+		long misses = FieldNameCache.misses();
+		FieldNameCache.get(new JsonString("CounterTest"));
+		assertEquals(hits, FieldNameCache.hits()); // not counted by default
+		
+		FieldNameCache.setCounting(true);
+		try {
+			FieldNameCache.get(new JsonString("CounterTest"));
+			assertEquals(hits + 1, FieldNameCache.hits());
+			assertEquals(misses, FieldNameCache.misses());
+			FieldNameCache.get(new JsonString("CounterTest2"));
+			assertEquals(misses + 1, FieldNameCache.misses());
+		} finally {
+			FieldNameCache.setCounting(false);
+		}
+	}
+	
+	@Test
+	/*
+	 * Tests whether the cache stays usable when more distinct names than its
+	 * capacity are inserted concurrently
+	 */
+	public void testConcurrent() throws Exception {
+		final int n = 4 * FieldNameCache.capacity();
+		final Throwable[] error = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < n; i++) {
+							JsonString field = new JsonString("field" + i);
+							assertEquals(field, FieldNameCache.get(field));
+						}
+					} catch (Throwable e) {
+						error[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(null, error[0]);
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.util.JsonIterator;
+
+public class TestPlanCache {
+
+  @Test
+  public void testNormalize() {
+    assertEquals("a + 1;", PlanCache.normalize("  a  +\n\t1;  "));
+    assertEquals("a + 1;", PlanCache.normalize("a // note\n+ /* also\na note */ 1;"));
+    assertEquals("'a  b' + \"c\\\"  d\";", PlanCache.normalize("'a  b'  +  \"c\\\"  d\";"));
+    String here = "<<END\n  x  y\nEND\n";
+    assertEquals(here, PlanCache.normalize(here));
+  }
+
+  @Test
+  public void testReuseWithNewParameters() throws Exception {
+    Jaql jaql = new Jaql();
+    jaql.setVar("$x", new JsonLong(1));
+    jaql.setInput("$x + 1;");
+    assertEquals(new JsonLong(2), jaql.evaluate());
+
+    jaql.setVar("$x", new JsonLong(5));
+    jaql.setInput("$x  +  1;");
+    assertEquals(new JsonLong(6), jaql.evaluate());
+    assertEquals(1L, jaql.getPlanCache().numHits());
+    jaql.close();
+  }
+
+  @Test
+  public void testConcurrentIterators() throws Exception {
+    Jaql jaql = new Jaql();
+    String query = "range(1, 3) -> transform $ * 10;";
+    jaql.setInput(query);
+    JsonIterator i1 = jaql.iterate();
+    jaql.setInput(query);
+    JsonIterator i2 = jaql.iterate();
+    assertEquals(1L, jaql.getPlanCache().numHits());
+    for (long i = 1; i <= 3; i++) {
+      assertTrue(i1.moveNext());
+      assertTrue(i2.moveNext());
+      assertEquals(new JsonLong(i * 10), i1.current());
+      assertEquals(new JsonLong(i * 10), i2.current());
+    }
+    assertFalse(i1.moveNext());
+    assertFalse(i2.moveNext());
+    jaql.close();
+  }
+
+  @Test
+  public void testInvalidateOnDefinition() throws Exception {
+    Jaql jaql = new Jaql();
+    jaql.setInput("f = fn(a) a + 1; f(1);");
+    assertEquals(new JsonLong(2), jaql.evaluate());
+    assertEquals(0, jaql.getPlanCache().size()); // has a definition
+
+    jaql.setInput("f(1);");
+    assertEquals(new JsonLong(2), jaql.evaluate());
+    jaql.setInput("f = fn(a) a + 2; 0;");
+    jaql.evaluate();
+    jaql.setInput("f(1);");
+    assertEquals(new JsonLong(3), jaql.evaluate());
+    assertEquals(0L, jaql.getPlanCache().numHits());
+    jaql.close();
+  }
+
+  @Test
+  public void testParsedScript() throws Exception {
+    Jaql jaql = new Jaql();
+    for (int i = 0; i < 2; i++) {
+      jaql.setInput("1 + 1; 2 + 2;");
+      ParsedJaql script = jaql.parseScript();
+      script.open();
+      assertEquals(new JsonLong(2), script.eval());
+      assertEquals(new JsonLong(4), script.eval());
+      assertFalse(script.hasMoreResults());
+      script.close();
+    }
+    assertEquals(1L, jaql.getPlanCache().numHits());
+    jaql.close();
+  }
+}
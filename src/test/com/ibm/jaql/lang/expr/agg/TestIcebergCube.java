@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.agg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.JaqlQuery;
+
+public class TestIcebergCube {
+
+  private static final int NUM_VALUES = 2000;
+  private static final String[] COLUMNS = { "a", "b", "c" };
+  private static final int[] MODULI = { 3, 5, 7 };
+
+  @Test
+  public void testExample() throws Exception {
+    String input = "[ {a:1, b:1}, {a:1, b:2}, {a:2, b:1} ]";
+    String expected = "[ {k:{}, n:3}, {k:{a:1}, n:2}, {k:{b:1}, n:2} ]";
+    for (String fn : new String[] { "icebergCube", "icebergCubeMR" }) {
+      JsonValue actual = evaluate(input + " -> " + fn
+          + "(['a', 'b'], fn(g, k) [{ k, n: count(g) }], 2) -> sort by [$.n desc, $.k]");
+      assertEquals(fn, new JsonParser().parse(expected), actual);
+    }
+  }
+
+  @Test
+  public void testSameAsGroupBy() throws Exception {
+    for (long minSupport : new long[] { 1, 20, 100 }) {
+      Map<String, Long> expected = expectedCounts(minSupport);
+      for (String fn : new String[] { "icebergCube", "icebergCubeMR" }) {
+        JsonValue result = evaluate("range(1, " + NUM_VALUES + ")"
+            + " -> transform { a: mod($, 3), b: mod($, 5), c: mod($, 7) }"
+            + " -> " + fn + "(['a', 'b', 'c'], fn(g, k) [{ k, n: count(g) }], " + minSupport + ")");
+        Map<String, Long> actual = new HashMap<String, Long>();
+        for (JsonValue v : ((JsonArray) result).iter()) {
+          JsonRecord r = (JsonRecord) v;
+          String key = groupKey((JsonRecord) r.get(new JsonString("k")));
+          Long old = actual.put(key, ((JsonNumber) r.get(new JsonString("n"))).longValue());
+          assertEquals(fn + ": duplicate group " + key, null, old);
+        }
+        assertEquals(fn + " minSupport=" + minSupport, expected, actual);
+      }
+    }
+  }
+
+  /** Counts the groups of all cuboids by brute force. */
+  private static Map<String, Long> expectedCounts(long minSupport) {
+    Map<String, Long> counts = new HashMap<String, Long>();
+    for (long i = 1; i <= NUM_VALUES; i++) {
+      for (int mask = 0; mask < (1 << COLUMNS.length); mask++) {
+        StringBuilder key = new StringBuilder();
+        for (int c = 0; c < COLUMNS.length; c++) {
+          if ((mask & (1 << c)) != 0) {
+            key.append(COLUMNS[c]).append('=').append(i % MODULI[c]).append(';');
+          }
+        }
+        Long n = counts.get(key.toString());
+        counts.put(key.toString(), n == null ? 1L : n + 1);
+      }
+    }
+    Map<String, Long> result = new HashMap<String, Long>();
+    for (Map.Entry<String, Long> e : counts.entrySet()) {
+      if (e.getValue() >= minSupport) {
+        result.put(e.getKey(), e.getValue());
+      }
+    }
+    return result;
+  }
+
+  private static String groupKey(JsonRecord k) {
+    StringBuilder key = new StringBuilder();
+    for (String col : COLUMNS) {
+      JsonValue v = k.get(new JsonString(col));
+      if (v != null) {
+        key.append(col).append('=').append(((JsonNumber) v).longValue()).append(';');
+      }
+    }
+    return key.toString();
+  }
+
+  private static JsonValue evaluate(String q) throws Exception {
+    JaqlQuery query = new JaqlQuery(q + ";");
+    try {
+      return query.evaluate();
+    } finally {
+      query.close();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.array;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.type.SpilledJsonArray;
+import com.ibm.jaql.lang.JaqlQuery;
+import com.ibm.jaql.lang.core.Context;
+import com.ibm.jaql.lang.expr.function.Function;
+
+public class TestSlidingWindow {
+
+  private static final String DATA =
+    "range(1, 200) -> transform { t: $, x: mod($ * 7, 11), y: if (mod($, 4) == 0) null else $ * 1.5 }";
+
+  private static final String[] WINDOWS = {
+    "fn(first, cur) first.t >= cur.t - 5, fn(cur, last) last.t <= cur.t + 2",   // around cur
+    "fn(first, cur) first.t >= cur.t + 3, fn(cur, last) last.t <= cur.t + 6",   // after cur
+    "fn(first, cur) first.t >= cur.t - 20, fn(cur, last) last.t <= cur.t",      // trailing
+    "fn(first, cur) first.t > cur.t + 300, fn(cur, last) false",                // empty
+  };
+
+  private static final String[] AGGREGATES = {
+    "fn(w) sum(w[*].x)",
+    "fn(w) { s: sum(w[*].x), c: count(w), a: avg(w[*].y), mn: min(w[*].x), mx: max(w[*].y) }",
+    "fn(w) [ count(w -> filter $.x > 3), min(w -> transform $.x * $.t), w[0].t ]",
+    "fn(w) max(w[*].x) - min(w[*].x)",
+  };
+
+  @Test
+  public void testSameAsWindow() throws Exception {
+    for (String window : WINDOWS) {
+      for (String agg : AGGREGATES) {
+        String f = "f = " + agg + "; ";
+        JsonValue expected = evaluate(f + DATA + " -> slidingWindow(" + window
+            + ") -> transform f($.window)");
+        JsonValue actual = evaluate(f + DATA + " -> slidingWindow(" + window
+            + ", f) -> transform $.agg");
+        assertEquals(window + " " + agg, expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testSpilling() throws Exception {
+    String[] queries = {
+      DATA + " -> slidingWindow(" + WINDOWS[0] + ")",
+      DATA + " -> slidingWindow(" + WINDOWS[2] + ", " + AGGREGATES[1] + ")",
+      DATA + " -> slidingWindow(" + WINDOWS[2] + ", " + AGGREGATES[2] + ")",
+      DATA + " -> slidingWindow(fn(first, cur) true, fn(cur, last) true, fn(w) sum(w[*].x))",
+      DATA + " -> slidingWindowBySize(30, -10)",
+    };
+    for (String query : queries) {
+      JsonValue expected = evaluate(query);
+      System.setProperty(SlidingWindowFn.JsonQueue.CACHE_SIZE_PROPERTY, "8");
+      try {
+        assertEquals(query, expected, evaluate(query));
+      } finally {
+        System.clearProperty(SlidingWindowFn.JsonQueue.CACHE_SIZE_PROPERTY);
+      }
+    }
+  }
+
+  @Test
+  public void testQueue() throws Exception {
+    SlidingWindowFn.JsonQueue queue = new SlidingWindowFn.JsonQueue(8);
+    for (long i = 1; i <= 100; i++) {
+      assertEquals(i, queue.addCopy(new JsonLong(i)));
+    }
+    assertEquals(46, queue.firstResident);
+    SlidingWindowFn.JsonQueue.Cursor cursor = queue.cursor(false);
+    queue.removeTo(7);
+    for (long i = 7; i <= 100; i++) {
+      assertEquals(new JsonLong(i), cursor.get(i));
+    }
+    SpilledJsonArray window = queue.newArray();
+    queue.toArray(window, 50, 60);
+    assertEquals(10L, window.count());
+    assertEquals(new JsonLong(50), window.get(0));
+    queue.removeTo(98);
+    assertEquals(new JsonLong(98), cursor.get(98));
+    queue.removeTo(101);
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testIncremental() throws Exception {
+    SlidingWindowFn.WindowFunction fn = windowFunction(AGGREGATES[1]);
+    assertEquals(5, fn.aggs.length);
+    assertFalse(fn.needsWindow);
+
+    fn = windowFunction(AGGREGATES[2]);
+    assertEquals(2, fn.aggs.length);
+    assertTrue(fn.needsWindow);
+
+    fn = windowFunction("fn(w) count(w[*].x -> expand [$, $])");
+    assertEquals(0, fn.aggs.length);
+  }
+
+  private SlidingWindowFn.WindowFunction windowFunction(String fn) throws Exception {
+    return new SlidingWindowFn.WindowFunction((Function) evaluate(fn), new Context());
+  }
+
+  private JsonValue evaluate(String query) throws Exception {
+    JaqlQuery q = new JaqlQuery(query);
+    JsonValue result = q.evaluate();
+    q.close();
+    return result;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.Jaql;
+
+public class TestMRAggregate {
+
+  private static final String AGGREGATE = "mrAggregate({input: hdfs('%s'), output: HadoopTemp(),"
+      + " map: fn($) $ -> transform [$.a, $],"
+      + " aggregate: fn($k, $v) [count($v), sum($v[*].b), min($v[*].s), max($v[*].b), avg($v[*].b)],"
+      + " final: fn($k, $v) [{k: $k, v: $v}],"
+      + " options: {conf: {'" + MRAggregate.MapEval.MEMORY_LIMIT_PROPERTY + "': %d}}})"
+      + " -> read() -> sort by [$.k]";
+
+  private static File dir;
+  private static String mode;
+
+  @BeforeClass
+  public static void writeInput() throws Exception {
+    dir = new File(System.getProperty("test.build.data", System.getProperty("java.io.tmpdir")),
+        "TestMRAggregate");
+    FileUtil.fullyDelete(dir);
+    mode = System.getProperty("jaql.mapred.mode");
+    System.setProperty("jaql.mapred.mode", "local");
+    eval("range(1, 2000) -> transform {a: mod($ * 13, 37), b: $, s: strcat('s', mod($, 101))}"
+        + " -> write(hdfs('" + input() + "'))");
+  }
+
+  @AfterClass
+  public static void restoreMode() {
+    if (mode == null) {
+      System.clearProperty("jaql.mapred.mode");
+    } else {
+      System.setProperty("jaql.mapred.mode", mode);
+    }
+  }
+
+  /**
+   * With a tiny memory limit, the partials are flushed every few keys, so the combiner and
+   * reducer merge partials of a key that were flushed at different times. The results have to
+   * be the same as without pre-aggregation and with the default limit.
+   */
+  @Test
+  public void testFlush() throws Exception {
+    JsonValue expected = eval(String.format(AGGREGATE, input(), 0));
+    assertEquals(37, (int) ((JsonArray) expected).count());
+    for (long limit : new long[] { 1, 300, MRAggregate.MapEval.DEFAULT_MEMORY_LIMIT }) {
+      JsonValue actual = eval(String.format(AGGREGATE, input(), limit));
+      assertTrue(limit + ": " + expected + " vs " + actual, JsonUtil.compare(expected, actual) == 0);
+    }
+  }
+
+  private static String input() {
+    return new File(dir, "in").getAbsolutePath().replace('\\', '/');
+  }
+
+  private static JsonValue eval(String query) throws Exception {
+    Jaql jaql = new Jaql();
+    jaql.setInput(query + ";");
+    JsonValue value = jaql.evaluate();
+    jaql.close();
+    return value;
+  }
+}
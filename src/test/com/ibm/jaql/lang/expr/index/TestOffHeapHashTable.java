@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import com.ibm.jaql.io.serialization.binary.sortable.SortableBinaryFullSerializer;
+import com.ibm.jaql.json.type.JsonDecimal;
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonValue;
+
+public class TestOffHeapHashTable {
+
+  private static final int NUM_KEYS = 100000;
+
+  @Test
+  public void testPutGet() throws Exception {
+    HashMapCache.Table owner = new HashMapCache.Table("test");
+    OffHeapHashTable table = owner.table;
+    for (int i = 0; i < NUM_KEYS; i++) {
+      byte[] key = ("key" + i).getBytes("UTF-8");
+      byte[] value = ("value" + i).getBytes("UTF-8");
+      table.put(key, key.length, value, value.length);
+    }
+    // replace every tenth value
+    for (int i = 0; i < NUM_KEYS; i += 10) {
+      byte[] key = ("key" + i).getBytes("UTF-8");
+      byte[] value = ("new" + i).getBytes("UTF-8");
+      table.put(key, key.length, value, value.length);
+    }
+    assertEquals(NUM_KEYS, table.size());
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    for (int i = 0; i < NUM_KEYS; i++) {
+      byte[] key = ("xkey" + i).getBytes("UTF-8");
+      out.reset();
+      assertTrue(table.get(key, 1, key.length - 1, out));
+      String value = new String(out.getData(), 0, out.getLength(), "UTF-8");
+      assertEquals((i % 10 == 0 ? "new" : "value") + i, value);
+    }
+    byte[] key = "missing".getBytes("UTF-8");
+    assertFalse(table.get(key, 0, key.length, out));
+
+    long used = HashMapCache.instance.memoryUsed;
+    long memory = table.memory();
+    assertTrue(memory > 0);
+    table.clear();
+    assertTrue(table.isEmpty());
+    assertEquals(used - memory, HashMapCache.instance.memoryUsed);
+  }
+
+  @Test
+  public void testSlabGrowth() throws Exception {
+    HashMapCache.Table owner = new HashMapCache.Table("small");
+    OffHeapHashTable table = owner.table;
+    byte[] bytes = new byte[1000];
+    table.put(bytes, 4, bytes, 100);
+    long slots = 12L * OffHeapHashTable.INITIAL_CAPACITY;
+    assertEquals(slots + OffHeapHashTable.MIN_SLAB_SIZE, table.memory());
+
+    // about 100KB more: the second slab is twice as large as the first
+    for (int i = 0; i < 100; i++) {
+      bytes[0] = (byte) i;
+      table.put(bytes, 4, bytes, 1000);
+    }
+    assertEquals(slots + 3L * OffHeapHashTable.MIN_SLAB_SIZE, table.memory());
+
+    // an entry larger than a slab gets a slab of its own
+    byte[] large = new byte[OffHeapHashTable.MIN_SLAB_SIZE * 5];
+    table.put(large, 4, large, large.length - 4);
+    assertEquals(slots + 3L * OffHeapHashTable.MIN_SLAB_SIZE + large.length + 8, table.memory());
+    table.clear();
+  }
+
+  @Test
+  public void testNumericKeys() throws Exception {
+    // the server stores keys in canonical form, so equal numbers of any type match
+    SortableBinaryFullSerializer canonical = new SortableBinaryFullSerializer();
+    HashMapCache.Table owner = new HashMapCache.Table("numbers");
+    OffHeapHashTable table = owner.table;
+    DataOutputBuffer key = new DataOutputBuffer();
+    canonical.writeCanonical(key, new JsonLong(1));
+    byte[] value = "one".getBytes("UTF-8");
+    table.put(key.getData(), key.getLength(), value, value.length);
+
+    JsonValue[] probes = { new JsonDouble(1.0), new JsonDecimal("1"), new JsonDecimal("1.00") };
+    DataOutputBuffer out = new DataOutputBuffer();
+    for (JsonValue probe : probes) {
+      key.reset();
+      canonical.writeCanonical(key, probe);
+      out.reset();
+      assertTrue(probe.toString(), table.get(key.getData(), 0, key.getLength(), out));
+      assertEquals("one", new String(out.getData(), 0, out.getLength(), "UTF-8"));
+    }
+    key.reset();
+    canonical.writeCanonical(key, new JsonDecimal("1.01"));
+    assertFalse(table.get(key.getData(), 0, key.getLength(), out));
+    table.clear();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.BufferedJsonRecord;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.MutableJsonString;
+
+public class TestFieldSlot {
+
+  private static BufferedJsonRecord record(String... names) {
+    BufferedJsonRecord rec = new BufferedJsonRecord();
+    for (int i = 0; i < names.length; i++) {
+      rec.add(new JsonString(names[i]), new JsonLong(i));
+    }
+    return rec;
+  }
+
+  @Test
+  public void testSameLayout() throws Exception {
+    FieldSlot slot = new FieldSlot();
+    JsonString b = new JsonString("b");
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1, slot.indexOf(record("a", "b", "c"), b));
+    }
+  }
+
+  @Test
+  public void testChangingLayout() throws Exception {
+    FieldSlot slot = new FieldSlot();
+    JsonString b = new JsonString("b");
+    assertEquals(1, slot.indexOf(record("a", "b", "c"), b));
+    assertEquals(0, slot.indexOf(record("b", "a"), b));
+    assertEquals(-1, slot.indexOf(record("a"), b));
+    assertEquals(-1, slot.indexOf(record(), b));
+    assertEquals(2, slot.indexOf(record("c", "a", "b"), b));
+    assertEquals(new JsonLong(2), slot.get(record("c", "a", "b"), b));
+    assertNull(slot.get(record("c", "a"), b));
+  }
+
+  @Test
+  public void testChangingName() throws Exception {
+    FieldSlot slot = new FieldSlot();
+    BufferedJsonRecord rec = record("a", "b", "c");
+    MutableJsonString name = new MutableJsonString();
+    String[] names = { "a", "b", "c", "d" };
+    for (int i = 0; i < names.length; i++) {
+      name.setCopy(new JsonString(names[i]));
+      assertEquals(i < 3 ? i : -1, slot.indexOf(rec, name));
+    }
+    assertEquals(0, slot.indexOf(rec, new JsonString("a")));
+    assertEquals(2, slot.indexOf(rec, new JsonString("c")));
+  }
+}
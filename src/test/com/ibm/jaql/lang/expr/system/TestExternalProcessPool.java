@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.expr.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.BufferedJsonArray;
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonNumber;
+import com.ibm.jaql.json.type.JsonRecord;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.JaqlQuery;
+import com.ibm.jaql.lang.expr.system.ExternalProcessPool.Worker;
+
+public class TestExternalProcessPool {
+
+  /** Doubles numbers; fails on anything else. */
+  public static class Doubler extends ExternalFnWorker {
+    @Override
+    protected void process(JsonValue value, BufferedJsonArray results) throws Exception {
+      if (!(value instanceof JsonNumber)) {
+        throw new IllegalArgumentException("not a number: " + value);
+      }
+      results.add(new JsonLong(2 * ((JsonNumber) value).longValue()));
+    }
+
+    public static void main(String[] args) throws Exception {
+      new Doubler().run();
+    }
+  }
+
+  private static final String CMD = System.getProperty("java.home") + File.separator + "bin"
+      + File.separator + "java -cp " + System.getProperty("java.class.path") + " "
+      + Doubler.class.getName();
+
+  private static String options(String mode, String more) {
+    return "{ cmd: '" + CMD + "', mode: '" + mode + "', protocol: 'framed', perPartition: false"
+        + more + " }";
+  }
+
+  private static JsonValue evaluate(String query) throws Exception {
+    JaqlQuery q = new JaqlQuery(query);
+    try {
+      return q.evaluate();
+    } finally {
+      q.close();
+    }
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    JsonRecord rec = (JsonRecord) new JsonParser().parse(options("push", ", poolSize: 1"));
+    ExternalProcessPool pool = ExternalProcessPool.get(rec);
+    Worker w1 = pool.acquire();
+    BufferedJsonArray batch = new BufferedJsonArray();
+    batch.add(new JsonLong(1));
+    batch.add(new JsonLong(2));
+    w1.send(batch);
+    w1.send(batch);
+    assertEquals(new JsonParser().parse("[2, 4]"), w1.receive(null));
+    assertEquals(new JsonParser().parse("[2, 4]"), w1.receive(null));
+    pool.release(w1, true);
+
+    Worker w2 = pool.acquire();
+    assertSame(w1, w2);
+    assertEquals(1, pool.numProcesses());
+    pool.release(w2, false);
+    assertEquals(0, pool.numProcesses());
+  }
+
+  @Test
+  public void testStreaming() throws Exception {
+    String f = "f = externalfn(" + options("streaming", ", batchSize: 3, maxPending: 2") + "); ";
+    JsonArray result = (JsonArray) evaluate(f + "range(1, 100) -> f()");
+    assertEquals(100L, result.count());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(new JsonLong(2 * (i + 1)), result.get(i));
+    }
+    assertEquals(new JsonParser().parse("[]"), evaluate(f + "[] -> f()"));
+  }
+
+  @Test
+  public void testAbandonedStream() throws Exception {
+    String f = "f = externalfn(" + options("streaming",
+        ", poolSize: 2, acquireTimeout: 10000, batchSize: 3, maxPending: 2") + "); ";
+    // the results are not read to the end, so the worker is released when the query ends
+    for (int i = 0; i < 3; i++) {
+      assertEquals(new JsonLong(2), evaluate(f + "(range(1, 100000) -> f() -> transform $)[0]"));
+    }
+    assertEquals(new JsonParser().parse("[2, 4]"), evaluate(f + "[1, 2] -> f()"));
+  }
+
+  @Test
+  public void testAcquireTimeout() throws Exception {
+    JsonRecord rec = (JsonRecord) new JsonParser().parse(
+        options("push", ", poolSize: 1, acquireTimeout: 100"));
+    ExternalProcessPool pool = ExternalProcessPool.get(rec);
+    Worker w = pool.acquire();
+    try {
+      pool.acquire();
+      fail("expected a timeout");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("still in use"));
+    } finally {
+      pool.release(w, false);
+    }
+  }
+
+  @Test
+  public void testPush() throws Exception {
+    String f = "f = externalfn(" + options("push", "") + "); ";
+    assertEquals(new JsonParser().parse("[[2], [4], [6]]"),
+        evaluate(f + "[1, 2, 3] -> transform f($)"));
+  }
+
+  @Test
+  public void testWorkerError() throws Exception {
+    String f = "f = externalfn(" + options("streaming", ", batchSize: 2") + "); ";
+    try {
+      evaluate(f + "[1, 2, 'x', 4] -> f()");
+      fail("expected an error");
+    } catch (Exception e) {
+      Throwable t = e;
+      while (t.getCause() != null && !(t instanceof ExternalProcessPool.ExternalFnException)) {
+        t = t.getCause();
+      }
+      assertTrue(t.toString(), t.getMessage().contains("not a number"));
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonUtil;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.DefaultExplainHandler;
+import com.ibm.jaql.lang.Jaql;
+
+public class TestJobFusion {
+
+  private static final String GROUP = "mapReduce({input: hdfs('in'), output: %s,"
+      + " map: fn($) $ -> transform [$.a, $], reduce: fn($k, $v) [{k: $k, n: count($v)}]})";
+
+  // directory of the data used by the tests that run jobs
+  private static File dir;
+  private static String mode;
+
+  @BeforeClass
+  public static void writeInput() throws Exception {
+    dir = new File(System.getProperty("test.build.data", System.getProperty("java.io.tmpdir")),
+        "TestJobFusion");
+    FileUtil.fullyDelete(dir);
+    mode = System.getProperty("jaql.mapred.mode");
+    System.setProperty("jaql.mapred.mode", "local");
+    eval("range(1, 100) -> transform {a: mod($, 7), b: $} -> write(hdfs('" + path("in") + "'))");
+  }
+
+  @AfterClass
+  public static void restoreMode() {
+    if (mode == null) {
+      System.clearProperty("jaql.mapred.mode");
+    } else {
+      System.setProperty("jaql.mapred.mode", mode);
+    }
+  }
+
+  @Test
+  public void testMapAfterReduce() throws Exception {
+    assertEquals(
+        "// job 1: mapReduce(map, reduce): hdfs 'in' -> hdfs 'out'\n",
+        jobs("read(" + String.format(GROUP, "HadoopTemp()") + ") -> transform {$.k}"
+            + " -> write(hdfs('out'))"));
+  }
+
+  @Test
+  public void testMapAfterAggregate() throws Exception {
+    assertEquals(
+        "// job 1: mrAggregate(map, aggregate, final): hdfs 'in' -> temp\n",
+        jobs("read(mrAggregate({input: hdfs('in'), output: HadoopTemp(),"
+            + " map: fn($) $ -> transform [$.a, $], aggregate: fn($k, $v) [count($v)],"
+            + " final: fn($k, $v) [{k: $k, n: $v[0]}]})) -> filter $.n > 2 -> transform $.k"));
+  }
+
+  @Test
+  public void testMapAfterMap() throws Exception {
+    assertEquals(
+        "// job 1: mapReduce(map): hdfs 'in' -> hdfs 'out'\n",
+        jobs("read(hdfs('in')) -> transform {$.a} -> write(HadoopTemp()) -> read()"
+            + " -> transform $.a -> write(hdfs('out'))"));
+  }
+
+  @Test
+  public void testNamedOutputIsKept() throws Exception {
+    assertEquals(
+        "// job 1: mapReduce(map, reduce): hdfs 'in' -> hdfs 'mid'\n"
+            + "// job 2: mapReduce(map): job 1 -> hdfs 'out'\n",
+        jobs("read(" + String.format(GROUP, "hdfs('mid')") + ") -> transform {$.k}"
+            + " -> write(hdfs('out'))"));
+  }
+
+  @Test
+  public void testGroupAfterGroupIsKept() throws Exception {
+    assertEquals(
+        "// job 1: mrAggregate(map, aggregate, final): hdfs 'in' -> temp\n"
+            + "// job 2: mrAggregate(map, aggregate, final): job 1 -> hdfs 'out'\n",
+        jobs("read(hdfs('in')) -> group by $k = $.a into {k: $k, n: count($)}"
+            + " -> group by $n = $.n into {n: $n, c: count($)} -> write(hdfs('out'))"));
+  }
+
+  @Test
+  public void testRunMapAfterMap() throws Exception {
+    assertSameResults("read(hdfs('in')) -> transform {$.a, $.b} -> write(%s) -> read()"
+        + " -> filter $.a == 3 -> transform $.b -> write(hdfs('out'))", 14);
+  }
+
+  @Test
+  public void testRunMapAfterReduce() throws Exception {
+    assertSameResults("read(" + GROUP + ") -> transform {$.k, $.n} -> write(hdfs('out'))", 7);
+  }
+
+  @Test
+  public void testRunMapAfterAggregate() throws Exception {
+    assertSameResults("read(mrAggregate({input: hdfs('in'), output: %s,"
+        + " map: fn($) $ -> transform [$.a, $], aggregate: fn($k, $v) [count($v), sum($v[*].b)],"
+        + " final: fn($k, $v) [{k: $k, n: $v[0], s: $v[1]}]})) -> filter $.n == 14"
+        + " -> transform {$.k, $.s} -> write(hdfs('out'))", 5);
+  }
+
+  /**
+   * Runs the query, in which %s is the output of the first job, with a temp output, which is
+   * fused into a single job, and with a file output, which is not, and compares the results.
+   */
+  private static void assertSameResults(String query, int count) throws Exception {
+    String fused = String.format(query, "HadoopTemp()");
+    String unfused = String.format(query, "hdfs('mid')");
+    assertEquals(1, jobs(fused).split("\n").length);
+    assertEquals(2, jobs(unfused).split("\n").length);
+
+    FileUtil.fullyDelete(new File(dir, "out"));
+    FileUtil.fullyDelete(new File(dir, "mid"));
+    eval(paths(fused));
+    JsonValue expected = eval("read(hdfs('" + path("out") + "')) -> sort by [$]");
+    FileUtil.fullyDelete(new File(dir, "out"));
+    eval(paths(unfused));
+    JsonValue actual = eval("read(hdfs('" + path("out") + "')) -> sort by [$]");
+
+    assertEquals(count, (int) ((JsonArray) expected).count());
+    assertTrue(expected + " vs " + actual, JsonUtil.compare(expected, actual) == 0);
+  }
+
+  /** Replaces the file names of query by paths in the test directory. */
+  private static String paths(String query) {
+    for (String name : new String[] { "in", "mid", "out" }) {
+      query = query.replace("hdfs('" + name + "')", "hdfs('" + path(name) + "')");
+    }
+    return query;
+  }
+
+  private static String path(String name) {
+    return new File(dir, name).getAbsolutePath().replace('\\', '/');
+  }
+
+  private static JsonValue eval(String query) throws Exception {
+    Jaql jaql = new Jaql();
+    jaql.setInput(query + ";");
+    JsonValue value = jaql.evaluate();
+    jaql.close();
+    return value;
+  }
+
+  /** Returns the job lines of the explain output of query. */
+  private static String jobs(String query) throws Exception {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    Jaql jaql = new Jaql();
+    jaql.setExplainHandler(new DefaultExplainHandler(new PrintStream(buf, true)));
+    jaql.setInput("explain " + query + ";");
+    jaql.evaluate();
+    jaql.close();
+    StringBuilder jobs = new StringBuilder();
+    for (String line : buf.toString().split("\n")) {
+      if (line.startsWith("// job ")) {
+        jobs.append(line).append('\n');
+      }
+    }
+    return jobs.toString();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.Jaql;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.ForExpr;
+import com.ibm.jaql.lang.expr.core.IterExpr;
+
+public class TestRewritePhase {
+
+  private static final String QUERY = "(a = 5, b = [a, a + 1], b -> transform $ * 2)";
+
+  /** A rule that never fires. */
+  private static class NoRewrite extends Rewrite {
+    NoRewrite(RewritePhase phase, Class<? extends Expr> fireOn) {
+      super(phase, fireOn);
+    }
+
+    @Override
+    public boolean rewrite(Expr expr) {
+      return false;
+    }
+  }
+
+  @After
+  public void clearProperties() {
+    System.clearProperty("jaql.rewrite.stats");
+    System.clearProperty("jaql.rewrite.onFire");
+  }
+
+  @Test
+  public void testDispatch() {
+    RewritePhase phase = new RewritePhase(new RewriteEngine(), 10);
+    Rewrite onExpr = new NoRewrite(phase, Expr.class);
+    Rewrite onFor = new NoRewrite(phase, ForExpr.class);
+    Rewrite onIter = new NoRewrite(phase, IterExpr.class);
+    Rewrite onFor2 = new NoRewrite(phase, ForExpr.class);
+
+    // the rules of the class come first, then the ones of its superclasses
+    assertEquals(Arrays.asList(onFor, onFor2, onIter, onExpr),
+        Arrays.asList(phase.rulesFor(ForExpr.class)));
+    assertEquals(Arrays.asList(onExpr), Arrays.asList(phase.rulesFor(ConstExpr.class)));
+    assertSame(phase.rulesFor(ForExpr.class), phase.rulesFor(ForExpr.class));
+
+    // a new rule invalidates the table
+    Rewrite onConst = new NoRewrite(phase, ConstExpr.class);
+    assertEquals(Arrays.asList(onConst, onExpr), Arrays.asList(phase.rulesFor(ConstExpr.class)));
+    assertEquals(4, phase.rulesFor(ForExpr.class).length);
+
+    RewritePhase empty = new RewritePhase(new RewriteEngine(), 10);
+    assertEquals(0, empty.rulesFor(ForExpr.class).length);
+  }
+
+  @Test
+  public void testStats() throws Exception {
+    System.setProperty("jaql.rewrite.stats", "true");
+    Jaql jaql = new Jaql(QUERY);
+    JsonValue result = jaql.evaluate();
+    jaql.close();
+    assertEquals("[10,12]", result.toString().replaceAll("\\s", ""));
+
+    RewriteStats stats = jaql.getRewriteStats();
+    assertNotNull(stats);
+    assertTrue(stats.getNumRuns() > 0);
+    assertTrue(stats.getNumPasses() >= stats.getNumRuns());
+    assertTrue(stats.getNumVisited() > 0);
+    long fired = 0;
+    boolean letInlined = false;
+    for (RewriteStats.RuleStats s : stats.getRuleStats()) {
+      assertTrue(s.rule, s.numFired <= s.numTried);
+      fired += s.numFired;
+      letInlined |= s.rule.equals("LetInline") && s.numFired > 0;
+    }
+    assertTrue(fired > 0);
+    assertTrue(letInlined);
+    assertEquals((long) stats.getRuleStats().size(),
+        ((JsonArray) stats.toJson().get(RewriteStats.RULES_NAME)).count());
+  }
+
+  @Test
+  public void testTrace() throws Exception {
+    System.setProperty("jaql.rewrite.onFire", "trace");
+    ByteArrayOutputStream trace = new ByteArrayOutputStream();
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(trace, true));
+    Jaql jaql;
+    try {
+      jaql = new Jaql(QUERY);
+      jaql.evaluate();
+      jaql.close();
+    } finally {
+      System.setErr(err);
+    }
+    String text = trace.toString();
+    assertTrue(text, text.contains("start "));
+    assertTrue(text, text.contains("end "));
+    assertTrue(text, text.contains("{ type:'fired', rule:'LetInline'"));
+    assertNull(jaql.getRewriteStats()); // tracing does not collect statistics
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonDouble;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.JsonIterator;
+
+public class TestJsonDistinctSet {
+
+  private static final int NUM_KEYS = 5000;
+  private static final int NUM_VALUES = 4 * NUM_KEYS;
+
+  @Test
+  public void testInMemory() throws Exception {
+    JsonDistinctSet set = new JsonDistinctSet();
+    assertEquals(NUM_KEYS, fillAndCheck(set));
+    assertFalse(set.isSpilled());
+    assertEquals((long) NUM_KEYS, set.numValues());
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    JsonDistinctSet set = new JsonDistinctSet(32 * 1024);
+    int first = fillAndCheck(set);
+    assertTrue(set.isSpilled());
+    assertTrue(first < NUM_KEYS);
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    JsonDistinctSet set = new JsonDistinctSet(32 * 1024);
+    fillAndCheck(set);
+    set.reset();
+    assertFalse(set.isSpilled());
+    assertEquals(0L, set.numValues());
+    assertFalse(set.deferred().moveNext());
+    fillAndCheck(set);
+  }
+
+  @Test
+  public void testNumbers() throws Exception {
+    JsonDistinctSet set = new JsonDistinctSet();
+    assertTrue(set.add(new JsonLong(1)));
+    assertFalse(set.add(new JsonDouble(1)));
+    assertTrue(set.add(new JsonDouble(1.5)));
+    assertTrue(set.add(null));
+    assertFalse(set.add(null));
+  }
+
+  @Test
+  public void testApproximate() throws Exception {
+    ApproximateDistinctSet set = new ApproximateDistinctSet(0.001);
+    int n = 0;
+    for (int i = 0; i < 4 * NUM_VALUES; i++) {
+      if (set.add(new JsonString("key" + (i % NUM_VALUES)))) {
+        n++;
+      }
+    }
+    // duplicates are always detected, new values are rarely dropped
+    assertTrue(n <= NUM_VALUES);
+    assertTrue(n > NUM_VALUES * 0.99);
+  }
+
+  /**
+   * Adds all values and checks that each key is returned exactly once, either when it is added
+   * or by the deferred iterator. Returns the number of keys that have been returned when added.
+   */
+  private int fillAndCheck(JsonDistinctSet set) throws Exception {
+    HashSet<JsonValue> seen = new HashSet<JsonValue>();
+    for (int i = 0; i < NUM_VALUES; i++) {
+      JsonValue key = new JsonString("key" + ((i * 7) % NUM_KEYS));
+      if (set.add(key)) {
+        assertTrue(seen.add(key));
+      }
+    }
+    int first = seen.size();
+    JsonIterator iter = set.deferred();
+    while (iter.moveNext()) {
+      assertTrue(seen.add(iter.current().getCopy(null)));
+    }
+    assertEquals(NUM_KEYS, seen.size());
+    return first;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonArray;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonString;
+import com.ibm.jaql.json.type.JsonValue;
+
+public class TestJsonHashTable {
+
+  private static final int NUM_KEYS = 5000;
+  private static final int NUM_VALUES = 4 * NUM_KEYS;
+
+  @Test
+  public void testInMemory() throws Exception {
+    JsonHashTable table = new JsonHashTable(2);
+    fill(table);
+    assertFalse(table.isSpilled());
+    assertEquals((long) NUM_KEYS, table.numKeys());
+    check(table);
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    JsonHashTable table = new JsonHashTable(2, 64 * 1024);
+    fill(table);
+    assertTrue(table.isSpilled());
+    check(table);
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    JsonHashTable table = new JsonHashTable(2, 64 * 1024);
+    fill(table);
+    table.reset();
+    assertFalse(table.isSpilled());
+    assertEquals(0L, table.numKeys());
+    assertFalse(table.iter().next());
+    fill(table);
+    check(table);
+  }
+
+  private void fill(JsonHashTable table) throws Exception {
+    for (int i = 0; i < NUM_VALUES; i++) {
+      JsonValue key = new JsonString("key" + (i % NUM_KEYS));
+      table.add((i / NUM_KEYS) % 2, key, new JsonLong(i));
+    }
+  }
+
+  private void check(JsonHashTable table) throws Exception {
+    HashMap<JsonValue, Boolean> seen = new HashMap<JsonValue, Boolean>();
+    JsonHashTable.Iterator iter = table.iter();
+    while (iter.next()) {
+      JsonValue key = iter.key().getImmutableCopy();
+      assertEquals("duplicate key " + key, null, seen.put(key, true));
+      int k = Integer.parseInt(key.toString().substring(3));
+      for (int tag = 0; tag < 2; tag++) {
+        JsonArray values = (JsonArray) iter.values(tag);
+        long n = 0;
+        for (JsonValue v : values) {
+          long x = ((JsonLong) v).get();
+          assertEquals((long) k, x % NUM_KEYS);
+          assertEquals((long) tag, (x / NUM_KEYS) % 2);
+          n++;
+        }
+        assertEquals((long) (NUM_VALUES / NUM_KEYS / 2), n);
+      }
+    }
+    assertEquals(NUM_KEYS, seen.size());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.JaqlQuery;
+import com.ibm.jaql.lang.core.Context;
+
+public class TestJsonSorter {
+
+  private static final int NUM_VALUES = 20000;
+  private static final int NUM_KEYS = 1000;
+
+  @Test
+  public void testInMemory() throws Exception {
+    check(new JsonSorter(), NUM_VALUES);
+  }
+
+  @Test
+  public void testRuns() throws Exception {
+    // small enough to produce more runs than the merge factor
+    check(new JsonSorter(null, 4 * 1024), NUM_VALUES);
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    JsonSorter sorter = new JsonSorter(null, 4 * 1024);
+    sorter.setLimit(10);
+    check(sorter, 10);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    JsonSorter sorter = new JsonSorter(null, 4 * 1024);
+    sorter.sort();
+    assertFalse(sorter.iter().moveNext());
+  }
+
+  @Test
+  public void testFractionalLimit() throws Exception {
+    JaqlQuery query = new JaqlQuery("[3, 1, 2, 5, 4] -> top 2.5 by [$ desc];");
+    try {
+      query.evaluate();
+      fail();
+    } catch (ArithmeticException e) {
+      assertEquals("top expects an integer limit, but got 2.5", e.getMessage());
+    } finally {
+      query.close();
+    }
+  }
+
+  @Test
+  public void testClearRunsAtReset() throws Exception {
+    JsonSorter sorter = new JsonSorter(null, 4 * 1024);
+    for (int i = 0; i < NUM_VALUES; i++) {
+      sorter.add(new JsonLong(i % NUM_KEYS), new JsonLong(i));
+    }
+    sorter.sort();
+    Context context = new Context();
+    sorter.clearRunsAtReset(context);
+    JsonIterator iter = sorter.iter();
+    assertTrue(iter.moveNext()); // abandoned before the end
+    assertFalse(sorter.runs.isEmpty());
+    context.reset();
+    assertTrue(sorter.runs.isEmpty());
+  }
+
+  private void check(JsonSorter sorter, int expected) throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_VALUES; i++) {
+      // the value remembers the insertion order to check that the sort is stable
+      long key = random.nextInt(NUM_KEYS);
+      sorter.add(new JsonLong(key), new JsonLong(key * NUM_VALUES + i));
+    }
+    sorter.sort();
+    JsonIterator iter = sorter.iter();
+    long prev = -1;
+    int n = 0;
+    while (iter.moveNext()) {
+      JsonValue value = iter.current();
+      long x = ((JsonLong) value).get();
+      assertTrue(prev + " before " + x, prev < x);
+      prev = x;
+      n++;
+    }
+    assertEquals(expected, n);
+  }
+}
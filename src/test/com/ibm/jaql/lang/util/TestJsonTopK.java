@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.jaql.json.parser.JsonParser;
+import com.ibm.jaql.json.type.JsonLong;
+import com.ibm.jaql.json.util.JsonIterator;
+import com.ibm.jaql.lang.Jaql;
+import com.ibm.jaql.lang.JaqlQuery;
+import com.ibm.jaql.lang.expr.core.Expr;
+import com.ibm.jaql.lang.expr.core.SortExpr;
+
+public class TestJsonTopK {
+
+  private static final int NUM_VALUES = 20000;
+  private static final int NUM_KEYS = 1000;
+
+  @Test
+  public void testSameAsSorter() throws Exception {
+    for (int limit : new int[] { 1, 10, 500 }) {
+      JsonTopK top = new JsonTopK(null, limit);
+      JsonSorter sorter = new JsonSorter();
+      sorter.setLimit(limit);
+      Random random = new Random(42);
+      for (int i = 0; i < NUM_VALUES; i++) {
+        // the value remembers the insertion order to check that ties keep the first values
+        long key = random.nextInt(NUM_KEYS);
+        JsonLong value = new JsonLong(key * NUM_VALUES + i);
+        top.add(new JsonLong(key), value);
+        sorter.add(new JsonLong(key), value);
+      }
+      assertEquals(limit, top.size());
+      sorter.sort();
+      JsonIterator expected = sorter.iter();
+      JsonIterator actual = top.iter();
+      while (expected.moveNext()) {
+        assertTrue(actual.moveNext());
+        assertEquals(expected.current(), actual.current());
+      }
+      assertFalse(actual.moveNext());
+    }
+  }
+
+  @Test
+  public void testFewValues() throws Exception {
+    JsonTopK top = new JsonTopK(null, 5);
+    top.add(new JsonLong(2), new JsonLong(20));
+    top.add(new JsonLong(1), new JsonLong(10));
+    JsonIterator iter = top.iter();
+    assertTrue(iter.moveNext());
+    assertEquals(new JsonLong(10), iter.current());
+    assertTrue(iter.moveNext());
+    assertEquals(new JsonLong(20), iter.current());
+    assertFalse(iter.moveNext());
+  }
+
+  @Test
+  public void testSortThenTop() throws Exception {
+    String[][] queries = {
+        { "[3, 1, 2, 5, 4] -> sort by [$ desc] -> top 2", "[5, 4]" },
+        { "[3, 1, 2, 5, 4] -> sort by [$] -> slice(1, 2)", "[2, 3]" },
+        { "([3, 1, 2, 5, 4] -> sort by [$])[*:2]", "[1, 2, 3]" },
+        { "[[1, 'a'], [0, 'b'], [1, 'c'], [1, 'd']] -> sort by [$[0]] -> top 3",
+          "[[0, 'b'], [1, 'a'], [1, 'c']]" },
+        { "null -> sort by [$] -> top 2", "[]" },
+        { "['b', null, 2, 'a'] -> sort by [$] -> top 3", "[null, 'a', 'b']" } };
+    for (String[] q : queries) {
+      Jaql jaql = new Jaql(q[0] + ";");
+      assertTrue(q[0], hasTop(jaql.expr()));
+      jaql.close();
+      JaqlQuery query = new JaqlQuery(q[0] + ";");
+      assertEquals(q[0], new JsonParser().parse(q[1]), query.evaluate());
+      query.close();
+    }
+  }
+
+  private static boolean hasTop(Expr expr) {
+    if (expr instanceof SortExpr && ((SortExpr) expr).limitExpr() != null) {
+      return true;
+    }
+    for (int i = 0; i < expr.numChildren(); i++) {
+      if (hasTop(expr.child(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibm.jaql.json.type.JsonValue;
+import com.ibm.jaql.lang.JaqlQuery;
+
+public class TestMorselExecutor {
+
+  private static final String[] QUERIES = {
+    "range(1, 20000) -> transform $ * 2 -> filter mod($, 3) == 0 -> expand [$, -$]",
+    "range(1, 5000) -> transform { a: $, b: mod($, $x) } -> filter $.b == 1 -> transform $.a",
+    "( f = fn(v) v + $x, for (i in range(1, 3000)) [f(i)] )",
+    "range(1, 3000) -> transform (for (j in range(1, mod($, 5))) [j])",
+    // captured and constant strings are copied per thread; their representations are cached
+    "range(1, 5000) -> transform strcat($s, ' #', $) -> transform [strLen($), substring($, 0, 5)]",
+    "range(1, 5000) -> transform strcat('d\u00e9j\u00e0 ', $s, $) -> filter strLen($) > 15",
+  };
+
+  @After
+  public void tearDown() {
+    MorselExecutor.setParallelism(1);
+  }
+
+  @Test
+  public void testSameResults() throws Exception {
+    for (String query : QUERIES) {
+      MorselExecutor.setParallelism(1);
+      JsonValue expected = evaluate(query);
+      MorselExecutor.setParallelism(4);
+      JsonValue actual = evaluate(query);
+      assertEquals(query, expected, actual);
+    }
+  }
+
+  private JsonValue evaluate(String query) throws Exception {
+    JaqlQuery q = new JaqlQuery(query);
+    q.setVar("$x", 7);
+    q.setVar("$s", "caf\u00e9 au lait");
+    JsonValue result = q.evaluate();
+    q.close();
+    return result;
+  }
+}
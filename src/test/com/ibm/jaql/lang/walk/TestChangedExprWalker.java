@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.lang.walk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.ibm.jaql.lang.expr.core.ArrayExpr;
+import com.ibm.jaql.lang.expr.core.ConstExpr;
+import com.ibm.jaql.lang.expr.core.Expr;
+
+public class TestChangedExprWalker {
+
+  // [[1, 2], [3, [4, 5]]]
+  private final ConstExpr c1 = new ConstExpr(1), c2 = new ConstExpr(2), c3 = new ConstExpr(3),
+      c4 = new ConstExpr(4), c5 = new ConstExpr(5);
+  private final ArrayExpr a12 = new ArrayExpr(c1, c2), a45 = new ArrayExpr(c4, c5),
+      a345 = new ArrayExpr(c3, a45), root = new ArrayExpr(a12, a345);
+
+  @Test
+  public void testSameAsPostOrder() {
+    ChangedExprWalker walker = new ChangedExprWalker();
+    walker.reset(root, 1);
+    assertEquals(walk(new PostOrderExprWalker(root)), walk(walker));
+  }
+
+  @Test
+  public void testSkipUnchanged() {
+    ChangedExprWalker walker = new ChangedExprWalker();
+    walker.reset(root, 1);
+    for (Expr e = walker.next(); e != null; e = walker.next()) {
+      e.setRewriteStamp(1);
+    }
+    walker.reset();
+    assertEquals(0, walk(walker).size());
+
+    // a modification marks the path to the root as changed
+    ConstExpr c6 = new ConstExpr(6);
+    c4.replaceInParent(c6);
+    walker.reset();
+    ArrayList<Expr> changed = walk(walker);
+    assertEquals(4, changed.size());
+    assertSame(c6, changed.get(0));
+    assertSame(a45, changed.get(1));
+    assertSame(a345, changed.get(2));
+    assertSame(root, changed.get(3));
+
+    // a new stamp visits everything again
+    walker.reset(root, 2);
+    assertEquals(9, walk(walker).size());
+  }
+
+  private static ArrayList<Expr> walk(ExprWalker walker) {
+    ArrayList<Expr> list = new ArrayList<Expr>();
+    for (Expr e = walker.next(); e != null; e = walker.next()) {
+      list.add(e);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) IBM Corp. 2010.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.ibm.jaql.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPagedFile
+{
+  private static final int PAGE_SIZE = 256;
+
+  @Test
+  public void testPlain() throws Exception
+  {
+    check(false, 0);
+  }
+
+  @Test
+  public void testCompressed() throws Exception
+  {
+    SpillStats stats = check(true, 0);
+    assertTrue(stats.toString(), stats.getDiskBytes() < stats.getBytes() / 2);
+  }
+
+  @Test
+  public void testWriteBehind() throws Exception
+  {
+    check(false, 3);
+    check(true, 3);
+  }
+
+  @Test
+  public void testArenas() throws Exception
+  {
+    File tmp = new File(System.getProperty("java.io.tmpdir"));
+    File[] dirs = { new File(tmp, "jaql-spill-a" + System.nanoTime()),
+                    new File(tmp, "jaql-spill-b" + System.nanoTime()) };
+    final SpillManager manager = new SpillManager(dirs, 2, PAGE_SIZE, false, 0);
+    final PagedFile[] other = new PagedFile[1];
+    Thread t = new Thread() {
+      @Override
+      public void run()
+      {
+        other[0] = manager.arena();
+      }
+    };
+    // thread ids alternate between the two arenas
+    while( t.getId() % 2 == Thread.currentThread().getId() % 2 )
+    {
+      t = new Thread(t);
+    }
+    t.start();
+    t.join();
+    assertSame(manager.arena(), manager.arena());
+    assertNotSame(manager.arena(), other[0]);
+    assertEquals(PAGE_SIZE, other[0].pageSize());
+    // one page file per directory
+    assertEquals(1, dirs[0].list().length);
+    assertEquals(1, dirs[1].list().length);
+
+    try
+    {
+      manager.arena().clear();
+      assertTrue(false);
+    }
+    catch( IllegalStateException e )
+    {
+      // shared page files must not be cleared
+    }
+  }
+
+  /** Writes spill files, frees some of them, and reads them back. */
+  private SpillStats check(boolean compress, int writeBehind) throws Exception
+  {
+    File f = File.createTempFile("jaql-test-pagefile", ".dat");
+    f.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    PagedFile pf = new PagedFile(raf.getChannel(), PAGE_SIZE, compress, writeBehind);
+    SpillStats stats = new SpillStats();
+    SpillStats old = SpillStats.setCurrent(stats);
+    try
+    {
+      Random rnd = new Random(7);
+      SpillFile[] spills = new SpillFile[6];
+      byte[][] data = new byte[spills.length][];
+      for( int round = 0; round < 2; round++ )
+      {
+        for( int i = round; i < spills.length; i += round + 1 ) // all, then every other one
+        {
+          // runs of a few random bytes compress, the random tail does not
+          data[i] = new byte[1000 + 700 * i];
+          for( int j = 0; j < data[i].length; j++ )
+          {
+            data[i][j] = j < 3000 ? (byte)('a' + j / 50 % 3) : (byte)rnd.nextInt();
+          }
+          if( spills[i] == null )
+          {
+            spills[i] = new SpillFile(pf);
+          }
+          else
+          {
+            spills[i].clear(); // pages are reused
+          }
+          spills[i].write(data[i]);
+          spills[i].freeze();
+        }
+        for( int i = 0; i < spills.length; i++ )
+        {
+          byte[] read = new byte[data[i].length];
+          spills[i].getInput().readFully(read);
+          assertTrue(Arrays.equals(read, data[i]));
+        }
+      }
+      pf.flush();
+      assertTrue(stats.getPages() > 0);
+      assertEquals(stats.getPages() * PAGE_SIZE, stats.getBytes());
+      if( !compress )
+      {
+        assertEquals(stats.getBytes(), stats.getDiskBytes());
+      }
+    }
+    finally
+    {
+      SpillStats.setCurrent(old);
+      pf.close();
+      raf.close();
+    }
+    return stats;
+  }
+}